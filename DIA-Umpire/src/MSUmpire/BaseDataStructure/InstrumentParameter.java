@@ -25,6 +25,11 @@ import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
@@ -98,6 +103,65 @@ public class InstrumentParameter implements Serializable{
     public transient float MassDefectOffset=0.1f;
     public transient int MS2PairTopN=5;    
     public transient boolean MS2Pairing=true;
+    //Store centroided peaks in the scan index file so that later passes don't decode the spectral file again
+    public transient boolean CacheScanPeaks=false;
+    //Decode the MS2 scans of all DIA windows in one sequential pass into the scan index file before the windows are processed
+    public transient boolean DemultiplexDIAMS2=true;
+    //Heap (MB) that DIA windows being processed at the same time may take, 0: half of the maximum heap size
+    public transient int WindowHeapBudget=0;
+
+    //Fields which only change the precursor-fragment grouping of the DIA MS2 windows
+    private static final HashSet<String> GroupingFields = new HashSet<>(Arrays.asList("PrecursorRank", "FragmentRank", "RTOverlapThreshold", "CorrThreshold", "HighCorrThreshold", "MinHighCorrCnt"));
+    //Fields which only change the MS2 signal extraction
+    private static final HashSet<String> MS2Fields = new HashSet<>(Arrays.asList("MS2PPM", "MS2SNThreshold", "MinMSMSIntensity", "MS2StartCharge", "MS2EndCharge", "MaxMS2NoPeakCluster", "MinMS2NoPeakCluster"));
+    //Fields which don't change the peak data, only list a field here after checking all of its readers:
+    //pseudo MS/MS output (MinFrag, BoostComplementaryIon, AdjustFragIntensity), targeted re-extraction (RT_window_Targeted, UseOldVersion),
+    //how the scans are read and scheduled (CacheScanPeaks, DemultiplexDIAMS2, WindowHeapBudget)
+    //and NoPeakPerMin, which LCMSPeakMS1 derives from SmoothFactor and the MS1 cycle time of the data
+    private static final HashSet<String> OutputFields = new HashSet<>(Arrays.asList("MinFrag", "BoostComplementaryIon", "AdjustFragIntensity",
+            "RT_window_Targeted", "UseOldVersion", "CacheScanPeaks", "DemultiplexDIAMS2", "WindowHeapBudget", "NoPeakPerMin"));
+
+    //Parameter values used by the MS1 peak detection, for checkpoint manifests
+    public String GetMS1DetectionKey() {
+        return GetFieldKey(false, false);
+    }
+
+    //Parameter values used by the MS2 peak curve detection of a DIA window
+    public String GetMS2DetectionKey() {
+        return GetFieldKey(true, false);
+    }
+
+    //Parameter values used by the precursor-fragment grouping of a DIA window
+    public String GetGroupingKey() {
+        return GetFieldKey(true, true);
+    }
+
+    //"name=value;" of the instance fields in name order, fields which are not listed above are part of every key
+    private String GetFieldKey(boolean MS2, boolean Grouping) {
+        Field[] fields = InstrumentParameter.class.getFields();
+        Arrays.sort(fields, new Comparator<Field>() {
+            @Override
+            public int compare(Field x, Field y) {
+                return x.getName().compareTo(y.getName());
+            }
+        });
+        StringBuilder key = new StringBuilder();
+        for (Field field : fields) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            String name = field.getName();
+            if (OutputFields.contains(name) || (!MS2 && MS2Fields.contains(name)) || (!Grouping && GroupingFields.contains(name))) {
+                continue;
+            }
+            try {
+                key.append(name).append("=").append(field.get(this)).append(";");
+            } catch (IllegalAccessException ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            }
+        }
+        return key.toString();
+    }
     
     
     public void WriteParamSerialization(String mzXMLFileName) {
@@ -0,0 +1,70 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.BaseDataStructure;
+
+/**
+ * Signal resampled on a fixed RT grid (bins of 2/NoPointPerMin minutes counted
+ * from RT 0), so all the peak curves of a file (MS1 and every DIA window) share
+ * the same bin boundaries and two signals can be compared bin by bin.
+ * Signal[i] is the max intensity of grid bin Offset+i, empty bins inside the
+ * signal are filled with the mean of their neighbours.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class RTGridSignal {
+
+    public final int NoPointPerMin;
+    public final float Interval;
+    public final int Offset;
+    public final float[] Signal;
+
+    public RTGridSignal(SortedXYCollectionClass Data, int NoPointPerMin) {
+        this.NoPointPerMin = NoPointPerMin;
+        this.Interval = 2f / (float) NoPointPerMin;
+        if (Data.size() == 0) {
+            Offset = 0;
+            Signal = new float[0];
+            return;
+        }
+        Offset = GridIndex(Data.GetX(0));
+        Signal = new float[GridIndex(Data.GetX(Data.size() - 1)) - Offset + 1];
+        for (int j = 0; j < Data.size(); j++) {
+            int i = GridIndex(Data.GetX(j)) - Offset;
+            float y = Data.GetY(j);
+            if (y > Signal[i]) {
+                Signal[i] = y;
+            }
+        }
+        for (int i = 1; i < Signal.length - 1; i++) {
+            if (Signal[i] == 0f) {
+                Signal[i] = (Signal[i - 1] + Signal[i + 1]) / 2;
+            }
+        }
+    }
+
+    //Grid bin of the RT
+    public int GridIndex(float rt) {
+        return (int) Math.floor(rt / Interval);
+    }
+
+    //Grid index after the last bin
+    public int EndIndex() {
+        return Offset + Signal.length;
+    }
+}
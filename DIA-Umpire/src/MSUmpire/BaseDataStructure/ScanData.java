@@ -71,12 +71,12 @@ public class ScanData extends XYPointCollection{
         int startidx = GetLowerIndexOfX(lowmz);
         XYData closetPeak = null;
         for (int idx = startidx; idx < Data.size(); idx++) {
-            XYData peak = Data.get(idx);
-            if (InstrumentParameter.CalcPPM(targetmz, peak.getX()) <= PPM) {
-                if (closetPeak == null || peak.getY() > closetPeak.getY()) {
-                    closetPeak = peak;
+            float mz = Data.GetX(idx);
+            if (InstrumentParameter.CalcPPM(targetmz, mz) <= PPM) {
+                if (closetPeak == null || Data.GetY(idx) > closetPeak.getY()) {
+                    closetPeak = Data.get(idx);
                 }
-            } else if (peak.getX() > targetmz) {
+            } else if (mz > targetmz) {
                 break;
             }
         }
@@ -84,32 +84,30 @@ public class ScanData extends XYPointCollection{
     }
     
     public void GenerateTopPeakScanData(int toppeaks) {
-        SortedXYCollectionClass Intsorted = new SortedXYCollectionClass();
-        for (int i = 0; i < Data.size; i++) {
-            Intsorted.add(new XYData(Data.get(i).getY(), Data.get(i).getX()));
+        SortedXYCollectionClass Intsorted = new SortedXYCollectionClass(Data.size());
+        for (int i = 0; i < Data.size(); i++) {
+            Intsorted.add(Data.GetY(i), Data.GetX(i));
         }
         TopPeakScan = new ScanData();
         for (int i = Intsorted.size() - 1; TopPeakScan.PointCount() < toppeaks && i >= 0; i--) {
-            XYData peak = (XYData) Intsorted.get(i);
-            TopPeakScan.AddPoint(new XYData(peak.getY(), peak.getX()));
+            TopPeakScan.AddPoint(Intsorted.GetY(i), Intsorted.GetX(i));
         }
     }
 
     public void Normalization() {
         if (MaxY != 0) {
             for (int i = 0; i < PointCount(); i++) {
-                XYData pt = Data.get(i);
-                pt.setY(pt.getY() / MaxY);
+                Data.SetY(i, Data.GetY(i) / MaxY);
             }
         }
     }
    
 
     public void RemoveSignalBelowBG() {
-        SortedXYCollectionClass newData = new SortedXYCollectionClass();
+        SortedXYCollectionClass newData = new SortedXYCollectionClass(Data.size());
         for (int i = 0; i < Data.size(); i++) {
-            if (Data.get(i).getY() > background) {
-                newData.add(Data.get(i));
+            if (Data.GetY(i) > background) {
+                newData.add(Data.GetX(i), Data.GetY(i));
             }
         }
         Data.clear();
@@ -120,7 +118,7 @@ public class ScanData extends XYPointCollection{
     public float TotIonCurrent() {
         if (_totIonCurrent == 0f) {
             for (int i = 0; i < PointCount(); i++) {
-                _totIonCurrent += Data.get(i).getY();
+                _totIonCurrent += Data.GetY(i);
             }
         }
         return _totIonCurrent;
@@ -130,10 +128,15 @@ public class ScanData extends XYPointCollection{
         _totIonCurrent = totioncurrent;
     }
 
+    //Total ion current as read from the spectral file, 0 if it is to be calculated from the peaks
+    public float GetTotIonCurrentValue() {
+        return _totIonCurrent;
+    }
+
     public ScanData CloneScanData() {
         ScanData newscanData = new ScanData();
-        for (XYData pt : Data) {
-            newscanData.AddPoint(pt);
+        for (int i = 0; i < Data.size(); i++) {
+            newscanData.AddPoint(Data.GetX(i), Data.GetY(i));
         }
         newscanData.ScanNum = ScanNum;
         newscanData.MsLevel = MsLevel;
@@ -164,7 +167,7 @@ public class ScanData extends XYPointCollection{
      
          ArrayList<Float> IntList = new ArrayList<>();
         for (int i = 0; i < Data.size(); i++) {
-            IntList.add(Data.get(i).getY());
+            IntList.add(Data.GetY(i));
         }
         Collections.sort(IntList);
         if(IntList.size()>10){
@@ -22,120 +22,283 @@ package MSUmpire.BaseDataStructure;
  * 
  */
 
-import ExternalPackages.SortedListLib.SortedList;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /** 
  * Sorted collection of XYData, sorted by x value
+ * Points are stored column-wise in two primitive float arrays instead of one
+ * XYData object per point. Points can be added in any order, they are sorted
+ * (stable, by x) on first access. get() returns a copy of the point, use 
+ * SetY/SetPoint to change a stored point.
+ * The lazy sort is guarded for readers on several threads: the sort itself is 
+ * synchronized and SortedCount is volatile and written after the points are 
+ * in place, points must still not be added while other threads read.
  * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
  */
-public class SortedXYCollectionClass extends SortedList<XYData> implements Serializable{
+public class SortedXYCollectionClass implements Iterable<XYData>, Serializable{
+    //Kept from the tree based layout, readObject reads both layouts
     private static final long serialVersionUID = 65464643184541L;
 
-    private float[][] SortedArray;
+    private static final int INITIAL_CAPACITY = 16;
+    private transient float[] X;
+    private transient float[] Y;
     public int size;
+    //Number of leading points which are already sorted by x
+    private transient volatile int SortedCount;
+    private boolean Finalized = false;
 
     public SortedXYCollectionClass() {
-        super(new Comparator<XYData>() {
-            @Override
-            public int compare(XYData x, XYData y) {
-                return -x.compareTo(y);
-            }
-        });
+        X = new float[INITIAL_CAPACITY];
+        Y = new float[INITIAL_CAPACITY];
+    }
+
+    public SortedXYCollectionClass(int capacity) {
+        X = new float[Math.max(capacity, 1)];
+        Y = new float[Math.max(capacity, 1)];
+    }
+
+    //Wraps columns of points which are already sorted by x (stable), the arrays are not copied
+    public SortedXYCollectionClass(float[] X, float[] Y, boolean Finalized) {
+        this.X = X.length == 0 ? new float[1] : X;
+        this.Y = Y.length == 0 ? new float[1] : Y;
+        this.size = X.length;
+        this.SortedCount = X.length;
+        this.Finalized = Finalized;
+    }
+
+    public boolean IsFinalized() {
+        return Finalized;
     }
 
-    @Override
     public boolean isEmpty() {
-        if (!Finalized) {
-            return getRoot() == null;
-        }
         return size == 0;
     }
 
     /**
      * Removes all elements from the list, leaving it empty.
      */
-    @Override
     public void clear() {
-        FinalizedSortedArray = null;
-        SortedArray = null;
+        X = new float[INITIAL_CAPACITY];
+        Y = new float[INITIAL_CAPACITY];
+        size = 0;
+        SortedCount = 0;
     }
 
-    public Object[] toArray(){
+    public boolean add(XYData point) {
+        if (point == null) {
+            return false;
+        }
+        return add(point.getX(), point.getY());
+    }
+
+    public boolean add(float x, float y) {
         if (Finalized) {
-            XYData[] arr = new XYData[size];
-            for (int i = 0; i < size; i++) {
-                arr[i] = get(i);
-            }
-            return arr;
-        }        
-        return super.toArray();
+            System.out.print("The array is finalized, insertion is prohibited.");
+            return false;
+        }
+        if (size == X.length) {
+            int capacity = size + (size >> 1) + 1;
+            X = Arrays.copyOf(X, capacity);
+            Y = Arrays.copyOf(Y, capacity);
+        }
+        X[size] = x;
+        Y[size] = y;
+        if (SortedCount == size && (size == 0 || Float.compare(X[size - 1], x) <= 0)) {
+            SortedCount++;
+        }
+        size++;
+        return true;
     }
-    
-    public Iterator<XYData> iterator() {
-        if (Finalized) {                        
-            return (Iterator<XYData>) Arrays.asList((XYData[])toArray()).iterator();
+
+    //Value based (x) lookup
+    public boolean contains(XYData point) {
+        if (Finalized) {
+            System.out.print("The array is finalized, operation of tree structure is prohibited.");
+            return false;
         }
-        return super.iterator();
+        return point != null && IndexOfX(point.getX()) >= 0;
     }
-    private synchronized void writeObject(java.io.ObjectOutputStream stream) throws java.io.IOException {
-        if (!Finalized) {
-            Finalize();
+
+    //Removes the first point which has the same x value
+    public boolean remove(XYData point) {
+        if (Finalized) {
+            System.out.print("The array is finalized, operation of tree structure is prohibited.");
+            return false;
+        }
+        if (point == null) {
+            return false;
+        }
+        int index = IndexOfX(point.getX());
+        if (index < 0) {
+            return false;
         }
+        System.arraycopy(X, index + 1, X, index, size - index - 1);
+        System.arraycopy(Y, index + 1, Y, index, size - index - 1);
+        size--;
+        SortedCount--;
+        return true;
+    }
+
+    private int IndexOfX(float x) {
+        EnsureSorted();
+        int index = Arrays.binarySearch(X, 0, size, x);
+        if (index < 0) {
+            return -1;
+        }
+        while (index > 0 && Float.compare(X[index - 1], x) == 0) {
+            index--;
+        }
+        return index;
+    }
+
+    public Iterator<XYData> iterator() {
+        EnsureSorted();
+        return new Iterator<XYData>() {
+            int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public XYData next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                XYData point = new XYData(X[index], Y[index]);
+                index++;
+                return point;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private synchronized void writeObject(java.io.ObjectOutputStream stream) throws java.io.IOException {
+        EnsureSorted();
         stream.defaultWriteObject();
-        stream.writeInt(size);
         for (int i = 0; i < size; i++) {
-            stream.writeFloat(SortedArray[0][i]);
-            stream.writeFloat(SortedArray[1][i]);
-            //stream.writeObject(get(i));
+            stream.writeFloat(X[i]);
+            stream.writeFloat(Y[i]);
         }
     }
+
     private void readObject(java.io.ObjectInputStream in) throws ClassNotFoundException, IOException {
-        in.defaultReadObject();
-        Finalized = true;
-        size=in.readInt();
-        SortedArray = new float[2][size];
-        for (int i = 0; i < size; i++) {            
-            //XYData xy = (XYData) in.readObject();
-//            SortedArray[0][i] = xy.getX();
-//            SortedArray[1][i] = xy.getY();
-            SortedArray[0][i] = in.readFloat();
-            SortedArray[1][i] = in.readFloat();
-        }
-    }
-    
-    @Override
+        java.io.ObjectInputStream.GetField fields = in.readFields();
+        size = fields.get("size", 0);
+        Finalized = fields.get("Finalized", false);
+        if (fields.getObjectStreamClass().getField("SortedArray") != null) {
+            //Tree based layout: finalized points in a float[2][] field, followed by the count and the points
+            size = in.readInt();
+            Finalized = true;
+        }
+        X = new float[Math.max(size, 1)];
+        Y = new float[Math.max(size, 1)];
+        for (int i = 0; i < size; i++) {
+            X[i] = in.readFloat();
+            Y[i] = in.readFloat();
+        }
+        SortedCount = size;
+    }
+
+    //Sorts the points and trims the arrays, no more points can be added afterwards
     public void Finalize() {
-        FinalizedSortedArray = toArray();
-        ClearTree();
+        EnsureSorted();
+        if (X.length != size) {
+            X = Arrays.copyOf(X, size);
+            Y = Arrays.copyOf(Y, size);
+        }
         Finalized = true;
-        size = FinalizedSortedArray.length;
-        SortedArray = new float[2][size];
-        for (int i = 0; i < size; i++) {
-            XYData xy = (XYData) FinalizedSortedArray[i];
-            SortedArray[0][i] = xy.getX();
-            SortedArray[1][i] = xy.getY();
+    }
+
+    private void EnsureSorted() {
+        if (SortedCount != size) {
+            Sort();
         }
-        FinalizedSortedArray = null;
     }
 
-    @Override
+    //Sort the unsorted tail (stable, by x) and merge it into the sorted head
+    private synchronized void Sort() {
+        if (SortedCount == size) {
+            return;
+        }
+        int head = SortedCount;
+        int tail = size - head;
+        long[] keys = new long[tail];
+        for (int i = 0; i < tail; i++) {
+            keys[i] = ((long) SortableBits(X[head + i]) << 32) | i;
+        }
+        Arrays.sort(keys);
+        float[] tailX = new float[tail];
+        float[] tailY = new float[tail];
+        for (int i = 0; i < tail; i++) {
+            int idx = (int) keys[i];
+            tailX[i] = X[head + idx];
+            tailY[i] = Y[head + idx];
+        }
+        int i = head - 1;
+        int j = tail - 1;
+        int k = size - 1;
+        while (j >= 0) {
+            if (i >= 0 && Float.compare(X[i], tailX[j]) > 0) {
+                X[k] = X[i];
+                Y[k] = Y[i];
+                i--;
+            } else {
+                X[k] = tailX[j];
+                Y[k] = tailY[j];
+                j--;
+            }
+            k--;
+        }
+        SortedCount = size;
+    }
+
+    //Float bits as an int with the same ordering as Float.compare
+    private static int SortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
     public XYData get(int index) {
-        if (Finalized) {
-            return new XYData(SortedArray[0][index], SortedArray[1][index]);
+        EnsureSorted();
+        if (index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
         }
-        return (XYData) findNodeAtIndex(index).getValue();
+        return new XYData(X[index], Y[index]);
+    }
+
+    public float GetX(int index) {
+        EnsureSorted();
+        return X[index];
+    }
+
+    public float GetY(int index) {
+        EnsureSorted();
+        return Y[index];
+    }
+
+    public void SetY(int index, float y) {
+        EnsureSorted();
+        Y[index] = y;
+    }
+
+    //Replace a point, x must not move the point past its neighbours
+    public void SetPoint(int index, float x, float y) {
+        EnsureSorted();
+        X[index] = x;
+        Y[index] = y;
     }
 
-    @Override
     public int size() {
-        if (!Finalized) {
-            return (getRoot() == null) ? 0 : 1 + getRoot().GetNumOfChildren();
-        }
         return size;
     }
 
@@ -147,21 +310,22 @@ public class SortedXYCollectionClass extends SortedList<XYData> implements Seria
         if (isEmpty()) {
             return 0;
         }
+        EnsureSorted();
         int lower = 0;
-        int upper = size() - 1;
+        int upper = size - 1;
 
-        if (value - get(upper).getX() >= 0) {
+        if (value - X[upper] >= 0) {
             return upper;
         }
-        if (value - get(0).getX() <= 0) {
+        if (value - X[0] <= 0) {
             return 0;
         }
 
         while (lower <= upper) {
             int middle = (lower + upper) / 2;
-            float comparisonResult = value - get(middle).getX();
+            float comparisonResult = value - X[middle];
             if (comparisonResult == 0) {
-                while (middle - 1 >= 0 && get(middle - 1).getX() == value) {
+                while (middle - 1 >= 0 && X[middle - 1] == value) {
                     middle--;
                 }
                 return middle;
@@ -171,10 +335,10 @@ public class SortedXYCollectionClass extends SortedList<XYData> implements Seria
                 lower = middle + 1;
             }
         }
-        if (lower > size() - 1) {
-            return size() - 1;
+        if (lower > size - 1) {
+            return size - 1;
         }
-        while (lower < size() - 1 && get(lower).getX() <= value) {
+        while (lower < size - 1 && X[lower] <= value) {
             lower++;
         }
         return lower;
@@ -184,21 +348,22 @@ public class SortedXYCollectionClass extends SortedList<XYData> implements Seria
         if (isEmpty()) {
             return 0;
         }
+        EnsureSorted();
         int lower = 0;
-        int upper = size() - 1;
+        int upper = size - 1;
 
-        if (value - get(upper).getX() >= 0) {
+        if (value - X[upper] >= 0) {
             return upper;
         }
-        if (value - get(0).getX() <= 0) {
+        if (value - X[0] <= 0) {
             return 0;
         }
 
         while (lower <= upper) {
             int middle = (lower + upper) / 2;
-            float comparisonResult = value - get(middle).getX();
+            float comparisonResult = value - X[middle];
             if (comparisonResult == 0) {
-                while (middle - 1 >= 0 && get(middle - 1).getX() == value) {
+                while (middle - 1 >= 0 && X[middle - 1] == value) {
                     middle--;
                 }
                 return middle;
@@ -211,7 +376,7 @@ public class SortedXYCollectionClass extends SortedList<XYData> implements Seria
         if (upper < 0) {
             return 0;
         }
-        while (upper > 0 && get(upper).getX() >= value) {
+        while (upper > 0 && X[upper] >= value) {
             upper--;
         }
         return upper;
@@ -222,19 +387,20 @@ public class SortedXYCollectionClass extends SortedList<XYData> implements Seria
         if (isEmpty()) {
             return 0;
         }
+        EnsureSorted();
         int lower = 0;
-        int upper = size() - 1;
+        int upper = size - 1;
 
-        if (value - get(upper).getX() >= 0) {
+        if (value - X[upper] >= 0) {
             return upper;
         }
-        if (value - get(0).getX() <= 0) {
+        if (value - X[0] <= 0) {
             return 0;
         }
 
         while (lower <= upper) {
             int middle = (lower + upper) / 2;
-            float comparisonResult = value - get(middle).getX();
+            float comparisonResult = value - X[middle];
             if (comparisonResult == 0) {
                 return middle;
             } else if (comparisonResult < 0) {
@@ -244,7 +410,7 @@ public class SortedXYCollectionClass extends SortedList<XYData> implements Seria
             }
         }
 
-        if (Math.abs(value - get(lower).getX()) > Math.abs(value - get(upper).getX())) {
+        if (Math.abs(value - X[lower]) > Math.abs(value - X[upper])) {
             return upper;
         } else {
             return lower;
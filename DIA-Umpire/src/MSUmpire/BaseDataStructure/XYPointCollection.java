@@ -40,25 +40,29 @@ public class XYPointCollection implements Disposable,Serializable {
         Data = new SortedXYCollectionClass();
     }
 
+    public XYPointCollection(int Capacity) {
+        Data = new SortedXYCollectionClass(Capacity);
+    }
+
     public float GetSumX(){
         float sum=0f;
-        for(XYData point : Data){
-            sum+=point.getX();
+        for (int i = 0; i < Data.size(); i++) {
+            sum += Data.GetX(i);
         }
         return sum;
     }
     
     public float GetSumY(){
         float sum=0f;
-        for(XYData point : Data){
-            sum+=point.getY();
+        for (int i = 0; i < Data.size(); i++) {
+            sum += Data.GetY(i);
         }
         return sum;
     }
     
         
     public void AddPoint(float x, float y) {
-        this.Data.add(new XYData(x, y));
+        this.Data.add(x, y);
         if (MaxY < y) {
             MaxY = y;
         }
@@ -68,12 +72,10 @@ public class XYPointCollection implements Disposable,Serializable {
         boolean insert = true;
         if (this.Data.size() > 0) {
             int idx = GetClosetIndexOfX(x);
-            XYData pt = Data.get(idx);
-            if (InstrumentParameter.CalcPPM(pt.getX(),x)<ppm) {
+            if (InstrumentParameter.CalcPPM(Data.GetX(idx),x)<ppm) {
                 insert = false;
-                if (y < pt.getY()) {
-                    pt.setY(y);
-                    pt.setX(x);
+                if (y < Data.GetY(idx)) {
+                    Data.SetPoint(idx, x, y);
                 }
                 if (MaxY < y) {
                     MaxY = y;
@@ -89,11 +91,10 @@ public class XYPointCollection implements Disposable,Serializable {
         boolean insert = true;
         if (this.Data.size() > 0) {
             int idx = GetClosetIndexOfX(x);
-            XYData pt = Data.get(idx);
-            if (pt.getX() == x) {
+            if (Data.GetX(idx) == x) {
                 insert = false;
-                if (y < pt.getY()) {
-                    pt.setY(y);
+                if (y < Data.GetY(idx)) {
+                    Data.SetY(idx, y);
                 }
                 if (MaxY < y) {
                     MaxY = y;
@@ -106,7 +107,7 @@ public class XYPointCollection implements Disposable,Serializable {
     }
 
     public void AddPoint(XYData point) {
-        this.Data.add(point);
+        this.Data.add(point.getX(), point.getY());
         if (MaxY < point.getY()) {
             MaxY = point.getY();
         }
@@ -123,24 +124,24 @@ public class XYPointCollection implements Disposable,Serializable {
         int oldcount = Data.size();
         SortedXYCollectionClass DataTemp = Data;
         int startindex=DataTemp.BinarySearchHigher(MinMZ);
-        XYData pt = DataTemp.get(startindex);
-        float maxintensity = pt.getY();
-        float maxmz = pt.getX();
-        float gap = pt.getX() / Resolution;
-        Data = new SortedXYCollectionClass();
+        float maxintensity = DataTemp.GetY(startindex);
+        float maxmz = DataTemp.GetX(startindex);
+        float gap = maxmz / Resolution;
+        Data = new SortedXYCollectionClass(oldcount - startindex);
         for (int i = startindex+1; i < oldcount; i++) {
-            XYData pti = DataTemp.get(i);
-            if (pti.getX() - maxmz < gap) {
-                if (pti.getY() > maxintensity) {
-                    maxintensity = pti.getY();
-                    maxmz = pti.getX();
-                    gap = pti.getX() / Resolution;
+            float x = DataTemp.GetX(i);
+            float y = DataTemp.GetY(i);
+            if (x - maxmz < gap) {
+                if (y > maxintensity) {
+                    maxintensity = y;
+                    maxmz = x;
+                    gap = x / Resolution;
                 }
             } else {
                 AddPoint(maxmz, maxintensity);
-                maxintensity = pti.getY();
-                maxmz = pti.getX();
-                gap = pti.getX() / Resolution;
+                maxintensity = y;
+                maxmz = x;
+                gap = x / Resolution;
             }
         }
         DataTemp.clear();
@@ -185,9 +186,9 @@ public class XYPointCollection implements Disposable,Serializable {
         }
 
         for (int i = start; i < PointCount(); i++) {
-            float x = Data.get(i).getX();
+            float x = Data.GetX(i);
             if (x >= xlower && x <= xupper) {
-                NewXYCollection.AddPoint(x, Data.get(i).getY());
+                NewXYCollection.AddPoint(x, Data.GetY(i));
             } else if (x > xupper) {
                 break;
             }
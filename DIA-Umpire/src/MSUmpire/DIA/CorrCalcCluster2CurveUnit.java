@@ -23,71 +23,112 @@ import MSUmpire.PeakDataStructure.PrecursorFragmentPairEdge;
 import MSUmpire.BaseDataStructure.InstrumentParameter;
 import MSUmpire.PeakDataStructure.PeakCluster;
 import MSUmpire.PeakDataStructure.PeakCurve;
-import MSUmpire.PeakDataStructure.SortedCurveCollectionApexRT;
+import MSUmpire.PeakDataStructure.SortedCurveArrayApexRT;
 import MSUmpire.PeptidePeakClusterDetection.PeakCurveCorrCalc;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Thread unit for calculating peak profile correlation between a PeakCluster and all coeluting peak curves 
+ * Thread unit for calculating peak profile correlation between a block of PeakClusters and all coeluting peak curves 
+ * The clusters of a block are sorted by peak height RT, the RT range of peak curves for each cluster is 
+ * found by sweeping two pointers over the curves sorted by apex RT instead of searching for every cluster.
  * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
  */
 public class CorrCalcCluster2CurveUnit implements Runnable {
 
-    public PeakCluster MS1PeakCluster;
-    private SortedCurveCollectionApexRT PeakCurveSortedListApexRT;
+    public List<PeakCluster> MS1PeakClusters;
+    private SortedCurveArrayApexRT PeakCurveSortedArrayApexRT;
     InstrumentParameter parameter;    
-    public ArrayList<PrecursorFragmentPairEdge> GroupedFragmentList = new ArrayList<>();
+    //Grouped fragments of each cluster, in the order of MS1PeakClusters
+    public ArrayList<ArrayList<PrecursorFragmentPairEdge>> GroupedFragmentLists = new ArrayList<>();
     
 
-    public CorrCalcCluster2CurveUnit(PeakCluster MS1PeakCluster, SortedCurveCollectionApexRT PeakCurveSortedListApexRT, InstrumentParameter parameter) {
-        this.MS1PeakCluster = MS1PeakCluster;
-        this.PeakCurveSortedListApexRT = PeakCurveSortedListApexRT;
+    public CorrCalcCluster2CurveUnit(List<PeakCluster> MS1PeakClusters, SortedCurveArrayApexRT PeakCurveSortedArrayApexRT, InstrumentParameter parameter) {
+        this.MS1PeakClusters = MS1PeakClusters;
+        this.PeakCurveSortedArrayApexRT = PeakCurveSortedArrayApexRT;
         this.parameter = parameter;
     }
 
     @Override
     public void run() {
+        if (MS1PeakClusters.isEmpty()) {
+            return;
+        }
+        //Sweep pointers: number of peak curves with apex RT below the start of the RT range and not above its end
+        float firstRT = MS1PeakClusters.get(0).PeakHeightRT[0];
+        int below = PeakCurveSortedArrayApexRT.CountBelow(firstRT - parameter.ApexDelta);
+        int notabove = PeakCurveSortedArrayApexRT.CountNotAbove(firstRT + parameter.ApexDelta);
+        float[] ApexRT = PeakCurveSortedArrayApexRT.ApexRT;
+        int size = PeakCurveSortedArrayApexRT.size();
+
+        for (PeakCluster MS1PeakCluster : MS1PeakClusters) {
+            ArrayList<PrecursorFragmentPairEdge> GroupedFragmentList = new ArrayList<>();
+            GroupedFragmentLists.add(GroupedFragmentList);
+            if (size == 0) {
+                continue;
+            }
+            float lowRT = MS1PeakCluster.PeakHeightRT[0] - parameter.ApexDelta;
+            float highRT = MS1PeakCluster.PeakHeightRT[0] + parameter.ApexDelta;
+            while (below < size && ApexRT[below] < lowRT) {
+                below++;
+            }
+            while (notabove < size && ApexRT[notabove] <= highRT) {
+                notabove++;
+            }
+            //Get Start and End indices of peak curves which are in the RT range
+            int startRTidx = PeakCurveSortedArrayApexRT.BinarySearchLower(lowRT, below);
+            int endRTidx = PeakCurveSortedArrayApexRT.BinarySearchHigher(highRT, notabove);
+            GroupFragments(MS1PeakCluster, startRTidx, endRTidx, GroupedFragmentList);
+        }
+    }
 
-        //Get Start and End indices of peak curves which are in the RT range
-        int startRTidx = PeakCurveSortedListApexRT.BinarySearchLower(MS1PeakCluster.PeakHeightRT[0] - parameter.ApexDelta);
-        int endRTidx = PeakCurveSortedListApexRT.BinarySearchHigher(MS1PeakCluster.PeakHeightRT[0] + parameter.ApexDelta);
+    private void GroupFragments(PeakCluster MS1PeakCluster, int startRTidx, int endRTidx, ArrayList<PrecursorFragmentPairEdge> GroupedFragmentList) {
         PeakCurve targetMS1Curve = MS1PeakCluster.MonoIsotopePeak;
+        float[] StartRT = PeakCurveSortedArrayApexRT.StartRT;
+        float[] EndRT = PeakCurveSortedArrayApexRT.EndRT;
+        float[] ApexRT = PeakCurveSortedArrayApexRT.ApexRT;
+        float[] TargetMz = PeakCurveSortedArrayApexRT.TargetMz;
+        float NeutralMass = MS1PeakCluster.NeutralMass();
+        float ms1StartRT = targetMS1Curve.StartRT();
+        float ms1EndRT = targetMS1Curve.EndRT();
 
         //Calculate RT range of the peak cluster
-        float ms1rtrange = targetMS1Curve.EndRT() - targetMS1Curve.StartRT();
+        float ms1rtrange = ms1EndRT - ms1StartRT;
         int highCorrCnt = 0;
         
         //For each peak curve
         for (int idx = startRTidx; idx <= endRTidx; idx++) {
-            PeakCurve peakCurve = PeakCurveSortedListApexRT.get(idx);
-            if(peakCurve.TargetMz>MS1PeakCluster.NeutralMass()){
+            if (TargetMz[idx] > NeutralMass) {
                 continue;
             }
+            float curveStartRT = StartRT[idx];
+            float curveEndRT = EndRT[idx];
             //RT range of the peak curve
-            float peakcurvertrange = peakCurve.EndRT() - peakCurve.StartRT();
+            float peakcurvertrange = curveEndRT - curveStartRT;
             
             //Overlap ratio
             float OverlapP = 0f;
-            if (targetMS1Curve.StartRT() >= peakCurve.StartRT() && targetMS1Curve.StartRT() <= peakCurve.EndRT() && targetMS1Curve.EndRT() >= peakCurve.EndRT()) {
-                OverlapP = (peakCurve.EndRT() - targetMS1Curve.StartRT()) / ms1rtrange;
-            } else if (targetMS1Curve.EndRT() >= peakCurve.StartRT() && targetMS1Curve.EndRT() <= peakCurve.EndRT() && targetMS1Curve.StartRT() <= peakCurve.StartRT()) {
-                OverlapP = (targetMS1Curve.EndRT() - peakCurve.StartRT()) / ms1rtrange;
-            } else if (targetMS1Curve.StartRT() <= peakCurve.StartRT() && targetMS1Curve.EndRT() >= peakCurve.EndRT()) {
+            if (ms1StartRT >= curveStartRT && ms1StartRT <= curveEndRT && ms1EndRT >= curveEndRT) {
+                OverlapP = (curveEndRT - ms1StartRT) / ms1rtrange;
+            } else if (ms1EndRT >= curveStartRT && ms1EndRT <= curveEndRT && ms1StartRT <= curveStartRT) {
+                OverlapP = (ms1EndRT - curveStartRT) / ms1rtrange;
+            } else if (ms1StartRT <= curveStartRT && ms1EndRT >= curveEndRT) {
                 OverlapP = peakcurvertrange / ms1rtrange;
-            } else if (targetMS1Curve.StartRT() >= peakCurve.StartRT() && targetMS1Curve.EndRT() <= peakCurve.EndRT()) {
+            } else if (ms1StartRT >= curveStartRT && ms1EndRT <= curveEndRT) {
                 OverlapP = 1;
             }
             
             if (OverlapP > parameter.RTOverlapThreshold 
-                    && targetMS1Curve.ApexRT >= peakCurve.StartRT() 
-                    && targetMS1Curve.ApexRT <= peakCurve.EndRT() 
-                    && peakCurve.ApexRT >= targetMS1Curve.StartRT() 
-                    && peakCurve.ApexRT <= targetMS1Curve.EndRT()) {
+                    && targetMS1Curve.ApexRT >= curveStartRT 
+                    && targetMS1Curve.ApexRT <= curveEndRT 
+                    && ApexRT[idx] >= ms1StartRT 
+                    && ApexRT[idx] <= ms1EndRT) {
+                PeakCurve peakCurve = PeakCurveSortedArrayApexRT.Curves[idx];
                 float corr = 0f;
-                float ApexDiff = Math.abs(targetMS1Curve.ApexRT - peakCurve.ApexRT);
+                float ApexDiff = Math.abs(targetMS1Curve.ApexRT - ApexRT[idx]);
                 try {
                     //Calculate pearson correlation
                     corr = PeakCurveCorrCalc.CalPeakCorr(targetMS1Curve, peakCurve, parameter.NoPeakPerMin);
@@ -99,13 +140,11 @@ public class CorrCalcCluster2CurveUnit implements Runnable {
                     PrecursorFragmentPairEdge PrecursorFragmentPair = new PrecursorFragmentPairEdge();
                     PrecursorFragmentPair.Correlation = corr;
                     PrecursorFragmentPair.PeakCurveIndexA = MS1PeakCluster.Index;
-                    //float intensity = peakCurve.GetMaxIntensityByRegionRange(targetMS1Curve.StartRT(), targetMS1Curve.EndRT());
                     PrecursorFragmentPair.PeakCurveIndexB = peakCurve.Index;
-                    PrecursorFragmentPair.FragmentMz = peakCurve.TargetMz;
+                    PrecursorFragmentPair.FragmentMz = TargetMz[idx];
                     PrecursorFragmentPair.Intensity = peakCurve.ApexInt;
                     PrecursorFragmentPair.RTOverlapP = OverlapP;
                     PrecursorFragmentPair.ApexDelta = ApexDiff;
-                    //FragmentPeaks.put(peakCurve.Index, peakCurve);
                     GroupedFragmentList.add(PrecursorFragmentPair);
                     if(PrecursorFragmentPair.Correlation>parameter.HighCorrThreshold){
                         highCorrCnt++;
@@ -34,9 +34,13 @@ import MSUmpire.PeakDataStructure.PeakCluster;
 import MSUmpire.PeakDataStructure.PrecursorFragmentPairEdge;
 import MSUmpire.SearchResultParser.PepXMLParser;
 import MSUmpire.SpectrumParser.DIA_Setting;
+import MSUmpire.SpectrumParser.ScanIndexFile;
 import MSUmpire.SpectrumParser.SpectrumParserBase;
 import MSUmpire.SpectrumParser.mzXMLParser;
 import MSUmpire.Utility.MSConvert;
+import MSUmpire.Utility.CheckpointManifest;
+import MSUmpire.Utility.HeapBudgetScheduler;
+import MSUmpire.Utility.SharedExecutor;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -48,9 +52,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.zip.DataFormatException;
 import javax.xml.parsers.ParserConfigurationException;
 import org.apache.commons.io.FilenameUtils;
@@ -83,24 +84,43 @@ public class DIAPack {
     public HashMap<Integer, Double> FactorialTable;
     TargetMatchScoring TScoring;
     public boolean Resume;
+    //Reuse the outputs of processing phases whose inputs are unchanged, recorded in the checkpoint manifest of the file
+    public boolean Checkpoint = false;
+    private CheckpointManifest checkpointManifest;
 
     
     private void RemoveIndexFile() {
+        new File(ScanIndexFile.GetPath(Filename)).delete();
+        //index files written by older versions
         new File(FilenameUtils.removeExtension(Filename) + ".ScanPosFS").delete();
         new File(FilenameUtils.removeExtension(Filename) + ".RTidxFS").delete();
         new File(FilenameUtils.removeExtension(Filename) + ".ScanRTFS").delete();
         new File(FilenameUtils.removeExtension(Filename) + ".ScanidxFS").delete();
         new File(FilenameUtils.removeExtension(Filename) + ".DIAWindowsFS").delete();
+        new File(FilenameUtils.removeExtension(Filename) + ".MS1WindowsFS").delete();
     }
     
     public void FixScanidx() {
+        CloseSpectrumParser();
         RemoveIndexFile();
         GetSpectrumParser();
     }
 
+    //Close the spectrum parsers of the file and its MS1 feature map, which hold the scan index file open
+    private void CloseSpectrumParser() {
+        if (SpectrumParser != null) {
+            SpectrumParser.Close();
+            SpectrumParser = null;
+        }
+        if (MS1FeatureMap != null) {
+            MS1FeatureMap.CloseSpectrumParser();
+        }
+    }
+
     public int Q1Scan = 0;
     public int Q2Scan = 0;
     public int Q3Scan = 0;
+    private PseudoMSMSWriter MGFWriter;
   
     //Whether to use IDs from targeted re-extraction for quantification analysis
     public boolean UseMappedIon = false;
@@ -167,6 +187,9 @@ public class DIAPack {
  
     //Entry of processing of signal extraction and generating pseudo MS/MS spectra
     public void process() throws SQLException, IOException, InterruptedException, ExecutionException, ParserConfigurationException, SAXException, FileNotFoundException, DataFormatException, Exception {
+        if (Checkpoint) {
+            checkpointManifest = new CheckpointManifest(Filename);
+        }
         BuildDIAWindows();
         MS1PeakDetection();
         DIAMS2PeakDetection();
@@ -188,6 +211,7 @@ public class DIAPack {
             
             LCMSPeakDIAMS2 diawindow = new LCMSPeakDIAMS2(Filename, this, parameter, DiaWinMz, LastWinMz, GetSpectrumParser(), NoCPUs);
             diawindow.Resume=Resume;
+            diawindow.Checkpoint = checkpointManifest;
             //pass the settings through to MS2 feature map
             diawindow.datattype = dIA_Setting.dataType;
             diawindow.ExportPeakCurveTable = ExportFragmentPeak;
@@ -449,7 +473,7 @@ public class DIAPack {
         Logger.getRootLogger().info("Assign peak cluster to identified peptides");
         GenerateClusterScanNomapping();
         
-        ExecutorService executorPool = null;
+        SharedExecutor.TaskGroup taskGroup = null;
         for (PeakCluster cluster : MS1FeatureMap.PeakClusters) {
             cluster.Identified = false;
         }
@@ -465,20 +489,14 @@ public class DIAPack {
             dia_w.run();            
         }
 
-        executorPool = Executors.newFixedThreadPool(NoCPUs);
+        taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
 
         //Match fragments and calculate quantification for each peptide ion
         for (PepIonID pepIonID : IDsummary.GetPepIonList().values()) {
             DIAAssignQuantUnit quantunit = new DIAAssignQuantUnit(pepIonID, MS1FeatureMap, parameter);
-            executorPool.execute(quantunit);
-        }
-        executorPool.shutdown();
-
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
+            taskGroup.Execute(quantunit);
         }
+        taskGroup.Await();
 
         if (export) {
             ExportID();
@@ -497,7 +515,7 @@ public class DIAPack {
         }
         parameter.RT_window_Targeted=RTWindow;
         GenerateClusterScanNomapping();
-        ExecutorService executorPool = null;
+        SharedExecutor.TaskGroup taskGroup = null;
         
         //Targeted re-extraction scoring
         TScoring = new TargetMatchScoring(Filename, libManager.LibID);
@@ -532,7 +550,7 @@ public class DIAPack {
                 continue;
             }
 
-            executorPool = Executors.newFixedThreadPool(NoCPUs);
+            taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
             //For each target peptide  ion
             for (PepIonID pepIonID : SearchList) {
                 if (DIAWindow.DIA_MZ_Range.getX() <= pepIonID.NeutralPrecursorMz() && DIAWindow.DIA_MZ_Range.getY() >= pepIonID.NeutralPrecursorMz()) {
@@ -540,7 +558,7 @@ public class DIAPack {
                     if (libManager.GetFragmentLib(pepIonID.GetKey()).FragmentGroups.size() >= 3) {
                         //U-score spectral matching
                         UmpireSpecLibMatch matchunit = new UmpireSpecLibMatch(MS1FeatureMap, DIAWindow, pepIonID, libManager.GetFragmentLib(pepIonID.GetKey()), libManager.GetDecoyFragmentLib(pepIonID.GetKey()), parameter);
-                        executorPool.execute(matchunit);                        
+                        taskGroup.Execute(matchunit);                        
                         TScoring.libTargetMatches.add(matchunit);
                     } else {
                         Logger.getRootLogger().warn("skipping " + pepIonID.GetKey() + ", it has only " + libManager.GetFragmentLib(pepIonID.GetKey()).FragmentGroups.size() + " matched fragments");
@@ -556,20 +574,14 @@ public class DIAPack {
                         //U-score spectral matching
                         UmpireSpecLibMatch matchunit = new UmpireSpecLibMatch(MS1FeatureMap, DIAWindow, pepIonID, libManager.GetFragmentLib(pepIonID.GetKey()), libManager.GetDecoyFragmentLib(pepIonID.GetKey()), parameter);
                         matchunit.IdentifiedPeptideIon = true;
-                        executorPool.execute(matchunit);
+                        taskGroup.Execute(matchunit);
                         TScoring.libIDMatches.add(matchunit);
                     } else {
                         Logger.getRootLogger().warn("skipping " + pepIonID.GetKey() + ", it has only " + libManager.GetFragmentLib(pepIonID.GetKey()).FragmentGroups.size() + " matched fragments");
                     }
                 }
             }
-            executorPool.shutdown();
-
-            try {
-                executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            } catch (InterruptedException e) {
-                Logger.getRootLogger().info("interrupted..");
-            }
+            taskGroup.Await();
             DIAWindow.ClearAllPeaks();
         }
         
@@ -587,24 +599,18 @@ public class DIAPack {
         TScoring.Process();    
         TargetHitPepXMLWriter pepxml=new TargetHitPepXMLWriter(GetiProphExtPepxml(libManager.LibID), IDsummary.FastaPath, IDsummary.DecoyTag, TScoring);
         TScoring = null;
-        executorPool = Executors.newFixedThreadPool(NoCPUs);
+        taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
         
         //Assign precursor peak cluster, extract fragments and do quantification
         for (PepIonID pepIonID : IDsummary.GetMappedPepIonList().values()) {
             DIAAssignQuantUnit quantunit = new DIAAssignQuantUnit(pepIonID, MS1FeatureMap, parameter);
-            executorPool.execute(quantunit);
+            taskGroup.Execute(quantunit);
         }
         for (PepIonID pepIonID : IDsummary.GetPepIonList().values()) {
             DIAAssignQuantUnit quantunit = new DIAAssignQuantUnit(pepIonID, MS1FeatureMap, parameter);
-            executorPool.execute(quantunit);
-        }
-        executorPool.shutdown();
-
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
+            taskGroup.Execute(quantunit);
         }
+        taskGroup.Await();
         
         if (export) {
             ExportID();
@@ -699,7 +705,7 @@ public class DIAPack {
         HashMap<Integer, ArrayList<PseudoMSMSProcessing>> ScanList = new HashMap<>();
         HashMap<String, PseudoMSMSProcessing> UnfragScanList = new HashMap<>();
         parameter.BoostComplementaryIon = false;
-        ExecutorService executorPool = Executors.newFixedThreadPool(NoCPUs);
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
         for (LCMSPeakDIAMS2 DIAwindow : DIAWindows) {
             DIAwindow.ReadPeakCluster();
             DIAwindow.ReadPrecursorFragmentClu2Cur();
@@ -712,7 +718,7 @@ public class DIAPack {
                     DIAwindow.ExtractFragmentForPeakCluser(ms1cluster);   
                     if (DIAwindow.Last_MZ_Range == null || DIAwindow.Last_MZ_Range.getY() < ms1cluster.TargetMz()) {
                         PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms1cluster, parameter);
-                        executorPool.execute(mSMSProcessing);
+                        taskGroup.Execute(mSMSProcessing);
                         if (!ScanList.containsKey(ms1cluster.Index)) {
                             ScanList.put(ms1cluster.Index, new ArrayList<PseudoMSMSProcessing>());
                         }
@@ -725,7 +731,7 @@ public class DIAPack {
                 if (DIAwindow.DIA_MZ_Range.getX() <= ms2cluster.TargetMz() && DIAwindow.DIA_MZ_Range.getY() >= ms2cluster.TargetMz() && DIAwindow.UnFragIonClu2Cur.containsKey(ms2cluster.Index)) {
                     DIAwindow.ExtractFragmentForUnfragPeakCluser(ms2cluster);
                     PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms2cluster, parameter);
-                    executorPool.execute(mSMSProcessing);
+                    taskGroup.Execute(mSMSProcessing);
                     UnfragScanList.put(DIAwindow.WindowID + ";" + ms2cluster.Index, mSMSProcessing);
                 }
             }
@@ -733,13 +739,7 @@ public class DIAPack {
             System.gc();
             Logger.getRootLogger().info("(Memory usage:" + Math.round((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1048576) + "MB)");
         }
-        executorPool.shutdown();
-
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
-        }
+        taskGroup.Await();
         ReadScanNoMapping();
         String mgffile = GetSkylineFolder() + GetForLibQ1Name() + ".mgf";
         FileWriter mgfWriter = new FileWriter(mgffile, false);
@@ -802,6 +802,7 @@ public class DIAPack {
         FileWriter mgfWriter3 = new FileWriter(mgffile3, false);
         mzXMLParser Q3mzxml = new mzXMLParser(FilenameUtils.getFullPath(Filename) + GetQ3Name() + ".mzXML", parameter, SpectralDataType.DataType.DDA, null, NoCPUs);
         Q3mzxml.GetAllScanCollectionByMSLabel(false, true, false, false);
+        Q3mzxml.Close();
         for (int ScanNo = 0; ScanNo < ScanClusterMap_Q3.size(); ScanNo++) {
             String key = ScanClusterMap_Q3.get(ScanNo);
             XYPointCollection Scan = new XYPointCollection();
@@ -855,6 +856,9 @@ public class DIAPack {
                     psm.NeighborMaxRetentionTime=psm.RetentionTime;
                 }
             }
+            for (mzXMLParser mgf : mgfs.values()) {
+                mgf.Close();
+            }
         } catch (Exception ex) {
             Logger.getRootLogger().warn("Exception trying to fill PSM RTs");
         }
@@ -874,10 +878,10 @@ public class DIAPack {
     }
         
     public void ClearStructure() {
+        CloseSpectrumParser();
         MS1FeatureMap = null;
         DIAWindows = null;
         dIA_Setting = null;
-        SpectrumParser = null;
     }
 
     public void BuildStructure() throws SQLException, FileNotFoundException, IOException, InterruptedException, ExecutionException, ParserConfigurationException, SAXException, DataFormatException {
@@ -909,6 +913,7 @@ public class DIAPack {
         MS1FeatureMap.datattype = dIA_Setting.dataType;
         MS1FeatureMap.SetParameter(parameter);
         MS1FeatureMap.Resume=Resume;
+        MS1FeatureMap.Checkpoint = checkpointManifest;
         //Assign MS1 feature maps
         MS1FeatureMap.SetMS1Windows(dIA_Setting.MS1Windows);
         MS1FeatureMap.CreatePeakFolder();
@@ -955,6 +960,13 @@ public class DIAPack {
         if (file.exists()) {
             file.delete();
         }
+        //The scan-cluster mapping files are appended to while the MGF files are written
+        for (int i = 1; i <= 3; i++) {
+            file = new File(FilenameUtils.getFullPath(Filename) + FilenameUtils.getBaseName(Filename) + ".ScanClusterMapping_Q" + i);
+            if (file.exists()) {
+                file.delete();
+            }
+        }
     }
 
     
@@ -971,20 +983,88 @@ public class DIAPack {
     }
 
     //Perform MS2 fragment feature detection
+    //Windows are detected and grouped at the same time as long as their estimated heap sizes fit in the budget (InstrumentParameter.WindowHeapBudget),
+    //a window larger than the budget is only started when no other window is running.
+    //Pseudo MS/MS spectra are written in window order because they share the MGF files, the scan counters and the MS1 clusters.
+    //The MS2 scans of all windows are first decoded in one sequential pass (InstrumentParameter.DemultiplexDIAMS2),
+    //so that the windows read their scans from the scan index file instead of seeking through the spectral file.
     public void DIAMS2PeakDetection() throws SQLException, IOException, InterruptedException, ExecutionException, FileNotFoundException, Exception {
-        int count = 1;
-        //CreateSWATHTables();
-        for (LCMSPeakDIAMS2 DIAwindow : DIAWindows) {
-            Logger.getRootLogger().info("Processing DIA MS2 (mz range):" + DIAwindow.DIA_MZ_Range.getX() + "_" + DIAwindow.DIA_MZ_Range.getY() + "( " + (count++) + "/" + GetSpectrumParser().dIA_Setting.DIAWindows.size() + " )");
-            DIAwindow.ExportPeakCurveTable = ExportFragmentPeak;
-            DIAwindow.ExportPeakClusterTable = ExportPrecursorPeak;
-            DIAwindow.PeakDetectionPFGrouping(MS1FeatureMap);
-            DIAwindow.ClearAllPeaks();
-            Logger.getRootLogger().info("==================================================================================");
+        final long HeapBudget = parameter.WindowHeapBudget > 0 ? (long) parameter.WindowHeapBudget * 1048576 : Runtime.getRuntime().maxMemory() / 2;
+        if (parameter.DemultiplexDIAMS2) {
+            Logger.getRootLogger().info("Reading DIA MS2 scans of all windows.....");
+            GetSpectrumParser().CacheDIAMS2Scans();
+        }
+        MGFWriter = new PseudoMSMSWriter(Filename);
+        try {
+            new HeapBudgetScheduler<LCMSPeakDIAMS2, DIAWindowDetectionUnit>() {
+                int count = 1;
+
+                @Override
+                protected long EstimateHeapSize(LCMSPeakDIAMS2 DIAwindow) {
+                    return EstimateWindowHeapSize(DIAwindow);
+                }
+
+                @Override
+                protected DIAWindowDetectionUnit Start(LCMSPeakDIAMS2 DIAwindow, long HeapSize, long HeapInUse) {
+                    Logger.getRootLogger().info("Processing DIA MS2 (mz range):" + DIAwindow.DIA_MZ_Range.getX() + "_" + DIAwindow.DIA_MZ_Range.getY() + "( " + (count++) + "/" + GetSpectrumParser().dIA_Setting.DIAWindows.size() + " )");
+                    Logger.getRootLogger().debug("Estimated heap size of the window:" + HeapSize / 1048576 + "MB (" + (HeapInUse + HeapSize) / 1048576 + "/" + HeapBudget / 1048576 + "MB in use)");
+                    DIAwindow.ExportPeakCurveTable = ExportFragmentPeak;
+                    DIAwindow.ExportPeakClusterTable = ExportPrecursorPeak;
+                    return new DIAWindowDetectionUnit(DIAwindow, MS1FeatureMap);
+                }
+
+                //Write the pseudo MS/MS spectra of the window
+                @Override
+                protected void Finish(LCMSPeakDIAMS2 DIAwindow, DIAWindowDetectionUnit unit) throws Exception {
+                    if (unit.Error != null) {
+                        throw unit.Error;
+                    }
+                    if (unit.PeakDetected) {
+                        DIAwindow.GenerateMGF(MS1FeatureMap);
+                    }
+                    DIAwindow.ClearAllPeaks();
+                    Logger.getRootLogger().info("Finished DIA MS2 (mz range):" + DIAwindow.DIA_MZ_Range.getX() + "_" + DIAwindow.DIA_MZ_Range.getY());
+                    Logger.getRootLogger().info("==================================================================================");
+                }
+            }.Run(DIAWindows, NoCPUs, HeapBudget);
+        } finally {
+            PseudoMSMSWriter writer = MGFWriter;
+            MGFWriter = null;
+            writer.Close();
         }
         RenameMGF("");
     }
 
+    //Writer of the pseudo MS/MS spectra while the DIA MS2 windows are processed, null otherwise
+    public PseudoMSMSWriter GetMGFWriter() {
+        return MGFWriter;
+    }
+
+    //Rough heap size of the quantification of this file: the peak clusters and precursor-fragment groups
+    //read from the _Peak folder take about four times their size on disk
+    public long EstimateQuantHeapSize() {
+        long HeapSize = 0;
+        File[] PeakFiles = new File(FilenameUtils.getFullPath(Filename) + FilenameUtils.getBaseName(Filename) + "_Peak/").listFiles();
+        if (PeakFiles != null) {
+            for (File file : PeakFiles) {
+                HeapSize += file.length();
+            }
+        }
+        return 4 * HeapSize;
+    }
+
+    //Estimated heap size of a DIA MS2 window from its scans
+    private long EstimateWindowHeapSize(LCMSPeakDIAMS2 DIAwindow) {
+        long HeapSize = 0;
+        ArrayList<Integer> ScanList = GetSpectrumParser().dIA_Setting.DIAWindows.get(DIAwindow.DIA_MZ_Range);
+        if (ScanList != null) {
+            for (int ScanNo : ScanList) {
+                HeapSize += GetSpectrumParser().EstimateScanHeapSize(ScanNo);
+            }
+        }
+        return HeapSize;
+    }
+
     private void RenameMGF(String tag) {
         String mgffile = FilenameUtils.getFullPath(Filename) + GetQ1Name() + ".mgf.temp";
         String mgffile2 = FilenameUtils.getFullPath(Filename) + GetQ2Name() + ".mgf.temp";
@@ -0,0 +1,50 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.DIA;
+
+import MSUmpire.LCMSPeakStructure.LCMSPeakDIAMS2;
+import MSUmpire.LCMSPeakStructure.LCMSPeakMS1;
+
+/**
+ * Thread unit for peak detection and precursor-fragment grouping of a DIA MS2 window,
+ * pseudo MS/MS spectra are generated by DIAPack afterwards in window order
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class DIAWindowDetectionUnit implements Runnable {
+
+    public LCMSPeakDIAMS2 DIAWindow;
+    private LCMSPeakMS1 MS1FeatureMap;
+    public boolean PeakDetected = false;
+    public Exception Error = null;
+
+    public DIAWindowDetectionUnit(LCMSPeakDIAMS2 DIAWindow, LCMSPeakMS1 MS1FeatureMap) {
+        this.DIAWindow = DIAWindow;
+        this.MS1FeatureMap = MS1FeatureMap;
+    }
+
+    @Override
+    public void run() {
+        try {
+            PeakDetected = DIAWindow.PeakDetectionFragmentGrouping(MS1FeatureMap);
+        } catch (Exception ex) {
+            Error = ex;
+        }
+    }
+}
@@ -25,10 +25,8 @@ import MSUmpire.LCMSPeakStructure.LCMSPeakMS1;
 import MSUmpire.PSMDataStructure.LCMSID;
 import MSUmpire.PSMDataStructure.PepIonID;
 import MSUmpire.PeakDataStructure.PeakCluster;
+import MSUmpire.Utility.SharedExecutor;
 import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 
 /**
@@ -67,23 +65,16 @@ public class DIA_window_Quant implements  Runnable{
             Logger.getRootLogger().error("Reading Peak cluster result for " + DIAWindow.ScanCollectionName + " failed");
             return;
         }
-        ExecutorService executorPool;
-        executorPool = Executors.newFixedThreadPool(NoThread);
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoThread);
         
         //For each identified peptide ion, extract the precursor feature and grouped fragments from the isolation window
         for (PepIonID pepIonID : IDsummary.GetPepIonList().values()) {
             if (DIAWindow.DIA_MZ_Range.getX() <= pepIonID.GetPeakMz(2)&& DIAWindow.DIA_MZ_Range.getY() >= pepIonID.ObservedMz) {
                 DIAMapClusterUnit mapunit = new DIAMapClusterUnit(pepIonID, Q1Name, Q2Name, Q3Name, ScanClusterMap_Q1, ScanClusterMap_Q2, ScanClusterMap_Q3, ms1lcms, DIAWindow);
-                executorPool.execute(mapunit);
+                taskGroup.Execute(mapunit);
             }
         }
-        executorPool.shutdown();
-
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
-        }
+        taskGroup.Await();
         if (DIAWindow.datattype != SpectralDataType.DataType.pSMART) {
             if (!DIAWindow.ReadPrecursorFragmentClu2Cur()) {
                 Logger.getRootLogger().error("Reading precursor-fragment results for " + DIAWindow.ScanCollectionName + " failed");
@@ -20,6 +20,7 @@
 package MSUmpire.DIA;
 
 import MSUmpire.MathPackage.KMeans;
+import MSUmpire.MathPackage.KernelDensityEstimator;
 import ExternalPackages.jMEF.ExpectationMaximization1D;
 import ExternalPackages.jMEF.MixtureModel;
 import ExternalPackages.jMEF.PVector;
@@ -54,8 +55,9 @@ public class MixtureModelKDESemiParametric {
     private EmpiricalDist TargetEmpiricalDist;
     private EmpiricalDist DecoyEmpiricalDist;
     private EmpiricalDist IDEmpiricalDist;
+    private double[] TargetObs;
+    private double[] DecoyObs;
     double bandWidth;
-    NormalDist kern = new NormalDist();
     public Float[][] MixtureModelProb;
     MixtureModel mmc;
     public int NoBinPoints = 1000;
@@ -239,6 +241,8 @@ public class MixtureModelKDESemiParametric {
         Arrays.sort(iddata);
         min = (float) Math.min(targetdata[0], decoydata[0]);
         max = (float) Math.max(targetdata[targetdata.length - 1], iddata[iddata.length - 1]);
+        TargetObs = targetdata;
+        DecoyObs = decoydata;
         TargetEmpiricalDist = new EmpiricalDist(targetdata);
         DecoyEmpiricalDist = new EmpiricalDist(decoydata);
         IDEmpiricalDist = new EmpiricalDist(iddata);
@@ -263,25 +267,23 @@ public class MixtureModelKDESemiParametric {
         }
     }
 
+    //Target density weighted by the probabilities of being correct
     private void GenerateCorrectDensity() {
-        correct_kde_y = new double[NoBinPoints];
+        correct_kde_y = KernelDensityEstimator.BinnedDensity(TargetObs, p, bandWidth, model_kde_x);
         for (int i = 0; i < NoBinPoints; i++) {
-            correct_kde_y[i] = weight_correct * ProbBasedKDE(TargetEmpiricalDist, model_kde_x[i]);
+            correct_kde_y[i] *= weight_correct;
         }
     }
 
     private void GenerateDecoyDensity() {
-        decoy_kde_y = new double[NoBinPoints];
+        decoy_kde_y = KernelDensityEstimator.BinnedDensity(DecoyObs, null, bandWidth, model_kde_x);
         for (int i = 0; i < NoBinPoints; i++) {
-            decoy_kde_y[i] = weight_incorrect * DecoyKDE(model_kde_x[i]);
+            decoy_kde_y[i] *= weight_incorrect;
         }
     }
 
     private void GenerateTargetDensity() {
-        model_kde_y = new double[NoBinPoints];
-        for (int i = 0; i < NoBinPoints; i++) {
-            model_kde_y[i] = TargetKDE(model_kde_x[i]);
-        }
+        model_kde_y = KernelDensityEstimator.BinnedDensity(TargetObs, null, bandWidth, model_kde_x);
     }
 
     private void GenerateInitialModel() {
@@ -310,82 +312,35 @@ public class MixtureModelKDESemiParametric {
     }
 
     private double IniCorrectKDELookUp(double x) {
-        if (x <= model_kde_x[0]) {
-            return inicorrect_kde_y[0];
-        }
-        for (int i = 0; i < NoBinPoints - 1; i++) {
-            if (x >= model_kde_x[i] && x < model_kde_x[i + 1]) {
-                return inicorrect_kde_y[i];
-            }
-        }
-        return inicorrect_kde_y[NoBinPoints - 1];
+        return inicorrect_kde_y[LookUpBin(x)];
     }
 
     private double CorrectKDELookUp(double x) {
-        if (x <= model_kde_x[0]) {
-            return correct_kde_y[0];
-        }
-        for (int i = 0; i < NoBinPoints - 1; i++) {
-            if (x >= model_kde_x[i] && x < model_kde_x[i + 1]) {
-                return correct_kde_y[i];
-            }
-        }
-        return correct_kde_y[NoBinPoints - 1];
+        return correct_kde_y[LookUpBin(x)];
     }
 
     private double DecoyKDELookUp(double x) {
-        if (x <= model_kde_x[0]) {
-            return decoy_kde_y[0];
-        }
-        for (int i = 0; i < NoBinPoints - 1; i++) {
-            if (x >= model_kde_x[i] && x < model_kde_x[i + 1]) {
-                return decoy_kde_y[i];
-            }
-        }
-        return decoy_kde_y[NoBinPoints - 1];
+        return decoy_kde_y[LookUpBin(x)];
     }
 
-    private double ProbBasedKDE(EmpiricalDist dist, double x) {
-        // Computes and returns the kernel density estimate at $y$, where the 
-        // kernel is the density kern.density(x), and the bandwidth is $h$.
-        double z;
-        double a = kern.getXinf();       // lower limit of density
-        double b = kern.getXsup();       // upper limit of density
-        double sum = 0;
-        int n = dist.getN();
-        for (int i = 0; i < n; i++) {
-            z = (x - dist.getObs(i)) / bandWidth;
-            if ((z >= a) && (z <= b)) {
-                sum += kern.density(z) * p[i];
-            }
+    //Index of the bin containing x: the last grid point <= x (first and last bins are open)
+    private int LookUpBin(double x) {
+        if (x <= model_kde_x[0]) {
+            return 0;
         }
-        sum /= (bandWidth * pisum);
-        return sum;
-    }
-
-    private double KDE(EmpiricalDist dist, double y) {
-        // Computes and returns the kernel density estimate at $y$, where the 
-        // kernel is the density kern.density(x), and the bandwidth is $h$.
-        double z;
-        double a = kern.getXinf();       // lower limit of density
-        double b = kern.getXsup();       // upper limit of density
-        double sum = 0;
-        int n = dist.getN();
-        for (int i = 0; i < n; i++) {
-            z = (y - dist.getObs(i)) / bandWidth;
-            if ((z >= a) && (z <= b)) {
-                sum += kern.density(z);
+        int lower = 0;
+        int upper = NoBinPoints;
+        while (lower < upper) {
+            int mid = (lower + upper) >>> 1;
+            if (model_kde_x[mid] <= x) {
+                lower = mid + 1;
+            } else {
+                upper = mid;
             }
         }
-        sum /= (bandWidth * n);
-        return sum;
-    }
-
-    private double TargetKDE(double x) {
-        return KDE(TargetEmpiricalDist, x);
+        if (lower == 0) {
+            return NoBinPoints - 1;
+        }
+        return lower - 1;
     }
-
-    private double DecoyKDE(double x) {
-        return KDE(DecoyEmpiricalDist, x);
-    }    
 }
@@ -0,0 +1,280 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.DIA;
+
+import MSUmpire.BaseDataStructure.XYPointCollection;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Streaming writer of pseudo MS/MS spectra (Q1, Q2 and Q3 .mgf.temp files and 
+ * the ScanClusterMapping files). Each quality has a bounded queue and a writer 
+ * thread which formats the spectra straight into a buffered file stream, so 
+ * only the spectra waiting in the queues are held in memory.
+ * The scan numbers are assigned by the caller, spectra are written in the 
+ * order they are added.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class PseudoMSMSWriter {
+
+    private static final int QUEUE_SIZE = 256;
+    private final MGFWriterUnit[] Units = new MGFWriterUnit[3];
+    private final Thread[] Threads = new Thread[3];
+
+    //Appends to the .mgf.temp and ScanClusterMapping files of the DIA file
+    public PseudoMSMSWriter(String Filename) throws IOException {
+        for (int i = 0; i < 3; i++) {
+            String QName = FilenameUtils.getBaseName(Filename) + "_Q" + (i + 1);
+            Units[i] = new MGFWriterUnit(QName, FilenameUtils.getFullPath(Filename) + QName + ".mgf.temp", FilenameUtils.getFullPath(Filename) + FilenameUtils.getBaseName(Filename) + ".ScanClusterMapping_Q" + (i + 1));
+            Threads[i] = new Thread(Units[i], "MGFWriter-" + QName);
+            Threads[i].setDaemon(true);
+            Threads[i].start();
+        }
+    }
+
+    //Add a spectrum of quality 1, 2 or 3, the mapping line is written to the ScanClusterMapping file
+    public void Write(int Quality, int ScanNo, float PepMass, int Charge, float RTInSeconds, XYPointCollection Scan, String Mapping) throws IOException {
+        Spectrum spectrum = new Spectrum();
+        spectrum.ScanNo = ScanNo;
+        spectrum.PepMass = PepMass;
+        spectrum.Charge = Charge;
+        spectrum.RTInSeconds = RTInSeconds;
+        spectrum.Mz = new float[Scan.PointCount()];
+        spectrum.Int = new float[Scan.PointCount()];
+        for (int i = 0; i < Scan.PointCount(); i++) {
+            spectrum.Mz[i] = Scan.Data.get(i).getX();
+            spectrum.Int[i] = Scan.Data.get(i).getY();
+        }
+        spectrum.Mapping = Mapping;
+        Units[Quality - 1].Put(spectrum);
+    }
+
+    //Write out the queued spectra and close the files
+    public void Close() throws IOException {
+        IOException error = null;
+        for (int i = 0; i < 3; i++) {
+            try {
+                Units[i].Finish();
+                Threads[i].join();
+            } catch (IOException ex) {
+                error = error == null ? ex : error;
+                continue;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                error = new IOException("Interrupted while writing " + Units[i].QName + " MGF file", ex);
+            }
+            if (Units[i].Error != null && error == null) {
+                error = Units[i].Error;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static class Spectrum {
+
+        int ScanNo;
+        float PepMass;
+        int Charge;
+        float RTInSeconds;
+        float[] Mz;
+        float[] Int;
+        String Mapping;
+    }
+
+    private static final Spectrum END = new Spectrum();
+
+    private static class MGFWriterUnit implements Runnable {
+
+        private static final long[] POW10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L};
+        final String QName;
+        private final byte[] Title;
+        private final String MGFFile;
+        private final String MappingFile;
+        private final BlockingQueue<Spectrum> Queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        private byte[] buffer = new byte[8192];
+        private int length;
+        volatile IOException Error;
+
+        MGFWriterUnit(String QName, String MGFFile, String MappingFile) {
+            this.QName = QName;
+            this.Title = ("TITLE=" + QName + ".").getBytes(StandardCharsets.US_ASCII);
+            this.MGFFile = MGFFile;
+            this.MappingFile = MappingFile;
+        }
+
+        void Put(Spectrum spectrum) throws IOException {
+            if (Error != null) {
+                throw Error;
+            }
+            try {
+                Queue.put(spectrum);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while queuing " + QName + " spectrum", ex);
+            }
+        }
+
+        void Finish() throws IOException {
+            try {
+                Queue.put(END);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while closing " + QName + " MGF file", ex);
+            }
+        }
+
+        @Override
+        public void run() {
+            boolean finished = false;
+            try (OutputStream mgf = new BufferedOutputStream(new FileOutputStream(MGFFile, true), 1 << 16);
+                    OutputStream mapping = new BufferedOutputStream(new FileOutputStream(MappingFile, true))) {
+                Spectrum spectrum;
+                while ((spectrum = Queue.take()) != END) {
+                    Format(spectrum);
+                    mgf.write(buffer, 0, length);
+                    mapping.write((spectrum.Mapping + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                finished = true;
+            } catch (IOException ex) {
+                Error = ex;
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            } catch (InterruptedException ex) {
+                Error = new IOException("Interrupted while writing " + QName + " MGF file", ex);
+                return;
+            }
+            //Keep taking the queued spectra after an error so that a producer is never blocked on the full queue
+            try {
+                while (!finished && Queue.take() != END) {
+                }
+            } catch (InterruptedException ex) {
+            }
+        }
+
+        private void Format(Spectrum spectrum) {
+            length = 0;
+            AppendString("BEGIN IONS\nPEPMASS=");
+            AppendFloat(spectrum.PepMass);
+            AppendString("\nCHARGE=");
+            AppendLong(spectrum.Charge);
+            AppendString("+\nRTINSECONDS=");
+            AppendFloat(spectrum.RTInSeconds);
+            AppendByte('\n');
+            AppendBytes(Title);
+            AppendLong(spectrum.ScanNo);
+            AppendByte('.');
+            AppendLong(spectrum.ScanNo);
+            AppendByte('.');
+            AppendLong(spectrum.Charge);
+            AppendByte('\n');
+            for (int i = 0; i < spectrum.Mz.length; i++) {
+                AppendFloat(spectrum.Mz[i]);
+                AppendByte(' ');
+                AppendFloat(spectrum.Int[i]);
+                AppendByte('\n');
+            }
+            AppendString("END IONS\n\n");
+        }
+
+        //Shortest decimal text that reads back to the same float (at least one decimal), 
+        //the same text as Float.toString for values in [1e-3, 1e7), which is the range of m/z, intensity and RT.
+        //Other values fall back to Float.toString.
+        private void AppendFloat(float value) {
+            float abs = Math.abs(value);
+            if (Float.isNaN(value) || Float.isInfinite(value) || abs >= 1e7f || (abs < 1e-3f && value != 0f)) {
+                AppendString(Float.toString(value));
+                return;
+            }
+            //sign bit, so that -0.0 is written as Float.toString does
+            if (Float.floatToRawIntBits(value) < 0) {
+                AppendByte('-');
+            }
+            int decimals = 1;
+            long scaled = (long) Math.rint((double) abs * 10);
+            while (decimals < POW10.length - 1 && (float) (scaled / (double) POW10[decimals]) != abs) {
+                decimals++;
+                scaled = (long) Math.rint((double) abs * POW10[decimals]);
+            }
+            long frac = scaled % POW10[decimals];
+            AppendLong(scaled / POW10[decimals]);
+            AppendByte('.');
+            while (decimals > 1 && frac % 10 == 0) {
+                frac /= 10;
+                decimals--;
+            }
+            for (int d = decimals - 1; d >= 0; d--) {
+                AppendByte('0' + (int) (frac / POW10[d] % 10));
+            }
+        }
+
+        private void AppendLong(long value) {
+            if (value < 0) {
+                AppendByte('-');
+                value = -value;
+            }
+            Ensure(20);
+            int start = length;
+            do {
+                buffer[length++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                byte b = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = b;
+            }
+        }
+
+        private void AppendString(String value) {
+            Ensure(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                buffer[length++] = (byte) value.charAt(i);
+            }
+        }
+
+        private void AppendBytes(byte[] value) {
+            Ensure(value.length);
+            System.arraycopy(value, 0, buffer, length, value.length);
+            length += value.length;
+        }
+
+        private void AppendByte(int value) {
+            Ensure(1);
+            buffer[length++] = (byte) value;
+        }
+
+        private void Ensure(int bytes) {
+            if (length + bytes > buffer.length) {
+                byte[] newbuffer = new byte[Math.max(buffer.length * 2, length + bytes)];
+                System.arraycopy(buffer, 0, newbuffer, 0, length);
+                buffer = newbuffer;
+            }
+        }
+    }
+}
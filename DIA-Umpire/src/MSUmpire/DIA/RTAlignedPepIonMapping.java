@@ -25,6 +25,7 @@ import MSUmpire.PSMDataStructure.PepIonID;
 import MSUmpire.PSMDataStructure.LCMSID;
 import MSUmpire.BaseDataStructure.XYPointCollection;
 import MSUmpire.BaseDataStructure.XYZData;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.geom.Ellipse2D;
@@ -55,6 +56,8 @@ public class RTAlignedPepIonMapping implements Runnable{
     private LCMSID LCMSB;
     InstrumentParameter parameter;
     String Workfolder;
+    //Render the RT mapping PNG when the model is built
+    public boolean ExportPNG = true;
 
     public RTAlignedPepIonMapping(String Workfolder, InstrumentParameter parameter, LCMSID LCMSA, LCMSID LCMSB) {
         this.parameter=parameter;
@@ -69,9 +72,10 @@ public class RTAlignedPepIonMapping implements Runnable{
         XYSeries series = new XYSeries("Peptide ions");
         XYSeriesCollection xySeriesCollection = new XYSeriesCollection();
 
+        TIntObjectHashMap<PepIonID> PepIonIndexB = LCMSB.GetPepIonKeyIndex();
         for (PepIonID pepA : LCMSA.GetPepIonList().values()) {
-            if (LCMSB.GetPepIonList().containsKey(pepA.GetKey())) {
-                PepIonID pepB = LCMSB.GetPepIonList().get(pepA.GetKey());
+            PepIonID pepB = PepIonIndexB.get(pepA.GetKeyID());
+            if (pepB != null) {
                 points.AddPoint(pepA.GetRT(), pepB.GetRT());
                 series.add(new XYDataItem(pepA.GetRT(), pepB.GetRT()));
             }
@@ -81,7 +85,18 @@ public class RTAlignedPepIonMapping implements Runnable{
         float R2 = regression.GetR2();
         Logger.getRootLogger().info("Retention time prediction model:(" + FilenameUtils.getBaseName(LCMSA.mzXMLFileName) + "-" + FilenameUtils.getBaseName(LCMSB.mzXMLFileName) + ")..R2=" + R2 + "(No. of commonly identified peptide ions="+points.PointCount()+")");
         
-        GenerateRTMapPNG(xySeriesCollection, series, R2);
+        if (ExportPNG) {
+            GenerateRTMapPNG(xySeriesCollection, series, R2);
+        }
+    }
+
+    public boolean ValidModel() {
+        return regression != null && regression.valid();
+    }
+
+    //Predict the retention time in LCMSA of a retention time in LCMSB
+    public float PredictRTOfA(float RTofB) {
+        return regression.GetPredictTimeSDXByTimelist(RTofB).getY();
     }
 
     private void GenerateRTMapPNG(XYSeriesCollection xySeriesCollection, XYSeries series, float R2) throws IOException {
@@ -111,23 +126,33 @@ public class RTAlignedPepIonMapping implements Runnable{
     }
 
     public void GenerateMappedPepIon() {
+        if(!regression.valid()){
+            Logger.getRootLogger().info("Mapping predicted peptide ions for " + FilenameUtils.getBaseName(LCMSB.mzXMLFileName) + "...");
+            return;
+        }
+        GenerateMappedPepIonToB();
+        GenerateMappedPepIonToA();
+    }
+
+    //Map peptide ions of LCMSA to LCMSB
+    public void GenerateMappedPepIonToB() {
         Logger.getRootLogger().info("Mapping predicted peptide ions for " + FilenameUtils.getBaseName(LCMSB.mzXMLFileName) + "...");
 
         if(!regression.valid()){
             return;
         }
         
+        //Only the mapped list of LCMSB is changed below, the index of its identified ions stays valid
+        TIntObjectHashMap<PepIonID> PepIonIndexB = LCMSB.GetPepIonKeyIndex();
         for (PepIonID pepion : LCMSA.GetPepIonList().values()) {
-            PepIonID predictedPepIon = null;
-            if (!LCMSB.GetPepIonList().containsKey(pepion.GetKey())) {
+            PepIonID predictedPepIon = PepIonIndexB.get(pepion.GetKeyID());
+            if (predictedPepIon == null) {
                 if (LCMSB.GetMappedPepIonList().containsKey(pepion.GetKey())) {
                     predictedPepIon = LCMSB.GetMappedPepIonList().get(pepion.GetKey());
                 } else {
                     predictedPepIon = pepion.ClonePepIonID();
-                    LCMSB.GetMappedPepIonList().put(pepion.GetKey(), predictedPepIon);
+                    LCMSB.PutMappedPepIon(pepion.GetKey(), predictedPepIon);
                 }
-            } else {
-                predictedPepIon = LCMSB.GetPepIonList().get(pepion.GetKey());
             }
             XYZData predict=regression.GetPredictTimeSDYByTimelist(pepion.GetIDRT());            
             float PRT = predict.getY();
@@ -142,20 +167,27 @@ public class RTAlignedPepIonMapping implements Runnable{
             }
             predictedPepIon.SetRTSD(predict.getZ());
         }
-        
+    }
+
+    //Map peptide ions of LCMSB to LCMSA
+    public void GenerateMappedPepIonToA() {
         Logger.getRootLogger().info("Mapping predicted peptide ions for " + FilenameUtils.getBaseName(LCMSA.mzXMLFileName) + "...");
 
+        if(!regression.valid()){
+            return;
+        }
+
+        //Only the mapped list of LCMSA is changed below, the index of its identified ions stays valid
+        TIntObjectHashMap<PepIonID> PepIonIndexA = LCMSA.GetPepIonKeyIndex();
         for (PepIonID pepion : LCMSB.GetPepIonList().values()) {
-            PepIonID predictedPepIon = null;
-            if (!LCMSA.GetPepIonList().containsKey(pepion.GetKey())) {                
+            PepIonID predictedPepIon = PepIonIndexA.get(pepion.GetKeyID());
+            if (predictedPepIon == null) {                
                 if (LCMSA.GetMappedPepIonList().containsKey(pepion.GetKey())) {
                     predictedPepIon = LCMSA.GetMappedPepIonList().get(pepion.GetKey());
                 } else {
                     predictedPepIon = pepion.ClonePepIonID();
-                    LCMSA.GetMappedPepIonList().put(pepion.GetKey(), predictedPepIon);
+                    LCMSA.PutMappedPepIon(pepion.GetKey(), predictedPepIon);
                 }            
-            } else {
-                predictedPepIon = LCMSA.GetPepIonList().get(pepion.GetKey());
             }
             XYZData predict=regression.GetPredictTimeSDXByTimelist(pepion.GetIDRT());
             float PRT = predict.getY();
@@ -179,8 +211,9 @@ public class RTAlignedPepIonMapping implements Runnable{
             return;
         }
         
+        TIntObjectHashMap<PepIonID> PepIonIndexB = LCMSB.GetPepIonKeyIndex();
         for (PepIonID pepion : LCMSA.GetPepIonList().values()) {
-            if (!LCMSB.GetPepIonList().containsKey(pepion.GetKey())) {
+            if (!PepIonIndexB.containsKey(pepion.GetKeyID())) {
                 PepIonID predictedPepIon = null;
                 if (ListB.containsKey(pepion.GetKey())) {
                     predictedPepIon = ListB.get(pepion.GetKey());
@@ -206,8 +239,9 @@ public class RTAlignedPepIonMapping implements Runnable{
         
         Logger.getRootLogger().info("Mapping predicted peptide ions for " + FilenameUtils.getBaseName(LCMSA.mzXMLFileName) + "...");
 
+        TIntObjectHashMap<PepIonID> PepIonIndexA = LCMSA.GetPepIonKeyIndex();
         for (PepIonID pepion : LCMSB.GetPepIonList().values()) {
-            if (!LCMSA.GetPepIonList().containsKey(pepion.GetKey())) {
+            if (!PepIonIndexA.containsKey(pepion.GetKeyID())) {
                 PepIonID predictedPepIon = null;
                 if (ListA.containsKey(pepion.GetKey())) {
                     predictedPepIon = ListA.get(pepion.GetKey());
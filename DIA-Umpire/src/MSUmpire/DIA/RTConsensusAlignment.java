@@ -0,0 +1,161 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.DIA;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.PSMDataStructure.LCMSID;
+import MSUmpire.PSMDataStructure.PepIonID;
+import MSUmpire.Utility.SharedExecutor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Cross assign peptide ions of LCMS runs through a consensus retention time scale.
+ * Every run is aligned once to the run with the most peptide ions (anchor), 
+ * the consensus RT of a peptide ion is the median of its RTs converted to the anchor scale, 
+ * and every run is aligned once against the consensus, so the number of RT models grows linearly with the number of runs.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class RTConsensusAlignment {
+
+    private final ArrayList<LCMSID> LCMSIDList;
+    private LCMSID ConsensusID;
+    InstrumentParameter parameter;
+    String Workfolder;
+    int NoCPUs;
+
+    public RTConsensusAlignment(String Workfolder, InstrumentParameter parameter, ArrayList<LCMSID> LCMSIDList, int NoCPUs) {
+        this.Workfolder = Workfolder;
+        this.parameter = parameter;
+        this.LCMSIDList = LCMSIDList;
+        this.NoCPUs = NoCPUs;
+    }
+
+    public LCMSID GetConsensusID() {
+        return ConsensusID;
+    }
+
+    //Build the consensus RT list on the RT scale of the anchor run
+    public void GenerateConsensus() {
+        LCMSID anchor = LCMSIDList.get(0);
+        for (LCMSID lcms : LCMSIDList) {
+            if (lcms.GetPepIonList().size() > anchor.GetPepIonList().size()) {
+                anchor = lcms;
+            }
+        }
+        Logger.getRootLogger().info("Building consensus retention time scale, anchor run: " + anchor.mzXMLFileName);
+        PrepareRT();
+
+        final ArrayList<RTAlignedPepIonMapping> alignments = new ArrayList<>();
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
+        for (LCMSID lcms : LCMSIDList) {
+            if (lcms == anchor) {
+                alignments.add(null);
+                continue;
+            }
+            RTAlignedPepIonMapping alignment = new RTAlignedPepIonMapping(Workfolder, parameter, anchor, lcms);
+            alignment.ExportPNG = false;
+            alignments.add(alignment);
+            taskGroup.Execute(new ModelUnit(alignment));
+        }
+        taskGroup.Await();
+
+        HashMap<String, ArrayList<Float>> AnchorRTs = new HashMap<>();
+        HashMap<String, PepIonID> Template = new HashMap<>();
+        for (int i = 0; i < LCMSIDList.size(); i++) {
+            RTAlignedPepIonMapping alignment = alignments.get(i);
+            if (alignment != null && !alignment.ValidModel()) {
+                Logger.getRootLogger().warn("Retention time model of " + LCMSIDList.get(i).mzXMLFileName + " to the anchor run is not valid, the run is not used for the consensus RT.");
+                continue;
+            }
+            for (PepIonID pepion : LCMSIDList.get(i).GetPepIonList().values()) {
+                float rt = alignment == null ? pepion.GetIDRT() : alignment.PredictRTOfA(pepion.GetIDRT());
+                if (!AnchorRTs.containsKey(pepion.GetKey())) {
+                    AnchorRTs.put(pepion.GetKey(), new ArrayList<Float>());
+                    Template.put(pepion.GetKey(), pepion);
+                }
+                AnchorRTs.get(pepion.GetKey()).add(rt);
+            }
+        }
+
+        ConsensusID = new LCMSID("ConsensusRT", anchor.DecoyTag, anchor.FastaPath);
+        for (Map.Entry<String, ArrayList<Float>> entry : AnchorRTs.entrySet()) {
+            ArrayList<Float> rts = entry.getValue();
+            Collections.sort(rts);
+            float median = rts.size() % 2 == 1 ? rts.get(rts.size() / 2) : (rts.get(rts.size() / 2 - 1) + rts.get(rts.size() / 2)) / 2f;
+            PepIonID pepion = Template.get(entry.getKey()).ClonePepIonID();
+            pepion.SetRT(median);
+            ConsensusID.PutPepIon(entry.getKey(), pepion);
+        }
+        Logger.getRootLogger().info("No. of peptide ions in consensus retention time scale: " + ConsensusID.GetPepIonList().size());
+    }
+
+    //Align every run to the consensus RT scale and map the consensus peptide ions to the run
+    public void GenerateMappedPepIon() {
+        if (ConsensusID == null) {
+            GenerateConsensus();
+        }
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
+        for (LCMSID lcms : LCMSIDList) {
+            final RTAlignedPepIonMapping alignment = new RTAlignedPepIonMapping(Workfolder, parameter, ConsensusID, lcms);
+            taskGroup.Execute(new ModelUnit(alignment) {
+                @Override
+                public void run() {
+                    super.run();
+                    //Each task only adds peptide ions to its own run
+                    alignment.GenerateMappedPepIonToB();
+                }
+            });
+        }
+        taskGroup.Await();
+    }
+
+    //RTs of identified peptide ions are computed lazily, compute them before the models are built at the same time
+    private void PrepareRT() {
+        for (LCMSID lcms : LCMSIDList) {
+            for (PepIonID pepion : lcms.GetPepIonList().values()) {
+                pepion.GetRT();
+            }
+        }
+    }
+
+    private static class ModelUnit implements Runnable {
+
+        private final RTAlignedPepIonMapping alignment;
+
+        ModelUnit(RTAlignedPepIonMapping alignment) {
+            this.alignment = alignment;
+        }
+
+        @Override
+        public void run() {
+            try {
+                alignment.GenerateModel();
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+    }
+}
@@ -139,7 +139,7 @@ public class RTMappingExtLib implements Runnable{
                     predictedPepIon.Sequence = peplib.Sequence;
                     predictedPepIon.Modifications = (ArrayList<ModificationMatch>) peplib.Modifications.clone();
                     predictedPepIon.Charge = peplib.Charge;
-                    TargetLCMS.GetMappedPepIonList().put(peplib.GetKey(), predictedPepIon);
+                    TargetLCMS.PutMappedPepIon(peplib.GetKey(), predictedPepIon);
                     cont++;
                 }
             } else {
@@ -32,6 +32,7 @@ import MSUmpire.PeakDataStructure.PrecursorFragmentPairEdge;
 import MSUmpire.SpectralProcessingModule.ScoreFunction;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import org.apache.log4j.Logger;
@@ -83,21 +84,63 @@ public class UmpireSpecLibMatch implements Runnable, Serializable{
         return pepIonID.GetKey();
     }
 
-    private void CalMatchScoreOld(PeakCluster cluster, PepFragmentLib fragmentLib, PeakGroupScore peakscore) {
-        Regression regression = new Regression();
-        XYPointCollection pointset = new XYPointCollection();
-        ArrayList<MatchFragment> matchFragments = new ArrayList<>();
-        for (FragmentPeakGroup frag : fragmentLib.FragmentGroups.values()) {
-            PrecursorFragmentPairEdge bestfragment = null;
-            for (PrecursorFragmentPairEdge fragmentClusterUnit : cluster.GroupedFragmentPeaks) {
-                if (InstrumentParameter.CalcPPM(frag.FragMZ, fragmentClusterUnit.FragmentMz) <= parameter.MS2PPM) {
-                    if (bestfragment == null || fragmentClusterUnit.Correlation > bestfragment.Correlation) {
-                        bestfragment = fragmentClusterUnit;
+    //For each library fragment (in FragmentGroups order), find the grouped fragment within MS2PPM with the highest correlation
+    //(the first one in GroupedFragmentPeaks order on ties). Both sides are sorted by m/z, so the candidates are
+    //found by a merge-join instead of comparing every library fragment with every grouped fragment.
+    private ArrayList<MatchFragment> MatchFragments(PeakCluster cluster, PepFragmentLib fragmentLib) {
+        FragmentPeakGroup[] libfrags = fragmentLib.GetFragmentArray();
+        int[] liborder = fragmentLib.GetFragmentMzOrder();
+        PeakCluster.SortedFragments peakfrags = cluster.GetSortedFragments();
+        float[] peakmz = peakfrags.FragmentMz;
+        PrecursorFragmentPairEdge[] bestfragments = new PrecursorFragmentPairEdge[libfrags.length];
+        long[] candidates = new long[8];
+
+        //CalcPPM(libmz, peakmz)<=ppm bounds peakmz to [libmz/(1+ppm), libmz/(1-ppm)], widened to absorb float rounding,
+        //the exact test is done on each candidate
+        double tol = parameter.MS2PPM / 1000000d;
+        int start = 0;
+        for (int k = 0; k < liborder.length; k++) {
+            FragmentPeakGroup frag = libfrags[liborder[k]];
+            double lowmz = frag.FragMZ / (1d + tol) * (1d - 1e-5);
+            double highmz = tol < 1d ? frag.FragMZ / (1d - tol) * (1d + 1e-5) : Double.MAX_VALUE;
+            while (start < peakmz.length && peakmz[start] < lowmz) {
+                start++;
+            }
+            int nocandidate = 0;
+            for (int i = start; i < peakmz.length && peakmz[i] <= highmz; i++) {
+                if (InstrumentParameter.CalcPPM(frag.FragMZ, peakmz[i]) <= parameter.MS2PPM) {
+                    if (nocandidate == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, nocandidate * 2);
                     }
+                    candidates[nocandidate++] = ((long) peakfrags.ListIndex[i] << 32) | i;
                 }
             }
-            matchFragments.add(new MatchFragment(frag, bestfragment));
+            if (nocandidate == 0) {
+                continue;
+            }
+            //Pick in GroupedFragmentPeaks order to keep the tie-breaking of the linear scan
+            Arrays.sort(candidates, 0, nocandidate);
+            PrecursorFragmentPairEdge bestfragment = null;
+            for (int i = 0; i < nocandidate; i++) {
+                PrecursorFragmentPairEdge fragmentClusterUnit = peakfrags.Fragments[(int) (candidates[i] & 0xFFFFFFFFL)];
+                if (bestfragment == null || fragmentClusterUnit.Correlation > bestfragment.Correlation) {
+                    bestfragment = fragmentClusterUnit;
+                }
+            }
+            bestfragments[liborder[k]] = bestfragment;
+        }
+
+        ArrayList<MatchFragment> matchFragments = new ArrayList<>(libfrags.length);
+        for (int i = 0; i < libfrags.length; i++) {
+            matchFragments.add(new MatchFragment(libfrags[i], bestfragments[i]));
         }
+        return matchFragments;
+    }
+
+    private void CalMatchScoreOld(PeakCluster cluster, PepFragmentLib fragmentLib, PeakGroupScore peakscore) {
+        Regression regression = new Regression();
+        XYPointCollection pointset = new XYPointCollection();
+        ArrayList<MatchFragment> matchFragments = MatchFragments(cluster, fragmentLib);
 
         for (MatchFragment matchFragment : matchFragments) {
             if (matchFragment.peakfrag != null) {
@@ -144,18 +187,7 @@ public class UmpireSpecLibMatch implements Runnable, Serializable{
 
     private void CalMatchScoreNew(PeakCluster cluster, PepFragmentLib fragmentLib, PeakGroupScore peakscore) {                
         XYPointCollection pointset = new XYPointCollection();
-        ArrayList<MatchFragment> matchFragments = new ArrayList<>();        
-        for (FragmentPeakGroup frag : fragmentLib.FragmentGroups.values()) {
-            PrecursorFragmentPairEdge bestfragment = null;
-            for (PrecursorFragmentPairEdge fragmentClusterUnit : cluster.GroupedFragmentPeaks) {                
-                if (InstrumentParameter.CalcPPM(frag.FragMZ, fragmentClusterUnit.FragmentMz) <= parameter.MS2PPM) {
-                    if (bestfragment == null || fragmentClusterUnit.Correlation > bestfragment.Correlation) {
-                        bestfragment = fragmentClusterUnit;
-                    }
-                }
-            }
-            matchFragments.add(new MatchFragment(frag, bestfragment));
-        }
+        ArrayList<MatchFragment> matchFragments = MatchFragments(cluster, fragmentLib);
 
         for (MatchFragment matchFragment : matchFragments) {
             if (matchFragment.peakfrag != null) {
@@ -24,9 +24,11 @@ import MSUmpire.BaseDataStructure.SpectralDataType;
 import MSUmpire.PSMDataStructure.PSM;
 import MSUmpire.PSMDataStructure.PepIonID;
 import MSUmpire.PeakDataStructure.PeakCluster;
+import MSUmpire.PeakDataStructure.PeakClusterFile;
 import MSUmpire.PeakDataStructure.PeakCurve;
 import MSUmpire.PeakDataStructure.SortedCurveCollectionApexRT;
 import MSUmpire.SpectrumParser.SpectrumParserBase;
+import MSUmpire.Utility.CheckpointManifest;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -44,7 +46,6 @@ import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
 import org.apache.log4j.Logger;
 import org.nustaq.serialization.FSTObjectInput;
-import org.nustaq.serialization.FSTObjectOutput;
 
 
 /**
@@ -74,6 +75,8 @@ public class LCMSPeakBase {
     public boolean ExportPeakClusterTable=true;
     public boolean SaveSerializationFile=true;
     public boolean ExportPeakCurveTable=false;
+    //Manifest of reusable processing phases, null if checkpoints are not used
+    public CheckpointManifest Checkpoint = null;
     int NoCPUs = Runtime.getRuntime().availableProcessors() - 2;
     public PolynomialSplineFunction Masscalibrationfunction;
 
@@ -295,6 +298,10 @@ public class LCMSPeakBase {
         WritePeakClusterSerialization();      
     }
 
+    public String GetPeakClusterFile() {
+        return FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.serFS";
+    }
+
     //Default path to store peak data serialization files  
      public void CreatePeakFolder(){
         new File(FilenameUtils.getFullPath(ParentmzXMLName)+FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/").mkdir();        
@@ -307,11 +314,7 @@ public class LCMSPeakBase {
     private void FS_PeakClusterWrite() {
         try {
             Logger.getRootLogger().info("Writing PeakCluster serialization to file:" +  FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.serFS...");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.getFullPath(ParentmzXMLName)+ FilenameUtils.getBaseName(ParentmzXMLName)+"_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.serFS", false);
-            FSTObjectOutput out = new FSTObjectOutput(fout);
-            out.writeObject(PeakClusters);
-            out.close();
-            fout.close();
+            PeakClusterFile.Write(PeakClusters, FilenameUtils.getFullPath(ParentmzXMLName)+ FilenameUtils.getBaseName(ParentmzXMLName)+"_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.serFS");
         } catch (Exception ex) {
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
             JavaSerializationPeakClusterWrite();
@@ -370,14 +373,27 @@ public class LCMSPeakBase {
         if (!new File(FilenameUtils.getFullPath(ParentmzXMLName)+ FilenameUtils.getBaseName(ParentmzXMLName)+"_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.serFS").exists()) {
             return false;
         }
+        String path = FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.serFS";
+        if (PeakClusterFile.IsColumnarFile(path)) {
+            try {
+                Logger.getRootLogger().info("Reading PeakCluster serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.serFS...");
+                PeakClusters = PeakClusterFile.Read(path, parameter);
+            } catch (Exception ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+                return false;
+            }
+            return true;
+        }
+        //File written by FST serialization in older versions, convert it to the columnar format
         try {
             Logger.getRootLogger().info("Reading PeakCluster serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCluster.serFS...");
 
-            FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName)+ FilenameUtils.getBaseName(ParentmzXMLName)+"_Peak/" + FilenameUtils.getBaseName(ScanCollectionName)+ "_PeakCluster.serFS");
+            FileInputStream fileIn = new FileInputStream(path);
             FSTObjectInput in = new FSTObjectInput(fileIn);
             PeakClusters = (ArrayList<PeakCluster>) in.readObject();
             in.close();
             fileIn.close();            
+            WritePeakClusterSerialization();
         } catch (Exception ex) {            
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
             if(FS_PeakClusterRead_Old()){
@@ -26,34 +26,33 @@ import MSUmpire.BaseDataStructure.XYData;
 import MSUmpire.BaseDataStructure.XYPointCollection;
 import MSUmpire.DIA.DIAPack;
 import MSUmpire.DIA.PseudoMSMSProcessing;
+import MSUmpire.DIA.PseudoMSMSWriter;
 import MSUmpire.MathPackage.MassDefect;
+import MSUmpire.PeakDataStructure.FragmentEdgeStore;
 import MSUmpire.PeakDataStructure.PeakCluster;
+import MSUmpire.PeakDataStructure.PeakClusterFile;
 import MSUmpire.PeakDataStructure.PeakCurve;
 import MSUmpire.PeakDataStructure.PrecursorFragmentPairEdge;
 import MSUmpire.PeptidePeakClusterDetection.PDHandlerDIAMS2;
 import MSUmpire.SpectrumParser.SpectrumParserBase;
 import MSUmpire.SpectrumParser.mzXMLParser;
+import MSUmpire.Utility.SharedExecutor;
 import com.compomics.util.experiment.biology.ions.ElementaryIon;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.nustaq.serialization.FSTObjectInput;
-import org.nustaq.serialization.FSTObjectOutput;
 
 /**
  * MS2 peak feature map related to a DIA MS2 isolation window 
@@ -64,8 +63,8 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
     public XYData DIA_MZ_Range;
     public XYData Last_MZ_Range;
     public String WindowID;
-    public HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> FragmentsClu2Cur;
-    public HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> UnFragIonClu2Cur;
+    public Map<Integer, ArrayList<PrecursorFragmentPairEdge>> FragmentsClu2Cur;
+    public Map<Integer, ArrayList<PrecursorFragmentPairEdge>> UnFragIonClu2Cur;
     public HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> MatchedFragmentMap = new HashMap<>();
     private DIAPack parentDIA;
 
@@ -91,6 +90,8 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
 
     public void ClearAllPeaks() {        
         BaseClearAllPeaks();
+        CloseEdgeStore(FragmentsClu2Cur);
+        CloseEdgeStore(UnFragIonClu2Cur);
         FragmentsClu2Cur = null;
         UnFragIonClu2Cur = null;
         FragmentMS1Ranking=null;
@@ -119,14 +120,50 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
     }
 
     public void PeakDetectionPFGrouping(LCMSPeakMS1 ms1lcms) throws InterruptedException, ExecutionException, IOException, FileNotFoundException, Exception {
+        if (PeakDetectionFragmentGrouping(ms1lcms)) {
+            GenerateMGF(ms1lcms);
+        }
+    }
+
+    //Peak detection and precursor-fragment grouping of this window only. 
+    //It doesn't touch anything shared with other windows (MS1 clusters are only read), so several windows can be run at the same time,
+    //but GenerateMGF has to be called in window order afterwards. Returns false if no peak was detected (no MGF for this window).
+    public boolean PeakDetectionFragmentGrouping(LCMSPeakMS1 ms1lcms) throws InterruptedException, ExecutionException, IOException, FileNotFoundException, Exception {
         if (!(Resume && ReadIfProcessed())) {
             PDHandlerDIAMS2 swathdetection = new PDHandlerDIAMS2(this, NoCPUs, ms1lcms, parameter.MS2PPM);
             swathdetection.MSlevel = 2;            
             if (datattype != SpectralDataType.DataType.pSMART) {
-                swathdetection.DetectPeakCurves(GetScanCollection());
-                if (UnSortedPeakCurves.isEmpty()) {
-                    Logger.getRootLogger().info("No peak detected...................");
-                    return;
+                //Checkpointed phases: peak curve detection of the window, and grouping which depends on it and on the MS1 peak clusters
+                String CurveKey = null;
+                String GroupingKey = null;
+                if (Checkpoint != null) {
+                    CurveKey = Checkpoint.GetInputKey(parameter.GetMS2DetectionKey(), String.valueOf(datattype), DIA_MZ_Range.getX() + "-" + DIA_MZ_Range.getY());
+                    if (ms1lcms.CheckpointKey != null) {
+                        GroupingKey = Checkpoint.GetInputKey(CurveKey, ms1lcms.CheckpointKey, parameter.GetGroupingKey(), Last_MZ_Range == null ? "" : Last_MZ_Range.getX() + "-" + Last_MZ_Range.getY());
+                        if (Checkpoint.IsValid("Grouping_" + WindowID, GroupingKey) && ReadIfProcessed()) {
+                            return true;
+                        }
+                        Checkpoint.Invalidate("Grouping_" + WindowID);
+                    }
+                }
+                if (CurveKey != null && Checkpoint.IsValid("MS2_" + WindowID, CurveKey) && ReadPeakCurves()) {
+                    if (UnSortedPeakCurves.isEmpty()) {
+                        Logger.getRootLogger().info("No peak detected...................");
+                        return false;
+                    }
+                } else {
+                    if (CurveKey != null) {
+                        Checkpoint.Invalidate("MS2_" + WindowID);
+                    }
+                    swathdetection.DetectPeakCurves(GetScanCollection());
+                    if (CurveKey != null) {
+                        WritePeakCurves();
+                        Checkpoint.Record("MS2_" + WindowID, CurveKey, GetPeakCurveFile());
+                    }
+                    if (UnSortedPeakCurves.isEmpty()) {
+                        Logger.getRootLogger().info("No peak detected...................");
+                        return false;
+                    }
                 }
                 
                 ExportPeakCluster();
@@ -134,12 +171,15 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
                     RemoveFragmentPeakByMassDefect();
                 }
                 swathdetection.FragmentGrouping();
+                if (GroupingKey != null) {
+                    Checkpoint.Record("Grouping_" + WindowID, GroupingKey, GetPeakClusterFile(), GetClu2CurFile(), GetUnfClu2CurFile());
+                }
             } else {
                 //////pSMART////////////////
                 swathdetection.pSMARTGrouping(GetScanCollection());
             }
         }
-        GenerateMGF(ms1lcms);
+        return true;
     }
 
     public String GetQ1Name() {
@@ -154,10 +194,10 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         return FilenameUtils.getBaseName(ParentmzXMLName) + "_Q3";
     }
 
-    private void PrepareMGF_MS1Cluster(LCMSPeakMS1 ms1lcms) throws IOException {
+    private void PrepareMGF_MS1Cluster(LCMSPeakMS1 ms1lcms, PseudoMSMSWriter mgfWriter) throws IOException {
 
         ArrayList<PseudoMSMSProcessing> ScanList = new ArrayList<>();
-        ExecutorService executorPool = Executors.newFixedThreadPool(NoCPUs);
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
         for (PeakCluster ms1cluster : ms1lcms.PeakClusters) {
             if (DIA_MZ_Range.getX() <= ms1cluster.GetMaxMz() && DIA_MZ_Range.getY() >= ms1cluster.TargetMz() && FragmentsClu2Cur.containsKey(ms1cluster.Index)) {
                 ArrayList<PrecursorFragmentPairEdge> frags = FragmentsClu2Cur.get(ms1cluster.Index);
@@ -172,23 +212,9 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         }
 
         for (PseudoMSMSProcessing proc : ScanList) {
-            executorPool.execute(proc);
-        }
-        executorPool.shutdown();
-
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
+            taskGroup.Execute(proc);
         }
-
-        String mgffile = FilenameUtils.getFullPath(ParentmzXMLName) + GetQ1Name() + ".mgf.temp";
-        String mgffile2 = FilenameUtils.getFullPath(ParentmzXMLName) + GetQ2Name() + ".mgf.temp";
-        FileWriter mapwriter = new FileWriter(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + ".ScanClusterMapping_Q1", true);
-        FileWriter mapwriter2 = new FileWriter(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + ".ScanClusterMapping_Q2", true);
-
-        FileWriter mgfWriter = new FileWriter(mgffile, true);
-        FileWriter mgfWriter2 = new FileWriter(mgffile2, true);
+        taskGroup.Await();
 
         for (PseudoMSMSProcessing mSMSProcessing : ScanList) {
             if (MatchedFragmentMap.size() > 0) {
@@ -198,51 +224,22 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             XYPointCollection Scan = mSMSProcessing.GetScan();
 
             if (Scan != null && Scan.PointCount() > parameter.MinFrag) {
-                StringBuilder mgfString = new StringBuilder();
                 if (mSMSProcessing.Precursorcluster.IsotopeComplete(3)) {
                     parentDIA.Q1Scan++;
-                    mgfString.append("BEGIN IONS\n");
-                    mgfString.append("PEPMASS=").append(mSMSProcessing.Precursorcluster.TargetMz()).append("\n");
-                    mgfString.append("CHARGE=").append(mSMSProcessing.Precursorcluster.Charge).append("+\n");
-                    mgfString.append("RTINSECONDS=").append(mSMSProcessing.Precursorcluster.PeakHeightRT[0] * 60f).append("\n");
-                    mgfString.append("TITLE=").append(GetQ1Name()).append(".").append(parentDIA.Q1Scan).append(".").append(parentDIA.Q1Scan).append(".").append(mSMSProcessing.Precursorcluster.Charge).append("\n");
-                    for (int i = 0; i < Scan.PointCount(); i++) {
-                        mgfString.append(Scan.Data.get(i).getX()).append(" ").append(Scan.Data.get(i).getY()).append("\n");
-                    }
-                    mgfString.append("END IONS\n\n");
-                    mapwriter.write(parentDIA.Q1Scan + "_" + mSMSProcessing.Precursorcluster.Index + "\n");
-                    mgfWriter.write(mgfString.toString());
+                    mgfWriter.Write(1, parentDIA.Q1Scan, mSMSProcessing.Precursorcluster.TargetMz(), mSMSProcessing.Precursorcluster.Charge, mSMSProcessing.Precursorcluster.PeakHeightRT[0] * 60f, Scan, parentDIA.Q1Scan + "_" + mSMSProcessing.Precursorcluster.Index);
                     //} else if (mSMSProcessing.Precursorcluster.IsotopeComplete(2)) {
                 } else {
                     parentDIA.Q2Scan++;
-                    mgfString.append("BEGIN IONS\n");
-                    mgfString.append("PEPMASS=").append(mSMSProcessing.Precursorcluster.TargetMz()).append("\n");
-                    mgfString.append("CHARGE=").append(mSMSProcessing.Precursorcluster.Charge).append("+\n");
-                    mgfString.append("RTINSECONDS=").append(mSMSProcessing.Precursorcluster.PeakHeightRT[0] * 60f).append("\n");
-                    mgfString.append("TITLE=").append(GetQ2Name()).append(".").append(parentDIA.Q2Scan).append(".").append(parentDIA.Q2Scan).append(".").append(mSMSProcessing.Precursorcluster.Charge).append("\n");
-                    for (int i = 0; i < Scan.PointCount(); i++) {
-                        mgfString.append(Scan.Data.get(i).getX()).append(" ").append(Scan.Data.get(i).getY()).append("\n");
-                    }
-                    mgfString.append("END IONS\n\n");
-                    mapwriter2.write(parentDIA.Q2Scan + "_" + mSMSProcessing.Precursorcluster.Index + "\n");
-                    mgfWriter2.write(mgfString.toString());
+                    mgfWriter.Write(2, parentDIA.Q2Scan, mSMSProcessing.Precursorcluster.TargetMz(), mSMSProcessing.Precursorcluster.Charge, mSMSProcessing.Precursorcluster.PeakHeightRT[0] * 60f, Scan, parentDIA.Q2Scan + "_" + mSMSProcessing.Precursorcluster.Index);
                 }
             }
             mSMSProcessing.Precursorcluster.GroupedFragmentPeaks.clear();
         }
-        mgfWriter2.close();
-        mgfWriter.close();
-        mapwriter.close();
-        mapwriter2.close();
     }
 
-    private void PrepareMGF_UnfragmentIon() throws IOException {
-        String mgffile4 = FilenameUtils.getFullPath(ParentmzXMLName) + GetQ3Name() + ".mgf.temp";
-        FileWriter mgfWriter4 = new FileWriter(mgffile4, true);
-        FileWriter mapwriter3 = new FileWriter(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + ".ScanClusterMapping_Q3", true);
-
+    private void PrepareMGF_UnfragmentIon(PseudoMSMSWriter mgfWriter) throws IOException {
         ArrayList<PseudoMSMSProcessing> ScanList = new ArrayList<>();
-        ExecutorService executorPool = Executors.newFixedThreadPool(NoCPUs);
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
         for (PeakCluster ms2cluster : PeakClusters) {
             if (DIA_MZ_Range.getX() <= ms2cluster.TargetMz() && DIA_MZ_Range.getY() >= ms2cluster.TargetMz() && UnFragIonClu2Cur.containsKey(ms2cluster.Index)) {
                 ArrayList<PrecursorFragmentPairEdge> frags = UnFragIonClu2Cur.get(ms2cluster.Index);
@@ -250,16 +247,11 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
                     ms2cluster.GroupedFragmentPeaks.add(frag);
                 }
                 PseudoMSMSProcessing mSMSProcessing = new PseudoMSMSProcessing(ms2cluster, parameter);
-                executorPool.execute(mSMSProcessing);
+                taskGroup.Execute(mSMSProcessing);
                 ScanList.add(mSMSProcessing);
             }
         }
-        executorPool.shutdown();
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
-        }
+        taskGroup.Await();
 
         for (PseudoMSMSProcessing mSMSProcessing : ScanList) {
             if (MatchedFragmentMap.size() > 0) {
@@ -269,37 +261,72 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
 
             if (Scan != null && Scan.PointCount() > parameter.MinFrag) {
                 parentDIA.Q3Scan++;
-                StringBuilder mgfString = new StringBuilder();
-                mgfString.append("BEGIN IONS\n");
-                mgfString.append("PEPMASS=" + mSMSProcessing.Precursorcluster.TargetMz() + "\n");
-                mgfString.append("CHARGE=" + mSMSProcessing.Precursorcluster.Charge + "+\n");
-                mgfString.append("RTINSECONDS=" + mSMSProcessing.Precursorcluster.PeakHeightRT[0] * 60f + "\n");
-                mgfString.append("TITLE=").append(GetQ3Name()).append(".").append(parentDIA.Q3Scan).append(".").append(parentDIA.Q3Scan).append(".").append(mSMSProcessing.Precursorcluster.Charge).append("\n");
-                //mgfString.append("TITLE=" + WindowID + ";ClusterIndex:" + mSMSProcessing.ms2cluster.Index + "\n");
-                //mgfString.append("TITLE=" GetQ3Name() + WindowID + ";ClusterIndex:" + mSMSProcessing.ms2cluster.Index + "\n");
-
-                for (int i = 0; i < Scan.PointCount(); i++) {
-                    mgfString.append(Scan.Data.get(i).getX()).append(" ").append(Scan.Data.get(i).getY()).append("\n");
-                }
-                mgfString.append("END IONS\n\n");
-                mgfWriter4.write(mgfString.toString());
-                mapwriter3.write(parentDIA.Q3Scan + ";" + WindowID + ";" + mSMSProcessing.Precursorcluster.Index + "\n");
+                mgfWriter.Write(3, parentDIA.Q3Scan, mSMSProcessing.Precursorcluster.TargetMz(), mSMSProcessing.Precursorcluster.Charge, mSMSProcessing.Precursorcluster.PeakHeightRT[0] * 60f, Scan, parentDIA.Q3Scan + ";" + WindowID + ";" + mSMSProcessing.Precursorcluster.Index);
             }
             mSMSProcessing.Precursorcluster.GroupedFragmentPeaks.clear();
         }
-        mgfWriter4.close();
-        mapwriter3.close();
     }
     
+    //Write the pseudo MS/MS spectra of this window through the writer of the DIA file, 
+    //or through a writer of its own if the DIA file doesn't have one open
     public void GenerateMGF(LCMSPeakMS1 ms1lcms) throws IOException, InterruptedException {
-        PrepareMGF_MS1Cluster(ms1lcms);
-        PrepareMGF_UnfragmentIon();
+        PseudoMSMSWriter mgfWriter = parentDIA.GetMGFWriter();
+        if (mgfWriter != null) {
+            PrepareMGF_MS1Cluster(ms1lcms, mgfWriter);
+            PrepareMGF_UnfragmentIon(mgfWriter);
+            return;
+        }
+        mgfWriter = new PseudoMSMSWriter(ParentmzXMLName);
+        try {
+            PrepareMGF_MS1Cluster(ms1lcms, mgfWriter);
+            PrepareMGF_UnfragmentIon(mgfWriter);
+        } finally {
+            mgfWriter.Close();
+        }
     }
 
     public ScanCollection GetScanCollection() throws InterruptedException, ExecutionException, IOException {
         return SpectrumParser.GetScanCollectionDIAMS2(DIA_MZ_Range, true,parameter.startRT, parameter.endRT);
     }
 
+    //Peak clusters and all the peak curves of the window, written after peak curve detection for the checkpoint manifest
+    public String GetPeakCurveFile() {
+        return FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCurve.serFS";
+    }
+
+    private String GetClu2CurFile() {
+        return FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS";
+    }
+
+    private String GetUnfClu2CurFile() {
+        return FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS";
+    }
+
+    public void WritePeakCurves() throws IOException {
+        Logger.getRootLogger().info("Writing PeakCurve serialization to file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCurve.serFS...");
+        CreatePeakFolder();
+        PeakClusterFile.Write(PeakClusters, UnSortedPeakCurves, GetPeakCurveFile());
+    }
+
+    public boolean ReadPeakCurves() {
+        if (!new File(GetPeakCurveFile()).exists()) {
+            return false;
+        }
+        try {
+            Logger.getRootLogger().info("Reading PeakCurve serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_PeakCurve.serFS...");
+            ArrayList<PeakCurve> curves = new ArrayList<>();
+            PeakClusters = PeakClusterFile.Read(GetPeakCurveFile(), parameter, curves);
+            UnSortedPeakCurves = curves;
+        } catch (Exception ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            return false;
+        }
+        for (PeakCluster cluster : PeakClusters) {
+            cluster.CreateLock();
+        }
+        return true;
+    }
+
     public boolean ReadIfProcessed() {
 
         return (ReadPrecursorFragmentClu2Cur() & ReadPeakCluster());
@@ -339,6 +366,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             templist.put(clusterindex, newlist);
             
         }
+        CloseEdgeStore(UnFragIonClu2Cur);
         UnFragIonClu2Cur=templist;
     }
         
@@ -370,6 +398,7 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
             }
             templist.put(clusterindex, newlist);            
         }
+        CloseEdgeStore(FragmentsClu2Cur);
         FragmentsClu2Cur=templist;
     }
     
@@ -450,14 +479,25 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         FSCluster2CurveWrite();
     }
 
+    //Release the mapped edge store before the map is dropped or its file is written again
+    private static void CloseEdgeStore(Map<Integer, ArrayList<PrecursorFragmentPairEdge>> Clu2Cur) {
+        if (Clu2Cur instanceof FragmentEdgeStore) {
+            try {
+                ((FragmentEdgeStore) Clu2Cur).Close();
+            } catch (IOException ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            }
+        }
+    }
+
     private void FSCluster2CurveWrite() {
+        if (FragmentsClu2Cur instanceof FragmentEdgeStore) {
+            //Mapped from the file, which already holds it
+            return;
+        }
         try {
             Logger.getRootLogger().debug("Writing PrecursorFragmentCorr serialization to file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS...");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS", false);
-            FSTObjectOutput oos = new FSTObjectOutput(fout);
-            oos.writeObject(FragmentsClu2Cur);
-            oos.close();
-            fout.close();
+            FragmentEdgeStore.Write(FragmentsClu2Cur, FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS");
         } catch (Exception ex) {
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
         }
@@ -480,11 +520,22 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         }
         try {
             Logger.getRootLogger().debug("Reading PrecursorFragmentCorr serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS...");
+            CloseEdgeStore(FragmentsClu2Cur);
+            if (FragmentEdgeStore.IsEdgeStoreFile(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS")) {
+                FragmentsClu2Cur = FragmentEdgeStore.Open(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS");
+                return true;
+            }
+            //Legacy FST file, convert it to the edge store
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS");
             FSTObjectInput in = new FSTObjectInput(fileIn);
             FragmentsClu2Cur = (HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>) in.readObject();
             in.close();
             fileIn.close();
+            try {
+                FragmentEdgeStore.Write(FragmentsClu2Cur, FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_Clus2Cur.serFS");
+            } catch (IOException ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            }
 
         } catch (Exception ex) {            
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
@@ -516,13 +567,13 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
     }
 
     private void FSCluster2CurveUnfragWrite() {
+        if (UnFragIonClu2Cur instanceof FragmentEdgeStore) {
+            //Mapped from the file, which already holds it
+            return;
+        }
         try {
             Logger.getRootLogger().debug("Writing UnfragPrecursorFragCorr serialization to file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS...");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS", false);
-            FSTObjectOutput oos = new FSTObjectOutput(fout);
-            oos.writeObject(UnFragIonClu2Cur);
-            oos.close();
-            fout.close();
+            FragmentEdgeStore.Write(UnFragIonClu2Cur, FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS");
         } catch (Exception ex) {
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
         }
@@ -545,11 +596,22 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
         }
         try {
             Logger.getRootLogger().debug("Reading UnfragPrecursorFragCorr serialization from file:" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS...");
+            CloseEdgeStore(UnFragIonClu2Cur);
+            if (FragmentEdgeStore.IsEdgeStoreFile(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS")) {
+                UnFragIonClu2Cur = FragmentEdgeStore.Open(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS");
+                return true;
+            }
+            //Legacy FST file, convert it to the edge store
             FileInputStream fileIn = new FileInputStream(FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS");
             FSTObjectInput in = new FSTObjectInput(fileIn);
             UnFragIonClu2Cur = (HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>) in.readObject();
             in.close();
             fileIn.close();
+            try {
+                FragmentEdgeStore.Write(UnFragIonClu2Cur, FilenameUtils.getFullPath(ParentmzXMLName) + FilenameUtils.getBaseName(ParentmzXMLName) + "_Peak/" + FilenameUtils.getBaseName(ScanCollectionName) + "_UnfClus2Cur.serFS");
+            } catch (IOException ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            }
 
         } catch (Exception ex) {            
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
@@ -584,31 +646,13 @@ public class LCMSPeakDIAMS2 extends LCMSPeakBase {
 
     public void ExtractFragmentForPeakCluser(PeakCluster Cluster) {
         if (FragmentsClu2Cur!=null && FragmentsClu2Cur.containsKey(Cluster.Index)) {
-            Cluster.fraglock.writeLock().lock();
-            try {
-                for (PrecursorFragmentPairEdge fragmentClusterUnit : FragmentsClu2Cur.get(Cluster.Index)) {
-                    if (!Cluster.GroupedFragmentPeaks.contains(fragmentClusterUnit)) {
-                        Cluster.GroupedFragmentPeaks.add(fragmentClusterUnit);
-                    }
-                }
-            } finally {
-                Cluster.fraglock.writeLock().unlock();
-            }
+            Cluster.MergeGroupedFragments(FragmentsClu2Cur.get(Cluster.Index));
         }
     }
 
     public void ExtractFragmentForUnfragPeakCluser(PeakCluster Cluster) {
         if (UnFragIonClu2Cur!=null && UnFragIonClu2Cur.containsKey(Cluster.Index)) {
-            Cluster.fraglock.writeLock().lock();
-            try {
-                for (PrecursorFragmentPairEdge fragmentClusterUnit : UnFragIonClu2Cur.get(Cluster.Index)) {
-                    if (!Cluster.GroupedFragmentPeaks.contains(fragmentClusterUnit)) {
-                        Cluster.GroupedFragmentPeaks.add(fragmentClusterUnit);
-                    }
-                }
-            } finally {
-                Cluster.fraglock.writeLock().unlock();
-            }
+            Cluster.MergeGroupedFragments(UnFragIonClu2Cur.get(Cluster.Index));
         }
     }
 }
@@ -69,6 +69,10 @@ public class LCMSPeakMS1 extends LCMSPeakBase {
     public LCMSID IDsummary;
     public boolean UseMappedIon = false;
     public TreeMap<XYData, ArrayList<Integer>> MS1Windows;
+    //Input key of the MS1 peak detection in the checkpoint manifest, null if it isn't checkpointed
+    public String CheckpointKey = null;
+    //Whether SpectrumParser was opened by this map and has to be closed by it
+    private boolean OwnSpectrumParser = false;
 
      public LCMSPeakMS1(String Filename, InstrumentParameter parameter, int NoCPUs) {
         this.ScanCollectionName = Filename;
@@ -157,6 +161,16 @@ public class LCMSPeakMS1 extends LCMSPeakBase {
   
     public void SetSpectrumParser(SpectrumParserBase mzxml) {
         this.SpectrumParser = mzxml;
+        OwnSpectrumParser = false;
+    }
+
+    //Close the parser opened by GetSpectrumParser, a parser handed in by SetSpectrumParser is closed by its owner
+    public void CloseSpectrumParser() {
+        if (SpectrumParser != null && OwnSpectrumParser) {
+            SpectrumParser.Close();
+        }
+        SpectrumParser = null;
+        OwnSpectrumParser = false;
     }
 
     public SpectrumParserBase GetSpectrumParser() {
@@ -164,6 +178,7 @@ public class LCMSPeakMS1 extends LCMSPeakBase {
             try {
                 //SpectrmParser = new mzXMLParser(ScanCollectionName, parameter, datattype, null, NoCPUs);
                 SpectrumParser = SpectrumParserBase.GetInstance(ScanCollectionName, parameter, datattype, null, NoCPUs);
+                OwnSpectrumParser = true;
             } catch (Exception ex) {
                 Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
             }
@@ -174,14 +189,24 @@ public class LCMSPeakMS1 extends LCMSPeakBase {
     //MS1 feature detection
     public void PeakClusterDetection() throws FileNotFoundException, IOException, InterruptedException, ExecutionException, ParserConfigurationException, SAXException, DataFormatException, XmlPullParserException {
 
+        //Calculate how many point per minute when we do B-spline peak smoothing, MS2 peak detection uses it as well when MS1 peaks are read from file
+        parameter.NoPeakPerMin = (int) (parameter.SmoothFactor / GetSpectrumParser().GetMS1CycleTime());
+        Logger.getRootLogger().info("MS1 average cycle time : "+GetSpectrumParser().GetMS1CycleTime()*60+ " seconds");
         if (Resume && ReadIfProcessed()) {
             return;
         }
+        //Detection guided by identifications is not checkpointed
+        CheckpointKey = null;
+        if (Checkpoint != null && IDsummary == null && SaveSerializationFile) {
+            CheckpointKey = GetCheckpointKey();
+            if (Checkpoint.IsValid("MS1", CheckpointKey) && ReadPeakCluster()) {
+                MapScanNoForPeakClusters();
+                return;
+            }
+            Checkpoint.Invalidate("MS1");
+        }
         CreatePeakFolder();
         ArrayList<ScanCollection> scanCollections = new ArrayList<>();
-        //Calculate how many point per minute when we do B-spline peak smoothing
-        parameter.NoPeakPerMin = (int) (parameter.SmoothFactor / GetSpectrumParser().GetMS1CycleTime());
-        Logger.getRootLogger().info("MS1 average cycle time : "+GetSpectrumParser().GetMS1CycleTime()*60+ " seconds");
         
         if (MS1Windows == null || MS1Windows.isEmpty()) {
             //The data has only one MS1 scan set
@@ -229,6 +254,20 @@ public class LCMSPeakMS1 extends LCMSPeakBase {
         if (SaveSerializationFile) {
             ExportPeakCluster();
         }
+        if (CheckpointKey != null) {
+            Checkpoint.Record("MS1", CheckpointKey, GetPeakClusterFile());
+        }
+    }
+
+    //Spectral file, parameters and MS1 windows
+    private String GetCheckpointKey() throws IOException {
+        StringBuilder windows = new StringBuilder();
+        if (MS1Windows != null) {
+            for (XYData window : MS1Windows.keySet()) {
+                windows.append(window.getX()).append("-").append(window.getY()).append(";");
+            }
+        }
+        return Checkpoint.GetInputKey(parameter.GetMS1DetectionKey(), String.valueOf(datattype), windows.toString());
     }
 
     public void MapScanNoForPeakClusters() {
@@ -20,34 +20,178 @@
 package MSUmpire.MathPackage;
 
 import java.util.Arrays;
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
 import umontreal.iro.lecuyer.gof.KernelDensity;
 import umontreal.iro.lecuyer.probdist.EmpiricalDist;
 import umontreal.iro.lecuyer.probdist.NormalDist;
-import umontreal.iro.lecuyer.randvar.KernelDensityGen;
+import org.apache.log4j.Logger;
 
 /**
- *
+ * Gaussian kernel density estimation
+ * The density is estimated by linear binning of the observations on a fine uniform grid
+ * and FFT convolution with the kernel, then interpolated at the requested points,
+ * which takes O(N + G log G) instead of O(N*M) for N observations and M points.
+ * If the range of the data is too wide for the grid to resolve the bandwidth 
+ * (e.g. far outliers), the density is evaluated directly.
  * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
  */
 public class KernelDensityEstimator {
 
     private EmpiricalDist empiricalDist;
-    private KernelDensityGen kernelDensityGen;
+    private double[] ObsData;
     private int ObsDataSize=0;
     
+    //Number of grid points per bandwidth, the binning error is in the order of (1/GridPointsPerBandwidth)^2
+    private static final int GridPointsPerBandwidth = 32;
+    private static final int MinGridPoints = 1 << 10;
+    private static final int MaxGridPoints = 1 << 18;
+    //Kernel is truncated at this number of bandwidths
+    private static final double KernelRange = 8d;
+    
     public void SetData(double [] data){
         Arrays.sort(data);
         empiricalDist = new EmpiricalDist(data);
+        ObsData = data;
         ObsDataSize=data.length;
     }
     
     public double[] Density(double[] xdata) {
-        
-        NormalDist kern = new NormalDist();        
         //Silverman's ‘rule of thumb’ (Scott Variation uses factor = 1.06)
         double bandWidth = 0.99 * Math.min(empiricalDist.getSampleStandardDeviation(), (empiricalDist.getInterQuartileRange() / 1.34)) / Math.pow(ObsDataSize, 0.2);        
-        double[] DensityValues = KernelDensity.computeDensity(empiricalDist, kern, bandWidth, xdata);        
-        return DensityValues;
+        return BinnedDensity(ObsData, null, bandWidth, xdata);
     }    
-    
+
+    //Gaussian kernel density of (weighted) observations at xdata, normalized by the sum of weights.
+    //weights == null means every observation has weight 1.
+    public static double[] BinnedDensity(double[] obs, double[] weights, double bandWidth, double[] xdata) {
+        if (!(bandWidth > 0d) || Double.isInfinite(bandWidth) || obs.length == 0 || xdata.length == 0) {
+            return DirectDensity(obs, weights, bandWidth, xdata);
+        }
+        double lower = Double.MAX_VALUE;
+        double upper = -Double.MAX_VALUE;
+        for (double x : obs) {
+            lower = Math.min(lower, x);
+            upper = Math.max(upper, x);
+        }
+        for (double x : xdata) {
+            lower = Math.min(lower, x);
+            upper = Math.max(upper, x);
+        }
+        if (Double.isNaN(lower) || Double.isNaN(upper) || Double.isInfinite(lower) || Double.isInfinite(upper)) {
+            return DirectDensity(obs, weights, bandWidth, xdata);
+        }
+
+        //A capped grid coarser than the bandwidth would smooth the density away
+        if ((upper - lower) / bandWidth * GridPointsPerBandwidth >= MaxGridPoints) {
+            Logger.getRootLogger().debug("Data range (" + lower + " to " + upper + ") is too wide for the density grid with bandwidth " + bandWidth + ", the density is evaluated directly.");
+            return DirectDensity(obs, weights, bandWidth, xdata);
+        }
+
+        //Grid of G points over [lower, upper]
+        int G = MinGridPoints;
+        while (G < MaxGridPoints && (G - 1) < (upper - lower) / bandWidth * GridPointsPerBandwidth) {
+            G <<= 1;
+        }
+        double delta = (upper - lower) / (G - 1);
+        if (delta == 0d) {
+            delta = bandWidth / GridPointsPerBandwidth;
+        }
+
+        //Linear binning
+        double[] bins = new double[G];
+        double sumweight = 0d;
+        for (int i = 0; i < obs.length; i++) {
+            double w = weights == null ? 1d : weights[i];
+            sumweight += w;
+            double pos = (obs[i] - lower) / delta;
+            int j = (int) Math.floor(pos);
+            if (j >= G - 1) {
+                bins[G - 1] += w;
+                continue;
+            }
+            if (j < 0) {
+                bins[0] += w;
+                continue;
+            }
+            double frac = pos - j;
+            bins[j] += w * (1d - frac);
+            bins[j + 1] += w * frac;
+        }
+
+        //Kernel values at grid offsets -K..K, zero padded so that the circular convolution doesn't wrap around
+        int K = (int) Math.min(G - 1, Math.ceil(KernelRange * bandWidth / delta));
+        int P = Integer.highestOneBit(G + K);
+        if (P < G + K) {
+            P <<= 1;
+        }
+        double[] data = new double[P];
+        System.arraycopy(bins, 0, data, 0, G);
+        double[] kernel = new double[P];
+        for (int m = 0; m <= K; m++) {
+            double z = m * delta / bandWidth;
+            double k = Math.exp(-0.5 * z * z) / Math.sqrt(2d * Math.PI);
+            kernel[m] = k;
+            if (m > 0) {
+                kernel[P - m] = k;
+            }
+        }
+        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+        Complex[] datafft = fft.transform(data, TransformType.FORWARD);
+        Complex[] kernelfft = fft.transform(kernel, TransformType.FORWARD);
+        for (int i = 0; i < P; i++) {
+            datafft[i] = datafft[i].multiply(kernelfft[i]);
+        }
+        Complex[] conv = fft.transform(datafft, TransformType.INVERSE);
+        double[] griddensity = new double[G];
+        for (int j = 0; j < G; j++) {
+            griddensity[j] = Math.max(0d, conv[j].getReal()) / (bandWidth * sumweight);
+        }
+
+        //Linear interpolation at xdata
+        double[] DensityValues = new double[xdata.length];
+        for (int i = 0; i < xdata.length; i++) {
+            double pos = (xdata[i] - lower) / delta;
+            int j = (int) Math.floor(pos);
+            if (j >= G - 1) {
+                DensityValues[i] = griddensity[G - 1];
+            } else if (j < 0) {
+                DensityValues[i] = griddensity[0];
+            } else {
+                double frac = pos - j;
+                DensityValues[i] = griddensity[j] * (1d - frac) + griddensity[j + 1] * frac;
+            }
+        }
+        return DensityValues;
+    }
+
+    //Direct O(N*M) evaluation, used when the bandwidth is degenerated or the grid can't cover the data range
+    private static double[] DirectDensity(double[] obs, double[] weights, double bandWidth, double[] xdata) {
+        if (weights == null) {
+            double[] sorted = Arrays.copyOf(obs, obs.length);
+            Arrays.sort(sorted);
+            return KernelDensity.computeDensity(new EmpiricalDist(sorted), new NormalDist(), bandWidth, xdata);
+        }
+        NormalDist kern = new NormalDist();
+        double a = kern.getXinf();
+        double b = kern.getXsup();
+        double sumweight = 0d;
+        for (double w : weights) {
+            sumweight += w;
+        }
+        double[] DensityValues = new double[xdata.length];
+        for (int j = 0; j < xdata.length; j++) {
+            double sum = 0d;
+            for (int i = 0; i < obs.length; i++) {
+                double z = (xdata[j] - obs[i]) / bandWidth;
+                if ((z >= a) && (z <= b)) {
+                    sum += kern.density(z) * weights[i];
+                }
+            }
+            DensityValues[j] = sum / (bandWidth * sumweight);
+        }
+        return DensityValues;
+    }
 }
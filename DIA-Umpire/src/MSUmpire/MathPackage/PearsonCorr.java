@@ -19,7 +19,10 @@
  */
 package MSUmpire.MathPackage;
 
+import MSUmpire.BaseDataStructure.RTGridSignal;
+import MSUmpire.BaseDataStructure.SortedXYCollectionClass;
 import MSUmpire.BaseDataStructure.XYPointCollection;
+import java.util.Arrays;
 import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
 
 /**
@@ -175,25 +178,155 @@ public class PearsonCorr {
     }
     
     public float CalcCorr(XYPointCollection CollectionA, XYPointCollection CollectionB, int NoPointPerInterval) {
-        Regression regression = new Regression();
+        return CalcCorr(CollectionA.Data, CollectionB.Data, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY, NoPointPerInterval);
+    }
 
-        int num = Math.max(CollectionA.PointCount(), CollectionB.PointCount()) / 2;
+    /**
+     * Peak profile correlation (R2 of the linear regression of binned intensities) of the points 
+     * of two x-sorted collections within [StartX, EndX]. The points are read in place and the 
+     * binning, gap filling and regression work on per-thread primitive buffers, the result is 
+     * the same as building the sub collections and using Regression.
+     */
+    public static float CalcCorr(SortedXYCollectionClass DataA, SortedXYCollectionClass DataB, float StartX, float EndX, int NoPointPerInterval) {
+        int startA = LowerIndex(DataA, StartX);
+        int endA = UpperIndex(DataA, EndX);
+        int startB = LowerIndex(DataB, StartX);
+        int endB = UpperIndex(DataB, EndX);
+        if (endA <= startA || endB <= startB) {
+            return 0f;
+        }
+        int num = Math.max(endA - startA, endB - startB) / 2;
         float timeinterval = 2f / (float) NoPointPerInterval;
         if (num < 6) {
             return 0f;
         }
+        CorrBuffer buffer = Buffer.get();
+        buffer.Ensure(num);
+        float[] arrayA = buffer.arrayA;
+        float[] arrayB = buffer.arrayB;
+        Arrays.fill(arrayA, 0, num, 0f);
+        Arrays.fill(arrayB, 0, num, 0f);
 
-        float[] arrayA = new float[num];
-        float[] arrayB = new float[num];
+        float start = Math.max(DataA.GetX(startA), DataB.GetX(startB));
+        Binning(DataA, startA, endA, start, timeinterval, arrayA, num);
+        Binning(DataB, startB, endB, start, timeinterval, arrayB, num);
 
-        float start = Math.max(CollectionA.Data.get(0).getX(), CollectionB.Data.get(0).getX());
+        for (int idx = 1; idx < num - 1; idx++) {
+            if (arrayA[idx] == 0f) {
+                arrayA[idx] = (arrayA[idx - 1] + arrayA[idx + 1]) / 2;
+            }
+            if (arrayB[idx] == 0f) {
+                arrayB[idx] = (arrayB[idx - 1] + arrayB[idx + 1]) / 2;
+            }
+        }
+
+        //Pairs ordered by intensity A (stable), the order in which Regression sums the points
+        long[] keys = buffer.keys;
+        int n = 0;
+        for (int idx = 0; idx < num; idx++) {
+            if (arrayA[idx] > 0 && arrayB[idx] > 0) {
+                keys[n++] = ((long) Float.floatToIntBits(arrayA[idx]) << 32) | idx;
+            }
+        }
+        if (n <= 5) {
+            return 0f;
+        }
+        Arrays.sort(keys, 0, n);
 
+        float SigXY = 0f;
+        float SigX = 0f;
+        float SigY = 0f;
+        float SigX2 = 0f;
+        for (int k = 0; k < n; k++) {
+            int idx = (int) keys[k];
+            float x = arrayA[idx];
+            float y = arrayB[idx];
+            SigXY += x * y;
+            SigX += x;
+            SigY += y;
+            SigX2 += x * x;
+        }
+        float Mvalue = ((n * SigXY) - (SigX * SigY)) / ((n * SigX2) - (SigX * SigX));
+        if (!(Mvalue > 0)) {
+            return 0f;
+        }
+        float Bvalue = (SigY - (Mvalue * SigX)) / n;
+        float MeanY = SigY / n;
+        float SST = 0f;
+        float SSR = 0f;
+        for (int k = 0; k < n; k++) {
+            int idx = (int) keys[k];
+            float y = arrayB[idx];
+            SST += (y - MeanY) * (y - MeanY);
+        }
+        for (int k = 0; k < n; k++) {
+            int idx = (int) keys[k];
+            float y = arrayB[idx];
+            float fit = Mvalue * arrayA[idx] + Bvalue;
+            SSR += (y - fit) * (y - fit);
+        }
+        return (SST - SSR) / SST;
+    }
+
+    /**
+     * Peak profile correlation (R2) of two signals on the same RT grid within [StartX, EndX].
+     * The signals are already binned, the bins of the overlapping grid range are read 
+     * directly as aligned slices and only bins with both intensities > 0 are used.
+     */
+    public static float CalcCorr(RTGridSignal SignalA, RTGridSignal SignalB, float StartX, float EndX) {
+        //The overlap must cover at least 6 bins
+        if (EndX - StartX < 6 * SignalA.Interval) {
+            return 0f;
+        }
+        int lo = Math.max(Math.max(SignalA.Offset, SignalB.Offset), SignalA.GridIndex(StartX));
+        int hi = Math.min(Math.min(SignalA.EndIndex(), SignalB.EndIndex()), SignalA.GridIndex(EndX) + 1);
+        if (hi - lo < 6) {
+            return 0f;
+        }
+        float[] arrayA = SignalA.Signal;
+        float[] arrayB = SignalB.Signal;
+        int offsetA = lo - SignalA.Offset;
+        int offsetB = lo - SignalB.Offset;
+        int num = hi - lo;
+
+        int n = 0;
+        double SigXY = 0d;
+        double SigX = 0d;
+        double SigY = 0d;
+        double SigX2 = 0d;
+        double SigY2 = 0d;
+        for (int idx = 0; idx < num; idx++) {
+            float x = arrayA[offsetA + idx];
+            float y = arrayB[offsetB + idx];
+            if (x > 0 && y > 0) {
+                n++;
+                SigXY += x * (double) y;
+                SigX += x;
+                SigY += y;
+                SigX2 += x * (double) x;
+                SigY2 += y * (double) y;
+            }
+        }
+        if (n <= 5) {
+            return 0f;
+        }
+        double Sxy = n * SigXY - SigX * SigY;
+        double Sxx = n * SigX2 - SigX * SigX;
+        double Syy = n * SigY2 - SigY * SigY;
+        if (!(Sxy > 0) || !(Sxx > 0) || !(Syy > 0)) {
+            return 0f;
+        }
+        return (float) ((Sxy / Sxx) * (Sxy / Syy));
+    }
+
+    //Max intensity in bins of timeinterval from start, points on a bin's upper edge are not counted
+    private static void Binning(SortedXYCollectionClass Data, int startidx, int endidx, float start, float timeinterval, float[] array, int num) {
         int i = 0;
         float low = start;
         float up = start + timeinterval;
-
-        for (int j = 0; j < CollectionA.PointCount(); j++) {
-            while (CollectionA.Data.get(j).getX() > up) {
+        for (int j = startidx; j < endidx; j++) {
+            float x = Data.GetX(j);
+            while (x > up) {
                 i++;
                 low = up;
                 up = low + timeinterval;
@@ -201,59 +334,68 @@ public class PearsonCorr {
             if (i >= num) {
                 break;
             }
-            if (CollectionA.Data.get(j).getX() >= low && CollectionA.Data.get(j).getX() < up) {
-                if (CollectionA.Data.get(j).getY() > arrayA[i]) {
-                    arrayA[i] = CollectionA.Data.get(j).getY();
+            if (x >= low && x < up) {
+                float y = Data.GetY(j);
+                if (y > array[i]) {
+                    array[i] = y;
                 }
             }
         }
-        i = 0;
-        low = start;
-        up = start + timeinterval;
-        for (int j = 0; j < CollectionB.PointCount(); j++) {
-            while (CollectionB.Data.get(j).getX() > up) {
-                i++;
-                low = up;
-                up = low + timeinterval;
-            }
-            if (i >= num) {
-                break;
-            }
-            if (CollectionB.Data.get(j).getX() >= low && CollectionB.Data.get(j).getX() < up) {
-                if (CollectionB.Data.get(j).getY() > arrayB[i]) {
-                    arrayB[i] = CollectionB.Data.get(j).getY();
-                }
+    }
+
+    //First index with x >= value
+    private static int LowerIndex(SortedXYCollectionClass Data, float value) {
+        int lo = 0;
+        int hi = Data.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Data.GetX(mid) < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
         }
+        return lo;
+    }
 
-        for (int idx = 1; idx < num - 1; idx++) {
-            if (arrayA[idx] == 0f) {
-                arrayA[idx] = (arrayA[idx - 1] + arrayA[idx + 1]) / 2;
-            }
-            if (arrayB[idx] == 0f) {
-                arrayB[idx] = (arrayB[idx - 1] + arrayB[idx + 1]) / 2;
+    //First index with x > value
+    private static int UpperIndex(SortedXYCollectionClass Data, float value) {
+        int lo = 0;
+        int hi = Data.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Data.GetX(mid) <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
             }
         }
+        return lo;
+    }
 
-        XYPointCollection pointset = new XYPointCollection();
-        for (int idx = 0; idx < num; idx++) {
-            if (arrayA[idx] > 0 && arrayB[idx] > 0) {
-                pointset.AddPoint(arrayA[idx], arrayB[idx]);
-            }
+    private static final ThreadLocal<CorrBuffer> Buffer = new ThreadLocal<CorrBuffer>() {
+        @Override
+        protected CorrBuffer initialValue() {
+            return new CorrBuffer();
         }
+    };
 
-        float R2 = 0f;
-        if (pointset.PointCount() > 5) {
-            regression.SetData(pointset);
-            if (regression.equation.Mvalue > 0) {
-                R2 = regression.GetR2();
+    /**
+     * Per-thread binned intensities and sort keys
+     */
+    private static class CorrBuffer {
+
+        float[] arrayA = new float[256];
+        float[] arrayB = new float[256];
+        long[] keys = new long[256];
+
+        void Ensure(int num) {
+            if (arrayA.length < num) {
+                int size = Math.max(num, arrayA.length * 2);
+                arrayA = new float[size];
+                arrayB = new float[size];
+                keys = new long[size];
             }
         }
-        pointset.dispose();
-        regression.dispose();
-        regression = null;
-        arrayA = null;
-        arrayB = null;
-        return R2;
     }
 }
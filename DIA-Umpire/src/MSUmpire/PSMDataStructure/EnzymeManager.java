@@ -47,7 +47,7 @@ public class EnzymeManager {
         }
     }
     
-    public static EnzymeManager GetInstance() throws XmlPullParserException, IOException {
+    public static synchronized EnzymeManager GetInstance() throws XmlPullParserException, IOException {
         if (enzymeManager == null) {
             enzymeManager = new EnzymeManager();
         }
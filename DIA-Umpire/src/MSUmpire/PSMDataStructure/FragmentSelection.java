@@ -19,9 +19,14 @@
  */
 package MSUmpire.PSMDataStructure;
 
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import org.apache.commons.io.FilenameUtils;
 
 /**
  * Fragment and peptide selection algorithms (as described in DIA-Umpire paper)
@@ -31,195 +36,281 @@ import org.apache.commons.io.FilenameUtils;
 public class FragmentSelection {
 
     ArrayList<LCMSID> FileList;
-    public HashMap<String, HashMap<String, Float>> PepFragScore = new HashMap<>();
-    public HashMap<String, HashMap<String, Float>> ProtPepScore = new HashMap<>();
     public HashMap<String, ArrayList<String>> TopFrags = new HashMap<>();
     public HashMap<String, ArrayList<String>> TopPeps = new HashMap<>();
-    public HashMap<String, HashMap<String, Float>> FragInt = new HashMap<>();
     public float freqPercent = 0f;
     public float MinFragMZ = 200f;
     public float CorrelationThreshold = 0.6f;
     public int NoConsecutiveRun = 3;
     public Scoring scoring = Scoring.IntensityCorr;
 
+    private PepFragMatrix Matrix;
+    //[column of Matrix] score of the fragment, NaN if the fragment is not selected
+    private float[] FragScore;
+    //[row * NoFiles + file] abundance of the peptide ion by its top fragments
+    private float[] TopFragAbundance;
+    //Protein key ID (IDKeyPool.Protein) -> peptide ions passing the frequency filter
+    private final TIntObjectHashMap<PepScoreList> ProtPepScore = new TIntObjectHashMap<>();
+    private final TIntObjectHashMap<int[]> TopPepKeyIDs = new TIntObjectHashMap<>();
+
     public enum Scoring {
         IntensityCorr,
         Intensity,
     }
 
+    private static class PepScoreList {
+
+        int[] PepKeyID;
+        float[] Score;
+    }
+
     public FragmentSelection(ArrayList<LCMSID> FileList) {
         this.FileList = FileList;
     }
 
-    public void GeneratePepFragScoreMap() {
-        for (LCMSID IDSummary : FileList) {
-            for (String key : IDSummary.GetPepIonList().keySet()) {
-                if (!PepFragScore.containsKey(key)) {
-                    PepFragScore.put(key, new HashMap<String, Float>());
-                }
-            }
-            for (String key : IDSummary.GetMappedPepIonList().keySet()) {
-                if (!PepFragScore.containsKey(key)) {
-                    PepFragScore.put(key, new HashMap<String, Float>());
-                }
+    public PepFragMatrix GetMatrix() {
+        if (Matrix == null) {
+            Matrix = new PepFragMatrix(FileList);
+        }
+        return Matrix;
+    }
+
+    //Index of the LC-MS run in the matrix, -1 if the run is not part of the selection
+    public int GetFileIndex(LCMSID IDSummary) {
+        for (int i = 0; i < FileList.size(); i++) {
+            if (FileList.get(i) == IDSummary) {
+                return i;
             }
         }
+        return -1;
+    }
 
-        for (String PepKey : PepFragScore.keySet()) {
+    public void GeneratePepFragScoreMap() {
+        PepFragMatrix matrix = GetMatrix();
+        FragScore = new float[matrix.GetColumnCount()];
+        Arrays.fill(FragScore, Float.NaN);
+        float[] fragmentscore = new float[FragScore.length];
+        int[] fragmentfreq = new int[FragScore.length];
+
+        for (int row = 0; row < matrix.GetRowCount(); row++) {
             int IDNo = 0;
-            HashMap<String, Float> fragmentscore = new HashMap<>();
-            HashMap<String, Integer> fragmentfreq = new HashMap<>();
-
-            for (LCMSID IDSummary : FileList) {
-                PepIonID pep = null;
-                if (IDSummary.GetPepIonList().containsKey(PepKey)) {
-                    pep = IDSummary.GetPepIonList().get(PepKey);
-                } else if (IDSummary.GetMappedPepIonList().containsKey(PepKey)) {
-                    pep = IDSummary.GetMappedPepIonList().get(PepKey);
-                }
+            for (int f = 0; f < matrix.NoFiles; f++) {
+                PepIonID pep = matrix.GetPep(row, f);
                 if (pep != null) {
                     IDNo++;
+                    if (pep.FragmentPeaks == null) {
+                        continue;
+                    }
                     for (FragmentPeak frag : pep.FragmentPeaks) {
                         if (frag.corr > CorrelationThreshold && frag.FragMZ >= MinFragMZ) {
-                            if (!fragmentscore.containsKey(frag.GetFragKey())) {
-                                fragmentscore.put(frag.GetFragKey(), 0f);
-                                fragmentfreq.put(frag.GetFragKey(), 0);
-                            }
+                            int col = matrix.FindFrag(row, frag.GetFragKeyID());
                             if (scoring == Scoring.Intensity) {
-                                fragmentscore.put(frag.GetFragKey(), fragmentscore.get(frag.GetFragKey()) + frag.intensity);
+                                fragmentscore[col] += frag.intensity;
                             } else if (scoring == Scoring.IntensityCorr) {
-                                fragmentscore.put(frag.GetFragKey(), fragmentscore.get(frag.GetFragKey()) + frag.corr * frag.intensity);
-                            }
-                            fragmentfreq.put(frag.GetFragKey(), fragmentfreq.get(frag.GetFragKey()) + 1);
-
-                            if (!FragInt.containsKey(pep.GetKey() + "_" + frag.GetFragKey())) {
-                                FragInt.put(pep.GetKey() + "_" + frag.GetFragKey(), new HashMap<String, Float>());
+                                fragmentscore[col] += frag.corr * frag.intensity;
                             }
-                            FragInt.get(pep.GetKey() + "_" + frag.GetFragKey()).put(FilenameUtils.getBaseName(IDSummary.Filename), frag.intensity);
+                            fragmentfreq[col]++;
                         }
                     }
                 }
             }
-            for (String fragkey : fragmentfreq.keySet()) {
-                if (fragmentfreq.get(fragkey) > IDNo * freqPercent) {
-                    PepFragScore.get(PepKey).put(fragkey, fragmentscore.get(fragkey));
+            for (int col = matrix.GetFragStart(row); col < matrix.GetFragEnd(row); col++) {
+                if (fragmentfreq[col] > 0 && fragmentfreq[col] > IDNo * freqPercent) {
+                    FragScore[col] = fragmentscore[col];
                 }
             }
         }
     }
 
     public void GenerateProtPepScoreMap(float pepweight) {
+        ProtPepScore.clear();
+        TIntArrayList ProteinKeyIDs = new TIntArrayList();
+        ArrayList<TIntObjectHashMap<ProtID>> ProteinIndex = new ArrayList<>(FileList.size());
         for (LCMSID IDSummary : FileList) {
             for (String key : IDSummary.ProteinList.keySet()) {
-                if (!ProtPepScore.containsKey(key)) {
-                    ProtPepScore.put(key, new HashMap<String, Float>());
+                int protkeyid = IDKeyPool.Protein.GetID(key);
+                if (!ProtPepScore.containsKey(protkeyid)) {
+                    ProtPepScore.put(protkeyid, null);
+                    ProteinKeyIDs.add(protkeyid);
                 }
             }
+            ProteinIndex.add(IDSummary.GetProteinKeyIndex());
         }
 
-        for (String ProteinKey : ProtPepScore.keySet()) {
-            HashMap<String, Float> pepscore = new HashMap<>();
-            HashMap<String, Integer> pepfreq = new HashMap<>();
+        TIntIntHashMap pepslot = new TIntIntHashMap(64, 0.5f, -1, -1);
+        TIntArrayList pepkeyids = new TIntArrayList();
+        TFloatArrayList pepscore = new TFloatArrayList();
+        TIntArrayList pepfreq = new TIntArrayList();
+
+        for (int i = 0; i < ProteinKeyIDs.size(); i++) {
+            int protkeyid = ProteinKeyIDs.getQuick(i);
+            pepslot.clear();
+            pepkeyids.resetQuick();
+            pepscore.resetQuick();
+            pepfreq.resetQuick();
 
             int IDNo = 0;
-            for (LCMSID IDSummary : FileList) {
-                if (IDSummary.ProteinList.containsKey(ProteinKey)) {
-                    ProtID protein = IDSummary.ProteinList.get(ProteinKey);
-                    if (protein.IDByDBSearch) {
-                        IDNo++;
-                    }
-                    for (PepIonID pep : protein.PeptideID.values()) {
-                        if (pep.FilteringWeight > pepweight) {
-                            if (!pepscore.containsKey(pep.GetKey())) {
-                                pepscore.put(pep.GetKey(), 0f);
-                                pepfreq.put(pep.GetKey(), 0);
-                            }
-                            pepscore.put(pep.GetKey(), pepscore.get(pep.GetKey()) + pep.GetPepAbundanceByTopCorrFragAcrossSample(TopFrags.get(pep.GetKey())));
-                            pepfreq.put(pep.GetKey(), pepfreq.get(pep.GetKey()) + 1);
+            for (int f = 0; f < FileList.size(); f++) {
+                ProtID protein = ProteinIndex.get(f).get(protkeyid);
+                if (protein == null) {
+                    continue;
+                }
+                if (protein.IDByDBSearch) {
+                    IDNo++;
+                }
+                for (PepIonID pep : protein.PeptideID.values()) {
+                    if (pep.FilteringWeight > pepweight) {
+                        int pepkeyid = pep.GetKeyID();
+                        int slot = pepslot.get(pepkeyid);
+                        if (slot == -1) {
+                            slot = pepkeyids.size();
+                            pepslot.put(pepkeyid, slot);
+                            pepkeyids.add(pepkeyid);
+                            pepscore.add(0f);
+                            pepfreq.add(0);
                         }
+                        pepscore.setQuick(slot, pepscore.getQuick(slot) + GetPepAbundance(pep, f));
+                        pepfreq.setQuick(slot, pepfreq.getQuick(slot) + 1);
                     }
                 }
             }
-            for (String pepkey : pepfreq.keySet()) {
-                if (pepfreq.get(pepkey) > IDNo * freqPercent) {
-                    ProtPepScore.get(ProteinKey).put(pepkey, pepscore.get(pepkey));
+            TIntArrayList passkeyids = new TIntArrayList();
+            TFloatArrayList passscore = new TFloatArrayList();
+            for (int slot = 0; slot < pepkeyids.size(); slot++) {
+                if (pepfreq.getQuick(slot) > IDNo * freqPercent) {
+                    passkeyids.add(pepkeyids.getQuick(slot));
+                    passscore.add(pepscore.getQuick(slot));
                 }
             }
+            PepScoreList scorelist = new PepScoreList();
+            scorelist.PepKeyID = passkeyids.toArray();
+            scorelist.Score = passscore.toArray();
+            ProtPepScore.put(protkeyid, scorelist);
         }
     }
 
     public void FillMissingFragScoreMap() {
-        for (String PepKey : PepFragScore.keySet()) {
-            if (PepFragScore.get(PepKey).isEmpty()) {
-                HashMap<String, Float> fragmentscore = new HashMap<>();
-                for (LCMSID IDSummary : FileList) {
-                    PepIonID pep = null;
-                    if (IDSummary.GetPepIonList().containsKey(PepKey)) {
-                        pep = IDSummary.GetPepIonList().get(PepKey);
-                    } else if (IDSummary.GetMappedPepIonList().containsKey(PepKey)) {
-                        pep = IDSummary.GetMappedPepIonList().get(PepKey);
-                    }
-                    if (pep != null) {
+        PepFragMatrix matrix = GetMatrix();
+        float[] fragmentscore = new float[FragScore.length];
+        for (int row = 0; row < matrix.GetRowCount(); row++) {
+            boolean empty = true;
+            for (int col = matrix.GetFragStart(row); col < matrix.GetFragEnd(row) && empty; col++) {
+                empty = Float.isNaN(FragScore[col]);
+            }
+            if (empty) {
+                for (int f = 0; f < matrix.NoFiles; f++) {
+                    PepIonID pep = matrix.GetPep(row, f);
+                    if (pep != null && pep.FragmentPeaks != null) {
                         for (FragmentPeak frag : pep.FragmentPeaks) {
-                            if (!fragmentscore.containsKey(frag.GetFragKey())) {
-                                fragmentscore.put(frag.GetFragKey(), 0f);
-                            }
-                            fragmentscore.put(frag.GetFragKey(), fragmentscore.get(frag.GetFragKey()) + frag.corr * frag.intensity);
-
-                            if (!FragInt.containsKey(pep.GetKey() + "_" + frag.GetFragKey())) {
-                                FragInt.put(pep.GetKey() + "_" + frag.GetFragKey(), new HashMap<String, Float>());
-                            }
-                            FragInt.get(pep.GetKey() + "_" + frag.GetFragKey()).put(FilenameUtils.getBaseName(IDSummary.Filename), frag.intensity);
+                            fragmentscore[matrix.FindFrag(row, frag.GetFragKeyID())] += frag.corr * frag.intensity;
                         }
                     }
                 }
-                for (String fragkey : fragmentscore.keySet()) {
-                    PepFragScore.get(PepKey).put(fragkey, fragmentscore.get(fragkey));
+                for (int col = matrix.GetFragStart(row); col < matrix.GetFragEnd(row); col++) {
+                    FragScore[col] = fragmentscore[col];
                 }
             }
         }
     }
 
     public void GenerateTopFragMap(int topNFrag) {
-        for (String PepKey : PepFragScore.keySet()) {
-            HashMap<String, Float> Frags = PepFragScore.get(PepKey);
+        PepFragMatrix matrix = GetMatrix();
+        TopFragAbundance = new float[matrix.GetRowCount() * matrix.NoFiles];
+        int[] topfragkeyids = new int[topNFrag];
+        for (int row = 0; row < matrix.GetRowCount(); row++) {
             ArrayList<String> frags = new ArrayList<>();
+            int NoTop = 0;
             for (int i = 0; i < topNFrag; i++) {
                 float bestscore = 0f;
-                String bestfrag = "";
-                for (String frag : Frags.keySet()) {
-                    if (!frags.contains(frag) && Frags.get(frag) > bestscore) {
-                        bestscore = Frags.get(frag);
-                        bestfrag = frag;
+                int bestcol = -1;
+                for (int col = matrix.GetFragStart(row); col < matrix.GetFragEnd(row); col++) {
+                    if (FragScore[col] > bestscore && !Contains(topfragkeyids, NoTop, matrix.GetFragKeyID(col))) {
+                        bestscore = FragScore[col];
+                        bestcol = col;
                     }
                 }
-                if (!"".equals(bestfrag)) {
-                    frags.add(bestfrag);
+                if (bestcol != -1) {
+                    topfragkeyids[NoTop++] = matrix.GetFragKeyID(bestcol);
+                    frags.add(IDKeyPool.Fragment.GetKey(matrix.GetFragKeyID(bestcol)));
+                }
+            }
+            TopFrags.put(matrix.GetRowKey(row), frags);
+
+            for (int f = 0; f < matrix.NoFiles; f++) {
+                PepIonID pep = matrix.GetPep(row, f);
+                if (pep != null && pep.FragmentPeaks != null) {
+                    float totalabundance = 0f;
+                    for (FragmentPeak frag : pep.FragmentPeaks) {
+                        if (Contains(topfragkeyids, NoTop, frag.GetFragKeyID())) {
+                            totalabundance += frag.intensity;
+                        }
+                    }
+                    TopFragAbundance[row * matrix.NoFiles + f] = totalabundance;
                 }
             }
-            TopFrags.put(PepKey, frags);
         }
     }
 
     public void GenerateTopPepMap(int topNPep) {
-        for (String ProteinKey : ProtPepScore.keySet()) {
-            HashMap<String, Float> Peptides = ProtPepScore.get(ProteinKey);
+        TopPepKeyIDs.clear();
+        int[] toppepkeyids = new int[topNPep];
+        for (TIntObjectIterator<PepScoreList> it = ProtPepScore.iterator(); it.hasNext();) {
+            it.advance();
+            PepScoreList Peptides = it.value();
             ArrayList<String> peps = new ArrayList<>();
+            int NoTop = 0;
             for (int i = 0; i < topNPep; i++) {
                 float bestscore = 0f;
-                String bestpep = "";
-                for (String pep : Peptides.keySet()) {
-                    if (!peps.contains(pep) && Peptides.get(pep) > bestscore) {
-                        bestscore = Peptides.get(pep);
-                        bestpep = pep;
+                int bestpep = -1;
+                for (int j = 0; j < Peptides.PepKeyID.length; j++) {
+                    if (Peptides.Score[j] > bestscore && !Contains(toppepkeyids, NoTop, Peptides.PepKeyID[j])) {
+                        bestscore = Peptides.Score[j];
+                        bestpep = j;
                     }
                 }
-                if (!"".equals(bestpep)) {
-                    peps.add(bestpep);
+                if (bestpep != -1) {
+                    toppepkeyids[NoTop++] = Peptides.PepKeyID[bestpep];
+                    peps.add(IDKeyPool.PepIon.GetKey(Peptides.PepKeyID[bestpep]));
                 }
             }
-            TopPeps.put(ProteinKey, peps);
+            TopPeps.put(IDKeyPool.Protein.GetKey(it.key()), peps);
+            TopPepKeyIDs.put(it.key(), Arrays.copyOf(toppepkeyids, NoTop));
         }
     }
 
+    //Abundance of the peptide ion in the run by the top fragments selected by GenerateTopFragMap,
+    //same as PepIonID.GetPepAbundanceByTopCorrFragAcrossSample(TopFrags)
+    public float GetPepAbundance(PepIonID pep, int file) {
+        if (TopFragAbundance != null && file >= 0) {
+            int row = Matrix.GetRow(pep.GetKeyID());
+            if (row != -1 && Matrix.GetPep(row, file) == pep) {
+                return TopFragAbundance[row * Matrix.NoFiles + file];
+            }
+        }
+        return pep.GetPepAbundanceByTopCorrFragAcrossSample(TopFrags.get(pep.GetKey()));
+    }
+
+    //Abundance of the protein in the run by the top peptide ions selected by GenerateTopPepMap,
+    //same as ProtID.GetAbundanceByTopCorrFragAcrossSample(TopPeps, TopFrags)
+    public float GetProtAbundance(ProtID protein, int file) {
+        int[] toppeps = TopPepKeyIDs.get(IDKeyPool.Protein.FindID(protein.getAccNo()));
+        float totalabundance = 0f;
+        if (toppeps != null) {
+            for (PepIonID pepIonID : protein.PeptideID.values()) {
+                if (Contains(toppeps, toppeps.length, pepIonID.GetKeyID())) {
+                    totalabundance += GetPepAbundance(pepIonID, file);
+                }
+            }
+        }
+        return totalabundance;
+    }
+
+    private static boolean Contains(int[] keyids, int length, int keyid) {
+        for (int i = 0; i < length; i++) {
+            if (keyids[i] == keyid) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
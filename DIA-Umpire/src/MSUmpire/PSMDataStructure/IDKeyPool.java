@@ -0,0 +1,148 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PSMDataStructure;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool which maps identification keys (peptide ion, protein and fragment
+ * keys) to dense integer IDs, so that every LC-MS run of a quantitation job
+ * shares one instance of each key string and cross-file lookups can be done
+ * on primitive int keys.
+ * The pools are scoped to a job: NewSession() drops the keys of the previous
+ * job, entries cached by its identifications are then looked up again.
+ * Lookups of known keys and IDs don't take a lock, only new keys do.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class IDKeyPool {
+
+    public static final IDKeyPool PepIon = new IDKeyPool();
+    public static final IDKeyPool Protein = new IDKeyPool();
+    public static final IDKeyPool Fragment = new IDKeyPool();
+
+    private volatile Table Current = new Table();
+
+    //Keys of one session, IDs are only appended so published IDs and keys never change
+    private static final class Table {
+
+        private final ConcurrentHashMap<String, Integer> IDMap = new ConcurrentHashMap<>(1024);
+        private volatile String[] Keys = new String[1024];
+        private volatile int Size = 0;
+        private volatile boolean Retired = false;
+    }
+
+    //Immutable key entry for "Name_Charge" keys, safe to cache in transient fields across threads
+    public static final class Entry {
+
+        public final String Name;
+        public final int Charge;
+        public final String Key;
+        public final int ID;
+        private final Table Session;
+
+        private Entry(String Name, int Charge, String Key, int ID, Table Session) {
+            this.Name = Name;
+            this.Charge = Charge;
+            this.Key = Key;
+            this.ID = ID;
+            this.Session = Session;
+        }
+
+        //False once the name or charge changed or the entry belongs to a previous session
+        public boolean Matches(String Name, int Charge) {
+            return this.Name == Name && this.Charge == Charge && !Session.Retired;
+        }
+    }
+
+    //Start the pools of a new job, only call it when nothing of the previous job uses the IDs any more
+    public static void NewSession() {
+        PepIon.Reset();
+        Protein.Reset();
+        Fragment.Reset();
+    }
+
+    private synchronized void Reset() {
+        Current.Retired = true;
+        Current = new Table();
+    }
+
+    //Returns the ID of the key, assigning a new one if the key has not been seen
+    public int GetID(String key) {
+        return GetID(Current, key);
+    }
+
+    private int GetID(Table table, String key) {
+        Integer id = table.IDMap.get(key);
+        if (id != null) {
+            return id;
+        }
+        return AddKey(table, key);
+    }
+
+    private synchronized int AddKey(Table table, String key) {
+        Integer id = table.IDMap.get(key);
+        if (id != null) {
+            return id;
+        }
+        int newid = table.Size;
+        String[] keys = table.Keys;
+        if (newid == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[newid] = key;
+        table.Keys = keys;
+        table.Size = newid + 1;
+        //the key is stored before the ID is published through the map
+        table.IDMap.put(key, newid);
+        return newid;
+    }
+
+    //Returns the ID of the key or -1 if the key is not in the pool
+    public int FindID(String key) {
+        Integer id = Current.IDMap.get(key);
+        return id == null ? -1 : id;
+    }
+
+    public String GetKey(int id) {
+        Table table = Current;
+        if (id >= table.Size) {
+            throw new IndexOutOfBoundsException("Key ID " + id + " is not in the pool");
+        }
+        return table.Keys[id];
+    }
+
+    //Returns the pooled instance of the key string
+    public String Intern(String key) {
+        Table table = Current;
+        return table.Keys[GetID(table, key)];
+    }
+
+    public Entry GetEntry(String Name, int Charge) {
+        Table table = Current;
+        String key = Name + "_" + Charge;
+        int id = GetID(table, key);
+        return new Entry(Name, Charge, table.Keys[id], id, table);
+    }
+
+    public int size() {
+        return Current.Size;
+    }
+}
@@ -30,6 +30,7 @@ import com.compomics.util.experiment.biology.Ion;
 import com.compomics.util.experiment.biology.PTM;
 import com.compomics.util.experiment.biology.ions.ElementaryIon;
 import com.compomics.util.experiment.biology.ions.PeptideFragmentIon;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import org.nustaq.serialization.FSTObjectInput;
 import org.nustaq.serialization.FSTObjectOutput;
 import java.io.File;
@@ -41,6 +42,7 @@ import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
@@ -75,6 +77,10 @@ public class LCMSID implements Serializable {
     
     public HashMap<String, ModificationInfo> ModificationList;
     public HashMap<String, ProtID> PepXMLProteinList;
+    //Cached key indexes, see GetPepIonKeyIndex
+    private transient volatile TIntObjectHashMap<PepIonID> PepIonKeyIndex;
+    private transient volatile TIntObjectHashMap<PepIonID> MappedPepIonKeyIndex;
+    private transient volatile TIntObjectHashMap<ProtID> ProteinKeyIndex;
     
     
     public String DataBase;
@@ -186,6 +192,7 @@ public class LCMSID implements Serializable {
             LCMSID lcmsid = (LCMSID) in.readObject(LCMSID.class);
             in.close();
             fileIn.close();
+            lcmsid.InternKeys();
             return lcmsid;
 
         } catch (Exception ex) {
@@ -231,6 +238,8 @@ public class LCMSID implements Serializable {
         this.DecoyTag = Decoytag;
     }
 
+    //Add or remove peptide ions through LCMSID (AddPeptideID, PutPepIon, PutMappedPepIon, ...),
+    //changing the returned maps directly leaves the key indexes out of date
     public HashMap<String, PepIonID> GetPepIonList() {
         return PepIonList;
     }
@@ -239,6 +248,88 @@ public class LCMSID implements Serializable {
         return MappedPepIonList;
     }
 
+    public void PutPepIon(String key, PepIonID pepIonID) {
+        PepIonList.put(key, pepIonID);
+        PepIonKeyIndex = null;
+    }
+
+    public void PutMappedPepIon(String key, PepIonID pepIonID) {
+        MappedPepIonList.put(key, pepIonID);
+        MappedPepIonKeyIndex = null;
+    }
+
+    //Re-key the ID maps with the pooled key instances so that runs loaded
+    //into the same process share one copy of every peptide ion/protein key
+    public void InternKeys() {
+        PepIonList = InternPepIonKeys(PepIonList);
+        MappedPepIonList = InternPepIonKeys(MappedPepIonList);
+        AssignedPepIonList = InternPepIonKeys(AssignedPepIonList);
+        ProtXMLPepIonList = InternPepIonKeys(ProtXMLPepIonList);
+        if (ProteinList != null) {
+            HashMap<String, ProtID> interned = new HashMap<>(ProteinList.size() * 2);
+            for (String key : ProteinList.keySet()) {
+                interned.put(IDKeyPool.Protein.Intern(key), ProteinList.get(key));
+            }
+            ProteinList = interned;
+        }
+        InvalidateKeyIndexes();
+    }
+
+    private void InvalidateKeyIndexes() {
+        PepIonKeyIndex = null;
+        MappedPepIonKeyIndex = null;
+        ProteinKeyIndex = null;
+    }
+
+    private HashMap<String, PepIonID> InternPepIonKeys(HashMap<String, PepIonID> list) {
+        if (list == null) {
+            return null;
+        }
+        HashMap<String, PepIonID> interned = new HashMap<>(list.size() * 2);
+        for (String key : list.keySet()) {
+            interned.put(IDKeyPool.PepIon.Intern(key), list.get(key));
+        }
+        return interned;
+    }
+
+    //Peptide ions and proteins keyed by IDKeyPool ID for cross-file lookups. Each index is
+    //built once and kept until the list is changed through LCMSID, the returned maps must
+    //not be modified.
+    public synchronized TIntObjectHashMap<PepIonID> GetPepIonKeyIndex() {
+        TIntObjectHashMap<PepIonID> index = PepIonKeyIndex;
+        if (index == null) {
+            index = BuildKeyIndex(PepIonList, IDKeyPool.PepIon);
+            PepIonKeyIndex = index;
+        }
+        return index;
+    }
+
+    public synchronized TIntObjectHashMap<PepIonID> GetMappedPepIonKeyIndex() {
+        TIntObjectHashMap<PepIonID> index = MappedPepIonKeyIndex;
+        if (index == null) {
+            index = BuildKeyIndex(MappedPepIonList, IDKeyPool.PepIon);
+            MappedPepIonKeyIndex = index;
+        }
+        return index;
+    }
+
+    public synchronized TIntObjectHashMap<ProtID> GetProteinKeyIndex() {
+        TIntObjectHashMap<ProtID> index = ProteinKeyIndex;
+        if (index == null) {
+            index = BuildKeyIndex(ProteinList, IDKeyPool.Protein);
+            ProteinKeyIndex = index;
+        }
+        return index;
+    }
+
+    private static <T> TIntObjectHashMap<T> BuildKeyIndex(HashMap<String, T> list, IDKeyPool pool) {
+        TIntObjectHashMap<T> index = new TIntObjectHashMap<>(list.size() * 2);
+        for (Map.Entry<String, T> entry : list.entrySet()) {
+            index.put(pool.GetID(entry.getKey()), entry.getValue());
+        }
+        return index;
+    }
+
     public void ResetMappedPepProb() {
         for (PepIonID pepIonID : MappedPepIonList.values()) {
             pepIonID.UScoreProbability_MS1 = 0f;
@@ -250,6 +341,7 @@ public class LCMSID implements Serializable {
 
     public void SetMappedPepIonList(HashMap<String, PepIonID> list) {
         MappedPepIonList = list;
+        MappedPepIonKeyIndex = null;
     }
 
     public void GenerateFragmentPeakForPepIonByMSMS(ScanCollection scanCollection, float fragPPM) {
@@ -480,7 +572,8 @@ public class LCMSID implements Serializable {
 
     public void AddProtID(ProtID protID) throws ClassNotFoundException, InterruptedException, IOException, XmlPullParserException {
         if (!ProteinList.containsKey(protID.getAccNo())) {
-            ProteinList.put(protID.getAccNo(), protID);
+            ProteinList.put(IDKeyPool.Protein.Intern(protID.getAccNo()), protID);
+            ProteinKeyIndex = null;
         }
     }
 
@@ -679,6 +772,7 @@ public class LCMSID implements Serializable {
         }
         for (ProtID protein : removelist) {
             ProteinList.remove(protein.getAccNo());
+            ProteinKeyIndex = null;
         }
         GenearteAssignIonList();
     }
@@ -727,6 +821,7 @@ public class LCMSID implements Serializable {
         }
         for (ProtID protein : removelist) {
             ProteinList.remove(protein.getAccNo());
+            ProteinKeyIndex = null;
         }
         GenearteAssignIonList();
     }
@@ -741,6 +836,7 @@ public class LCMSID implements Serializable {
         }
         for (ProtID protein : removelist) {
             ProteinList.remove(protein.getAccNo());
+            ProteinKeyIndex = null;
         }
         GenearteAssignIonList();
     }
@@ -755,6 +851,7 @@ public class LCMSID implements Serializable {
         }
         for (ProtID protein : removelist) {
             ProteinList.remove(protein.getAccNo());
+            ProteinKeyIndex = null;
         }
     }
 
@@ -787,6 +884,7 @@ public class LCMSID implements Serializable {
         }
         for (PepIonID pep : removelist) {
             GetPepIonList().remove(pep.GetKey());
+            PepIonKeyIndex = null;
             //LowScorePep.put(pep.GetKey(), pep);
         }
     }
@@ -800,6 +898,7 @@ public class LCMSID implements Serializable {
         }
         for (PepIonID pep : removelist) {
             PepIonList.remove(pep.GetKey());
+            PepIonKeyIndex = null;
         }
     }
 
@@ -812,6 +911,7 @@ public class LCMSID implements Serializable {
         }
         for (ProtID protein : removelist) {
             ProteinList.remove(protein.getAccNo());
+            ProteinKeyIndex = null;
         }
     }
 
@@ -851,6 +951,7 @@ public class LCMSID implements Serializable {
     //Generate protein list according to mapping of peptide ions to a master protein list
     public void GenerateProteinByRefIDByPepSeq(LCMSID RefID, boolean UseMappedIon) {
         ProteinList.clear();
+        ProteinKeyIndex = null;
         AssignedPepIonList.clear();
         for (PepIonID pepIonID : GetPepIonList().values()) {
             pepIonID.Weight = 0f;
@@ -888,7 +989,8 @@ public class LCMSID implements Serializable {
                     }
                 }
                 if (!newprot.PeptideID.isEmpty()) {
-                    ProteinList.put(newprot.getAccNo(), newprot);
+                    ProteinList.put(IDKeyPool.Protein.Intern(newprot.getAccNo()), newprot);
+                    ProteinKeyIndex = null;
                 }
             }
         }
@@ -900,6 +1002,7 @@ public class LCMSID implements Serializable {
             temp.add(protein);
         }
         ProteinList.clear();
+        ProteinKeyIndex = null;
         for (ProtID protein : temp) {
             AddProtID(protein);
         }
@@ -971,6 +1074,7 @@ public class LCMSID implements Serializable {
         if (!PepIonList.containsKey(pepID.GetKey())) {
             pepID.Index = PepIonList.size();
             PepIonList.put(pepID.GetKey(), pepID);
+            PepIonKeyIndex = null;
         }
         for (PSM psm : pepID.GetPSMList()) {
             PSMList.put(psm.SpecNumber, psm);
@@ -1028,6 +1132,7 @@ public class LCMSID implements Serializable {
         }
         for (PepIonID pep : removelist) {
             GetMappedPepIonList().remove(pep.GetKey());
+            MappedPepIonKeyIndex = null;
             //LowScorePep.put(pep.GetKey(), pep);
         }
         GenerateMappedPepSeqList();
@@ -1049,6 +1154,7 @@ public class LCMSID implements Serializable {
         PepXMLProteinList = null;
         PeptideList = null;
         MappedPeptideList = null;
+        InvalidateKeyIndexes();
     }
 
     public float GetRFactor(float ProbThreshold) {
@@ -41,7 +41,7 @@ public class PTMManager {
     private String tempptmfile="ptmFactory-3.28.24.cus";
     private String tmpfilefolder=System.getProperty("user.home") + "/.compomics";
 
-    public static PTMManager GetInstance() throws XmlPullParserException, IOException {
+    public static synchronized PTMManager GetInstance() throws XmlPullParserException, IOException {
         if (pTMManager == null) {
             pTMManager = new PTMManager();
         }
@@ -106,12 +106,12 @@ public class PTMManager {
     }
     
     
-    public void AddPTM(PTM ptm) throws IOException{
+    public synchronized void AddPTM(PTM ptm) throws IOException{
         ptmFactory.addUserPTM(ptm);
         ptmFactory.saveFactory();
     }
     
-    public PTM GetPTM(String AA, float massdiff) {
+    public synchronized PTM GetPTM(String AA, float massdiff) {
 
         double smallmassdiff = Double.MAX_VALUE;
         PTM smallestdiffptm = null;
@@ -142,7 +142,7 @@ public class PTMManager {
         return smallestdiffptm;
     }
     
-    public PTM GetPTMByName(String modname) {
+    public synchronized PTM GetPTMByName(String modname) {
 
         for (int i = 0; i < ptmFactory.getPTMs().size(); i++) {
             String name = ptmFactory.getPTMs().get(i);
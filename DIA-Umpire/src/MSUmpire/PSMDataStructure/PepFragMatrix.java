@@ -0,0 +1,239 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PSMDataStructure;
+
+import gnu.trove.list.array.TFloatArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import java.util.ArrayList;
+
+/**
+ * Columnar peptide ion x fragment x file matrix of the fragment peaks of a
+ * set of LC-MS runs. Rows are peptide ions (identified or mapped in any run),
+ * each row owns a contiguous range of fragment columns, and every cell keeps
+ * the fragment intensity, correlation and ppm of each run (NaN if the fragment
+ * was not found in that run).
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class PepFragMatrix {
+
+    public final int NoFiles;
+    private final TIntIntHashMap RowIndex = new TIntIntHashMap(1024, 0.5f, -1, -1);
+    private final int[] RowPepKeyID;
+    //[row * NoFiles + file]
+    private final PepIonID[] IdentifiedPep;
+    private final PepIonID[] MappedPep;
+    //[row] first column of the row, FragStart[row + 1] is the end of the row
+    private final int[] FragStart;
+    //[column]
+    private final int[] FragKeyID;
+    private final String[] IonType;
+    private final int[] FragCharge;
+    private final float[] FragMZ;
+    //[column * NoFiles + file]
+    private final float[] Intensity;
+    private final float[] Corr;
+    private final float[] PPM;
+    private final int[] LastPos;
+
+    public PepFragMatrix(ArrayList<LCMSID> FileList) {
+        NoFiles = FileList.size();
+        TIntArrayList pepkeyids = new TIntArrayList();
+        ArrayList<PepIonID[]> peps = new ArrayList<>();
+
+        //Identified peptide ions take precedence over mapped ones of the same run
+        for (int f = 0; f < NoFiles; f++) {
+            LCMSID IDSummary = FileList.get(f);
+            for (PepIonID pep : IDSummary.GetPepIonList().values()) {
+                GetOrAddRow(pep, pepkeyids, peps)[f] = pep;
+            }
+            for (PepIonID pep : IDSummary.GetMappedPepIonList().values()) {
+                GetOrAddRow(pep, pepkeyids, peps)[NoFiles + f] = pep;
+            }
+        }
+
+        int NoRows = pepkeyids.size();
+        RowPepKeyID = pepkeyids.toArray();
+        IdentifiedPep = new PepIonID[NoRows * NoFiles];
+        MappedPep = new PepIonID[NoRows * NoFiles];
+        for (int row = 0; row < NoRows; row++) {
+            System.arraycopy(peps.get(row), 0, IdentifiedPep, row * NoFiles, NoFiles);
+            System.arraycopy(peps.get(row), NoFiles, MappedPep, row * NoFiles, NoFiles);
+        }
+        peps = null;
+
+        FragStart = new int[NoRows + 1];
+        TIntArrayList fragkeyids = new TIntArrayList();
+        ArrayList<String> iontypes = new ArrayList<>();
+        TIntArrayList fragcharges = new TIntArrayList();
+        TFloatArrayList fragmzs = new TFloatArrayList();
+        TFloatArrayList intensity = new TFloatArrayList();
+        TFloatArrayList corr = new TFloatArrayList();
+        TFloatArrayList ppm = new TFloatArrayList();
+        TIntArrayList lastpos = new TIntArrayList();
+
+        for (int row = 0; row < NoRows; row++) {
+            int start = fragkeyids.size();
+            FragStart[row] = start;
+            for (int f = 0; f < NoFiles; f++) {
+                PepIonID pep = GetPep(row, f);
+                if (pep == null || pep.FragmentPeaks == null) {
+                    continue;
+                }
+                for (int i = 0; i < pep.FragmentPeaks.size(); i++) {
+                    FragmentPeak frag = pep.FragmentPeaks.get(i);
+                    int fragkeyid = frag.GetFragKeyID();
+                    int col = start;
+                    while (col < fragkeyids.size() && fragkeyids.getQuick(col) != fragkeyid) {
+                        col++;
+                    }
+                    if (col == fragkeyids.size()) {
+                        fragkeyids.add(fragkeyid);
+                        iontypes.add(frag.IonType);
+                        fragcharges.add(frag.Charge);
+                        fragmzs.add(frag.FragMZ);
+                        for (int j = 0; j < NoFiles; j++) {
+                            intensity.add(Float.NaN);
+                            corr.add(Float.NaN);
+                            ppm.add(Float.NaN);
+                            lastpos.add(-1);
+                        }
+                    }
+                    int cell = col * NoFiles + f;
+                    intensity.setQuick(cell, frag.intensity);
+                    corr.setQuick(cell, frag.corr);
+                    ppm.setQuick(cell, frag.ppm);
+                    lastpos.setQuick(cell, i);
+                }
+            }
+        }
+        FragStart[NoRows] = fragkeyids.size();
+        FragKeyID = fragkeyids.toArray();
+        IonType = iontypes.toArray(new String[iontypes.size()]);
+        FragCharge = fragcharges.toArray();
+        FragMZ = fragmzs.toArray();
+        Intensity = intensity.toArray();
+        Corr = corr.toArray();
+        PPM = ppm.toArray();
+        LastPos = lastpos.toArray();
+    }
+
+    private PepIonID[] GetOrAddRow(PepIonID pep, TIntArrayList pepkeyids, ArrayList<PepIonID[]> peps) {
+        int keyid = pep.GetKeyID();
+        int row = RowIndex.get(keyid);
+        if (row == -1) {
+            row = pepkeyids.size();
+            RowIndex.put(keyid, row);
+            pepkeyids.add(keyid);
+            peps.add(new PepIonID[NoFiles * 2]);
+        }
+        return peps.get(row);
+    }
+
+    public int GetRowCount() {
+        return RowPepKeyID.length;
+    }
+
+    public int GetColumnCount() {
+        return FragKeyID.length;
+    }
+
+    //Row of the peptide ion key ID (IDKeyPool.PepIon), -1 if not in the matrix
+    public int GetRow(int PepKeyID) {
+        return RowIndex.get(PepKeyID);
+    }
+
+    public int GetRowKeyID(int row) {
+        return RowPepKeyID[row];
+    }
+
+    public String GetRowKey(int row) {
+        return IDKeyPool.PepIon.GetKey(RowPepKeyID[row]);
+    }
+
+    public PepIonID GetIdentifiedPep(int row, int file) {
+        return IdentifiedPep[row * NoFiles + file];
+    }
+
+    public PepIonID GetMappedPep(int row, int file) {
+        return MappedPep[row * NoFiles + file];
+    }
+
+    //Peptide ion of the run, identified one first, null if absent in the run
+    public PepIonID GetPep(int row, int file) {
+        PepIonID pep = IdentifiedPep[row * NoFiles + file];
+        return pep != null ? pep : MappedPep[row * NoFiles + file];
+    }
+
+    public int GetFragStart(int row) {
+        return FragStart[row];
+    }
+
+    public int GetFragEnd(int row) {
+        return FragStart[row + 1];
+    }
+
+    //Column of the fragment key ID (IDKeyPool.Fragment) within the row, -1 if not found
+    public int FindFrag(int row, int FragKeyID) {
+        for (int col = FragStart[row]; col < FragStart[row + 1]; col++) {
+            if (this.FragKeyID[col] == FragKeyID) {
+                return col;
+            }
+        }
+        return -1;
+    }
+
+    public int GetFragKeyID(int col) {
+        return FragKeyID[col];
+    }
+
+    public String GetIonType(int col) {
+        return IonType[col];
+    }
+
+    public int GetFragCharge(int col) {
+        return FragCharge[col];
+    }
+
+    public float GetFragMZ(int col) {
+        return FragMZ[col];
+    }
+
+    public boolean HasFrag(int col, int file) {
+        return LastPos[col * NoFiles + file] != -1;
+    }
+
+    public float GetIntensity(int col, int file) {
+        return Intensity[col * NoFiles + file];
+    }
+
+    public float GetCorr(int col, int file) {
+        return Corr[col * NoFiles + file];
+    }
+
+    public float GetPPM(int col, int file) {
+        return PPM[col * NoFiles + file];
+    }
+
+    //Position of the last occurrence of the fragment in FragmentPeaks of the run, -1 if absent
+    public int GetLastPos(int col, int file) {
+        return LastPos[col * NoFiles + file];
+    }
+}
@@ -22,6 +22,7 @@ package MSUmpire.PSMDataStructure;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -41,11 +42,39 @@ public class PepFragmentLib implements Serializable{
     public ArrayList<ModificationMatch> Modifications = new ArrayList<>();
     public ArrayList<Float> RetentionTime=new ArrayList<>();
     public float MS1Score;
+    //FragmentGroups values in map iteration order, and their positions sorted by fragment m/z
+    private transient FragmentPeakGroup[] FragmentArray;
+    private transient int[] FragmentMzOrder;
 
     public String GetKey() {
         return ModSequence + "_" + Charge;
     }
     
+    //FragmentGroups values in the same order as FragmentGroups.values()
+    public synchronized FragmentPeakGroup[] GetFragmentArray() {
+        if (FragmentArray == null || FragmentArray.length != FragmentGroups.size()) {
+            FragmentPeakGroup[] fragments = FragmentGroups.values().toArray(new FragmentPeakGroup[FragmentGroups.size()]);
+            long[] keys = new long[fragments.length];
+            for (int i = 0; i < fragments.length; i++) {
+                keys[i] = ((long) Float.floatToIntBits(fragments[i].FragMZ + 0f) << 32) | i;
+            }
+            Arrays.sort(keys);
+            int[] order = new int[fragments.length];
+            for (int i = 0; i < fragments.length; i++) {
+                order[i] = (int) (keys[i] & 0xFFFFFFFFL);
+            }
+            FragmentMzOrder = order;
+            FragmentArray = fragments;
+        }
+        return FragmentArray;
+    }
+
+    //Positions in GetFragmentArray() ordered by fragment m/z
+    public synchronized int[] GetFragmentMzOrder() {
+        GetFragmentArray();
+        return FragmentMzOrder;
+    }
+
     public HashMap<String, FragmentPeakGroup> CloneFragmentGroup(){
         HashMap<String, FragmentPeakGroup> NewFragmentGroups=new HashMap<>();
         for(FragmentPeakGroup frag : FragmentGroups.values()){
@@ -124,6 +124,7 @@ public class PepIonID implements Serializable {
     }
     
     transient int fragcount=-1;
+    private transient IDKeyPool.Entry KeyEntry;
     public int GetFragCount(){
         if (fragcount == 0) {
             HashSet<String> FragMap=new HashSet<>();
@@ -262,7 +263,21 @@ public class PepIonID implements Serializable {
     }
     
     public String GetKey() {
-        return ModSequence + "_" + Charge;
+        return GetKeyEntry().Key;
+    }
+
+    //Pooled integer ID of GetKey(), shared by all LC-MS runs
+    public int GetKeyID() {
+        return GetKeyEntry().ID;
+    }
+
+    private IDKeyPool.Entry GetKeyEntry() {
+        IDKeyPool.Entry entry = KeyEntry;
+        if (entry == null || !entry.Matches(ModSequence, Charge)) {
+            entry = IDKeyPool.PepIon.GetEntry(ModSequence, Charge);
+            KeyEntry = entry;
+        }
+        return entry;
     }
     
     public boolean IsDecoy(String decoytag) {
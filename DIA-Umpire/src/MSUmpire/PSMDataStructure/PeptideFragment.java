@@ -33,7 +33,23 @@ public class PeptideFragment implements Serializable{
     public float FragMZ;
     public int Charge;
 
+    private transient IDKeyPool.Entry FragKeyEntry;
+
     public String GetFragKey() {
-        return IonType + "_" + Charge;
+        return GetFragKeyEntry().Key;
+    }
+
+    //Pooled integer ID of GetFragKey()
+    public int GetFragKeyID() {
+        return GetFragKeyEntry().ID;
+    }
+
+    private IDKeyPool.Entry GetFragKeyEntry() {
+        IDKeyPool.Entry entry = FragKeyEntry;
+        if (entry == null || !entry.Matches(IonType, Charge)) {
+            entry = IDKeyPool.Fragment.GetEntry(IonType, Charge);
+            FragKeyEntry = entry;
+        }
+        return entry;
     }
 }
@@ -19,7 +19,7 @@
  */
 package MSUmpire.PeakDataStructure;
 
-import MSUmpire.BaseDataStructure.XYData;
+import MSUmpire.BaseDataStructure.SortedXYCollectionClass;
 import MSUmpire.BaseDataStructure.XYPointCollection;
 
 /**
@@ -29,80 +29,100 @@ import MSUmpire.BaseDataStructure.XYPointCollection;
 public class Bspline {
 
     private float[] bspline_T_ = null;
+    //Scratch for the p+1 non-zero basis functions of the current knot span
+    private float[] basis = null;
 
+    //Knot vector: p+1 zeros followed by uniform steps of 1/(n-p+1),
+    //so that only the basis functions of the knot span containing t are evaluated (de Boor)
     public XYPointCollection Run(XYPointCollection data, int PtNum, int smoothDegree) {
-        XYPointCollection bsplineCollection = new XYPointCollection();
         int p = smoothDegree;
         int n = data.Data.size() - 1;
         int m = data.Data.size() + p;
-        bspline_T_ = new float[m + p];
 
         if (data.Data.size() <= p) {
             return data;
         }
+        //Two more knots than the recursion over the n+1 control points needs, 
+        //so that the span can always be evaluated up to degree p
+        if (bspline_T_ == null || bspline_T_.length < m + p + 2) {
+            bspline_T_ = new float[m + p + 2];
+        }
+        if (basis == null || basis.length < p + 1) {
+            basis = new float[p + 1];
+        }
 
-        for (int i = 0; i <= n; i++) {
+        for (int i = 0; i <= p; i++) {
             bspline_T_[i] = 0;
-            bspline_T_[m - i] = 1;
         }
         float intv = 1.0f / (m - 2 * p);
-        for (int i = 1; i <= (m - 1); i++) {
+        for (int i = 1; i <= (m + 1); i++) {
             bspline_T_[p + i] = bspline_T_[p + i - 1] + intv;
         }
 
+        XYPointCollection bsplineCollection = new XYPointCollection(PtNum + 3);
         float t;
+        int span = p;
         for (int i = 0; i <= PtNum; i++) {
             t = ((float) i / PtNum);
-            XYData pt = getbspline(data, t, n, p);
-            bsplineCollection.AddPoint(pt);
+            //t is non-decreasing, so the knot span only moves forward
+            while (span < m && bspline_T_[span + 1] <= t) {
+                span++;
+            }
+            getbspline(data, t, span, n, p, bsplineCollection);
         }
-        if (bsplineCollection.Data.get(bsplineCollection.PointCount() - 1).getX() < data.Data.get(data.PointCount() - 1).getX()) {
-            bsplineCollection.AddPoint(data.Data.get(data.PointCount() - 1));
+        SortedXYCollectionClass Data = data.Data;
+        if (bsplineCollection.Data.GetX(bsplineCollection.PointCount() - 1) < Data.GetX(data.PointCount() - 1)) {
+            bsplineCollection.AddPoint(Data.GetX(data.PointCount() - 1), Data.GetY(data.PointCount() - 1));
         }
-        if (bsplineCollection.Data.get(0).getX() > data.Data.get(0).getX()) {
-            bsplineCollection.AddPoint(data.Data.get(0));
+        if (bsplineCollection.Data.GetX(0) > Data.GetX(0)) {
+            bsplineCollection.AddPoint(Data.GetX(0), Data.GetY(0));
         }
         bsplineCollection.Data.Finalize();
         return bsplineCollection;
     }
 
-    XYData getbspline(XYPointCollection data, float t, int n, int p) {
-        XYData pt = new XYData(0, 0);
-
-        int itp = 0;
-        for (int i = 0; i <= n; i++) {
-            pt.setX(pt.getX() + data.Data.get(itp).getX() * bspline_base(i, p, t));
-            pt.setY(pt.getY() + data.Data.get(itp).getY() * bspline_base(i, p, t));
-            itp++;
+    //Sum of the control points weighted by the non-zero basis functions N(span-p..span) at t
+    private void getbspline(XYPointCollection data, float t, int span, int n, int p, XYPointCollection bsplineCollection) {
+        BasisFunctions(t, span, p);
+        float x = 0f;
+        float y = 0f;
+        for (int j = 0; j <= p; j++) {
+            int i = span - p + j;
+            if (i > n) {
+                break;
+            }
+            x += data.Data.GetX(i) * basis[j];
+            y += data.Data.GetY(i) * basis[j];
         }
-        return pt;
+        bsplineCollection.AddPoint(x, y);
     }
 
-    float bspline_base(int i, int p, float t) {
-        float n, c1, c2;
-        float tn1 = 0;
-        float tn2 = 0;
-        if (p == 0) {
-            if (bspline_T_[i] <= t && t < bspline_T_[i + 1] && bspline_T_[i] < bspline_T_[i + 1]) {
-                n = 1;
-            } else {
-                n = 0;
-            }
-        } else {
-            if ((bspline_T_[i + p] - bspline_T_[i]) == 0) {
-                c1 = 0;
-            } else {
-                tn1 = bspline_base(i, (p - 1), t);
-                c1 = (t - bspline_T_[i]) / (bspline_T_[i + p] - bspline_T_[i]);
-            }
-            if ((bspline_T_[i + p + 1] - bspline_T_[i + 1]) == 0) {
-                c2 = 0;
-            } else {
-                tn2 = bspline_base((i + 1), (p - 1), t);
-                c2 = (bspline_T_[i + p + 1] - t) / (bspline_T_[i + p + 1] - bspline_T_[i + 1]);
+    //Cox-de Boor recursion computed bottom-up over the knot span, 
+    //basis[j] holds N(span-d+j, d) after degree d (basis functions outside the span are zero).
+    //The arithmetic of each N(i, d) is the same as the recursive definition.
+    private void BasisFunctions(float t, int span, int p) {
+        basis[0] = 1f;
+        for (int d = 1; d <= p; d++) {
+            for (int j = d; j >= 0; j--) {
+                int i = span - d + j;
+                float tn1 = j > 0 ? basis[j - 1] : 0f;
+                float tn2 = j < d ? basis[j] : 0f;
+                float c1;
+                float c2;
+                if ((bspline_T_[i + d] - bspline_T_[i]) == 0) {
+                    c1 = 0;
+                    tn1 = 0;
+                } else {
+                    c1 = (t - bspline_T_[i]) / (bspline_T_[i + d] - bspline_T_[i]);
+                }
+                if ((bspline_T_[i + d + 1] - bspline_T_[i + 1]) == 0) {
+                    c2 = 0;
+                    tn2 = 0;
+                } else {
+                    c2 = (bspline_T_[i + d + 1] - t) / (bspline_T_[i + d + 1] - bspline_T_[i + 1]);
+                }
+                basis[j] = (c1 * tn1) + (c2 * tn2);
             }
-            n = (c1 * tn1) + (c2 * tn2);
         }
-        return n;
     }
 }
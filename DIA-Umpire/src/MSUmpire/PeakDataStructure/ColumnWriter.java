@@ -0,0 +1,92 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PeakDataStructure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered big-endian writer of primitive columns to a file channel, used by the
+ * columnar peak data files
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+class ColumnWriter {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+    private long position;
+
+    ColumnWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    long Position() {
+        return position + buffer.position();
+    }
+
+    void Skip(int bytes) throws IOException {
+        Flush();
+        position += bytes;
+    }
+
+    void PutInt(int value) throws IOException {
+        Ensure(4);
+        buffer.putInt(value);
+    }
+
+    void PutFloat(float value) throws IOException {
+        Ensure(4);
+        buffer.putFloat(value);
+    }
+
+    void PutByte(int value) throws IOException {
+        Ensure(1);
+        buffer.put((byte) value);
+    }
+
+    //Length (-1 for null) and UTF-8 bytes
+    void PutString(String value) throws IOException {
+        if (value == null) {
+            PutInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        PutInt(bytes.length);
+        for (byte b : bytes) {
+            PutByte(b);
+        }
+    }
+
+    private void Ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            Flush();
+        }
+    }
+
+    void Flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        buffer.clear();
+    }
+}
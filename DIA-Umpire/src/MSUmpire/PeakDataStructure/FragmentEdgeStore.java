@@ -0,0 +1,352 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PeakDataStructure;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Memory-mapped precursor-fragment edge store (_Clus2Cur.serFS and _UnfClus2Cur.serFS)
+ * Cluster index -> grouped fragments, stored in compressed sparse row form: 
+ * sorted cluster indices, row start offsets and one primitive column per 
+ * PrecursorFragmentPairEdge field. Opening a file only maps it, the fragment 
+ * list of a cluster is decoded the first time it is requested and the same 
+ * list is returned afterwards. The map is read-only, Close() releases the 
+ * file and must be called before the file is written again.
+ *
+ * Layout (big-endian):
+ * header | cluster indices | row starts | edge columns
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class FragmentEdgeStore extends AbstractMap<Integer, ArrayList<PrecursorFragmentPairEdge>> {
+
+    private static final int MAGIC = 0x44554345;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    //Int and float columns: PeakCurveIndexA, PeakCurveIndexB, FragmentMS1Rank, Correlation, FragmentMz, Intensity, ApexDelta, RTOverlapP, FragmentMS1RankScore, AdjustedFragInt, MatchedFragMz
+    private static final int NO_WORD_COLUMNS = 11;
+
+    private RandomAccessFile file;
+    private volatile MappedByteBuffer buffer;
+    private final int NoRows;
+    private final long NoEdges;
+    private final int KeyOffset;
+    private final int RowOffset;
+    private final int ColumnOffset;
+    private final AtomicReferenceArray<ArrayList<PrecursorFragmentPairEdge>> Rows;
+
+    private FragmentEdgeStore(RandomAccessFile file, MappedByteBuffer buffer, int NoRows, long NoEdges, int KeyOffset, int RowOffset, int ColumnOffset) {
+        this.file = file;
+        this.buffer = buffer;
+        this.NoRows = NoRows;
+        this.NoEdges = NoEdges;
+        this.KeyOffset = KeyOffset;
+        this.RowOffset = RowOffset;
+        this.ColumnOffset = ColumnOffset;
+        this.Rows = new AtomicReferenceArray<>(NoRows);
+    }
+
+    //Whether the file starts with the edge store header, files written by FST or Java serialization do not
+    public static boolean IsEdgeStoreFile(String path) {
+        File file = new File(path);
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (FileInputStream fileIn = new FileInputStream(file)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            fileIn.getChannel().read(header);
+            header.flip();
+            return header.getInt() == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    //Write a cluster index -> fragments map, a null map is kept as null.
+    //Stores opened from the path have to be closed first, a mapped file can't be replaced on every platform.
+    public static void Write(Map<Integer, ArrayList<PrecursorFragmentPairEdge>> Clu2Cur, String path) throws IOException {
+        int NoRows = Clu2Cur == null ? 0 : Clu2Cur.size();
+        int[] keys = new int[NoRows];
+        long NoEdges = 0;
+        if (Clu2Cur != null) {
+            int i = 0;
+            for (Map.Entry<Integer, ArrayList<PrecursorFragmentPairEdge>> entry : Clu2Cur.entrySet()) {
+                keys[i++] = entry.getKey();
+                NoEdges += entry.getValue().size();
+            }
+        }
+        Arrays.sort(keys);
+        long KeyOffset = HEADER_SIZE;
+        long RowOffset = KeyOffset + 4L * NoRows;
+        long ColumnOffset = RowOffset + 4L * (NoRows + 1);
+        long FileSize = ColumnOffset + (4L * NO_WORD_COLUMNS + 1) * NoEdges;
+        if (FileSize > Integer.MAX_VALUE) {
+            throw new IOException("Too many precursor-fragment pairs (" + NoEdges + ") for a single mapped file:" + path);
+        }
+        ArrayList<PrecursorFragmentPairEdge> edges = new ArrayList<>((int) NoEdges);
+        for (int key : keys) {
+            edges.addAll(Clu2Cur.get(key));
+        }
+
+        //Write next to the target and move it over, so an interrupted write doesn't leave a truncated store
+        File tmpfile = new File(path + ".tmp");
+        try (FileOutputStream fout = new FileOutputStream(tmpfile, false)) {
+            ColumnWriter out = new ColumnWriter(fout.getChannel());
+            out.PutInt(MAGIC);
+            out.PutInt(VERSION);
+            out.PutInt(Clu2Cur == null ? -1 : NoRows);
+            out.PutInt(0);
+            out.PutInt((int) (NoEdges >>> 32));
+            out.PutInt((int) NoEdges);
+            for (long offset : new long[]{KeyOffset, RowOffset, ColumnOffset}) {
+                out.PutInt((int) (offset >>> 32));
+                out.PutInt((int) offset);
+            }
+            out.Skip(HEADER_SIZE - 48);
+            for (int key : keys) {
+                out.PutInt(key);
+            }
+            int start = 0;
+            out.PutInt(start);
+            for (int key : keys) {
+                start += Clu2Cur.get(key).size();
+                out.PutInt(start);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutInt(edge.PeakCurveIndexA);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutInt(edge.PeakCurveIndexB);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutInt(edge.FragmentMS1Rank);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutFloat(edge.Correlation);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutFloat(edge.FragmentMz);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutFloat(edge.Intensity);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutFloat(edge.ApexDelta);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutFloat(edge.RTOverlapP);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutFloat(edge.FragmentMS1RankScore);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutFloat(edge.AdjustedFragInt);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutFloat(edge.MatchedFragMz);
+            }
+            for (PrecursorFragmentPairEdge edge : edges) {
+                out.PutByte(edge.ComplementaryFragment ? 1 : 0);
+            }
+            out.Flush();
+        }
+        Files.move(tmpfile.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    //Map the file, returns null if a null map was written
+    public static FragmentEdgeStore Open(String path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        boolean opened = false;
+        try {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a precursor-fragment edge store");
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported precursor-fragment edge store version " + version + " in " + path);
+            }
+            int NoRows = buffer.getInt(8);
+            if (NoRows < 0) {
+                return null;
+            }
+            long NoEdges = buffer.getLong(16);
+            long KeyOffset = buffer.getLong(24);
+            long RowOffset = buffer.getLong(32);
+            long ColumnOffset = buffer.getLong(40);
+            if (ColumnOffset + (4L * NO_WORD_COLUMNS + 1) * NoEdges != file.length()) {
+                throw new IOException("Incomplete precursor-fragment edge store:" + path);
+            }
+            FragmentEdgeStore store = new FragmentEdgeStore(file, buffer, NoRows, NoEdges, (int) KeyOffset, (int) RowOffset, (int) ColumnOffset);
+            opened = true;
+            return store;
+        } finally {
+            if (!opened) {
+                file.close();
+            }
+        }
+    }
+
+    //Drop the mapped buffer and close the file, the store can't be read afterwards
+    public synchronized void Close() throws IOException {
+        buffer = null;
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+    }
+
+    private MappedByteBuffer Buffer() {
+        MappedByteBuffer mapped = buffer;
+        if (mapped == null) {
+            throw new IllegalStateException("The precursor-fragment edge store has been closed");
+        }
+        return mapped;
+    }
+
+    //Row of a cluster index by binary search on the mapped key column, -1 if not found
+    private int FindRow(int key) {
+        MappedByteBuffer buffer = Buffer();
+        int lo = 0;
+        int hi = NoRows - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = buffer.getInt(KeyOffset + 4 * mid);
+            if (value < key) {
+                lo = mid + 1;
+            } else if (value > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private ArrayList<PrecursorFragmentPairEdge> GetRow(int row) {
+        ArrayList<PrecursorFragmentPairEdge> list = Rows.get(row);
+        if (list == null) {
+            Rows.compareAndSet(row, null, DecodeRow(row));
+            list = Rows.get(row);
+        }
+        return list;
+    }
+
+    private ArrayList<PrecursorFragmentPairEdge> DecodeRow(int row) {
+        MappedByteBuffer buffer = Buffer();
+        int start = buffer.getInt(RowOffset + 4 * row);
+        int end = buffer.getInt(RowOffset + 4 * (row + 1));
+        ArrayList<PrecursorFragmentPairEdge> list = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            PrecursorFragmentPairEdge edge = new PrecursorFragmentPairEdge();
+            edge.PeakCurveIndexA = buffer.getInt(WordIndex(0, i));
+            edge.PeakCurveIndexB = buffer.getInt(WordIndex(1, i));
+            edge.FragmentMS1Rank = buffer.getInt(WordIndex(2, i));
+            edge.Correlation = buffer.getFloat(WordIndex(3, i));
+            edge.FragmentMz = buffer.getFloat(WordIndex(4, i));
+            edge.Intensity = buffer.getFloat(WordIndex(5, i));
+            edge.ApexDelta = buffer.getFloat(WordIndex(6, i));
+            edge.RTOverlapP = buffer.getFloat(WordIndex(7, i));
+            edge.FragmentMS1RankScore = buffer.getFloat(WordIndex(8, i));
+            edge.AdjustedFragInt = buffer.getFloat(WordIndex(9, i));
+            edge.MatchedFragMz = buffer.getFloat(WordIndex(10, i));
+            edge.ComplementaryFragment = buffer.get((int) (ColumnOffset + 4L * NO_WORD_COLUMNS * NoEdges + i)) != 0;
+            list.add(edge);
+        }
+        return list;
+    }
+
+    private int WordIndex(int column, int i) {
+        return (int) (ColumnOffset + 4L * (column * NoEdges + i));
+    }
+
+    @Override
+    public int size() {
+        return NoRows;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Integer && FindRow((Integer) key) >= 0;
+    }
+
+    @Override
+    public ArrayList<PrecursorFragmentPairEdge> get(Object key) {
+        if (!(key instanceof Integer)) {
+            return null;
+        }
+        int row = FindRow((Integer) key);
+        return row < 0 ? null : GetRow(row);
+    }
+
+    @Override
+    public Set<Entry<Integer, ArrayList<PrecursorFragmentPairEdge>>> entrySet() {
+        return new AbstractSet<Entry<Integer, ArrayList<PrecursorFragmentPairEdge>>>() {
+            @Override
+            public Iterator<Entry<Integer, ArrayList<PrecursorFragmentPairEdge>>> iterator() {
+                return new Iterator<Entry<Integer, ArrayList<PrecursorFragmentPairEdge>>>() {
+                    private int row = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return row < NoRows;
+                    }
+
+                    @Override
+                    public Entry<Integer, ArrayList<PrecursorFragmentPairEdge>> next() {
+                        if (row >= NoRows) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<Integer, ArrayList<PrecursorFragmentPairEdge>> entry = new SimpleImmutableEntry<>(Buffer().getInt(KeyOffset + 4 * row), GetRow(row));
+                        row++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return NoRows;
+            }
+        };
+    }
+}
@@ -28,7 +28,11 @@ import MSUmpire.SpectralProcessingModule.ScoreFunction;
 import com.compomics.util.experiment.biology.ions.ElementaryIon;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -46,7 +50,7 @@ public class PeakCluster implements Serializable {
     public PeakCurve MonoIsotopePeak;
     public int[] IsoPeakIndex;
     public float[] Corrs;
-    private float[] SNR;
+    float[] SNR;
     public float[] PeakHeight;
     public float[] PeakHeightRT;
     public float[] PeakArea;
@@ -57,7 +61,7 @@ public class PeakCluster implements Serializable {
     public transient int EndScan;
     public int Charge;
     public float IsoMapProb = -1f;
-    private float conflictCorr = -1f;
+    float conflictCorr = -1f;
     public float[] PeakDis;    
     public int NoRidges;
     public float OverlapP;
@@ -122,6 +126,102 @@ public class PeakCluster implements Serializable {
         return FragmentScan;
     }
     
+    //Fragment lists (by identity) already merged into GroupedFragmentPeaks and the list size right after the last merge
+    private transient Set<ArrayList<PrecursorFragmentPairEdge>> MergedFragmentLists;
+    private transient int MergedFragmentCount = -1;
+    //GroupedFragmentPeaks sorted by fragment m/z, see GetSortedFragments()
+    private transient volatile SortedFragments SortedFragmentView;
+
+    /**
+     * GroupedFragmentPeaks ordered by fragment m/z, with the position of each
+     * edge in GroupedFragmentPeaks for tie-breaking in list order
+     */
+    public static class SortedFragments {
+        public final PrecursorFragmentPairEdge[] Fragments;
+        public final float[] FragmentMz;
+        public final int[] ListIndex;
+
+        private boolean IsViewOf(ArrayList<PrecursorFragmentPairEdge> list) {
+            if (Fragments.length != list.size()) {
+                return false;
+            }
+            for (int i = 0; i < Fragments.length; i++) {
+                if (list.get(ListIndex[i]) != Fragments[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private SortedFragments(ArrayList<PrecursorFragmentPairEdge> list) {
+            int n = list.size();
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                //Sort key: m/z order of non-negative floats is their bit order, list position breaks ties
+                keys[i] = ((long) Float.floatToIntBits(list.get(i).FragmentMz + 0f) << 32) | i;
+            }
+            Arrays.sort(keys);
+            Fragments = new PrecursorFragmentPairEdge[n];
+            FragmentMz = new float[n];
+            ListIndex = new int[n];
+            for (int i = 0; i < n; i++) {
+                int idx = (int) (keys[i] & 0xFFFFFFFFL);
+                Fragments[i] = list.get(idx);
+                FragmentMz[i] = Fragments[i].FragmentMz;
+                ListIndex[i] = idx;
+            }
+        }
+    }
+
+    //Merge precursor-fragment edges into GroupedFragmentPeaks without duplicates,
+    //the same list merged again (e.g. by several spectral matching threads sharing the cluster) is skipped
+    public void MergeGroupedFragments(ArrayList<PrecursorFragmentPairEdge> fragments) {
+        fraglock.readLock().lock();
+        try {
+            if (MergedFragmentLists != null && MergedFragmentCount == GroupedFragmentPeaks.size() && MergedFragmentLists.contains(fragments)) {
+                return;
+            }
+        } finally {
+            fraglock.readLock().unlock();
+        }
+        fraglock.writeLock().lock();
+        try {
+            if (MergedFragmentLists == null || MergedFragmentCount != GroupedFragmentPeaks.size()) {
+                //GroupedFragmentPeaks was changed outside of this method (cleared or filled directly)
+                MergedFragmentLists = Collections.newSetFromMap(new IdentityHashMap<ArrayList<PrecursorFragmentPairEdge>, Boolean>());
+            }
+            if (!MergedFragmentLists.add(fragments)) {
+                return;
+            }
+            Set<PrecursorFragmentPairEdge> existing = Collections.newSetFromMap(new IdentityHashMap<PrecursorFragmentPairEdge, Boolean>());
+            existing.addAll(GroupedFragmentPeaks);
+            for (PrecursorFragmentPairEdge fragment : fragments) {
+                if (existing.add(fragment)) {
+                    GroupedFragmentPeaks.add(fragment);
+                }
+            }
+            MergedFragmentCount = GroupedFragmentPeaks.size();
+            SortedFragmentView = null;
+        } finally {
+            fraglock.writeLock().unlock();
+        }
+    }
+
+    //m/z-sorted view of GroupedFragmentPeaks, rebuilt when the list has changed
+    public SortedFragments GetSortedFragments() {
+        fraglock.readLock().lock();
+        try {
+            SortedFragments view = SortedFragmentView;
+            if (view == null || !view.IsViewOf(GroupedFragmentPeaks)) {
+                view = new SortedFragments(GroupedFragmentPeaks);
+                SortedFragmentView = view;
+            }
+            return view;
+        } finally {
+            fraglock.readLock().unlock();
+        }
+    }
+
     public void AddScore(float score) {
         if (MatchScores == null) {
             MatchScores = new SortedListFloat();
@@ -0,0 +1,816 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PeakDataStructure;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.SortedXYCollectionClass;
+import MSUmpire.BaseDataStructure.XYPointCollection;
+import MSUmpire.BaseDataStructure.XYZData;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Versioned columnar binary file of a list of PeakClusters (_PeakCluster.serFS).
+ * Every field is written as a primitive column over all clusters, fragments or 
+ * curves, variable length data (isotope arrays, grouped fragments, curve points)
+ * as a count column followed by the concatenated values, so that the block of 
+ * an object is found by the running sum of the counts. Peak curves shared by 
+ * several clusters are written once.
+ *
+ * Layout (big-endian):
+ * header | cluster columns | fragment columns | curve columns | curve point columns
+ * The header holds the row counts, the file offset of each section and the number of
+ * curves written as a list of their own (the first curves of the curve section).
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class PeakClusterFile {
+
+    private static final int MAGIC = 0x4455504B;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 96;
+    private static final int BUFFER_SIZE = 1 << 20;
+    //Float columns of a cluster: startRT, endRT, IsoMapProb, conflictCorr, OverlapP, LeftInt, RightInt, MS1Score, MS1ScoreLocalProb, MS1ScoreProbability, RTVar
+    private static final int NO_CLUSTER_FLOATS = 11;
+    //Float columns of a fragment: Correlation, FragmentMz, Intensity, ApexDelta, RTOverlapP, FragmentMS1RankScore, AdjustedFragInt, MatchedFragMz
+    private static final int NO_FRAGMENT_FLOATS = 8;
+    //Float columns of a curve: startint, endrt, startrt, TotalIntMzF, TotalIntF, TargetMz, ApexInt, minIntF, ApexRT, MaxCorr, ConflictCorr, MzVar, _snr, _baseLine, _noiseLevel, smoothed MaxY
+    private static final int NO_CURVE_FLOATS = 16;
+    //Number of isotope array columns of a cluster: IsoPeakIndex, Corrs, SNR, PeakHeight, PeakHeightRT, PeakArea, mz, PeakDis
+    private static final int NO_ISO_ARRAYS = 8;
+
+    //Whether the file starts with the columnar header, files written by FST or Java serialization do not
+    public static boolean IsColumnarFile(String path) {
+        File file = new File(path);
+        if (!file.exists() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (FileInputStream fileIn = new FileInputStream(file)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            fileIn.getChannel().read(buffer);
+            buffer.flip();
+            return buffer.getInt() == MAGIC;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    public static void Write(ArrayList<PeakCluster> PeakClusters, String path) throws IOException {
+        Write(PeakClusters, null, path);
+    }
+
+    //Write the clusters together with a list of peak curves (e.g. all the fragment peak curves of a DIA window),
+    //which are written first in list order and read back by Read(path, parameter, PeakCurves)
+    public static void Write(ArrayList<PeakCluster> PeakClusters, ArrayList<PeakCurve> PeakCurves, String path) throws IOException {
+        //Unique peak curves in order of first reference
+        IdentityHashMap<PeakCurve, Integer> CurveIndex = new IdentityHashMap<>();
+        ArrayList<PeakCurve> Curves = new ArrayList<>();
+        if (PeakCurves != null) {
+            for (PeakCurve curve : PeakCurves) {
+                if (!CurveIndex.containsKey(curve)) {
+                    CurveIndex.put(curve, Curves.size());
+                    Curves.add(curve);
+                }
+            }
+        }
+        int NoListedCurves = Curves.size();
+        long NoFragments = 0;
+        for (PeakCluster cluster : PeakClusters) {
+            if (cluster.MonoIsotopePeak != null && !CurveIndex.containsKey(cluster.MonoIsotopePeak)) {
+                CurveIndex.put(cluster.MonoIsotopePeak, Curves.size());
+                Curves.add(cluster.MonoIsotopePeak);
+            }
+            if (cluster.GroupedFragmentPeaks != null) {
+                NoFragments += cluster.GroupedFragmentPeaks.size();
+            }
+        }
+        long NoSmoothPoints = 0;
+        long NoRawPoints = 0;
+        for (PeakCurve curve : Curves) {
+            if (curve.SmoothData != null) {
+                NoSmoothPoints += curve.SmoothData.Data.size();
+            }
+            if (curve.PeakList != null) {
+                NoRawPoints += curve.PeakList.size();
+            }
+        }
+
+        try (FileOutputStream fout = new FileOutputStream(path, false)) {
+            ColumnWriter out = new ColumnWriter(fout.getChannel());
+            out.Skip(HEADER_SIZE);
+            long ClusterOffset = out.Position();
+            WriteClusters(out, PeakClusters, CurveIndex);
+            long FragmentOffset = out.Position();
+            WriteFragments(out, PeakClusters);
+            long CurveOffset = out.Position();
+            WriteCurves(out, Curves);
+            long PointOffset = out.Position();
+            WriteCurvePoints(out, Curves);
+            out.Flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(PeakClusters.size());
+            header.putInt(Curves.size());
+            header.putLong(NoFragments);
+            header.putLong(NoSmoothPoints);
+            header.putLong(NoRawPoints);
+            header.putLong(ClusterOffset);
+            header.putLong(FragmentOffset);
+            header.putLong(CurveOffset);
+            header.putLong(PointOffset);
+            header.putInt(NoListedCurves);
+            header.rewind();
+            fout.getChannel().write(header, 0);
+        }
+    }
+
+    //Read all clusters, the curves get the given parameter
+    public static ArrayList<PeakCluster> Read(String path, InstrumentParameter parameter) throws IOException {
+        return Read(path, parameter, null);
+    }
+
+    //Read all clusters and add the curve list written with them to PeakCurves
+    public static ArrayList<PeakCluster> Read(String path, InstrumentParameter parameter, ArrayList<PeakCurve> PeakCurves) throws IOException {
+        try (FileInputStream fileIn = new FileInputStream(path)) {
+            FileChannel channel = fileIn.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new EOFException("Incomplete header in " + path);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a columnar PeakCluster file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported PeakCluster file version " + version + " in " + path);
+            }
+            int NoClusters = header.getInt();
+            int NoCurves = header.getInt();
+            long NoFragments = header.getLong();
+            header.getLong();
+            header.getLong();
+            long ClusterOffset = header.getLong();
+            long FragmentOffset = header.getLong();
+            long CurveOffset = header.getLong();
+            long PointOffset = header.getLong();
+            //zero in files written without a curve list
+            int NoListedCurves = header.getInt();
+
+            ArrayList<PeakCluster> PeakClusters = new ArrayList<>(NoClusters);
+            int[] MonoCurve = ReadClusters(new ColumnReader(channel, ClusterOffset), NoClusters, PeakClusters);
+            ReadFragments(new ColumnReader(channel, FragmentOffset), PeakClusters, NoFragments);
+            int[] NoSmoothPoints = new int[NoCurves];
+            int[] NoRawPoints = new int[NoCurves];
+            boolean[] SmoothFinalized = new boolean[NoCurves];
+            PeakCurve[] Curves = ReadCurves(new ColumnReader(channel, CurveOffset), parameter, NoSmoothPoints, NoRawPoints, SmoothFinalized);
+            ReadCurvePoints(new ColumnReader(channel, PointOffset), Curves, NoSmoothPoints, NoRawPoints, SmoothFinalized);
+            for (int i = 0; i < NoClusters; i++) {
+                if (MonoCurve[i] >= 0) {
+                    PeakClusters.get(i).MonoIsotopePeak = Curves[MonoCurve[i]];
+                }
+            }
+            if (PeakCurves != null) {
+                for (int i = 0; i < NoListedCurves; i++) {
+                    PeakCurves.add(Curves[i]);
+                }
+            }
+            return PeakClusters;
+        }
+    }
+
+    private static void WriteClusters(ColumnWriter out, ArrayList<PeakCluster> PeakClusters, IdentityHashMap<PeakCurve, Integer> CurveIndex) throws IOException {
+        for (PeakCluster cluster : PeakClusters) {
+            out.PutInt(cluster.Index);
+        }
+        for (PeakCluster cluster : PeakClusters) {
+            out.PutInt(cluster.Charge);
+        }
+        for (PeakCluster cluster : PeakClusters) {
+            out.PutInt(cluster.MonoIsotopePeak == null ? -1 : CurveIndex.get(cluster.MonoIsotopePeak));
+        }
+        for (PeakCluster cluster : PeakClusters) {
+            out.PutInt(cluster.NoRidges);
+        }
+        for (PeakCluster cluster : PeakClusters) {
+            out.PutByte(cluster.Identified ? 1 : 0);
+        }
+        for (int col = 0; col < NO_CLUSTER_FLOATS; col++) {
+            for (PeakCluster cluster : PeakClusters) {
+                out.PutFloat(ClusterFloat(cluster, col));
+            }
+        }
+        for (int col = 0; col < NO_ISO_ARRAYS; col++) {
+            for (PeakCluster cluster : PeakClusters) {
+                out.PutInt(IsoArrayLength(cluster, col));
+            }
+            for (PeakCluster cluster : PeakClusters) {
+                if (col == 0) {
+                    if (cluster.IsoPeakIndex != null) {
+                        for (int value : cluster.IsoPeakIndex) {
+                            out.PutInt(value);
+                        }
+                    }
+                } else {
+                    float[] array = IsoFloatArray(cluster, col);
+                    if (array != null) {
+                        for (float value : array) {
+                            out.PutFloat(value);
+                        }
+                    }
+                }
+            }
+        }
+        for (PeakCluster cluster : PeakClusters) {
+            out.PutString(cluster.AssignedPepIon);
+        }
+        for (PeakCluster cluster : PeakClusters) {
+            out.PutInt(cluster.GroupedFragmentPeaks == null ? -1 : cluster.GroupedFragmentPeaks.size());
+        }
+    }
+
+    private static int[] ReadClusters(ColumnReader in, int NoClusters, ArrayList<PeakCluster> PeakClusters) throws IOException {
+        int[] Index = in.GetInts(NoClusters);
+        int[] Charge = in.GetInts(NoClusters);
+        int[] MonoCurve = in.GetInts(NoClusters);
+        int[] NoRidges = in.GetInts(NoClusters);
+        byte[] Identified = in.GetBytes(NoClusters);
+        float[][] FloatColumns = new float[NO_CLUSTER_FLOATS][];
+        for (int col = 0; col < NO_CLUSTER_FLOATS; col++) {
+            FloatColumns[col] = in.GetFloats(NoClusters);
+        }
+        Object[][] IsoArrays = new Object[NO_ISO_ARRAYS][NoClusters];
+        for (int col = 0; col < NO_ISO_ARRAYS; col++) {
+            int[] IsoLength = in.GetInts(NoClusters);
+            for (int i = 0; i < NoClusters; i++) {
+                int length = IsoLength[i];
+                if (length >= 0) {
+                    IsoArrays[col][i] = col == 0 ? in.GetInts(length) : in.GetFloats(length);
+                }
+            }
+        }
+        for (int i = 0; i < NoClusters; i++) {
+            float[] mz = (float[]) IsoArrays[6][i];
+            PeakCluster cluster = new PeakCluster(mz == null ? 1 : Math.max(mz.length, 1), Charge[i]);
+            //transient arrays are not restored, as with object serialization
+            cluster.IsoPeaksCurves = null;
+            cluster.OverlapRT = null;
+            cluster.Index = Index[i];
+            cluster.NoRidges = NoRidges[i];
+            cluster.Identified = Identified[i] != 0;
+            for (int col = 0; col < NO_CLUSTER_FLOATS; col++) {
+                SetClusterFloat(cluster, col, FloatColumns[col][i]);
+            }
+            cluster.IsoPeakIndex = (int[]) IsoArrays[0][i];
+            cluster.Corrs = (float[]) IsoArrays[1][i];
+            cluster.SNR = (float[]) IsoArrays[2][i];
+            cluster.PeakHeight = (float[]) IsoArrays[3][i];
+            cluster.PeakHeightRT = (float[]) IsoArrays[4][i];
+            cluster.PeakArea = (float[]) IsoArrays[5][i];
+            cluster.mz = mz;
+            cluster.PeakDis = (float[]) IsoArrays[7][i];
+            PeakClusters.add(cluster);
+        }
+        for (PeakCluster cluster : PeakClusters) {
+            cluster.AssignedPepIon = in.GetString();
+        }
+        int[] NoFragments = in.GetInts(NoClusters);
+        for (int i = 0; i < NoClusters; i++) {
+            PeakClusters.get(i).GroupedFragmentPeaks = NoFragments[i] < 0 ? null : NewFragments(NoFragments[i]);
+        }
+        return MonoCurve;
+    }
+
+    //Fragment objects of a cluster, the fields are filled from the fragment columns
+    private static ArrayList<PrecursorFragmentPairEdge> NewFragments(int count) {
+        ArrayList<PrecursorFragmentPairEdge> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(new PrecursorFragmentPairEdge());
+        }
+        return list;
+    }
+
+    private static float ClusterFloat(PeakCluster cluster, int col) {
+        switch (col) {
+            case 0:
+                return cluster.startRT;
+            case 1:
+                return cluster.endRT;
+            case 2:
+                return cluster.IsoMapProb;
+            case 3:
+                return cluster.conflictCorr;
+            case 4:
+                return cluster.OverlapP;
+            case 5:
+                return cluster.LeftInt;
+            case 6:
+                return cluster.RightInt;
+            case 7:
+                return cluster.MS1Score;
+            case 8:
+                return cluster.MS1ScoreLocalProb;
+            case 9:
+                return cluster.MS1ScoreProbability;
+            default:
+                return cluster.RTVar;
+        }
+    }
+
+    private static void SetClusterFloat(PeakCluster cluster, int col, float value) {
+        switch (col) {
+            case 0:
+                cluster.startRT = value;
+                break;
+            case 1:
+                cluster.endRT = value;
+                break;
+            case 2:
+                cluster.IsoMapProb = value;
+                break;
+            case 3:
+                cluster.conflictCorr = value;
+                break;
+            case 4:
+                cluster.OverlapP = value;
+                break;
+            case 5:
+                cluster.LeftInt = value;
+                break;
+            case 6:
+                cluster.RightInt = value;
+                break;
+            case 7:
+                cluster.MS1Score = value;
+                break;
+            case 8:
+                cluster.MS1ScoreLocalProb = value;
+                break;
+            case 9:
+                cluster.MS1ScoreProbability = value;
+                break;
+            default:
+                cluster.RTVar = value;
+                break;
+        }
+    }
+
+    private static int IsoArrayLength(PeakCluster cluster, int col) {
+        if (col == 0) {
+            return cluster.IsoPeakIndex == null ? -1 : cluster.IsoPeakIndex.length;
+        }
+        float[] array = IsoFloatArray(cluster, col);
+        return array == null ? -1 : array.length;
+    }
+
+    private static float[] IsoFloatArray(PeakCluster cluster, int col) {
+        switch (col) {
+            case 1:
+                return cluster.Corrs;
+            case 2:
+                return cluster.SNR;
+            case 3:
+                return cluster.PeakHeight;
+            case 4:
+                return cluster.PeakHeightRT;
+            case 5:
+                return cluster.PeakArea;
+            case 6:
+                return cluster.mz;
+            default:
+                return cluster.PeakDis;
+        }
+    }
+
+    private static void WriteFragments(ColumnWriter out, ArrayList<PeakCluster> PeakClusters) throws IOException {
+        ArrayList<PrecursorFragmentPairEdge> Fragments = new ArrayList<>();
+        for (PeakCluster cluster : PeakClusters) {
+            if (cluster.GroupedFragmentPeaks != null) {
+                Fragments.addAll(cluster.GroupedFragmentPeaks);
+            }
+        }
+        for (PrecursorFragmentPairEdge fragment : Fragments) {
+            out.PutInt(fragment.PeakCurveIndexA);
+        }
+        for (PrecursorFragmentPairEdge fragment : Fragments) {
+            out.PutInt(fragment.PeakCurveIndexB);
+        }
+        for (PrecursorFragmentPairEdge fragment : Fragments) {
+            out.PutInt(fragment.FragmentMS1Rank);
+        }
+        for (PrecursorFragmentPairEdge fragment : Fragments) {
+            out.PutByte(fragment.ComplementaryFragment ? 1 : 0);
+        }
+        for (int col = 0; col < NO_FRAGMENT_FLOATS; col++) {
+            for (PrecursorFragmentPairEdge fragment : Fragments) {
+                out.PutFloat(FragmentFloat(fragment, col));
+            }
+        }
+    }
+
+    private static void ReadFragments(ColumnReader in, ArrayList<PeakCluster> PeakClusters, long NoFragments) throws IOException {
+        PrecursorFragmentPairEdge[] Fragments = new PrecursorFragmentPairEdge[(int) NoFragments];
+        int idx = 0;
+        for (PeakCluster cluster : PeakClusters) {
+            if (cluster.GroupedFragmentPeaks != null) {
+                for (PrecursorFragmentPairEdge fragment : cluster.GroupedFragmentPeaks) {
+                    Fragments[idx++] = fragment;
+                }
+            }
+        }
+        int[] column = in.GetInts(Fragments.length);
+        for (int i = 0; i < Fragments.length; i++) {
+            Fragments[i].PeakCurveIndexA = column[i];
+        }
+        column = in.GetInts(Fragments.length);
+        for (int i = 0; i < Fragments.length; i++) {
+            Fragments[i].PeakCurveIndexB = column[i];
+        }
+        column = in.GetInts(Fragments.length);
+        for (int i = 0; i < Fragments.length; i++) {
+            Fragments[i].FragmentMS1Rank = column[i];
+        }
+        byte[] flags = in.GetBytes(Fragments.length);
+        for (int i = 0; i < Fragments.length; i++) {
+            Fragments[i].ComplementaryFragment = flags[i] != 0;
+        }
+        for (int col = 0; col < NO_FRAGMENT_FLOATS; col++) {
+            float[] values = in.GetFloats(Fragments.length);
+            for (int i = 0; i < Fragments.length; i++) {
+                SetFragmentFloat(Fragments[i], col, values[i]);
+            }
+        }
+    }
+
+    private static float FragmentFloat(PrecursorFragmentPairEdge fragment, int col) {
+        switch (col) {
+            case 0:
+                return fragment.Correlation;
+            case 1:
+                return fragment.FragmentMz;
+            case 2:
+                return fragment.Intensity;
+            case 3:
+                return fragment.ApexDelta;
+            case 4:
+                return fragment.RTOverlapP;
+            case 5:
+                return fragment.FragmentMS1RankScore;
+            case 6:
+                return fragment.AdjustedFragInt;
+            default:
+                return fragment.MatchedFragMz;
+        }
+    }
+
+    private static void SetFragmentFloat(PrecursorFragmentPairEdge fragment, int col, float value) {
+        switch (col) {
+            case 0:
+                fragment.Correlation = value;
+                break;
+            case 1:
+                fragment.FragmentMz = value;
+                break;
+            case 2:
+                fragment.Intensity = value;
+                break;
+            case 3:
+                fragment.ApexDelta = value;
+                break;
+            case 4:
+                fragment.RTOverlapP = value;
+                break;
+            case 5:
+                fragment.FragmentMS1RankScore = value;
+                break;
+            case 6:
+                fragment.AdjustedFragInt = value;
+                break;
+            default:
+                fragment.MatchedFragMz = value;
+                break;
+        }
+    }
+
+    private static void WriteCurves(ColumnWriter out, ArrayList<PeakCurve> Curves) throws IOException {
+        for (PeakCurve curve : Curves) {
+            out.PutInt(curve.Index);
+        }
+        for (PeakCurve curve : Curves) {
+            out.PutInt(curve.StartScan);
+        }
+        for (PeakCurve curve : Curves) {
+            out.PutInt(curve.EndScan);
+        }
+        for (PeakCurve curve : Curves) {
+            out.PutByte((curve.CheckState ? 1 : 0) | (curve.Grouped ? 2 : 0) | (curve.SmoothData != null && curve.SmoothData.Data.IsFinalized() ? 4 : 0));
+        }
+        for (int col = 0; col < NO_CURVE_FLOATS; col++) {
+            for (PeakCurve curve : Curves) {
+                out.PutFloat(CurveFloat(curve, col));
+            }
+        }
+        for (PeakCurve curve : Curves) {
+            out.PutInt(curve.SmoothData == null ? -1 : curve.SmoothData.Data.size());
+        }
+        for (PeakCurve curve : Curves) {
+            out.PutInt(curve.PeakList == null ? -1 : curve.PeakList.size());
+        }
+    }
+
+    private static PeakCurve[] ReadCurves(ColumnReader in, InstrumentParameter parameter, int[] NoSmoothPoints, int[] NoRawPoints, boolean[] SmoothFinalized) throws IOException {
+        int NoCurves = NoSmoothPoints.length;
+        PeakCurve[] Curves = new PeakCurve[NoCurves];
+        int[] Index = in.GetInts(NoCurves);
+        int[] StartScan = in.GetInts(NoCurves);
+        int[] EndScan = in.GetInts(NoCurves);
+        byte[] Flags = in.GetBytes(NoCurves);
+        for (int i = 0; i < NoCurves; i++) {
+            PeakCurve curve = new PeakCurve(parameter);
+            curve.Index = Index[i];
+            curve.StartScan = StartScan[i];
+            curve.EndScan = EndScan[i];
+            curve.CheckState = (Flags[i] & 1) != 0;
+            curve.Grouped = (Flags[i] & 2) != 0;
+            SmoothFinalized[i] = (Flags[i] & 4) != 0;
+            Curves[i] = curve;
+        }
+        for (int col = 0; col < NO_CURVE_FLOATS; col++) {
+            float[] values = in.GetFloats(NoCurves);
+            for (int i = 0; i < NoCurves; i++) {
+                SetCurveFloat(Curves[i], col, values[i]);
+            }
+        }
+        System.arraycopy(in.GetInts(NoCurves), 0, NoSmoothPoints, 0, NoCurves);
+        System.arraycopy(in.GetInts(NoCurves), 0, NoRawPoints, 0, NoCurves);
+        return Curves;
+    }
+
+    private static float CurveFloat(PeakCurve curve, int col) {
+        switch (col) {
+            case 0:
+                return curve.startint;
+            case 1:
+                return curve.endrt;
+            case 2:
+                return curve.startrt;
+            case 3:
+                return curve.TotalIntMzF;
+            case 4:
+                return curve.TotalIntF;
+            case 5:
+                return curve.TargetMz;
+            case 6:
+                return curve.ApexInt;
+            case 7:
+                return curve.minIntF;
+            case 8:
+                return curve.ApexRT;
+            case 9:
+                return curve.MaxCorr;
+            case 10:
+                return curve.ConflictCorr;
+            case 11:
+                return curve.MzVar;
+            case 12:
+                return curve._snr;
+            case 13:
+                return curve._baseLine;
+            case 14:
+                return curve._noiseLevel;
+            default:
+                return curve.SmoothData == null ? 0f : curve.SmoothData.MaxY;
+        }
+    }
+
+    private static void SetCurveFloat(PeakCurve curve, int col, float value) {
+        switch (col) {
+            case 0:
+                curve.startint = value;
+                break;
+            case 1:
+                curve.endrt = value;
+                break;
+            case 2:
+                curve.startrt = value;
+                break;
+            case 3:
+                curve.TotalIntMzF = value;
+                break;
+            case 4:
+                curve.TotalIntF = value;
+                break;
+            case 5:
+                curve.TargetMz = value;
+                break;
+            case 6:
+                curve.ApexInt = value;
+                break;
+            case 7:
+                curve.minIntF = value;
+                break;
+            case 8:
+                curve.ApexRT = value;
+                break;
+            case 9:
+                curve.MaxCorr = value;
+                break;
+            case 10:
+                curve.ConflictCorr = value;
+                break;
+            case 11:
+                curve.MzVar = value;
+                break;
+            case 12:
+                curve._snr = value;
+                break;
+            case 13:
+                curve._baseLine = value;
+                break;
+            case 14:
+                curve._noiseLevel = value;
+                break;
+            default:
+                curve.SmoothData.MaxY = value;
+                break;
+        }
+    }
+
+    //Smoothed X, smoothed Y, raw X, raw Y and raw Z columns, each the concatenation of the curve blocks
+    private static void WriteCurvePoints(ColumnWriter out, ArrayList<PeakCurve> Curves) throws IOException {
+        for (PeakCurve curve : Curves) {
+            if (curve.SmoothData != null) {
+                SortedXYCollectionClass data = curve.SmoothData.Data;
+                for (int i = 0; i < data.size(); i++) {
+                    out.PutFloat(data.GetX(i));
+                }
+            }
+        }
+        for (PeakCurve curve : Curves) {
+            if (curve.SmoothData != null) {
+                SortedXYCollectionClass data = curve.SmoothData.Data;
+                for (int i = 0; i < data.size(); i++) {
+                    out.PutFloat(data.GetY(i));
+                }
+            }
+        }
+        for (PeakCurve curve : Curves) {
+            if (curve.PeakList != null) {
+                for (XYZData point : curve.PeakList) {
+                    out.PutFloat(point.getX());
+                }
+            }
+        }
+        for (PeakCurve curve : Curves) {
+            if (curve.PeakList != null) {
+                for (XYZData point : curve.PeakList) {
+                    out.PutFloat(point.getY());
+                }
+            }
+        }
+        for (PeakCurve curve : Curves) {
+            if (curve.PeakList != null) {
+                for (XYZData point : curve.PeakList) {
+                    out.PutFloat(point.getZ());
+                }
+            }
+        }
+    }
+
+    private static void ReadCurvePoints(ColumnReader in, PeakCurve[] Curves, int[] NoSmoothPoints, int[] NoRawPoints, boolean[] SmoothFinalized) throws IOException {
+        float[][] SmoothX = new float[Curves.length][];
+        for (int i = 0; i < Curves.length; i++) {
+            SmoothX[i] = in.GetFloats(Math.max(NoSmoothPoints[i], 0));
+        }
+        for (int i = 0; i < Curves.length; i++) {
+            float[] SmoothY = in.GetFloats(Math.max(NoSmoothPoints[i], 0));
+            if (NoSmoothPoints[i] < 0) {
+                Curves[i].SmoothData = null;
+            } else {
+                Curves[i].SmoothData.Data = new SortedXYCollectionClass(SmoothX[i], SmoothY, SmoothFinalized[i]);
+            }
+        }
+        SmoothX = null;
+        float[][] RawX = new float[Curves.length][];
+        float[][] RawY = new float[Curves.length][];
+        for (int i = 0; i < Curves.length; i++) {
+            RawX[i] = in.GetFloats(Math.max(NoRawPoints[i], 0));
+        }
+        for (int i = 0; i < Curves.length; i++) {
+            RawY[i] = in.GetFloats(Math.max(NoRawPoints[i], 0));
+        }
+        for (int i = 0; i < Curves.length; i++) {
+            float[] RawZ = in.GetFloats(Math.max(NoRawPoints[i], 0));
+            if (NoRawPoints[i] < 0) {
+                Curves[i].PeakList = null;
+            } else {
+                ArrayList<XYZData> PeakList = new ArrayList<>(NoRawPoints[i]);
+                for (int j = 0; j < NoRawPoints[i]; j++) {
+                    PeakList.add(new XYZData(RawX[i][j], RawY[i][j], RawZ[j]));
+                }
+                Curves[i].PeakList = PeakList;
+            }
+        }
+    }
+
+    /**
+     * Buffered big-endian reader of primitive columns from a file channel, starting at a section offset
+     */
+    private static class ColumnReader {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long position;
+
+        ColumnReader(FileChannel channel, long offset) {
+            this.channel = channel;
+            this.position = offset;
+            buffer.limit(0);
+        }
+
+        int[] GetInts(int count) throws IOException {
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                Ensure(4);
+                values[i] = buffer.getInt();
+            }
+            return values;
+        }
+
+        float[] GetFloats(int count) throws IOException {
+            float[] values = new float[count];
+            int i = 0;
+            while (i < count) {
+                Ensure(4);
+                int n = Math.min(count - i, buffer.remaining() / 4);
+                buffer.asFloatBuffer().get(values, i, n);
+                buffer.position(buffer.position() + n * 4);
+                i += n;
+            }
+            return values;
+        }
+
+        byte[] GetBytes(int count) throws IOException {
+            byte[] values = new byte[count];
+            int i = 0;
+            while (i < count) {
+                Ensure(1);
+                int n = Math.min(count - i, buffer.remaining());
+                buffer.get(values, i, n);
+                i += n;
+            }
+            return values;
+        }
+
+        String GetString() throws IOException {
+            int length = GetInts(1)[0];
+            if (length < 0) {
+                return null;
+            }
+            return new String(GetBytes(length), StandardCharsets.UTF_8);
+        }
+
+        private void Ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of PeakCluster file");
+                }
+                position += read;
+            }
+            buffer.flip();
+        }
+    }
+}
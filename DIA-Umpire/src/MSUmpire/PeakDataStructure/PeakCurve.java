@@ -20,6 +20,8 @@
 package MSUmpire.PeakDataStructure;
 
 import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.RTGridSignal;
+import MSUmpire.BaseDataStructure.SortedXYCollectionClass;
 import MSUmpire.BaseDataStructure.XYData;
 import MSUmpire.BaseDataStructure.XYPointCollection;
 import MSUmpire.BaseDataStructure.XYZData;
@@ -35,22 +37,22 @@ import java.util.PriorityQueue;
 public class PeakCurve implements Serializable  {
     private static final long serialVersionUID = 6498163564821L;
 
-    private ArrayList<XYZData> PeakList;
+    ArrayList<XYZData> PeakList;
     //X: retention time
     //Y: m/z
     //Z: intensity
-    private XYPointCollection SmoothData;
+    XYPointCollection SmoothData;
     //X: retention time
     //Y: intensity
     //XIC
-    private float startint = 0f;
+    float startint = 0f;
     public int Index;
-    private float endrt = -1f;
-    private float startrt = -1f;
+    float endrt = -1f;
+    float startrt = -1f;
     public int StartScan=-1;
     public int EndScan=-1;
-    private float TotalIntMzF;
-    private float TotalIntF;
+    float TotalIntMzF;
+    float TotalIntF;
     public float TargetMz;
     public float ApexInt;
     public float minIntF = Float.POSITIVE_INFINITY;
@@ -67,12 +69,14 @@ public class PeakCurve implements Serializable  {
     public transient ArrayList<Float> RegionRidge;
     private transient ArrayList<ArrayList<Float>> NoRidgeRegion;
     public InstrumentParameter parameter;
+    //Smoothed signal on the shared RT grid, built on first use
+    private transient volatile RTGridSignal GridSignal;
 
     //using B-spline to generate smoothed peak signals
     public void DoBspline() {
+        GridSignal = null;
         for (XYZData point : PeakList) {
-            XYData pt = new XYData(point.getX(), point.getZ());
-            SmoothData.AddPoint(pt);
+            SmoothData.AddPoint(point.getX(), point.getZ());
         }
         Bspline bspline = new Bspline();
         SmoothData = bspline.Run(SmoothData, (int) Math.max((RTWidth() * parameter.NoPeakPerMin), PeakList.size()), 2);
@@ -80,9 +84,9 @@ public class PeakCurve implements Serializable  {
     }
 
     public void DoInterpolation() {
+        GridSignal = null;
         for (XYZData point : PeakList) {
-            XYData pt = new XYData(point.getX(), point.getZ());
-            SmoothData.AddPoint(pt);
+            SmoothData.AddPoint(point.getX(), point.getZ());
         }
         LinearInterpolation interpo = new LinearInterpolation();
         SmoothData = interpo.Run(SmoothData, (int) Math.max((RTWidth() * parameter.NoPeakPerMin), PeakList.size()));
@@ -106,18 +110,20 @@ public class PeakCurve implements Serializable  {
 
     //Detect peak region using CWT based on smoothed peak signals
     public void DetectPeakRegion() {
-        ArrayList<XYData> PeakArrayList = new ArrayList<>();
         PeakRidgeList = new SortedRidgeCollectionClass();
         PeakRegionList = new ArrayList<>();
         NoRidgeRegion = new ArrayList<>();
         if (RTWidth() * parameter.NoPeakPerMin < 1) {
             return;
         }
+        float[] PeakX = new float[SmoothData.PointCount()];
+        float[] PeakY = new float[SmoothData.PointCount()];
         for (int i = 0; i < SmoothData.PointCount(); i++) {
-            PeakArrayList.add(new XYData(SmoothData.Data.get(i).getX(), SmoothData.Data.get(i).getY()));
+            PeakX[i] = SmoothData.Data.GetX(i);
+            PeakY[i] = SmoothData.Data.GetY(i);
         }
         //Start CWT process
-        waveletMassDetector = new WaveletMassDetector(parameter, PeakArrayList, (int) (RTWidth() * parameter.NoPeakPerMin));
+        waveletMassDetector = new WaveletMassDetector(parameter, PeakX, PeakY, (int) (RTWidth() * parameter.NoPeakPerMin));
         waveletMassDetector.Run();
 
         int maxScale = waveletMassDetector.PeakRidge.length - 1;
@@ -228,13 +234,13 @@ public class PeakCurve implements Serializable  {
             for (int j = 1; j < PeakRidgeList.size(); j++) {
                 PeakRidge nextridge = PeakRidgeList.get(j);
                 for (int i = startidx; i < SmoothData.Data.size(); i++) {
-                    XYData point = SmoothData.Data.get(i);
-                    if (point.getX() > currentridge.RT && point.getX() < nextridge.RT) {
-                        if (localmin.getY() > point.getY()) {
-                            localmin = point.cloneXYData();
+                    float rt = SmoothData.Data.GetX(i);
+                    if (rt > currentridge.RT && rt < nextridge.RT) {
+                        if (localmin.getY() > SmoothData.Data.GetY(i)) {
+                            localmin = SmoothData.Data.get(i);
                         }
                     }
-                    if (point.getX() >= nextridge.RT) {
+                    if (rt >= nextridge.RT) {
                         startidx = i;
                         break;
                     }
@@ -250,11 +256,11 @@ public class PeakCurve implements Serializable  {
             for (int i = 0; i < PeakRidgeList.size(); i++) {
                 PeakRidge ridge = PeakRidgeList.get(i);
                 for (int j = startidx; j < SmoothData.Data.size(); j++) {
-                    XYData point = SmoothData.Data.get(j);
-                    if (point.getX() < ValleyPoints[i + 1].getX()) {
-                        if (ridge.intensity < point.getY()) {
-                            ridge.intensity = point.getY();
-                            ridge.RT = point.getX();
+                    float rt = SmoothData.Data.GetX(j);
+                    if (rt < ValleyPoints[i + 1].getX()) {
+                        if (ridge.intensity < SmoothData.Data.GetY(j)) {
+                            ridge.intensity = SmoothData.Data.GetY(j);
+                            ridge.RT = rt;
                         }
                     } else {
                         startidx = j;
@@ -296,8 +302,6 @@ public class PeakCurve implements Serializable  {
             NoRidgeRegion.add(RidgeRTs);
         }
         waveletMassDetector = null;
-        PeakArrayList.clear();
-        PeakArrayList = null;
         PeakRidgeList.clear();
         PeakRidgeList = null;
     }
@@ -380,11 +384,11 @@ public class PeakCurve implements Serializable  {
 
         //Add corresponding smoothed peaks
         for (int i = 0; i < GetSmoothedList().Data.size(); i++) {
-            XYData peak = GetSmoothedList().Data.get(i);
+            float rt = GetSmoothedList().Data.GetX(i);
             for (int j = 0; j < GetPeakRegionList().size(); j++) {
                 XYZData region = GetPeakRegionList().get(j);
-                if (peak.getX() >= region.getX() && peak.getX() <= region.getZ()) {
-                    tempArrayList.get(j).GetSmoothedList().Data.add(peak);
+                if (rt >= region.getX() && rt <= region.getZ()) {
+                    tempArrayList.get(j).GetSmoothedList().Data.add(rt, GetSmoothedList().Data.GetY(i));
                     break;
                 }
             }
@@ -434,10 +438,11 @@ public class PeakCurve implements Serializable  {
 
     public float GetMaxIntensityByRegionRange(float StartRT, float EndRT) {
         float max = 0f;
-        for (int j = 0; j < GetSmoothedList().PointCount(); j++) {
-            XYData pt = GetSmoothedList().Data.get(j);
-            if (pt.getX() >= StartRT && pt.getX() <= EndRT && pt.getY() > max) {
-                max = pt.getY();
+        SortedXYCollectionClass smoothdata = GetSmoothedList().Data;
+        for (int j = 0; j < smoothdata.size(); j++) {
+            float rt = smoothdata.GetX(j);
+            if (rt >= StartRT && rt <= EndRT && smoothdata.GetY(j) > max) {
+                max = smoothdata.GetY(j);
             }
         }
         return max;
@@ -446,8 +451,8 @@ public class PeakCurve implements Serializable  {
     private void CalculateBaseLine() {
         _baseLine = 0f;
         PriorityQueue<Float> IntensityQueue = new PriorityQueue<>();
-        for (XYData point : SmoothData.Data) {
-            IntensityQueue.add(point.getY());
+        for (int i = 0; i < SmoothData.Data.size(); i++) {
+            IntensityQueue.add(SmoothData.Data.GetY(i));
         }
 
         if (IntensityQueue.size() > 10) {
@@ -494,7 +499,7 @@ public class PeakCurve implements Serializable  {
         XYPointCollection PtCollection = new XYPointCollection();
 
         for (int i = 0; i < SmoothData.Data.size(); i++) {
-            PtCollection.AddPoint(SmoothData.Data.get(i).getX(), SmoothData.Data.get(i).getY());
+            PtCollection.AddPoint(SmoothData.Data.GetX(i), SmoothData.Data.GetY(i));
         }
         return PtCollection;
     }
@@ -503,11 +508,11 @@ public class PeakCurve implements Serializable  {
         XYPointCollection PtCollection = new XYPointCollection();
 
         for (int i = 0; i < SmoothData.PointCount(); i++) {
-            XYData pt = SmoothData.Data.get(i);
-            if (pt.getX() > endRT) {
+            float rt = SmoothData.Data.GetX(i);
+            if (rt > endRT) {
                 break;
-            } else if (pt.getX() >= startRT && pt.getX() <= endRT) {
-                PtCollection.AddPoint(pt.getX(), pt.getY());
+            } else if (rt >= startRT && rt <= endRT) {
+                PtCollection.AddPoint(rt, SmoothData.Data.GetY(i));
             }
         }
         return PtCollection;
@@ -515,11 +520,12 @@ public class PeakCurve implements Serializable  {
 
     public float DetermineIntByRTRange(float StartRT, float EndRT) {
         float Intensity = 0f;
-        for (int j = 0; j < GetSmoothedList().PointCount(); j++) {
-            XYData pt = GetSmoothedList().Data.get(j);
-            if (pt.getX() >= StartRT && pt.getX() <= EndRT) {
-                if (pt.getY() > Intensity) {
-                    Intensity = pt.getY();
+        SortedXYCollectionClass smoothdata = GetSmoothedList().Data;
+        for (int j = 0; j < smoothdata.size(); j++) {
+            float rt = smoothdata.GetX(j);
+            if (rt >= StartRT && rt <= EndRT) {
+                if (smoothdata.GetY(j) > Intensity) {
+                    Intensity = smoothdata.GetY(j);
                 }
             }
         }
@@ -544,6 +550,16 @@ public class PeakCurve implements Serializable  {
         return SmoothData;
     }
 
+    //Smoothed signal resampled once on the RT grid shared by all peak curves of the file
+    public RTGridSignal GetRTGridSignal(int NoPointPerMin) {
+        RTGridSignal signal = GridSignal;
+        if (signal == null || signal.NoPointPerMin != NoPointPerMin) {
+            signal = new RTGridSignal(SmoothData.Data, NoPointPerMin);
+            GridSignal = signal;
+        }
+        return signal;
+    }
+
     public ArrayList<XYZData> GetPeakRegionList() {
         return PeakRegionList;
     }
@@ -553,9 +569,9 @@ public class PeakCurve implements Serializable  {
         this.PeakList = null;
         this.SmoothData.dispose();
         this.SmoothData = null;
+        this.GridSignal = null;
         this.PeakRegionList = null;
         this.PeakRidgeList = null;
-        this.waveletMassDetector.DataPoint.clear();
         this.waveletMassDetector = null;
     }
 
@@ -0,0 +1,179 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PeakDataStructure;
+
+/**
+ * Array snapshot of a SortedCurveCollectionApexRT: the peak curves and their
+ * apex RT, start RT, end RT and m/z in apex RT order, stored column-wise so
+ * that RT sweeps over the curves read primitive arrays instead of walking the
+ * AVL tree for every get().
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class SortedCurveArrayApexRT {
+
+    public final PeakCurve[] Curves;
+    public final float[] ApexRT;
+    public final float[] StartRT;
+    public final float[] EndRT;
+    public final float[] TargetMz;
+
+    public SortedCurveArrayApexRT(SortedCurveCollectionApexRT PeakCurveListRT) {
+        int size = PeakCurveListRT.size();
+        Curves = new PeakCurve[size];
+        ApexRT = new float[size];
+        StartRT = new float[size];
+        EndRT = new float[size];
+        TargetMz = new float[size];
+        int i = 0;
+        for (PeakCurve curve : PeakCurveListRT) {
+            Curves[i] = curve;
+            ApexRT[i] = curve.ApexRT;
+            StartRT[i] = curve.StartRT();
+            EndRT[i] = curve.EndRT();
+            TargetMz[i] = curve.TargetMz;
+            i++;
+        }
+    }
+
+    public int size() {
+        return Curves.length;
+    }
+
+    //Number of curves with apex RT < value
+    public int CountBelow(float value) {
+        int lo = 0;
+        int hi = ApexRT.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ApexRT[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    //Number of curves with apex RT <= value
+    public int CountNotAbove(float value) {
+        int lo = 0;
+        int hi = ApexRT.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ApexRT[mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Same index as SortedCurveCollectionApexRT.BinarySearchLower, given the
+     * number of curves with apex RT < value (from a sweep pointer or CountBelow)
+     */
+    public int BinarySearchLower(float value, int below) {
+        int last = ApexRT.length - 1;
+        if (last < 0) {
+            return 0;
+        }
+        if (value >= ApexRT[last]) {
+            return last;
+        }
+        if (value <= ApexRT[0]) {
+            return 0;
+        }
+        if (ApexRT[below] == value) {
+            //the index found by the tree search among equal apex RTs depends on the search path
+            return BinarySearchLower(value);
+        }
+        return below - 1;
+    }
+
+    /**
+     * Same index as SortedCurveCollectionApexRT.BinarySearchHigher, given the
+     * number of curves with apex RT <= value (from a sweep pointer or CountNotAbove)
+     */
+    public int BinarySearchHigher(float value, int notabove) {
+        int last = ApexRT.length - 1;
+        if (last < 0) {
+            return 0;
+        }
+        if (value >= ApexRT[last]) {
+            return last;
+        }
+        if (value <= ApexRT[0]) {
+            return 0;
+        }
+        if (ApexRT[notabove - 1] == value) {
+            return BinarySearchHigher(value);
+        }
+        return notabove;
+    }
+
+    //SortedCurveCollectionApexRT.BinarySearchLower on the apex RT array
+    private int BinarySearchLower(float value) {
+        int lower = 0;
+        int upper = ApexRT.length - 1;
+        while (lower <= upper) {
+            int middle = (lower + upper) / 2;
+            float comparisonResult = value - ApexRT[middle];
+            if (comparisonResult == 0) {
+                return middle;
+            } else if (comparisonResult < 0) {
+                upper = middle - 1;
+            } else {
+                lower = middle + 1;
+            }
+        }
+        if (upper < 0) {
+            return 0;
+        }
+        while (upper > 0 && ApexRT[upper] >= value) {
+            upper--;
+        }
+        return upper;
+    }
+
+    //SortedCurveCollectionApexRT.BinarySearchHigher on the apex RT array
+    private int BinarySearchHigher(float value) {
+        int lower = 0;
+        int upper = ApexRT.length - 1;
+        while (lower <= upper) {
+            int middle = (lower + upper) / 2;
+            float comparisonResult = value - ApexRT[middle];
+            if (comparisonResult == 0) {
+                return middle;
+            } else if (comparisonResult < 0) {
+                upper = middle - 1;
+            } else {
+                lower = middle + 1;
+            }
+        }
+        if (lower > ApexRT.length - 1) {
+            return ApexRT.length - 1;
+        }
+        while (upper < ApexRT.length && ApexRT[upper] <= value) {
+            upper++;
+        }
+        return upper;
+    }
+}
@@ -23,6 +23,7 @@ import MSUmpire.BaseDataStructure.InstrumentParameter;
 import MSUmpire.BaseDataStructure.XYData;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
  *This class implements the Continuous Wavelet Transform (CWT), Mexican Hat,
@@ -40,35 +41,42 @@ public class WaveletMassDetector implements Serializable{
      * The WAVELET_ESL & WAVELET_ESL indicates the Effective Support boundaries
      */
     private double NPOINTS;
-    private int WAVELET_ESL = -5;
-    private int WAVELET_ESR = 5;
-    static boolean waveletDebug = false;
+    private static final int WAVELET_ESL = -5;
+    private static final int WAVELET_ESR = 5;
     private InstrumentParameter parameter;
-    public ArrayList<XYData> DataPoint;
-    double waveletWindow = 0.3;
+    private float[] DataX;
+    private float[] DataY;
+    private static final double waveletWindow = 0.3;
     private double[] MEXHAT;
     double NPOINTS_half;
+    //Pre calculated wavelet values for each number of points, shared by all peak curves
+    private static final ConcurrentHashMap<Integer, double[]> MEXHATCache = new ConcurrentHashMap<>();
 
-    public WaveletMassDetector(InstrumentParameter parameter, ArrayList<XYData> DataPoint, int NoPoints) {
+    public WaveletMassDetector(InstrumentParameter parameter, float[] DataX, float[] DataY, int NoPoints) {
         this.parameter = parameter;
-        this.DataPoint = DataPoint;
+        this.DataX = DataX;
+        this.DataY = DataY;
         this.NPOINTS = NoPoints;
 
-        double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
-        MEXHAT = new double[(int) NPOINTS];
+        MEXHAT = MEXHATCache.get(NoPoints);
+        if (MEXHAT == null) {
+            double wstep = ((WAVELET_ESR - WAVELET_ESL) / NPOINTS);
+            double[] mexhat = new double[(int) NPOINTS];
 
-        double waveletIndex = WAVELET_ESL;
-        for (int j = 0; j < NPOINTS; j++) {
-            // Pre calculate the values of the wavelet
-            MEXHAT[j] = cwtMEXHATreal(waveletIndex, waveletWindow, 0.0);
-            waveletIndex += wstep;
+            double waveletIndex = WAVELET_ESL;
+            for (int j = 0; j < NPOINTS; j++) {
+                // Pre calculate the values of the wavelet
+                mexhat[j] = cwtMEXHATreal(waveletIndex, waveletWindow, 0.0);
+                waveletIndex += wstep;
+            }
+            MEXHATCache.putIfAbsent(NoPoints, mexhat);
+            MEXHAT = mexhat;
         }
 
         NPOINTS_half = NPOINTS / 2;
         d = (int) NPOINTS / (WAVELET_ESR - WAVELET_ESL);
     }
     int d;
-    //public ArrayList<XYData>[] waveletCWT;
     
     //List of peak ridge (local maxima)
     public ArrayList<XYData>[] PeakRidge;
@@ -80,76 +88,107 @@ public class WaveletMassDetector implements Serializable{
         //"Number of wavelet'scale (coeficients) to use in m/z peak detection"
         //"Wavelet window size (%)",
         //"Size in % of wavelet window to apply in m/z peak detection");        
-        int maxscale = (int) (Math.max(Math.min((DataPoint.get(DataPoint.size() - 1).getX() - DataPoint.get(0).getX()), parameter.MaxCurveRTRange), 0.5f) * parameter.NoPeakPerMin / (WAVELET_ESR + WAVELET_ESR));
+        int length = DataX.length;
+        int maxscale = (int) (Math.max(Math.min((DataX[length - 1] - DataX[0]), parameter.MaxCurveRTRange), 0.5f) * parameter.NoPeakPerMin / (WAVELET_ESR + WAVELET_ESR));
 
-        //waveletCWT = new ArrayList[15];
         PeakRidge = new ArrayList[maxscale];
-        //XYData maxint = new XYData(0f, 0f);
+        //CWT coefficients of the current scale, reused by all scales
+        float[] wavelet = new float[length];
         for (int scaleLevel = 0; scaleLevel < maxscale; scaleLevel++) {
-            ArrayList<XYData> wavelet = performCWT(scaleLevel * 2 + 5);
+            performCWT(scaleLevel * 2 + 5, wavelet);
             PeakRidge[scaleLevel] = new ArrayList<>();
-            //waveletCWT[scaleLevel] = wavelet;
-            XYData lastpt = wavelet.get(0);
-            XYData localmax = null;
-            XYData startpt = wavelet.get(0);
+            //indices of the CWT coefficients
+            int lastpt = 0;
+            int localmax = -1;
+            int startpt = 0;
 
             boolean increasing = false;
             boolean decreasing = false;
-            XYData localmaxint = null;
 
-            for (int cwtidx = 1; cwtidx < wavelet.size(); cwtidx++) {
-                XYData CurrentPoint = wavelet.get(cwtidx);
-                if (CurrentPoint.getY() > lastpt.getY()) {//the peak is increasing
+            for (int cwtidx = 1; cwtidx < length; cwtidx++) {
+                float CurrentPoint = wavelet[cwtidx];
+                if (CurrentPoint > wavelet[lastpt]) {//the peak is increasing
                     if (decreasing) {//first increasing point, last point was a possible local minimum
                         //check if the peak was symetric
-                        if (localmax != null && (lastpt.getY() <= startpt.getY() || Math.abs(lastpt.getY() - startpt.getY()) / localmax.getY() < parameter.SymThreshold)) {
-                            PeakRidge[scaleLevel].add(localmax);
-                            localmax = CurrentPoint;
+                        if (localmax != -1 && (wavelet[lastpt] <= wavelet[startpt] || Math.abs(wavelet[lastpt] - wavelet[startpt]) / wavelet[localmax] < parameter.SymThreshold)) {
+                            PeakRidge[scaleLevel].add(new XYData(DataX[localmax], wavelet[localmax]));
+                            localmax = cwtidx;
                             startpt = lastpt;
                         }
                     }
                     increasing = true;
                     decreasing = false;
-                } else if (CurrentPoint.getY() < lastpt.getY()) {//peak decreasing
+                } else if (CurrentPoint < wavelet[lastpt]) {//peak decreasing
                     if (increasing) {//first point decreasing, last point was a possible local maximum
-                        if (localmax == null || localmax.getY() < lastpt.getY()) {
+                        if (localmax == -1 || wavelet[localmax] < wavelet[lastpt]) {
                             localmax = lastpt;
                         }
                     }
                     decreasing = true;
                     increasing = false;
                 }
-                lastpt = CurrentPoint;
-                if (localmaxint == null || CurrentPoint.getY() > localmaxint.getY()) {
-                    localmaxint = CurrentPoint;
-                }
-                if (cwtidx == wavelet.size() - 1 && decreasing) {
-                    if (localmax != null && (CurrentPoint.getY() <= startpt.getY() || Math.abs(CurrentPoint.getY() - startpt.getY()) / localmax.getY() < parameter.SymThreshold)) {
-                        PeakRidge[scaleLevel].add(localmax);
+                lastpt = cwtidx;
+                if (cwtidx == length - 1 && decreasing) {
+                    if (localmax != -1 && (CurrentPoint <= wavelet[startpt] || Math.abs(CurrentPoint - wavelet[startpt]) / wavelet[localmax] < parameter.SymThreshold)) {
+                        PeakRidge[scaleLevel].add(new XYData(DataX[localmax], wavelet[localmax]));
                     }
                 }
             }
-
-            if (!waveletDebug) {
-                wavelet.clear();
-                //wavelet = null;
-            }
         }
     }
 
     /**
      * Perform the CWT over raw data points in the selected scale level
-     *
+     * The wavelet values of the scale are looked up once per offset (kernel),
+     * each coefficient is then accumulated in the same order as the direct convolution.
      *
      */
-    private ArrayList<XYData> performCWT(int scaleLevel) {
-        int length = DataPoint.size();
-        ArrayList<XYData> cwtDataPoints = new ArrayList<XYData>();
+    private void performCWT(int scaleLevel, float[] cwtDataPoints) {
+        int length = DataY.length;
 
         int a_esl = scaleLevel * WAVELET_ESL;
         int a_esr = scaleLevel * WAVELET_ESR;
         double sqrtScaleLevel = Math.sqrt(scaleLevel);
-        for (int dx = 0; dx < length; dx++) {
+        double[] kernel = new double[a_esr - a_esl + 1];
+        for (int offset = a_esl; offset <= a_esr; offset++) {
+            int ind = (int) (NPOINTS_half) + ((int) d * offset / scaleLevel);
+            if (ind < 0) {
+                ind = 0;
+            }
+            if (ind >= NPOINTS) {
+                ind = (int) NPOINTS - 1;
+            }
+            kernel[offset - a_esl] = MEXHAT[ind];
+        }
+        int dx = 0;
+        for (; dx + 3 < length; dx += 4) {
+            /*
+             * Four consecutive coefficients at once: the data points shared by their wavelet windows 
+             * are read once, each coefficient is still accumulated in its own order (window start to end)
+             */
+            int lo = Math.max(0, dx + 3 + a_esl);
+            int hi = Math.min(length - 1, dx + a_esr);
+            float intensity0 = Convolve(0f, dx, Math.max(0, dx + a_esl), lo - 1, kernel, a_esl);
+            float intensity1 = Convolve(0f, dx + 1, Math.max(0, dx + 1 + a_esl), lo - 1, kernel, a_esl);
+            float intensity2 = Convolve(0f, dx + 2, Math.max(0, dx + 2 + a_esl), lo - 1, kernel, a_esl);
+            float intensity3 = 0f;
+            int k = lo - dx - a_esl;
+            for (int i = lo; i <= hi; i++, k++) {
+                float y = DataY[i];
+                intensity0 += y * kernel[k];
+                intensity1 += y * kernel[k - 1];
+                intensity2 += y * kernel[k - 2];
+                intensity3 += y * kernel[k - 3];
+            }
+            intensity1 = Convolve(intensity1, dx + 1, hi + 1, Math.min(length - 1, dx + 1 + a_esr), kernel, a_esl);
+            intensity2 = Convolve(intensity2, dx + 2, hi + 1, Math.min(length - 1, dx + 2 + a_esr), kernel, a_esl);
+            intensity3 = Convolve(intensity3, dx + 3, hi + 1, Math.min(length - 1, dx + 3 + a_esr), kernel, a_esl);
+            cwtDataPoints[dx] = CWTCoefficient(intensity0, sqrtScaleLevel);
+            cwtDataPoints[dx + 1] = CWTCoefficient(intensity1, sqrtScaleLevel);
+            cwtDataPoints[dx + 2] = CWTCoefficient(intensity2, sqrtScaleLevel);
+            cwtDataPoints[dx + 3] = CWTCoefficient(intensity3, sqrtScaleLevel);
+        }
+        for (; dx < length; dx++) {
             /*
              * Compute wavelet boundaries
              */
@@ -161,32 +200,28 @@ public class WaveletMassDetector implements Serializable{
             if (t2 >= length) {
                 t2 = (length - 1);
             }
+            cwtDataPoints[dx] = CWTCoefficient(Convolve(0f, dx, t1, t2, kernel, a_esl), sqrtScaleLevel);
+        }
+    }
 
-            /*
-             * Perform convolution
-             */
-            float intensity = 0f;
-            for (int i = t1; i <= t2; i++) {
-                int ind = (int) (NPOINTS_half) + ((int) d * (i - dx) / scaleLevel);
-                if (ind < 0) {
-                    ind = 0;
-                }
-                if (ind >= NPOINTS) {
-                    ind = (int) NPOINTS - 1;
-                }
-//                if(i<0 || ind<0){
-//                    System.out.print("");
-//                }
-                intensity += DataPoint.get(i).getY() * MEXHAT[ind];
-            }
-            intensity /= sqrtScaleLevel;
-            // Eliminate the negative part of the wavelet map
-            if (intensity < 0) {
-                intensity = 0;
-            }
-            cwtDataPoints.add(new XYData(DataPoint.get(dx).getX(), intensity));
+    /*
+     * Perform convolution of the data points from..to with the wavelet centered at dx
+     */
+    private float Convolve(float intensity, int dx, int from, int to, double[] kernel, int a_esl) {
+        int k = from - dx - a_esl;
+        for (int i = from; i <= to; i++) {
+            intensity += DataY[i] * kernel[k++];
+        }
+        return intensity;
+    }
+
+    private float CWTCoefficient(float intensity, double sqrtScaleLevel) {
+        intensity /= sqrtScaleLevel;
+        // Eliminate the negative part of the wavelet map
+        if (intensity < 0) {
+            intensity = 0;
         }
-        return cwtDataPoints;
+        return intensity;
     }
 
     /**
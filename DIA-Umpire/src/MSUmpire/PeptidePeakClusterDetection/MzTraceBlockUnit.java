@@ -0,0 +1,448 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PeptidePeakClusterDetection;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScanCollection;
+import MSUmpire.BaseDataStructure.ScanData;
+import MSUmpire.BaseDataStructure.XYZData;
+import MSUmpire.PeakDataStructure.PeakCurve;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * m/z trace (peak curve) building thread unit for a block of scans.
+ * Consumed peaks are recorded in a primitive array per scan, indexed by peak 
+ * position (0: unused, -1: used by a warm-up curve, -2: used by a previous 
+ * block, >0: ordinal of the peak curve of this block which used it).
+ * The scans right before the block are traced first (warm-up) to mark the peaks 
+ * taken by peak curves which start earlier and run into the block. When the 
+ * blocks are merged, the warm-up marks are compared with the marks of the 
+ * previous blocks, and the block is traced again from the first peak curve 
+ * which could have seen a difference, so that the result is the same as 
+ * tracing all scans sequentially.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class MzTraceBlockUnit implements Runnable {
+
+    private static final int WARMUP = -1;
+    private static final int PREVIOUS = -2;
+
+    PDHandlerBase handler;
+    ScanCollection scanCollection;
+    ArrayList<Integer> ScanNoArray;
+    float[] PreRT;
+    boolean[] SkipScan;
+    int WarmupStart;
+    int BlockStart;
+    int BlockEnd;
+    InstrumentParameter parameter;
+    float PPM;
+    int[][] Used;
+    public ArrayList<PeakCurve> ResultCurves = new ArrayList<>();
+    //Inclusion list points found for each peak curve in ResultCurves (null if none)
+    public ArrayList<Object[]> InclusionHits = new ArrayList<>();
+    private ArrayList<Integer> ResultOrdinals = new ArrayList<>();
+    public boolean Failed = false;
+
+    //Start position, last scan and m/z range of the centers of all peak curves of the block (trace order)
+    private int NoCurves = 0;
+    private int[] CurveStartScan = new int[1024];
+    private int[] CurveStartPeak = new int[1024];
+    private int[] CurveEndScan = new int[1024];
+    private float[] CurveMzLow = new float[1024];
+    private float[] CurveMzHigh = new float[1024];
+
+    public MzTraceBlockUnit(PDHandlerBase handler, ScanCollection scanCollection, ArrayList<Integer> ScanNoArray, float[] PreRT, boolean[] SkipScan, int WarmupStart, int BlockStart, int BlockEnd) {
+        this.handler = handler;
+        this.scanCollection = scanCollection;
+        this.ScanNoArray = ScanNoArray;
+        this.PreRT = PreRT;
+        this.SkipScan = SkipScan;
+        this.WarmupStart = WarmupStart;
+        this.BlockStart = BlockStart;
+        this.BlockEnd = BlockEnd;
+        this.parameter = handler.parameter;
+        this.PPM = handler.PPM;
+    }
+
+    @Override
+    public void run() {
+        try {
+            Used = new int[ScanNoArray.size()][];
+            TraceScans(WarmupStart, 0, BlockStart, false);
+            TraceScans(BlockStart, 0, BlockEnd, true);
+        } catch (Exception ex) {
+            Failed = true;
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+        }
+    }
+
+    /**
+     * Compare the warm-up marks with the marks of the previous blocks (null for
+     * the first block) and trace again from the first position which could be 
+     * affected by the differences. 
+     * @return true if (part of) the block was traced again
+     */
+    public boolean MergeSeam(int[][] previous) {
+        int NoScans = ScanNoArray.size();
+        long restart = Long.MAX_VALUE;
+        if (Failed) {
+            Used = new int[NoScans][];
+            restart = Position(BlockStart, 0);
+        } else if (previous != null) {
+            //m/z values of the peaks marked differently, per scan
+            float[][] diffmz = new float[NoScans][];
+            int[] diffcount = new int[NoScans + 1];
+            for (int idx = BlockStart; idx < NoScans; idx++) {
+                int[] prev = previous[idx];
+                int[] own = Used[idx];
+                if (prev == null && own == null) {
+                    continue;
+                }
+                int length = prev != null ? prev.length : own.length;
+                ScanData scanData = null;
+                for (int p = 0; p < length; p++) {
+                    boolean prevused = prev != null && prev[p] != 0;
+                    boolean warmupused = own != null && own[p] == WARMUP;
+                    if (prevused != warmupused) {
+                        if (scanData == null) {
+                            scanData = scanCollection.GetScan(ScanNoArray.get(idx));
+                            diffmz[idx] = new float[4];
+                        }
+                        if (diffcount[idx + 1] == diffmz[idx].length) {
+                            diffmz[idx] = Arrays.copyOf(diffmz[idx], diffmz[idx].length * 2);
+                        }
+                        diffmz[idx][diffcount[idx + 1]++] = scanData.Data.GetX(p);
+                        //Peaks of the block scans are visited as starting peaks
+                        if (idx < BlockEnd) {
+                            restart = Math.min(restart, Position(idx, p));
+                        }
+                    }
+                }
+                if (scanData != null) {
+                    diffmz[idx] = Arrays.copyOf(diffmz[idx], diffcount[idx + 1]);
+                }
+            }
+            //Cumulative count to check if there is any difference in a scan range
+            for (int idx = 0; idx < NoScans; idx++) {
+                diffcount[idx + 1] = (diffcount[idx + 1] > 0 ? 1 : 0) + diffcount[idx];
+            }
+            //First peak curve whose scan range and m/z window cover a difference
+            for (int c = 0; c < NoCurves && Position(CurveStartScan[c], CurveStartPeak[c]) < restart; c++) {
+                if (diffcount[CurveEndScan[c] + 1] - diffcount[CurveStartScan[c]] == 0) {
+                    continue;
+                }
+                float tol = 2 * PPM * CurveMzHigh[c] / 1000000f;
+                float low = CurveMzLow[c] - tol;
+                float high = CurveMzHigh[c] + tol;
+                boolean affected = false;
+                for (int idx = CurveStartScan[c]; idx <= CurveEndScan[c] && !affected; idx++) {
+                    if (diffmz[idx] == null) {
+                        continue;
+                    }
+                    for (float mz : diffmz[idx]) {
+                        if (mz >= low && mz <= high) {
+                            affected = true;
+                            break;
+                        }
+                    }
+                }
+                if (affected) {
+                    restart = Position(CurveStartScan[c], CurveStartPeak[c]);
+                }
+            }
+        }
+        if (restart == Long.MAX_VALUE) {
+            return false;
+        }
+        Resume(previous, (int) (restart >> 32), (int) restart);
+        return true;
+    }
+
+    //Discard the peak curves from the given position on and trace them again
+    private void Resume(int[][] previous, int startidx, int startpeak) {
+        int ordinal = 0;
+        while (ordinal < NoCurves && Position(CurveStartScan[ordinal], CurveStartPeak[ordinal]) < Position(startidx, startpeak)) {
+            ordinal++;
+        }
+        NoCurves = ordinal;
+        //Ordinals start from 1
+        int firstdiscarded = ordinal + 1;
+        for (int i = ResultOrdinals.size() - 1; i >= 0 && ResultOrdinals.get(i) >= firstdiscarded; i--) {
+            ResultOrdinals.remove(i);
+            ResultCurves.remove(i);
+            InclusionHits.remove(i);
+        }
+        for (int idx = startidx; idx < ScanNoArray.size(); idx++) {
+            int[] prev = previous == null ? null : previous[idx];
+            int[] own = Used[idx];
+            if (own == null) {
+                if (prev != null) {
+                    own = new int[prev.length];
+                    Used[idx] = own;
+                } else {
+                    continue;
+                }
+            }
+            for (int p = 0; p < own.length; p++) {
+                if (own[p] <= 0 || own[p] >= firstdiscarded) {
+                    own[p] = (prev != null && prev[p] != 0) ? PREVIOUS : 0;
+                }
+            }
+        }
+        Failed = false;
+        TraceScans(startidx, startpeak, BlockEnd, true);
+    }
+
+    /**
+     * Marks of all blocks up to this one for the scans from the block start on,
+     * to be compared with the warm-up of the next block. The arrays of this unit
+     * are reused and released.
+     */
+    public int[][] FinalUsed(int[][] previous) {
+        int[][] result = new int[ScanNoArray.size()][];
+        for (int idx = BlockStart; idx < result.length; idx++) {
+            int[] prev = previous == null ? null : previous[idx];
+            int[] own = Used[idx];
+            if (own == null) {
+                result[idx] = prev;
+                continue;
+            }
+            for (int p = 0; p < own.length; p++) {
+                own[p] = (own[p] > 0 || (prev != null && prev[p] != 0)) ? 1 : 0;
+            }
+            result[idx] = own;
+        }
+        Used = null;
+        return result;
+    }
+
+    private static long Position(int idx, int peak) {
+        return ((long) idx << 32) | peak;
+    }
+
+    private void TraceScans(int start, int startpeak, int end, boolean keep) {
+        for (int idx = start; idx < end; idx++) {
+            if (!SkipScan[idx]) {
+                TraceFromScan(idx, idx == start ? startpeak : 0, keep);
+            }
+        }
+    }
+
+    private int[] GetUsed(int idx, ScanData scanData) {
+        if (Used[idx] == null) {
+            Used[idx] = new int[scanData.PointCount()];
+        }
+        return Used[idx];
+    }
+
+    //Mark the peak as used, together with any other peak of the scan at the same m/z
+    private void MarkUsed(int[] used, ScanData scanData, int pkidx, int stamp) {
+        used[pkidx] = stamp;
+        float mz = scanData.Data.GetX(pkidx);
+        for (int i = pkidx - 1; i >= 0 && scanData.Data.GetX(i) == mz; i--) {
+            used[i] = stamp;
+        }
+        for (int i = pkidx + 1; i < scanData.PointCount() && scanData.Data.GetX(i) == mz; i++) {
+            used[i] = stamp;
+        }
+    }
+
+    private void AddCurveRecord(int startidx, int startpeak) {
+        if (NoCurves == CurveStartScan.length) {
+            int capacity = NoCurves * 2;
+            CurveStartScan = Arrays.copyOf(CurveStartScan, capacity);
+            CurveStartPeak = Arrays.copyOf(CurveStartPeak, capacity);
+            CurveEndScan = Arrays.copyOf(CurveEndScan, capacity);
+            CurveMzLow = Arrays.copyOf(CurveMzLow, capacity);
+            CurveMzHigh = Arrays.copyOf(CurveMzHigh, capacity);
+        }
+        CurveStartScan[NoCurves] = startidx;
+        CurveStartPeak[NoCurves] = startpeak;
+        CurveEndScan[NoCurves] = startidx;
+        CurveMzLow[NoCurves] = Float.MAX_VALUE;
+        CurveMzHigh[NoCurves] = -Float.MAX_VALUE;
+        NoCurves++;
+    }
+
+    //Record an m/z window center used by the current peak curve
+    private void AddCurveMz(float mz) {
+        int c = NoCurves - 1;
+        if (mz < CurveMzLow[c]) {
+            CurveMzLow[c] = mz;
+        }
+        if (mz > CurveMzHigh[c]) {
+            CurveMzHigh[c] = mz;
+        }
+    }
+
+    //Start new peak curves from all unused peaks of a scan, from the given peak on
+    private void TraceFromScan(int idx, int startpeak, boolean keep) {
+        int scanNO = ScanNoArray.get(idx);
+        ScanData scanData = scanCollection.GetScan(scanNO);
+        int[] used = GetUsed(idx, scanData);
+        float preRT = PreRT[idx];
+
+        for (int i = startpeak; i < scanData.PointCount(); i++) {
+            float mz = scanData.Data.GetX(i);
+            //If we are doing targeted peak detection and the RT and m/z of current peak is not in the range of targeted list, jump to the next peak 
+            if (handler.TargetedOnly && !handler.FoundInInclusionMZList(scanData.RetentionTime, mz)) {
+                continue;
+            }
+
+            if (mz < parameter.MinMZ) {
+                continue;
+            }
+
+            //Check if the current peak has been included in previously developed peak curves
+            if (used[i] != 0) {
+                continue;
+            }
+            int stamp = WARMUP;
+            if (keep) {
+                AddCurveRecord(idx, i);
+                stamp = NoCurves;
+            }
+            //The current peak will be the starting peak of a new peak curve
+            MarkUsed(used, scanData, i, stamp);
+
+            float startmz = mz;
+            float startint = scanData.Data.GetY(i);
+            if (keep) {
+                AddCurveMz(startmz);
+            }
+
+            //Find the maximum peak within PPM window as the starting peak
+            for (int j = i + 1; j < scanData.PointCount(); j++) {
+                if (used[j] == 0) {
+                    float currentmz = scanData.Data.GetX(j);
+                    if (InstrumentParameter.CalcPPM(currentmz, startmz) <= PPM) {
+                        MarkUsed(used, scanData, j, stamp);
+                        if (scanData.Data.GetY(j) >= startint) {
+                            startmz = currentmz;
+                            startint = scanData.Data.GetY(j);
+                            if (keep) {
+                                AddCurveMz(startmz);
+                            }
+                        }
+                    } else {
+                        break;
+                    }
+                }
+            }
+
+            //Initialize a new peak curve
+            PeakCurve Peakcurve = new PeakCurve(parameter);
+            //Add a background peak
+            Peakcurve.AddPeak(new XYZData(preRT, startmz, scanData.background));
+            //Add the starting peak
+            Peakcurve.AddPeak(new XYZData(scanData.RetentionTime, startmz, startint));
+            Peakcurve.StartScan = scanNO;
+
+            int missedScan = 0;
+            float endrt = scanData.RetentionTime;
+            int endScan = scanData.ScanNum;
+            float bk = 0f;
+
+            //Starting from the next scan, find the following peaks given the starting peak
+            int idx2 = idx + 1;
+            for (; idx2 < ScanNoArray.size() && missedScan < parameter.NoMissedScan; idx2++) {
+                int scanNO2 = ScanNoArray.get(idx2);
+                ScanData scanData2 = scanCollection.GetScan(scanNO2);
+
+                endrt = scanData2.RetentionTime;
+                endScan = scanData2.ScanNum;
+                bk = scanData2.background;
+                float currentmz = 0f;
+                float currentint = 0f;
+
+                //If the scan is empty
+                if (scanData2.PointCount() == 0) {
+                    if (parameter.FillGapByBK) {
+                        Peakcurve.AddPeak(new XYZData(scanData2.RetentionTime, Peakcurve.TargetMz, scanData2.background));
+                    }
+                    missedScan++;
+                    continue;
+                }
+
+                int[] used2 = GetUsed(idx2, scanData2);
+                if (keep) {
+                    AddCurveMz(Peakcurve.TargetMz);
+                }
+                //Find the m/z index 
+                int mzidx = scanData2.GetLowerIndexOfX(Peakcurve.TargetMz);
+                for (int pkidx = mzidx; pkidx < scanData2.Data.size(); pkidx++) {
+                    float pkmz = scanData2.Data.GetX(pkidx);
+                    if (pkmz < parameter.MinMZ) {
+                        continue;
+                    }
+                    //Check if the peak has been included or not
+                    if (used2[pkidx] == 0) {
+                        if (InstrumentParameter.CalcPPM(pkmz, Peakcurve.TargetMz) > PPM) {
+                            if (pkmz > Peakcurve.TargetMz) {
+                                break;
+                            }
+                        } else {
+                            //The peak is in the ppm window, select the highest peak
+                            MarkUsed(used2, scanData2, pkidx, stamp);
+                            if (currentint < scanData2.Data.GetY(pkidx)) {
+                                currentmz = pkmz;
+                                currentint = scanData2.Data.GetY(pkidx);
+                            }
+                        }
+                    }
+                }
+
+                //No peak in the PPM window has been found
+                if (currentmz == 0f) {
+                    if (parameter.FillGapByBK) {
+                        Peakcurve.AddPeak(new XYZData(scanData2.RetentionTime, Peakcurve.TargetMz, scanData2.background));
+                    }
+                    missedScan++;
+                } else {
+                    missedScan = 0;
+                    Peakcurve.AddPeak(new XYZData(scanData2.RetentionTime, currentmz, currentint));
+                }
+            }
+            Peakcurve.AddPeak(new XYZData(endrt, Peakcurve.TargetMz, bk));
+            Peakcurve.EndScan = endScan;
+
+            if (!keep) {
+                continue;
+            }
+            CurveEndScan[NoCurves - 1] = idx2 - 1;
+            //First check if the peak curve is in targeted list
+            Object[] found = handler.FindInInclusionList(Peakcurve.TargetMz, Peakcurve.StartRT(), Peakcurve.EndRT());
+            if (found != null) {
+                ResultCurves.add(Peakcurve);
+                InclusionHits.add(found);
+                ResultOrdinals.add(stamp);
+            //Then check if the peak curve passes the criteria
+            } else if (Peakcurve.GetRawSNR() > handler.LCMSPeakBase.SNR && Peakcurve.GetPeakList().size() >= parameter.MinPeakPerPeakCurve + 2) {
+                ResultCurves.add(Peakcurve);
+                InclusionHits.add(null);
+                ResultOrdinals.add(stamp);
+            }
+        }
+    }
+}
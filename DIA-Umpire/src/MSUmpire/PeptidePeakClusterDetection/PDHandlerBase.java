@@ -28,11 +28,9 @@ import MSUmpire.BaseDataStructure.XYZData;
 import MSUmpire.LCMSPeakStructure.LCMSPeakBase;
 import MSUmpire.PeakDataStructure.PeakCluster;
 import MSUmpire.PeakDataStructure.PeakCurve;
+import MSUmpire.Utility.SharedExecutor;
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import net.sf.javaml.core.kdtree.KDTree;
 import net.sf.javaml.core.kdtree.KeySizeException;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -44,11 +42,12 @@ import org.apache.log4j.Logger;
  */
 public class PDHandlerBase {
     
-    protected HashSet<String> IncludedHashMap;
     protected HashMap<XYData,Boolean> InclusionFound=new HashMap();
     protected XYPointCollection InclusionRT=new XYPointCollection();
     protected KDTree InclusionRange=new KDTree(2);    
     protected int NoCPUs = 4;
+    //Minimum number of scans of a block for parallel m/z tracing
+    protected static final int MinScansPerTraceBlock = 200;
     public float minSNR;
     public TreeMap<Float, XYData>[] IsotopePatternMap;
     public TreeMap<Float, XYData>[] IsotopePatternFragMap;
@@ -123,154 +122,83 @@ public class PDHandlerBase {
     }
     
     //Detect all m/z trace / peak curves
+    //The scans are split into RT blocks which are traced in parallel, see MzTraceBlockUnit.
+    //The blocks are then merged in RT order, where a block whose warm-up doesn't agree 
+    //with the peaks used by the previous blocks is traced again from the first affected 
+    //peak curve, so that the result is the same as tracing all scans one after another.
     protected void FindAllMzTracePeakCurves(ScanCollection scanCollection) throws IOException {
 
-        IncludedHashMap = new HashSet<>();
         Logger.getRootLogger().info("Processing all scans to detect possible m/z peak curves....");
         
+        ArrayList<Integer> ScanNoArray = scanCollection.GetScanNoArray(MSlevel);
+        int NoScans = ScanNoArray.size();
+        float[] PreRT = new float[NoScans];
+        boolean[] SkipScan = new boolean[NoScans];
+        float[] ScanRT = new float[NoScans];
         float preRT = 0f;
-        
-        //Loop for each scan in the ScanCollection
-        for (int idx = 0; idx < scanCollection.GetScanNoArray(MSlevel).size(); idx++) {
-            int scanNO = scanCollection.GetScanNoArray(MSlevel).get(idx);
-            ScanData scanData = scanCollection.GetScan(scanNO);
-            
+        for (int idx = 0; idx < NoScans; idx++) {
+            ScanData scanData = scanCollection.GetScan(ScanNoArray.get(idx));
+            ScanRT[idx] = scanData.RetentionTime;
             //If we are doing targeted peak detection and the RT of current scan is not in the range of targeted list, jump to the next scan 
-            if(TargetedOnly && !FoundInInclusionRTList(scanData.RetentionTime)){
+            if (TargetedOnly && !FoundInInclusionRTList(scanData.RetentionTime)) {
+                SkipScan[idx] = true;
                 continue;
             }
             if (idx == 0) {
                 preRT = scanData.RetentionTime - 0.01f;
             }
-            for (int i = 0; i < scanData.PointCount(); i++) {
-                XYData peak = scanData.Data.get(i);
-                //If we are doing targeted peak detection and the RT and m/z of current peak is not in the range of targeted list, jump to the next peak 
-                if (TargetedOnly && !FoundInInclusionMZList(scanData.RetentionTime,peak.getX())) {
-                    continue;
-                }
-                
-                if(peak.getX()<parameter.MinMZ){
-                    continue;
-                }
-                
-                //Check if the current peak has been included in previously developed peak curves
-                if (!IncludedHashMap.contains(scanNO + "_" + peak.getX())) {//The peak hasn't been included
-                   
-                    //The current peak will be the starting peak of a new peak curve
-                    //Add it to the hash table
-                    IncludedHashMap.add(scanNO + "_" + peak.getX());
-
-                    float startmz = peak.getX();
-                    float startint = peak.getY();
-                    
-                   //Find the maximum peak within PPM window as the starting peak
-                    for (int j = i + 1; j < scanData.PointCount(); j++) {
-                        XYData currentpeak = scanData.Data.get(j);
-                        if (!IncludedHashMap.contains(scanNO + "_" + currentpeak.getX())) {
-                            if (InstrumentParameter.CalcPPM(currentpeak.getX(), startmz) <= PPM) {
-                                IncludedHashMap.add(scanNO + "_" + currentpeak.getX());
-
-                                if (currentpeak.getY() >= startint) {
-                                    startmz = currentpeak.getX();
-                                    startint = currentpeak.getY();
-                                }
-                            } else {
-                                break;
-                            }
-                        }
-                    }
-
-                    //Initialize a new peak curve
-                    PeakCurve Peakcurve = new PeakCurve(parameter);
-                    //Add a background peak
-                    Peakcurve.AddPeak(new XYZData(preRT, startmz, scanData.background));
-                    //Add the starting peak
-                    Peakcurve.AddPeak(new XYZData(scanData.RetentionTime, startmz, startint));
-                    Peakcurve.StartScan = scanNO;
-
-                    int missedScan = 0;
-                    float endrt=scanData.RetentionTime;
-                    int endScan=scanData.ScanNum;
-                    float bk=0f;
-
-                     //Starting from the next scan, find the following peaks given the starting peak
-                    for (int idx2 = idx + 1; idx2 < scanCollection.GetScanNoArray(MSlevel).size() && (missedScan < parameter.NoMissedScan /*|| (TargetedOnly && Peakcurve.RTWidth()<parameter.MaxCurveRTRange)*/); idx2++) {
-                        int scanNO2 = scanCollection.GetScanNoArray(MSlevel).get(idx2);
-                        ScanData scanData2 = scanCollection.GetScan(scanNO2);
-
-                        endrt=scanData2.RetentionTime;
-                        endScan=scanData2.ScanNum;
-                        bk=scanData2.background;
-                        float currentmz = 0f;
-                        float currentint = 0f;
-
-                        //If the scan is empty
-                        if (scanData2.PointCount() == 0) {                            
-                            if (parameter.FillGapByBK) {
-                                Peakcurve.AddPeak(new XYZData(scanData2.RetentionTime, Peakcurve.TargetMz, scanData2.background));
-                            }
-                            missedScan++;
-                            continue;
-                        }
+            PreRT[idx] = preRT;
+            preRT = scanData.RetentionTime;
+        }
 
-                        //Find the m/z index 
-                        int mzidx = scanData2.GetLowerIndexOfX(Peakcurve.TargetMz);
-                        for (int pkidx = mzidx; pkidx < scanData2.Data.size(); pkidx++) {
-                            XYData currentpeak = scanData2.Data.get(pkidx);
-                            if (currentpeak.getX() < parameter.MinMZ) {
-                                continue;
-                            }
-                            //Check if the peak has been included or not
-                            if (!IncludedHashMap.contains(scanNO2 + "_" + currentpeak.getX())) {
-                                if (InstrumentParameter.CalcPPM(currentpeak.getX(), Peakcurve.TargetMz) > PPM) {
-                                    if (currentpeak.getX() > Peakcurve.TargetMz) {
-                                        break;
-                                    }
-                                } else {
-                                    //////////The peak is in the ppm window, select the highest peak
-                                    IncludedHashMap.add(scanNO2 + "_" + currentpeak.getX());
-                                    if (currentint < currentpeak.getY()) {
-                                        currentmz = currentpeak.getX();
-                                        currentint = currentpeak.getY();
-                                    }
-                                }
-                            }
-                        }
-                        
-                        //No peak in the PPM window has been found
-                        if (currentmz == 0f) {
-                            if (parameter.FillGapByBK) {
-                                Peakcurve.AddPeak(new XYZData(scanData2.RetentionTime, Peakcurve.TargetMz, scanData2.background));
-                            }
-                            missedScan++;
-                        } else {
-                            missedScan = 0;
-                            Peakcurve.AddPeak(new XYZData(scanData2.RetentionTime, currentmz, currentint));
-                        }
-                    }
-                    Peakcurve.AddPeak(new XYZData(endrt, Peakcurve.TargetMz, bk));
-                    Peakcurve.EndScan=endScan;
+        int NoBlocks = Math.max(1, Math.min(NoCPUs, NoScans / MinScansPerTraceBlock));
+        ArrayList<MzTraceBlockUnit> ResultList = new ArrayList<>();
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(Math.min(NoCPUs, NoBlocks));
+        for (int i = 0; i < NoBlocks; i++) {
+            int BlockStart = (int) ((long) NoScans * i / NoBlocks);
+            int BlockEnd = (int) ((long) NoScans * (i + 1) / NoBlocks);
+            //Warm-up: scans within the maximum peak curve RT range before the block
+            int WarmupStart = BlockStart;
+            while (WarmupStart > 0 && ScanRT[BlockStart] - ScanRT[WarmupStart - 1] <= parameter.MaxCurveRTRange) {
+                WarmupStart--;
+            }
+            MzTraceBlockUnit unit = new MzTraceBlockUnit(this, scanCollection, ScanNoArray, PreRT, SkipScan, WarmupStart, BlockStart, BlockEnd);
+            ResultList.add(unit);
+            taskGroup.Execute(unit);
+        }
+        taskGroup.Await();
 
-                    //First check if the peak curve is in targeted list
-                    if (FoundInInclusionList(Peakcurve.TargetMz, Peakcurve.StartRT(), Peakcurve.EndRT())) {
-                        LCMSPeakBase.UnSortedPeakCurves.add(Peakcurve);
-                    //Then check if the peak curve passes the criteria
-                    } else if (Peakcurve.GetRawSNR() > LCMSPeakBase.SNR && Peakcurve.GetPeakList().size() >= parameter.MinPeakPerPeakCurve + 2) {
-                        LCMSPeakBase.UnSortedPeakCurves.add(Peakcurve);
-                    } else {
-                        Peakcurve = null;
+        //Seam merge in RT order
+        int Retraced = 0;
+        int[][] previous = null;
+        for (MzTraceBlockUnit unit : ResultList) {
+            if (unit.MergeSeam(previous)) {
+                Retraced++;
+            }
+            for (int i = 0; i < unit.ResultCurves.size(); i++) {
+                if (unit.InclusionHits.get(i) != null) {
+                    for (Object point : unit.InclusionHits.get(i)) {
+                        InclusionFound.put((XYData) point, true);
                     }
                 }
+                LCMSPeakBase.UnSortedPeakCurves.add(unit.ResultCurves.get(i));
             }
-            preRT = scanData.RetentionTime;
-            if (ReleaseScans) {
-                scanData.dispose();
-            }
+            previous = unit.FinalUsed(previous);
+            unit.ResultCurves = null;
+            unit.InclusionHits = null;
         }
+        Logger.getRootLogger().debug("m/z trace blocks: " + NoBlocks + " (re-traced: " + Retraced + ")");
+        ResultList.clear();
+        ResultList = null;
+        previous = null;
 
-        //System.out.print("PSM removed (PeakCurve generation):" + PSMRemoved );         
-        IncludedHashMap.clear();
-        IncludedHashMap = null;
+        if (ReleaseScans) {
+            for (int idx = 0; idx < NoScans; idx++) {
+                if (!SkipScan[idx]) {
+                    scanCollection.GetScan(ScanNoArray.get(idx)).dispose();
+                }
+            }
+        }
 
         int i = 1;
         //Assign peak curve index
@@ -286,7 +214,7 @@ public class PDHandlerBase {
         return Math.abs(InclusionRT.Data.get(InclusionRT.GetClosetIndexOfX(rt)).getX()-rt)<parameter.MaxCurveRTRange;
     }
     
-    private boolean FoundInInclusionMZList(float rt, float mz) {
+    boolean FoundInInclusionMZList(float rt, float mz) {
         if(InclusionRT.PointCount()==0){
             return false;
         }
@@ -297,7 +225,9 @@ public class PDHandlerBase {
        
         Object[] found=null;
         try {
-            found = InclusionRange.range(new double[]{lowrt,lowmz}, new double[]{highrt,highmz});
+            synchronized (InclusionRange) {
+                found = InclusionRange.range(new double[]{lowrt,lowmz}, new double[]{highrt,highmz});
+            }
         } catch (KeySizeException ex) {
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
         }
@@ -307,9 +237,10 @@ public class PDHandlerBase {
         return false;        
     }
     
-    private boolean FoundInInclusionList(float mz, float startrt, float endrt){       
+    //Inclusion list points in the m/z and RT range of a peak curve, null if none
+    Object[] FindInInclusionList(float mz, float startrt, float endrt){       
         if(InclusionRT.PointCount()==0){
-            return false;
+            return null;
         }
         float lowmz = InstrumentParameter.GetMzByPPM(mz, 1, PPM);
         float highmz = InstrumentParameter.GetMzByPPM(mz, 1, -PPM);
@@ -318,17 +249,16 @@ public class PDHandlerBase {
                 
         Object[] found=null;
         try {
-            found = InclusionRange.range(new double[]{lowrt,lowmz}, new double[]{highrt,highmz});
+            synchronized (InclusionRange) {
+                found = InclusionRange.range(new double[]{lowrt,lowmz}, new double[]{highrt,highmz});
+            }
         } catch (KeySizeException ex) {
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
         }
         if(found!=null && found.length>0){
-            for(Object point: found){
-                InclusionFound.put((XYData) point,true);
-            }
-            return true;
+            return found;
         }
-        return false;     
+        return null;     
     }
     
     //Signal smoothing for each detected peak curve
@@ -337,22 +267,15 @@ public class PDHandlerBase {
         Logger.getRootLogger().info("Smoothing detected signals......");
         
         //Threading pool
-        ExecutorService executorPool = null;
-        executorPool = Executors.newFixedThreadPool(NoCPUs);
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
         ArrayList<PeakCurveSmoothingUnit> ResultList = new ArrayList<>();
         for (PeakCurve Peakcurve : LCMSPeakBase.UnSortedPeakCurves) {
             PeakCurveSmoothingUnit unit = new PeakCurveSmoothingUnit(Peakcurve, parameter);
             ResultList.add(unit);
 
-            executorPool.execute(unit);
+            taskGroup.Execute(unit);
         }
-        executorPool.shutdown();
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
-        }
-        executorPool = null;
+        taskGroup.Await();
         
         LCMSPeakBase.UnSortedPeakCurves.clear();
         for (PeakCurveSmoothingUnit result : ResultList) {
@@ -397,8 +320,7 @@ public class PDHandlerBase {
         LCMSPeakBase.PeakClusters = new ArrayList<>();
         
         //Thread pool
-        ExecutorService executorPool = null;
-        executorPool = Executors.newFixedThreadPool(NoCPUs);        
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);        
         ArrayList<PeakCurveClusteringCorrKDtree> ResultList = new ArrayList<>();
 
         //For each peak curve
@@ -407,15 +329,14 @@ public class PDHandlerBase {
                 //Create a thread unit for doing isotope clustering given a peak curve as the monoisotope peak
                 PeakCurveClusteringCorrKDtree unit = new PeakCurveClusteringCorrKDtree(Peakcurve, LCMSPeakBase.GetPeakCurveSearchTree(), parameter, IsotopePatternMap, LCMSPeakBase.StartCharge, LCMSPeakBase.EndCharge, LCMSPeakBase.MaxNoPeakCluster, LCMSPeakBase.MinNoPeakCluster);
                 ResultList.add(unit);
-                executorPool.execute(unit);                
+                taskGroup.Execute(unit);                
             }
         }
 
-        executorPool.shutdown();
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
+        taskGroup.Await();
+        //Resolve the shared peak curve states from the candidate clusters in peak curve order
+        for (PeakCurveClusteringCorrKDtree unit : ResultList) {
+            unit.AssignGroupedPeakCurves();
         }
         for (PeakCurveClusteringCorrKDtree unit : ResultList) {
             for (PeakCluster peakCluster : unit.ResultClusters) {
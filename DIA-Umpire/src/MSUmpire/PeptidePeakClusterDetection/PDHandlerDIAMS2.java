@@ -27,12 +27,11 @@ import MSUmpire.LCMSPeakStructure.LCMSPeakMS1;
 import MSUmpire.LCMSPeakStructure.LCMSPeakDIAMS2;
 import MSUmpire.DIA.CorrCalcCluster2CurveUnit;
 import MSUmpire.PeakDataStructure.PrecursorFragmentPairEdge;
+import MSUmpire.PeakDataStructure.SortedCurveArrayApexRT;
+import MSUmpire.Utility.SharedExecutor;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 
 /**
@@ -98,85 +97,72 @@ public class PDHandlerDIAMS2 extends PDHandlerBase {
 
 
     private void PrecursorFragmentPairBuildingForUnfragmentedIon() throws SQLException, IOException {
-        //System.out.print("Using multithreading now: " + NoCPUs + " processors\n");
         Logger.getRootLogger().info("Building precursor-fragment pairs for unfragmented ions....");
-        ExecutorService executorPool = null;
-        ArrayList<CorrCalcCluster2CurveUnit> UnfragmentedIonPairList = new ArrayList<>();
-        executorPool = Executors.newFixedThreadPool(NoCPUs);
+        ArrayList<PeakCluster> UnfragmentedIons = new ArrayList<>();
         for (PeakCluster peakCluster : LCMSPeakBase.PeakClusters) {
             if (peakCluster.Charge >= parameter.StartCharge && peakCluster.Charge <= parameter.EndCharge && peakCluster.TargetMz() >= DIAWindowMz.getX() && peakCluster.TargetMz() <= DIAWindowMz.getY()) {
-                CorrCalcCluster2CurveUnit unit = new CorrCalcCluster2CurveUnit(peakCluster, LCMSPeakBase.GetPeakCurveListRT(), parameter);
-                UnfragmentedIonPairList.add(unit);
+                UnfragmentedIons.add(peakCluster);
             }
         }
-
-        for (CorrCalcCluster2CurveUnit unit : UnfragmentedIonPairList) {
-            executorPool.execute(unit);
-        }
-        executorPool.shutdown();
-
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
-        }
-
-        ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Cur = new HashMap<>();
-        for (CorrCalcCluster2CurveUnit unit : UnfragmentedIonPairList) {
-            if (!unit.GroupedFragmentList.isEmpty()) {
-                ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Cur.put(unit.MS1PeakCluster.Index, unit.GroupedFragmentList);
-            }
-        }
-        executorPool = null;
+        ((LCMSPeakDIAMS2) LCMSPeakBase).UnFragIonClu2Cur = PrecursorFragmentPairBuilding(UnfragmentedIons);
         
         ((LCMSPeakDIAMS2) LCMSPeakBase).BuildFragmentUnfragranking();
         ((LCMSPeakDIAMS2) LCMSPeakBase).FilterByCriteriaUnfrag();
         ((LCMSPeakDIAMS2) LCMSPeakBase).ExportUnfragmentedClusterCurve();
-        
-        UnfragmentedIonPairList.clear();
-        UnfragmentedIonPairList = null;
-        executorPool = null;
-
-        //System.out.print("Finished multithreading\n");
     }
 
     private void PrecursorFragmentPairBuildingForMS1() throws SQLException, IOException {
-        //System.out.print("Using multithreading now: " + NoCPUs + " processors\n");
         Logger.getRootLogger().info("Building precursor-fragment pairs for MS1 features....");
-        ExecutorService executorPool = null;
-        ArrayList<CorrCalcCluster2CurveUnit> PrecursorPairList = new ArrayList<>();
-        executorPool = Executors.newFixedThreadPool(NoCPUs);
+        ArrayList<PeakCluster> Precursors = new ArrayList<>();
         for (PeakCluster peakCluster : ms1lcms.PeakClusters) {
             if (peakCluster.GetMaxMz()>= DIAWindowMz.getX() && peakCluster.TargetMz() <= DIAWindowMz.getY()) {
-                CorrCalcCluster2CurveUnit unit = new CorrCalcCluster2CurveUnit(peakCluster, LCMSPeakBase.GetPeakCurveListRT(), parameter);
-                PrecursorPairList.add(unit);
+                Precursors.add(peakCluster);
             }
         }
+        ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur = PrecursorFragmentPairBuilding(Precursors);
+        
+        ((LCMSPeakDIAMS2) LCMSPeakBase).BuildFragmentMS1ranking();
+        ((LCMSPeakDIAMS2) LCMSPeakBase).FilterByCriteria();
+        ((LCMSPeakDIAMS2) LCMSPeakBase).ExportCluster2CurveCorr();
+    }
 
-        for (CorrCalcCluster2CurveUnit unit : PrecursorPairList) {
-            executorPool.execute(unit);
-        }
-        executorPool.shutdown();
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
+    //Group the fragment peak curves of the DIA window to each cluster: the clusters are sorted by peak height RT
+    //and split into RT-ordered blocks, each block sweeps once over the peak curves sorted by apex RT
+    private HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> PrecursorFragmentPairBuilding(ArrayList<PeakCluster> Clusters) {
+        SortedCurveArrayApexRT PeakCurveArrayRT = new SortedCurveArrayApexRT(LCMSPeakBase.GetPeakCurveListRT());
+        ArrayList<PeakCluster> SortedClusters = new ArrayList<>(Clusters);
+        Collections.sort(SortedClusters, new Comparator<PeakCluster>() {
+            @Override
+            public int compare(PeakCluster x, PeakCluster y) {
+                return Float.compare(x.PeakHeightRT[0], y.PeakHeightRT[0]);
+            }
+        });
+
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
+        ArrayList<CorrCalcCluster2CurveUnit> UnitList = new ArrayList<>();
+        int blocksize = SortedClusters.size() / (NoCPUs * 8) + 1;
+        for (int i = 0; i < SortedClusters.size(); i += blocksize) {
+            CorrCalcCluster2CurveUnit unit = new CorrCalcCluster2CurveUnit(SortedClusters.subList(i, Math.min(i + blocksize, SortedClusters.size())), PeakCurveArrayRT, parameter);
+            UnitList.add(unit);
+            taskGroup.Execute(unit);
         }
+        taskGroup.Await();
 
-        ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur = new HashMap<>();
-        for (CorrCalcCluster2CurveUnit unit : PrecursorPairList) {
-            if (!unit.GroupedFragmentList.isEmpty()) {
-                ((LCMSPeakDIAMS2) LCMSPeakBase).FragmentsClu2Cur.put(unit.MS1PeakCluster.Index, unit.GroupedFragmentList);
+        IdentityHashMap<PeakCluster, ArrayList<PrecursorFragmentPairEdge>> GroupedFragments = new IdentityHashMap<>();
+        for (CorrCalcCluster2CurveUnit unit : UnitList) {
+            for (int i = 0; i < unit.GroupedFragmentLists.size(); i++) {
+                GroupedFragments.put(unit.MS1PeakClusters.get(i), unit.GroupedFragmentLists.get(i));
             }
         }
-        ((LCMSPeakDIAMS2) LCMSPeakBase).BuildFragmentMS1ranking();
-        ((LCMSPeakDIAMS2) LCMSPeakBase).FilterByCriteria();
-        ((LCMSPeakDIAMS2) LCMSPeakBase).ExportCluster2CurveCorr();
-        PrecursorPairList.clear();
-        PrecursorPairList = null;
-        executorPool = null;
-
-        //System.out.print("Finished multithreading\n");
+        //Keep the original cluster order in the map
+        HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> Clu2Cur = new HashMap<>();
+        for (PeakCluster peakCluster : Clusters) {
+            ArrayList<PrecursorFragmentPairEdge> GroupedFragmentList = GroupedFragments.get(peakCluster);
+            if (GroupedFragmentList != null && !GroupedFragmentList.isEmpty()) {
+                Clu2Cur.put(peakCluster.Index, GroupedFragmentList);
+            }
+        }
+        return Clu2Cur;
     }
     
 }
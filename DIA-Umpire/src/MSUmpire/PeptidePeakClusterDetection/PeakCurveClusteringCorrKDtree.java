@@ -47,6 +47,8 @@ public class PeakCurveClusteringCorrKDtree implements Runnable {
     private final KDTree PeakCurveSearchTree;
     private final TreeMap<Float, XYData>[] IsotopePatternMap;
     public ArrayList<PeakCluster> ResultClusters = new ArrayList<>();
+    //All isotope-complete clusters (including the ones failing the isotope pattern filter), see AssignGroupedPeakCurves()
+    private ArrayList<PeakCluster> CompleteClusters = new ArrayList<>();
 
     private final int MaxNoOfClusters;
     private final int MinNoOfClusters;
@@ -204,19 +206,11 @@ public class PeakCurveClusteringCorrKDtree implements Runnable {
             if (peakCluster.IsotopeComplete(MinNoOfClusters)) {
                 peakCluster.CalcPeakArea_V2();
                 peakCluster.UpdateIsoMapProb(IsotopePatternMap);
-                peakCluster.AssignConfilictCorr();
+                CompleteClusters.add(peakCluster);
                 peakCluster.LeftInt = peakA.GetSmoothedList().Data.get(0).getY();
                 peakCluster.RightInt = peakA.GetSmoothedList().Data.get(peakA.GetSmoothedList().PointCount() - 1).getY();
                 if (parameter.TargetIDOnly ||peakCluster.IsoMapProb > parameter.IsoPattern) {
                     ResultClusters.add(peakCluster);
-                    if (!parameter.TargetIDOnly ||(parameter.RemoveGroupedPeaks && peakCluster.Corrs[0] > parameter.RemoveGroupedPeaksCorr && peakCluster.OverlapP > parameter.RemoveGroupedPeaksRTOverlap)) {
-                        for (int i = 1; i < peakCluster.IsoPeaksCurves.length; i++) {
-                            PeakCurve peak = peakCluster.IsoPeaksCurves[i];
-                            if (peak != null && peakCluster.Corrs[i - 1] > parameter.RemoveGroupedPeaksCorr && peakCluster.OverlapRT[i - 1] > parameter.RemoveGroupedPeaksRTOverlap) {
-                                peak.ChargeGrouped.add(charge);                      
-                            }
-                        }
-                    }
                 }
             }
         }
@@ -224,4 +218,24 @@ public class PeakCurveClusteringCorrKDtree implements Runnable {
         PeakCurveListMZ=null;
         //System.out.print("....done\n");
     }
+
+    //Apply the candidate clusters to the shared isotope peak curves: conflict correlation and the charge states they are grouped in.
+    //The tasks only build their own clusters, this is called by one thread for all units in peak curve order 
+    //after the tasks are done, so the sums and the grouped charges don't depend on thread scheduling.
+    public void AssignGroupedPeakCurves() {
+        for (PeakCluster peakCluster : CompleteClusters) {
+            peakCluster.AssignConfilictCorr();
+        }
+        for (PeakCluster peakCluster : ResultClusters) {
+            if (!parameter.TargetIDOnly || (parameter.RemoveGroupedPeaks && peakCluster.Corrs[0] > parameter.RemoveGroupedPeaksCorr && peakCluster.OverlapP > parameter.RemoveGroupedPeaksRTOverlap)) {
+                for (int i = 1; i < peakCluster.IsoPeaksCurves.length; i++) {
+                    PeakCurve peak = peakCluster.IsoPeaksCurves[i];
+                    if (peak != null && peakCluster.Corrs[i - 1] > parameter.RemoveGroupedPeaksCorr && peakCluster.OverlapRT[i - 1] > parameter.RemoveGroupedPeaksRTOverlap) {
+                        peak.ChargeGrouped.add(peakCluster.Charge);
+                    }
+                }
+            }
+        }
+        CompleteClusters = null;
+    }
 }
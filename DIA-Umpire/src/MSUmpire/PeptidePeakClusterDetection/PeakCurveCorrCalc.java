@@ -35,24 +35,11 @@ public class PeakCurveCorrCalc {
         return CalPeakCorr_Overlap(peakA, peakB, Astart, Aend, Bstart, Bend, false, NoPeakPerMin);
     }
 
+    //Correlation of the smoothed signals in the overlapping RT range, using the signals resampled once per curve on the shared RT grid
     public static float CalPeakCorr(PeakCurve peakA, PeakCurve peakB, int NoPointPerMin) throws IOException {        
-        PearsonCorr corr = new PearsonCorr();
         float startRT = Math.max(peakA.StartRT(), peakB.StartRT());
         float endRT = Math.min(peakA.EndRT(), peakB.EndRT());
-        XYPointCollection PeakACollection = peakA.GetSmoothPeakCollection(startRT, endRT);
-        XYPointCollection PeakBCollection = peakB.GetSmoothPeakCollection(startRT, endRT);
-        float corre = 0f;
-        
-        //double corre2 = 0f;
-        if (PeakACollection.Data.size() > 0 && PeakBCollection.Data.size() > 0) {
-            corre = corr.CalcCorr(PeakACollection, PeakBCollection, NoPointPerMin);   
-        }
-        PeakACollection.dispose();
-        PeakBCollection.dispose();
-        PeakACollection = null;
-        PeakBCollection = null;
-        corr = null;
-        return corre;
+        return PearsonCorr.CalcCorr(peakA.GetRTGridSignal(NoPointPerMin), peakB.GetRTGridSignal(NoPointPerMin), startRT, endRT);
     }
     public static float CalPeakCorr_Overlap(PeakCurve peakA, PeakCurve peakB, int Astart, int Aend, int Bstart, int Bend, boolean output, int NoPeakPerMin) throws IOException {
         PearsonCorr corr = new PearsonCorr();
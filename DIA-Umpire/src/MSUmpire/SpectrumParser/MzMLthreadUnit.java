@@ -0,0 +1,82 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.SpectrumParser;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScanData;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Thread unit for parsing one spectrum in mzML file
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class MzMLthreadUnit implements Runnable {
+
+    public ScanData scan;
+    private byte[] XMLbytes;
+    private HashMap<String, ArrayList<String[]>> ParamGroups;
+    private InstrumentParameter parameter;
+    //Scan index file to read the centroided peaks from, when the scan has been cached
+    private ScanIndexFile PeakCache;
+    private int ScanNo;
+    //Scan index file to append the centroided peaks to after decoding
+    public ScanIndexFile PeakCacheWriter;
+    //Only store the peaks through PeakCacheWriter, the scan is dropped afterwards
+    public boolean CacheOnly = false;
+
+    public MzMLthreadUnit(byte[] XMLbytes, HashMap<String, ArrayList<String[]>> ParamGroups, InstrumentParameter parameter) {
+        this.XMLbytes = XMLbytes;
+        this.ParamGroups = ParamGroups;
+        this.parameter = parameter;
+    }
+
+    public MzMLthreadUnit(ScanIndexFile PeakCache, int ScanNo, InstrumentParameter parameter) {
+        this.PeakCache = PeakCache;
+        this.ScanNo = ScanNo;
+        this.parameter = parameter;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (PeakCache != null) {
+                scan = PeakCache.ReadScan(ScanNo);
+            } else {
+                scan = new mzMLReadUnit(XMLbytes, ParamGroups, false).Parse();
+                XMLbytes = null;
+                if (PeakCacheWriter != null) {
+                    if (!scan.centroided) {
+                        scan.Centroiding(parameter.Resolution, parameter.MinMZ);
+                    }
+                    PeakCacheWriter.WriteScan(scan);
+                }
+            }
+        } catch (Exception ex) {
+            //Fail the task instead of leaving a null scan to the caller
+            throw new RuntimeException("Reading scan failed", ex);
+        }
+        if (CacheOnly) {
+            scan = null;
+            return;
+        }
+        scan.Preprocessing(parameter);
+    }
+}
@@ -26,10 +26,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.zip.DataFormatException;
-import javax.xml.parsers.ParserConfigurationException;
-import org.apache.commons.lang.exception.ExceptionUtils;
-import org.apache.log4j.Logger;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Thread unit for parsing one scan in mzXML file
@@ -39,37 +36,66 @@ public class MzXMLthreadUnit implements Runnable {
 
     ReentrantReadWriteLock Lock = new ReentrantReadWriteLock();
     public ScanData scan;
-    private String XMLtext;
+    private byte[] XMLbytes;
     private InstrumentParameter parameter;
     boolean ReadPeak = true;
     SpectralDataType.DataType dataType = SpectralDataType.DataType.DDA;
+    //Scan index file to read the centroided peaks from, when the scan has been cached
+    private ScanIndexFile PeakCache;
+    private int ScanNo;
+    //Scan index file to append the centroided peaks to after decoding
+    public ScanIndexFile PeakCacheWriter;
+    //Only store the peaks through PeakCacheWriter, the scan is dropped afterwards
+    public boolean CacheOnly = false;
 
-    public MzXMLthreadUnit(String XMLtext, InstrumentParameter parameter, SpectralDataType.DataType dataType,boolean ReadPeak) {
-        this.XMLtext = XMLtext;
+    public MzXMLthreadUnit(byte[] XMLbytes, InstrumentParameter parameter, SpectralDataType.DataType dataType,boolean ReadPeak) {
+        this.XMLbytes = XMLbytes;
         this.parameter = parameter;
         this.ReadPeak = ReadPeak;
         this.dataType = dataType;
     }
 
-    public MzXMLthreadUnit(String XMLtext, InstrumentParameter parameter, SpectralDataType.DataType dataType) {
-        this.XMLtext = XMLtext;
+    public MzXMLthreadUnit(byte[] XMLbytes, InstrumentParameter parameter, SpectralDataType.DataType dataType) {
+        this.XMLbytes = XMLbytes;
         this.parameter = parameter;
         this.dataType = dataType;
     }
 
-    private void Read() throws FileNotFoundException, IOException, ParserConfigurationException, SAXException, DataFormatException {
-        mzXMLReadUnit read = new mzXMLReadUnit(this.XMLtext);
+    public MzXMLthreadUnit(ScanIndexFile PeakCache, int ScanNo, InstrumentParameter parameter, SpectralDataType.DataType dataType) {
+        this.PeakCache = PeakCache;
+        this.ScanNo = ScanNo;
+        this.parameter = parameter;
+        this.dataType = dataType;
+    }
+
+    private void Read() throws FileNotFoundException, IOException, XMLStreamException, DataFormatException {
+        mzXMLReadUnit read = new mzXMLReadUnit(this.XMLbytes);
         this.scan = read.Parse();
-        this.XMLtext = null;
+        this.XMLbytes = null;
         read = null;
     }
 
     @Override
     public void run() {
         try {
-            Read();
+            if (PeakCache != null) {
+                scan = PeakCache.ReadScan(ScanNo);
+            } else {
+                Read();
+                if (PeakCacheWriter != null) {
+                    if (!scan.centroided) {
+                        scan.Centroiding(parameter.Resolution, parameter.MinMZ);
+                    }
+                    PeakCacheWriter.WriteScan(scan);
+                }
+            }
         } catch (Exception ex) {
-            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            //Fail the task instead of leaving a null scan to the caller
+            throw new RuntimeException("Reading scan failed", ex);
+        }
+        if (CacheOnly) {
+            scan = null;
+            return;
         }
         
        scan.Preprocessing(parameter);
@@ -0,0 +1,507 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.SpectrumParser;
+
+import MSUmpire.BaseDataStructure.ScanData;
+import MSUmpire.BaseDataStructure.SortedXYCollectionClass;
+import MSUmpire.BaseDataStructure.SpectralDataType;
+import MSUmpire.BaseDataStructure.XYData;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Memory-mapped binary sidecar (.ScanIndex) of a spectral file.
+ * It holds the scan index (file position, RT, MS level), the DIA and MS1
+ * isolation windows and optionally the centroided peaks of each scan, so
+ * that later passes can read a scan by offset without inflating the XML.
+ *
+ * Layout (big-endian):
+ * header | scan table (sorted by scan number) | window table | peak blocks
+ *
+ * The file is opened read-only and only reopened for writing when peaks are
+ * cached, Close() has to be called before the file is deleted or rewritten.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class ScanIndexFile {
+
+    private static final int MAGIC = 0x44554958;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int SCAN_RECORD_SIZE = 32;
+    //Fixed part of a peak block: block size, scan metadata and number of peaks, followed by the metadata strings and the peaks
+    private static final int PEAK_BLOCK_HEADER_SIZE = 80;
+    //Peak blocks never cross a segment boundary so that each one can be read from a single mapping
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final String filename;
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private volatile boolean writable;
+    private volatile MappedByteBuffer header;
+    private volatile MappedByteBuffer scanTable;
+    private final ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+    private int NoScans;
+    private long PeakDataStart;
+    private long AppendPosition;
+
+    public static String GetPath(String filename) {
+        return FilenameUtils.removeExtension(filename) + ".ScanIndex";
+    }
+
+    private ScanIndexFile(String filename, RandomAccessFile file, boolean writable) throws IOException {
+        this.filename = filename;
+        this.file = file;
+        this.channel = file.getChannel();
+        this.writable = writable;
+    }
+
+    //Write the index part of the sidecar, any existing file (including cached peaks) is replaced
+    public static ScanIndexFile Write(SpectrumParserBase parser, TreeMap<Integer, Long> ScanPos) throws IOException {
+        String path = GetPath(parser.filename);
+        Logger.getRootLogger().debug("Writing scan index to file:" + path + "..");
+        File rawfile = new File(parser.filename);
+        ByteBuffer windowBuffer = WindowTableBuffer(parser.datatype, parser.dIA_Setting);
+
+        int NoScans = parser.MsLevelList.size();
+        long tableEnd = HEADER_SIZE + (long) NoScans * SCAN_RECORD_SIZE;
+        long peakStart = tableEnd + windowBuffer.limit();
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) tableEnd);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(rawfile.length());
+        buffer.putLong(rawfile.lastModified());
+        buffer.putInt(NoScans);
+        buffer.putInt(0);
+        buffer.putFloat(0f);
+        buffer.putInt(0);
+        Long LastScanEnd = ScanPos == null ? null : ScanPos.get(Integer.MAX_VALUE);
+        buffer.putLong(LastScanEnd == null ? -1L : LastScanEnd);
+        buffer.putLong(tableEnd);
+        buffer.putLong(peakStart);
+        buffer.position(HEADER_SIZE);
+        for (Entry<Integer, Integer> scan : parser.MsLevelList.entrySet()) {
+            Float rt = parser.ScanToElutionTime.get(scan.getKey());
+            Long pos = ScanPos == null ? null : ScanPos.get(scan.getKey());
+            buffer.putInt(scan.getKey());
+            buffer.putInt(scan.getValue());
+            buffer.putFloat(rt == null ? 0f : rt);
+            buffer.putInt(-1);
+            buffer.putLong(pos == null ? -1L : pos);
+            buffer.putLong(-1L);
+        }
+        buffer.flip();
+
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        FileChannel channel = file.getChannel();
+        channel.write(buffer, 0);
+        channel.write(windowBuffer, tableEnd);
+        file.close();
+        return Open(parser.filename);
+    }
+
+    //Open the sidecar of a spectral file, null is returned if it doesn't exist or is out of date
+    public static ScanIndexFile Open(String filename) {
+        String path = GetPath(filename);
+        if (!new File(path).exists()) {
+            return null;
+        }
+        ScanIndexFile index = null;
+        try {
+            index = new ScanIndexFile(filename, new RandomAccessFile(path, "r"), false);
+            if (!index.MapHeader()) {
+                Logger.getRootLogger().debug(path + " is outdated, it will be rebuilt");
+                index.Close();
+                return null;
+            }
+        } catch (Exception ex) {
+            Logger.getRootLogger().debug("Reading " + path + " failed");
+            if (index != null) {
+                index.Close();
+            }
+            return null;
+        }
+        return index;
+    }
+
+    private boolean MapHeader() throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        header = channel.map(mode, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            return false;
+        }
+        File rawfile = new File(filename);
+        if (header.getLong(8) != rawfile.length() || header.getLong(16) != rawfile.lastModified()) {
+            return false;
+        }
+        NoScans = header.getInt(24);
+        PeakDataStart = header.getLong(56);
+        if (channel.size() < PeakDataStart) {
+            return false;
+        }
+        scanTable = channel.map(mode, HEADER_SIZE, (long) NoScans * SCAN_RECORD_SIZE);
+        AppendPosition = channel.size();
+        return true;
+    }
+
+    //Fill the scan index and elution time maps of a parser
+    public void ReadIndex(SpectrumParserBase parser, TreeMap<Integer, Long> ScanPos) throws IOException {
+        parser.NoMS1Scans = 0;
+        for (int i = 0; i < NoScans; i++) {
+            int offset = i * SCAN_RECORD_SIZE;
+            int scanNo = scanTable.getInt(offset);
+            int msLevel = scanTable.getInt(offset + 4);
+            float rt = scanTable.getFloat(offset + 8);
+            parser.ElutionTimeToScanNoMap.put(rt, scanNo);
+            parser.ScanToElutionTime.put(scanNo, rt);
+            parser.MsLevelList.put(scanNo, msLevel);
+            if (msLevel == 1) {
+                parser.NoMS1Scans++;
+            }
+            if (ScanPos != null) {
+                ScanPos.put(scanNo, scanTable.getLong(offset + 16));
+            }
+        }
+        if (ScanPos != null && header.getLong(40) != -1L) {
+            ScanPos.put(Integer.MAX_VALUE, header.getLong(40));
+        }
+        parser.TotalScan = ScanPos != null ? ScanPos.size() : NoScans;
+
+        long windowStart = header.getLong(48);
+        ByteBuffer windows = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, PeakDataStart - windowStart);
+        TreeMap<XYData, ArrayList<Integer>> DIAWindows = ReadWindows(windows);
+        TreeMap<XYData, ArrayList<Integer>> MS1Windows = ReadWindows(windows);
+        if (parser.dIA_Setting != null) {
+            if (DIAWindows != null) {
+                parser.dIA_Setting.DIAWindows = DIAWindows;
+            }
+            if (MS1Windows != null) {
+                parser.dIA_Setting.MS1Windows = MS1Windows;
+            }
+        }
+    }
+
+    //DIA windows are kept for DIA data, MS1 windows for WiSIM data only
+    private static ByteBuffer WindowTableBuffer(SpectralDataType.DataType datatype, DIA_Setting dIA_Setting) {
+        TreeMap<XYData, ArrayList<Integer>> DIAWindows = null;
+        TreeMap<XYData, ArrayList<Integer>> MS1Windows = null;
+        if (dIA_Setting != null && datatype != SpectralDataType.DataType.DDA) {
+            DIAWindows = dIA_Setting.DIAWindows;
+        }
+        if (dIA_Setting != null && datatype == SpectralDataType.DataType.WiSIM) {
+            MS1Windows = dIA_Setting.MS1Windows;
+        }
+        int size = WindowTableSize(DIAWindows) + WindowTableSize(MS1Windows);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        PutWindows(buffer, DIAWindows);
+        PutWindows(buffer, MS1Windows);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int WindowTableSize(TreeMap<XYData, ArrayList<Integer>> windows) {
+        int size = 4;
+        if (windows != null) {
+            for (ArrayList<Integer> scans : windows.values()) {
+                size += 12 + scans.size() * 4;
+            }
+        }
+        return size;
+    }
+
+    private static void PutWindows(ByteBuffer buffer, TreeMap<XYData, ArrayList<Integer>> windows) {
+        if (windows == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(windows.size());
+        for (Entry<XYData, ArrayList<Integer>> window : windows.entrySet()) {
+            buffer.putFloat(window.getKey().getX());
+            buffer.putFloat(window.getKey().getY());
+            buffer.putInt(window.getValue().size());
+            for (int scanNo : window.getValue()) {
+                buffer.putInt(scanNo);
+            }
+        }
+    }
+
+    private static TreeMap<XYData, ArrayList<Integer>> ReadWindows(ByteBuffer buffer) {
+        int NoWindows = buffer.getInt();
+        if (NoWindows == -1) {
+            return null;
+        }
+        TreeMap<XYData, ArrayList<Integer>> windows = new TreeMap<>();
+        for (int i = 0; i < NoWindows; i++) {
+            XYData window = new XYData(buffer.getFloat(), buffer.getFloat());
+            int NoScan = buffer.getInt();
+            ArrayList<Integer> scans = new ArrayList<>(NoScan);
+            for (int j = 0; j < NoScan; j++) {
+                scans.add(buffer.getInt());
+            }
+            windows.put(window, scans);
+        }
+        return windows;
+    }
+
+    //Binary search of scan number in the scan table
+    private int FindScan(int scanNo) {
+        int lower = 0;
+        int upper = NoScans - 1;
+        while (lower <= upper) {
+            int middle = (lower + upper) >>> 1;
+            int value = scanTable.getInt(middle * SCAN_RECORD_SIZE);
+            if (value < scanNo) {
+                lower = middle + 1;
+            } else if (value > scanNo) {
+                upper = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    //Whether the cached peaks were centroided with the given setting
+    public boolean PeakCacheMatches(int Resolution, float MinMZ) {
+        return header.getInt(28) == Resolution && header.getFloat(32) == MinMZ;
+    }
+
+    public boolean HasPeaks(int scanNo, int Resolution, float MinMZ) {
+        if (!PeakCacheMatches(Resolution, MinMZ)) {
+            return false;
+        }
+        int idx = FindScan(scanNo);
+        return idx >= 0 && scanTable.getInt(idx * SCAN_RECORD_SIZE + 12) >= 0;
+    }
+
+    public boolean CanCachePeaks() {
+        return writable || new File(GetPath(filename)).canWrite();
+    }
+
+    //Reopen the file for writing, the read-only mappings handed out so far stay valid
+    private synchronized void OpenWritable() throws IOException {
+        if (writable) {
+            return;
+        }
+        RandomAccessFile rwfile = new RandomAccessFile(GetPath(filename), "rw");
+        try {
+            FileChannel rwchannel = rwfile.getChannel();
+            MappedByteBuffer rwheader = rwchannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            MappedByteBuffer rwscanTable = rwchannel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, (long) NoScans * SCAN_RECORD_SIZE);
+            channel.close();
+            file.close();
+            file = rwfile;
+            channel = rwchannel;
+            header = rwheader;
+            scanTable = rwscanTable;
+            writable = true;
+        } catch (IOException ex) {
+            rwfile.close();
+            throw ex;
+        }
+    }
+
+    //Prepare the peak section for a centroiding setting, peaks cached with another setting are dropped
+    public synchronized void InitializePeakCache(int Resolution, float MinMZ) throws IOException {
+        OpenWritable();
+        if (PeakCacheMatches(Resolution, MinMZ)) {
+            return;
+        }
+        for (int i = 0; i < NoScans; i++) {
+            scanTable.putInt(i * SCAN_RECORD_SIZE + 12, -1);
+            scanTable.putLong(i * SCAN_RECORD_SIZE + 24, -1L);
+        }
+        segments.clear();
+        try {
+            channel.truncate(PeakDataStart);
+            AppendPosition = PeakDataStart;
+        } catch (IOException ex) {
+            //Some platforms can't truncate a mapped file, the old blocks are then left unreferenced
+            AppendPosition = channel.size();
+        }
+        header.putInt(28, Resolution);
+        header.putFloat(32, MinMZ);
+    }
+
+    //Append the centroided peaks of a scan
+    public synchronized void WriteScan(ScanData scan) throws IOException {
+        int idx = FindScan(scan.ScanNum);
+        if (!writable || idx < 0) {
+            return;
+        }
+        int NoPeaks = scan.PointCount();
+        byte[][] strings = {StringBytes(scan.ActivationMethod), StringBytes(scan.scanType), StringBytes(scan.compressionType), StringBytes(scan.MGFTitle)};
+        int size = PEAK_BLOCK_HEADER_SIZE + NoPeaks * 8;
+        for (byte[] string : strings) {
+            size += 4 + (string == null ? 0 : string.length);
+        }
+        long position = AppendPosition;
+        if (position / SEGMENT_SIZE != (position + size - 1) / SEGMENT_SIZE) {
+            position = (position / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size);
+        buffer.putInt(scan.MsLevel);
+        buffer.putFloat(scan.PrecursorMz);
+        buffer.putInt(scan.PrecursorCharge);
+        buffer.putFloat(scan.PrecursorIntensity);
+        buffer.putInt(scan.precursorScanNum);
+        buffer.putFloat(scan.windowWideness);
+        buffer.putFloat(scan.StartMz);
+        buffer.putFloat(scan.EndMz);
+        buffer.putFloat(scan.BasePeakMz);
+        buffer.putFloat(scan.BasePeakIntensity);
+        buffer.putFloat(scan.GetTotIonCurrentValue());
+        buffer.putFloat(scan.MaxY);
+        buffer.putFloat(scan.isolationWindowTargetMz);
+        buffer.putFloat(scan.isolationWindowLoffset);
+        buffer.putFloat(scan.isolationWindowRoffset);
+        buffer.putInt(scan.centroided ? 1 : 0);
+        buffer.putInt(scan.precision);
+        buffer.putInt(scan.PeaksCountString);
+        buffer.putInt(NoPeaks);
+        for (byte[] string : strings) {
+            if (string == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(string.length);
+                buffer.put(string);
+            }
+        }
+        for (int i = 0; i < NoPeaks; i++) {
+            buffer.putFloat(scan.Data.get(i).getX());
+        }
+        for (int i = 0; i < NoPeaks; i++) {
+            buffer.putFloat(scan.Data.get(i).getY());
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        AppendPosition = position + size;
+        scanTable.putLong(idx * SCAN_RECORD_SIZE + 24, position);
+        scanTable.putInt(idx * SCAN_RECORD_SIZE + 12, NoPeaks);
+    }
+
+    private static byte[] StringBytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String ReadString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private synchronized ByteBuffer GetSegment(long position, int size) throws IOException {
+        int segIdx = (int) (position / SEGMENT_SIZE);
+        while (segments.size() <= segIdx) {
+            segments.add(null);
+        }
+        MappedByteBuffer segment = segments.get(segIdx);
+        long segStart = segIdx * SEGMENT_SIZE;
+        if (segment == null || segment.capacity() < position - segStart + size) {
+            long length = Math.min(SEGMENT_SIZE, channel.size() - segStart);
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, segStart, length);
+            segments.set(segIdx, segment);
+        }
+        ByteBuffer view = segment.duplicate();
+        view.position((int) (position - segStart));
+        return view;
+    }
+
+    //Rebuild the centroided ScanData of a scan from its cached peak block
+    public ScanData ReadScan(int scanNo) throws IOException {
+        int idx = FindScan(scanNo);
+        long position = scanTable.getLong(idx * SCAN_RECORD_SIZE + 24);
+        int size = GetSegment(position, 4).getInt();
+        ByteBuffer buffer = GetSegment(position, size);
+        buffer.getInt();
+
+        ScanData scan = new ScanData();
+        scan.ScanNum = scanNo;
+        //the decoded MS level, calibration scans are stored as -1
+        scan.MsLevel = buffer.getInt();
+        scan.RetentionTime = scanTable.getFloat(idx * SCAN_RECORD_SIZE + 8);
+        scan.PrecursorMz = buffer.getFloat();
+        scan.PrecursorCharge = buffer.getInt();
+        scan.PrecursorIntensity = buffer.getFloat();
+        scan.precursorScanNum = buffer.getInt();
+        scan.windowWideness = buffer.getFloat();
+        scan.StartMz = buffer.getFloat();
+        scan.EndMz = buffer.getFloat();
+        scan.BasePeakMz = buffer.getFloat();
+        scan.BasePeakIntensity = buffer.getFloat();
+        scan.SetTotIonCurrent(buffer.getFloat());
+        float MaxY = buffer.getFloat();
+        scan.isolationWindowTargetMz = buffer.getFloat();
+        scan.isolationWindowLoffset = buffer.getFloat();
+        scan.isolationWindowRoffset = buffer.getFloat();
+        scan.centroided = buffer.getInt() == 1;
+        scan.precision = buffer.getInt();
+        scan.PeaksCountString = buffer.getInt();
+        int NoPeaks = buffer.getInt();
+        scan.ActivationMethod = ReadString(buffer);
+        scan.scanType = ReadString(buffer);
+        scan.compressionType = ReadString(buffer);
+        scan.MGFTitle = ReadString(buffer);
+        int mzStart = buffer.position();
+        int intStart = mzStart + NoPeaks * 4;
+        scan.Data = new SortedXYCollectionClass(NoPeaks);
+        for (int i = 0; i < NoPeaks; i++) {
+            scan.AddPoint(buffer.getFloat(mzStart + i * 4), buffer.getFloat(intStart + i * 4));
+        }
+        scan.MaxY = MaxY;
+        scan.Data.Finalize();
+        return scan;
+    }
+
+    //Close the file and drop the mappings, the pages are unmapped once the buffers are garbage collected
+    public synchronized void Close() {
+        try {
+            segments.clear();
+            header = null;
+            scanTable = null;
+            channel.close();
+            file.close();
+        } catch (IOException ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+        }
+    }
+}
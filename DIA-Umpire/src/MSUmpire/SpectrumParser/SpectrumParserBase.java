@@ -23,20 +23,13 @@ import MSUmpire.BaseDataStructure.InstrumentParameter;
 import MSUmpire.BaseDataStructure.ScanCollection;
 import MSUmpire.BaseDataStructure.SpectralDataType;
 import MSUmpire.BaseDataStructure.XYData;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
-import org.nustaq.serialization.FSTObjectInput;
-import org.nustaq.serialization.FSTObjectOutput;
 
 /**
  * Parent class of spectrum parser
@@ -55,6 +48,7 @@ public abstract class SpectrumParserBase {
     protected TreeMap<Float, Integer> ElutionTimeToScanNoMap=null;
     protected HashMap<Integer, Float> ScanToElutionTime=null;
     public int NoMS1Scans = 0;
+    protected ScanIndexFile IndexFile = null;
     
     public SpectrumParserBase(String filename, InstrumentParameter parameter, SpectralDataType.DataType datatype, DIA_Setting dIA_Setting, int NoCPUs){
         this.filename = filename;
@@ -92,162 +86,52 @@ public abstract class SpectrumParserBase {
         return ScanToElutionTime;
     }
     
-    protected void FSElutionIndexWrite() throws IOException {
+    //Write scan index, elution time mapping and isolation windows to the binary sidecar
+    protected void IndexFileWrite(TreeMap<Integer, Long> ScanPos) {
         try {
-            Logger.getRootLogger().debug("Writing RTidx to file:" + FilenameUtils.removeExtension(filename) + ".RTidxFS..");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".RTidxFS", false);
-            FSTObjectOutput oos = new FSTObjectOutput(fout);
-            oos.writeObject(ElutionTimeToScanNoMap);
-            oos.close();
-            fout.close();
+            IndexFile = ScanIndexFile.Write(this, ScanPos);
         } catch (Exception ex) {
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
         }
-
-        try {
-            Logger.getRootLogger().debug("Writing Scanidx to file:" + FilenameUtils.removeExtension(filename) + ".ScanidxFS..");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".ScanidxFS", false);
-            FSTObjectOutput oos = new FSTObjectOutput(fout);
-            oos.writeObject(MsLevelList);
-            oos.close();
-            fout.close();
-        } catch (Exception ex) {
-            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-        }
-
-        try {
-            Logger.getRootLogger().debug("Writing ScanRT to file:" + FilenameUtils.removeExtension(filename) + ".ScanRTFS..");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".ScanRTFS", false);
-            FSTObjectOutput oos = new FSTObjectOutput(fout);
-            oos.writeObject(ScanToElutionTime);
-            oos.close();
-            fout.close();
-        } catch (Exception ex) {
-            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-        }
-
-        if (datatype !=  SpectralDataType.DataType.DDA) {
-            try {
-                Logger.getRootLogger().debug("Writing DIAWindows to file:" + FilenameUtils.removeExtension(filename) + ".DIAWindowsFS..");
-                FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".DIAWindowsFS", false);
-                FSTObjectOutput oos = new FSTObjectOutput(fout);
-                oos.writeObject(dIA_Setting.DIAWindows);
-                oos.close();
-                fout.close();
-            } catch (Exception ex) {
-                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-            }
-        }
-         if (datatype ==  SpectralDataType.DataType.WiSIM) {
-            try {
-                Logger.getRootLogger().debug("Writing MS1 windows to file:" + FilenameUtils.removeExtension(filename) + ".MS1WindowsFS..");
-                FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".MS1WindowsFS", false);
-                FSTObjectOutput oos = new FSTObjectOutput(fout);
-                oos.writeObject(dIA_Setting.MS1Windows);
-                oos.close();
-                fout.close();
-            } catch (Exception ex) {
-                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-            }
-        }
     }
-    
-    protected boolean FSElutionIndexRead() throws NumberFormatException, FileNotFoundException, IOException {
-        if (!new File(FilenameUtils.removeExtension(filename) + ".RTidxFS").exists()) {
-            return false;
-        }
-        if (!new File(FilenameUtils.removeExtension(filename) + ".ScanRTFS").exists()) {
-            return false;
-        }
-        if (!new File(FilenameUtils.removeExtension(filename) + ".ScanidxFS").exists()) {
-            return false;
-        }
-        try {
-            Logger.getRootLogger().debug("Reading RTidx:" + FilenameUtils.removeExtension(filename) + ".RTidxFS...");
-            FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".RTidxFS");
-            FSTObjectInput in = new FSTObjectInput(fileIn);
-            ElutionTimeToScanNoMap = (TreeMap<Float, Integer>) in.readObject();
-            //scanCollection.ElutionTimeToScanNoMap = ElutionTimeToScanNoMap;
-            in.close();
-            fileIn.close();
-        } catch (Exception ex) {
-            //i.printStackTrace();
-            Logger.getRootLogger().debug("RTidxFS serialization file failed");
-            //Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-            return false;
-        }
 
-        try {
-            Logger.getRootLogger().debug("Reading ScanRT:" + FilenameUtils.removeExtension(filename) + ".ScanRTFS...");
-            FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".ScanRTFS");
-            FSTObjectInput in = new FSTObjectInput(fileIn);
-            ScanToElutionTime = (HashMap<Integer, Float>) in.readObject();
-            in.close();
-            fileIn.close();
-        } catch (Exception ex) {
-            //i.printStackTrace();
-            Logger.getRootLogger().debug("ScanRTFS serialization file failed");
-            //Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+    //Read scan index, elution time mapping and isolation windows from the binary sidecar
+    protected boolean IndexFileRead(TreeMap<Integer, Long> ScanPos) {
+        IndexFile = ScanIndexFile.Open(filename);
+        if (IndexFile == null) {
             return false;
         }
-
         try {
-            Logger.getRootLogger().debug("Reading Scanidx:" + FilenameUtils.removeExtension(filename) + ".ScanidxFS...");
-            FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".ScanidxFS");
-            FSTObjectInput in = new FSTObjectInput(fileIn);
-            MsLevelList = (TreeMap<Integer, Integer>) in.readObject();
-            for (int value : MsLevelList.values()) {
-                if (value == 1) {
-                    NoMS1Scans++;
-                }
-            }
-            in.close();
-            fileIn.close();
+            Logger.getRootLogger().debug("Reading scan index:" + ScanIndexFile.GetPath(filename) + "...");
+            IndexFile.ReadIndex(this, ScanPos);
         } catch (Exception ex) {
-            //i.printStackTrace();
-            Logger.getRootLogger().debug("ScanidxFS serialization file failed");
-            //Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            Logger.getRootLogger().debug("Scan index file failed");
+            IndexFile.Close();
+            IndexFile = null;
+            ElutionTimeToScanNoMap.clear();
+            ScanToElutionTime.clear();
+            MsLevelList.clear();
+            if (ScanPos != null) {
+                ScanPos.clear();
+            }
+            NoMS1Scans = 0;
             return false;
         }
+        return true;
+    }
 
-        if (datatype != SpectralDataType.DataType.DDA) {
-            if (!new File(FilenameUtils.removeExtension(filename) + ".DIAWindowsFS").exists()) {
-                return false;
-            }
-            try {
-                Logger.getRootLogger().debug("Reading DIAWindows:" + FilenameUtils.removeExtension(filename) + ".DIAWindowsFS...");
-                FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".DIAWindowsFS");
-                FSTObjectInput in = new FSTObjectInput(fileIn);
-                dIA_Setting.DIAWindows = (TreeMap<XYData, ArrayList<Integer>>) in.readObject();
-                in.close();
-                fileIn.close();
-            } catch (Exception ex) {
-                //i.printStackTrace();
-                Logger.getRootLogger().debug("DIAWindowsFS serialization file failed");
-                //Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-                return false;
-            }
+    //Release the scan index file, must be called before the parser is dropped or its index file is deleted
+    public void Close() {
+        if (IndexFile != null) {
+            IndexFile.Close();
+            IndexFile = null;
         }
-        
-         if (datatype == SpectralDataType.DataType.WiSIM) {
-            if (!new File(FilenameUtils.removeExtension(filename) + ".MS1WindowsFS").exists()) {
-                return false;
-            }
-            try {
-                Logger.getRootLogger().debug("Reading MS1 Windows:" + FilenameUtils.removeExtension(filename) + ".MS1WindowsFS...");
-                FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".MS1WindowsFS");
-                FSTObjectInput in = new FSTObjectInput(fileIn);
-                dIA_Setting.MS1Windows = (TreeMap<XYData, ArrayList<Integer>>) in.readObject();
-                in.close();
-                fileIn.close();
-            } catch (Exception ex) {
-                //i.printStackTrace();
-                Logger.getRootLogger().debug("MS1WindowsFS serialization file failed");
-                //Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-                return false;
-            }
-        }
-        return true;
+    }
+
+    //Rough heap size of a scan after its peaks are decoded and traced into peak curves, 
+    //used to decide how many DIA windows can be processed at the same time
+    public long EstimateScanHeapSize(int ScanNo) {
+        return 128 * 1024;
     }
 
     public int GetScanNoByRT(float RT) {
@@ -305,6 +189,28 @@ public abstract class SpectrumParserBase {
         return GetScanDIAMS2(DIAWindow, IncludePeak, startRT, endRT);
     }
     public abstract ScanCollection GetScanDIAMS2(XYData DIAWindow, boolean IncludePeak, float startRT, float endRT);
+
+    //Decode all the DIA MS2 scans in one sequential pass over the spectral file and store their centroided peaks in the scan index file,
+    //GetScanDIAMS2 of each window then reads its scans from the mapped cache instead of seeking through the spectral file.
+    //Returns false if the parser or the scan index file doesn't support it.
+    public boolean CacheDIAMS2Scans() {
+        return false;
+    }
+
+    //Scan numbers of all the DIA MS2 scans in the RT range the windows are processed with, each scan only once
+    protected ArrayList<Integer> GetAllDIAMS2Scans() {
+        int StartScanNo = GetStartScan(parameter.startRT);
+        int EndScanNo = GetEndScan(parameter.endRT);
+        TreeSet<Integer> Scans = new TreeSet<>();
+        for (ArrayList<Integer> WindowScans : dIA_Setting.DIAWindows.values()) {
+            for (int scannum : WindowScans) {
+                if (scannum >= StartScanNo && scannum <= EndScanNo) {
+                    Scans.add(scannum);
+                }
+            }
+        }
+        return new ArrayList<>(Scans);
+    }
     
     public ScanCollection GetAllScanCollectionByMSLabel(boolean MS1Included, boolean MS2Included, boolean MS1Peak, boolean MS2Peak){
         return GetAllScanCollectionByMSLabel(MS1Included, MS2Included, MS1Peak, MS2Peak, 0f, 999999f);
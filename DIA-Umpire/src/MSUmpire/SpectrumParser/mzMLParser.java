@@ -24,22 +24,23 @@ import MSUmpire.BaseDataStructure.ScanCollection;
 import MSUmpire.BaseDataStructure.ScanData;
 import MSUmpire.BaseDataStructure.SpectralDataType;
 import MSUmpire.BaseDataStructure.XYData;
+import MSUmpire.Utility.SharedExecutor;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.concurrent.*;
-import java.util.zip.DataFormatException;
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
-import org.xml.sax.SAXException;
-import uk.ac.ebi.jmzml.model.mzml.Spectrum;
-import uk.ac.ebi.jmzml.xml.io.MzMLObjectIterator;
-import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
-
-/*
- * Using multi-threading to parse mzXML files Load all scans at once in the
- * constructor To change this template, choose Tools | Templates and open the
- * template in the editor.
- * modified from UCSD mzML spectrum parser
+
+/* * 
+ * mzML parser
+ * Spectra are located by the offsets in the indexList of indexed mzML (or by one pass over
+ * the file when there is no index) and decoded on demand, the same way as mzXMLParser
  */
 /**
  *
@@ -47,182 +48,420 @@ import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
  */
 public final class mzMLParser extends SpectrumParserBase{
 
-    public ScanCollection scanCollection = null;
-    
-    public mzMLParser(String filename, InstrumentParameter parameter, SpectralDataType.DataType datatype, DIA_Setting dIA_Setting, int NoCPUs) throws FileNotFoundException, IOException, InterruptedException, ExecutionException, ParserConfigurationException, SAXException, DataFormatException {
-        super(filename, parameter, datatype, dIA_Setting, NoCPUs);        
-        scanCollection = InitializeScanCollection(); 
-        if(!FSElutionIndexRead()){
-            ParseAllScans();
-        }
-    }
-    
-    //Check if the the file has been parsed
-    private void CheckStatus() {
-        if (scanCollection.ScanHashMap.isEmpty()) {
-            ParseAllScans();
-        }
-    }
-    
-    private void ParseAllScans() {
-        Logger.getRootLogger().info("Using MzMLUnmarshaller....");
-        MzMLUnmarshaller unmarshaller = new MzMLUnmarshaller(new File(filename));
-        MzMLObjectIterator<Spectrum> itr = unmarshaller.unmarshalCollectionFromXpath("/run/spectrumList/spectrum", Spectrum.class);        
-        ArrayList<mzMLSpecConverter> ScanList=new ArrayList<>();        
-        ExecutorService executorPool = null;
-        executorPool = Executors.newFixedThreadPool(NoCPUs);
-        Logger.getRootLogger().info("Starting to convert from jmzspec");
-        while (itr.hasNext()) {
-            Spectrum jmzSpec = itr.next();
-            mzMLSpecConverter converter=new mzMLSpecConverter(jmzSpec,parameter);
-            executorPool.execute(converter);    
-            ScanList.add(converter);
-        }
-        executorPool.shutdown();
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
-        }
-        
-        Logger.getRootLogger().info("Building elution time and scan index");
-        for (mzMLSpecConverter converter : ScanList) {
-            ScanData spec = converter.spec;
-            scanCollection.AddScan(spec);
-            ElutionTimeToScanNoMap.put(spec.RetentionTime, spec.ScanNum);
-            ScanToElutionTime.put(spec.ScanNum, spec.RetentionTime);
-            MsLevelList.put(spec.ScanNum, spec.MsLevel);
-
-            if(spec.MsLevel==1){
-                 NoMS1Scans++;     
+    //Scan number to the offset of its <spectrum> element, Integer.MAX_VALUE to the end of the last spectrum
+    public TreeMap<Integer, Long> ScanIndex = null;
+    //All spectrum offsets in file order, a spectrum ends where the next one starts
+    private long[] SpectrumOffsets = null;
+    private HashMap<String, ArrayList<String[]>> ParamGroups = null;
+
+    public mzMLParser(String filename, InstrumentParameter parameter, SpectralDataType.DataType datatype, DIA_Setting dIA_Setting, int NoCPUs) throws Exception {
+        super(filename, parameter, datatype, dIA_Setting, NoCPUs);
+        ReadElutionAndScanIndex();
+    }
+
+    //Parse elution time index and scan index and save them as binary files
+    private void ReadElutionAndScanIndex() throws Exception {
+        ScanIndex = new TreeMap<>();
+        if (!IndexFileRead(ScanIndex)) {
+            ParseElutionIndex(ParseIndex());
+            IndexFileWrite(ScanIndex);
+        }
+        SpectrumOffsets = new long[ScanIndex.size()];
+        int i = 0;
+        for (long offset : ScanIndex.values()) {
+            SpectrumOffsets[i++] = offset;
+        }
+        Arrays.sort(SpectrumOffsets);
+        //Read once here, the map is only read afterwards by the parsing threads of all DIA windows
+        if (ParamGroups == null && SpectrumOffsets.length > 0) {
+            ParamGroups = ReadParamGroups(SpectrumOffsets[0]);
+        }
+    }
+
+    //Spectrum offsets in file order followed by the end of the last spectrum,
+    //taken from the indexList at the bottom of the file, or from one pass over the file if the index is missing or wrong
+    private ArrayList<Long> ParseIndex() throws IOException {
+        ArrayList<Long> offsets = new ArrayList<>();
+        try (RandomAccessFile fileHandler = new RandomAccessFile(filename, "r")) {
+            if (ReadIndexList(fileHandler, offsets)) {
+                offsets.add(FindSpectrumOffsets(fileHandler, offsets.get(offsets.size() - 1), null));
+            } else {
+                Logger.getRootLogger().info("File : " + filename + " doesn't have a valid spectrum index, building the index in one pass");
+                offsets.clear();
+                long end = FindSpectrumOffsets(fileHandler, 0, offsets);
+                if (offsets.isEmpty()) {
+                    Logger.getRootLogger().error("File : " + filename + " doesn't have any spectrum");
+                    return offsets;
+                }
+                offsets.add(end);
             }
-            
-            if (datatype != SpectralDataType.DataType.DDA && spec.MsLevel == 2){
-                if (datatype == SpectralDataType.DataType.DIA_V_Window) {
-                    for (XYData window : dIA_Setting.DIAWindows.keySet()) {
-                        if (window.getX() <= spec.isolationWindowTargetMz && window.getY() >= spec.isolationWindowTargetMz) {
-                            dIA_Setting.DIAWindows.get(window).add(spec.ScanNum);
-                            break;
-                        }
+        }
+        return offsets;
+    }
+
+    //Read the offsets of <index name="spectrum"> located by <indexListOffset>
+    private boolean ReadIndexList(RandomAccessFile fileHandler, ArrayList<Long> offsets) throws IOException {
+        long length = fileHandler.length();
+        int tailLength = (int) Math.min(length, 4096);
+        byte[] tail = new byte[tailLength];
+        fileHandler.seek(length - tailLength);
+        fileHandler.readFully(tail);
+        String tailString = new String(tail, StandardCharsets.US_ASCII);
+        int start = tailString.indexOf("<indexListOffset>");
+        int end = tailString.indexOf("</indexListOffset>");
+        if (start < 0 || end < start) {
+            return false;
+        }
+        long indexListOffset = Long.parseLong(tailString.substring(start + 17, end).trim());
+        if (indexListOffset <= 0 || indexListOffset >= length) {
+            return false;
+        }
+        byte[] indexBytes = new byte[(int) (length - indexListOffset)];
+        fileHandler.seek(indexListOffset);
+        fileHandler.readFully(indexBytes);
+        String indexList = new String(indexBytes, StandardCharsets.US_ASCII);
+        int indexStart = indexList.indexOf("<index name=\"spectrum\"");
+        if (indexStart < 0) {
+            return false;
+        }
+        int indexEnd = indexList.indexOf("</index>", indexStart);
+        int pos = indexStart;
+        while ((pos = indexList.indexOf("<offset", pos)) >= 0 && pos < indexEnd) {
+            int valueStart = indexList.indexOf('>', pos) + 1;
+            int valueEnd = indexList.indexOf("</offset>", valueStart);
+            offsets.add(Long.parseLong(indexList.substring(valueStart, valueEnd).trim()));
+            pos = valueEnd;
+        }
+        if (offsets.isEmpty()) {
+            return false;
+        }
+        Collections.sort(offsets);
+        //Check the index against the file, offsets written by some converters are wrong
+        for (long offset : new long[]{offsets.get(0), offsets.get(offsets.size() - 1)}) {
+            byte[] tag = new byte[9];
+            fileHandler.seek(offset);
+            fileHandler.readFully(tag);
+            if (!"<spectrum".equals(new String(tag, StandardCharsets.US_ASCII))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Scan the file from the given position for <spectrum> start tags until </spectrumList>, 
+    //the offsets are added to the list (if not null) and the position of </spectrumList> is returned
+    private long FindSpectrumOffsets(RandomAccessFile fileHandler, long from, ArrayList<Long> offsets) throws IOException {
+        byte[] spectrumTag = "<spectrum".getBytes(StandardCharsets.US_ASCII);
+        byte[] endTag = "</spectrumList>".getBytes(StandardCharsets.US_ASCII);
+        byte[] buffer = new byte[1 << 20];
+        int spectrumMatched = 0;
+        int endMatched = 0;
+        boolean spectrumTagEnd = false;
+        long position = from;
+        fileHandler.seek(from);
+        int count;
+        while ((count = fileHandler.read(buffer)) > 0) {
+            for (int i = 0; i < count; i++, position++) {
+                byte b = buffer[i];
+                if (spectrumTagEnd) {
+                    //<spectrum followed by whitespace, not <spectrumList
+                    spectrumTagEnd = false;
+                    if ((b == ' ' || b == '\t' || b == '\r' || b == '\n') && offsets != null) {
+                        offsets.add(position - spectrumTag.length);
                     }
-                }                
-                else {
-                    if (spec.isolationWindowLoffset > 0f && spec.isolationWindowRoffset > 0f) {
-                        if (!dIA_Setting.DIAWindows.containsKey(new XYData(spec.isolationWindowTargetMz - spec.isolationWindowLoffset, spec.isolationWindowTargetMz + spec.isolationWindowRoffset))) {
-                            ArrayList<Integer> scanList2 = new ArrayList<>();
-                            dIA_Setting.DIAWindows.put(new XYData(spec.isolationWindowTargetMz - spec.isolationWindowLoffset, spec.isolationWindowTargetMz + spec.isolationWindowRoffset), scanList2);
+                }
+                spectrumMatched = b == spectrumTag[spectrumMatched] ? spectrumMatched + 1 : (b == '<' ? 1 : 0);
+                if (spectrumMatched == spectrumTag.length) {
+                    spectrumTagEnd = true;
+                    spectrumMatched = 0;
+                }
+                endMatched = b == endTag[endMatched] ? endMatched + 1 : (b == '<' ? 1 : 0);
+                if (endMatched == endTag.length) {
+                    return position + 1 - endTag.length;
+                }
+            }
+        }
+        return position;
+    }
+
+    //Read the spectrum headers (everything before binaryDataArrayList) for elution time-scan number mapping,
+    //For DIA data, isolation window ranges are parsed in this method
+    private void ParseElutionIndex(ArrayList<Long> offsets) throws Exception {
+        if (offsets.size() < 2) {
+            return;
+        }
+        ParamGroups = ReadParamGroups(offsets.get(0));
+        try (RandomAccessFile fileHandler = new RandomAccessFile(filename, "r")) {
+            for (int i = 0; i < offsets.size() - 1; i++) {
+                long startposition = offsets.get(i);
+                ScanData spec = new mzMLReadUnit(ReadSpectrumHeader(fileHandler, startposition, offsets.get(i + 1)), ParamGroups, true).Parse();
+                ScanIndex.put(spec.ScanNum, startposition);
+                ElutionTimeToScanNoMap.put(spec.RetentionTime, spec.ScanNum);
+                ScanToElutionTime.put(spec.ScanNum, spec.RetentionTime);
+                MsLevelList.put(spec.ScanNum, spec.MsLevel);
+
+                if (spec.MsLevel == 1) {
+                    NoMS1Scans++;
+                }
+
+                if (datatype != SpectralDataType.DataType.DDA && spec.MsLevel == 2) {
+                    if (datatype == SpectralDataType.DataType.DIA_V_Window) {
+                        for (XYData window : dIA_Setting.DIAWindows.keySet()) {
+                            if (window.getX() <= spec.isolationWindowTargetMz && window.getY() >= spec.isolationWindowTargetMz) {
+                                dIA_Setting.DIAWindows.get(window).add(spec.ScanNum);
+                                break;
+                            }
                         }
-                        dIA_Setting.DIAWindows.get(new XYData(spec.isolationWindowTargetMz - spec.isolationWindowLoffset, spec.isolationWindowTargetMz + spec.isolationWindowRoffset)).add(spec.ScanNum);
                     } else {
-                        if (datatype == SpectralDataType.DataType.DIA_F_Window) {
-                            spec.isolationWindowLoffset = (dIA_Setting.F_DIA_WindowSize + 1) * 0.2f;
-                            spec.isolationWindowRoffset = (dIA_Setting.F_DIA_WindowSize + 1) * 0.8f;
+                        if (spec.isolationWindowLoffset > 0f && spec.isolationWindowRoffset > 0f) {
                             if (!dIA_Setting.DIAWindows.containsKey(new XYData(spec.isolationWindowTargetMz - spec.isolationWindowLoffset, spec.isolationWindowTargetMz + spec.isolationWindowRoffset))) {
                                 ArrayList<Integer> scanList2 = new ArrayList<>();
                                 dIA_Setting.DIAWindows.put(new XYData(spec.isolationWindowTargetMz - spec.isolationWindowLoffset, spec.isolationWindowTargetMz + spec.isolationWindowRoffset), scanList2);
                             }
                             dIA_Setting.DIAWindows.get(new XYData(spec.isolationWindowTargetMz - spec.isolationWindowLoffset, spec.isolationWindowTargetMz + spec.isolationWindowRoffset)).add(spec.ScanNum);
+                        } else {
+                            if (datatype == SpectralDataType.DataType.DIA_F_Window) {
+                                spec.isolationWindowLoffset = (dIA_Setting.F_DIA_WindowSize + 1) * 0.2f;
+                                spec.isolationWindowRoffset = (dIA_Setting.F_DIA_WindowSize + 1) * 0.8f;
+                                if (!dIA_Setting.DIAWindows.containsKey(new XYData(spec.isolationWindowTargetMz - spec.isolationWindowLoffset, spec.isolationWindowTargetMz + spec.isolationWindowRoffset))) {
+                                    ArrayList<Integer> scanList2 = new ArrayList<>();
+                                    dIA_Setting.DIAWindows.put(new XYData(spec.isolationWindowTargetMz - spec.isolationWindowLoffset, spec.isolationWindowTargetMz + spec.isolationWindowRoffset), scanList2);
+                                }
+                                dIA_Setting.DIAWindows.get(new XYData(spec.isolationWindowTargetMz - spec.isolationWindowLoffset, spec.isolationWindowTargetMz + spec.isolationWindowRoffset)).add(spec.ScanNum);
+                            }
                         }
                     }
                 }
             }
-        } 
-        try {        
-            FSElutionIndexWrite();
-        } catch (IOException ex) {            
         }
+        ScanIndex.put(Integer.MAX_VALUE, offsets.get(offsets.size() - 1));
+        TotalScan = ScanIndex.size();
+    }
+
+    //Read the beginning of a spectrum in growing chunks until binaryDataArrayList shows up, so that the peak arrays are not read
+    private byte[] ReadSpectrumHeader(RandomAccessFile fileHandler, long startposition, long nextposition) throws IOException {
+        int length = (int) Math.min(4096, nextposition - startposition);
+        while (true) {
+            byte[] bytes = new byte[length];
+            fileHandler.seek(startposition);
+            fileHandler.readFully(bytes);
+            if (startposition + length >= nextposition || new String(bytes, StandardCharsets.US_ASCII).contains("<binaryDataArrayList")) {
+                return bytes;
+            }
+            length = (int) Math.min((long) length * 2, nextposition - startposition);
+        }
+    }
+
+    //referenceableParamGroups are defined in the file header, before the first spectrum
+    private HashMap<String, ArrayList<String[]>> ReadParamGroups(long FirstSpectrumOffset) throws IOException {
+        byte[] header = new byte[(int) FirstSpectrumOffset];
+        try (RandomAccessFile fileHandler = new RandomAccessFile(filename, "r")) {
+            fileHandler.readFully(header);
+        }
+        return mzMLReadUnit.ParseParamGroups(header);
     }
-        
+
+    //End of the spectrum starting at the given offset
+    private long NextSpectrumOffset(long offset) {
+        int idx = Arrays.binarySearch(SpectrumOffsets, offset);
+        return SpectrumOffsets[idx + 1];
+    }
+
+    //The base64 peak arrays take most of the spectrum's byte range in the file, 
+    //the decoded peaks together with the traced peak curves take about four times that
+    @Override
+    public long EstimateScanHeapSize(int ScanNo) {
+        Long offset = ScanIndex.get(ScanNo);
+        if (offset == null || ScanNo == Integer.MAX_VALUE || !ScanIndex.containsKey(Integer.MAX_VALUE)) {
+            return super.EstimateScanHeapSize(ScanNo);
+        }
+        return 4 * (NextSpectrumOffset(offset) - offset);
+    }
+
+    //Get all the DIA MS2 scans according to a isolation window range
     @Override
     public ScanCollection GetScanDIAMS2(XYData DIAWindow, boolean IncludePeak, float startTime, float endTime) {
         if (dIA_Setting == null) {
             Logger.getRootLogger().error(filename + " is not DIA data");
             return null;
         }
-        CheckStatus();
         ScanCollection swathScanCollection = new ScanCollection(parameter.Resolution);
+        List<MzMLthreadUnit> ScanList = null;
 
         int StartScanNo = 0;
         int EndScanNo = 0;
 
         StartScanNo = GetStartScan(startTime);
         EndScanNo = GetEndScan(endTime);
+        ArrayList<Integer> IncludedScans = new ArrayList<>();
         for (int scannum : dIA_Setting.DIAWindows.get(DIAWindow)) {
             if (scannum >= StartScanNo && scannum <= EndScanNo) {
-                ScanData scan = scanCollection.ScanHashMap.get(scannum);
-                swathScanCollection.AddScan(scan);
-                swathScanCollection.ElutionTimeToScanNoMap.put(scan.RetentionTime, scan.ScanNum);
+                IncludedScans.add(scannum);
             }
         }
+        ScanList = ParseScans(IncludedScans);
+        for (MzMLthreadUnit result : ScanList) {
+            swathScanCollection.AddScan(result.scan);
+            swathScanCollection.ElutionTimeToScanNoMap.put(result.scan.RetentionTime, result.scan.ScanNum);
+        }
+        ScanList.clear();
+        ScanList = null;
         return swathScanCollection;
     }
 
     @Override
     public ScanCollection GetAllScanCollectionByMSLabel(boolean MS1Included, boolean MS2Included, boolean MS1Peak, boolean MS2Peak, float startTime, float endTime) {
-       CheckStatus();
-        ScanCollection newscanCollection = InitializeScanCollection();
+        ScanCollection scanCollection = InitializeScanCollection();
         Logger.getRootLogger().debug("Memory usage before loading scans:" + Math.round((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1048576) + "MB (" + NoCPUs + " threads)");
 
         ArrayList<Integer> IncludedScans = new ArrayList<>();
-        
-        for(int ScanNum : MsLevelList.keySet()){
-            if(MsLevelList.get(ScanNum)==1 && MS1Included){
+
+        for (int ScanNum : MsLevelList.keySet()) {
+            if (MsLevelList.get(ScanNum) == 1 && MS1Included) {
                 IncludedScans.add(ScanNum);
             }
-            if(MsLevelList.get(ScanNum)==2 && MS2Included){
+            if (MsLevelList.get(ScanNum) == 2 && MS2Included) {
                 IncludedScans.add(ScanNum);
             }
         }
-        
+
+        List<MzMLthreadUnit> ScanList = null;
+
         int StartScanNo = 0;
         int EndScanNo = 0;
 
-        StartScanNo = GetStartScan(startTime);        
+        StartScanNo = GetStartScan(startTime);
         EndScanNo = GetEndScan(endTime);
-        
-        for(int scannum : IncludedScans){
-            if(scannum >= StartScanNo && scannum <= EndScanNo){
-                ScanData scan=scanCollection.ScanHashMap.get(scannum);                
-                newscanCollection.AddScan(scan);
-                newscanCollection.ElutionTimeToScanNoMap.put(scan.RetentionTime, scan.ScanNum);
+
+        ArrayList<Integer> temp = new ArrayList<>();
+        for (int scannum : IncludedScans) {
+            if (scannum >= StartScanNo && scannum <= EndScanNo) {
+                temp.add(scannum);
             }
-        }        
+        }
+
+        ScanList = ParseScans(temp);
+
+        for (MzMLthreadUnit result : ScanList) {
+            scanCollection.AddScan(result.scan);
+        }
+        ScanList.clear();
+        ScanList = null;
+
         System.gc();
         Logger.getRootLogger().debug("Memory usage after loading scans:" + Math.round((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1048576) + "MB");
-        return newscanCollection;
+        return scanCollection;
     }
-    
+
+    //Get all the DIA MS1 scans according to MS1 m/z range, this was only for WiSIM data
     @Override
-    public ScanCollection GetScanCollectionMS1Window(XYData MS1Window, boolean IncludePeak, float startTime, float endTime)  {
+    public ScanCollection GetScanCollectionMS1Window(XYData MS1Window, boolean IncludePeak, float startTime, float endTime) {
         if (dIA_Setting == null) {
             Logger.getRootLogger().error(filename + " is not DIA data");
             return null;
         }
-        CheckStatus();
         ScanCollection MS1WindowScanCollection = new ScanCollection(parameter.Resolution);
-       
+
+        List<MzMLthreadUnit> ScanList = null;
+
         int StartScanNo = 0;
         int EndScanNo = 0;
 
-        StartScanNo = GetStartScan(startTime);        
+        StartScanNo = GetStartScan(startTime);
         EndScanNo = GetEndScan(endTime);
-        ArrayList<Integer> IncludedScans=new ArrayList<>();
-        for(int scannum : dIA_Setting.MS1Windows.get(MS1Window)){
-            if(scannum >= StartScanNo && scannum <= EndScanNo){
+        ArrayList<Integer> IncludedScans = new ArrayList<>();
+        for (int scannum : dIA_Setting.MS1Windows.get(MS1Window)) {
+            if (scannum >= StartScanNo && scannum <= EndScanNo) {
                 IncludedScans.add(scannum);
             }
         }
-                
-        for(int scannum : IncludedScans){
-            if(scannum >= StartScanNo && scannum <= EndScanNo){
-                ScanData scan=scanCollection.ScanHashMap.get(scannum);                
-                MS1WindowScanCollection.AddScan(scan);
-                MS1WindowScanCollection.ElutionTimeToScanNoMap.put(scan.RetentionTime, scan.ScanNum);
-            }
-        }        
-        System.gc();
-        Logger.getRootLogger().debug("Memory usage after loading scans:" + Math.round((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1048576) + "MB");
+
+        ScanList = ParseScans(IncludedScans);
+
+        for (MzMLthreadUnit result : ScanList) {
+            MS1WindowScanCollection.AddScan(result.scan);
+            MS1WindowScanCollection.ElutionTimeToScanNoMap.put(result.scan.RetentionTime, result.scan.ScanNum);
+        }
+        ScanList.clear();
+        ScanList = null;
+
         return MS1WindowScanCollection;
     }
-    
+
+    //One sequential pass over the file for the MS2 scans of all DIA windows, see SpectrumParserBase.CacheDIAMS2Scans
+    @Override
+    public boolean CacheDIAMS2Scans() {
+        if (dIA_Setting == null || IndexFile == null || !IndexFile.CanCachePeaks()) {
+            return false;
+        }
+        ParseScans(GetAllDIAMS2Scans(), true);
+        return true;
+    }
+
+    private List<MzMLthreadUnit> ParseScans(ArrayList<Integer> IncludedScans) {
+        return ParseScans(IncludedScans, false);
+    }
+
+    //Parse scans given a list of scan numbers
+    //The byte range of each spectrum is read as is and handed to the streaming decoder,
+    //unless the centroided peaks of the scan are available in the scan index file.
+    //Scans are decoded while the file is being read, the task group holds the reader back when the decoders fall behind
+    //CacheOnly: the decoded peaks are only stored in the scan index file (already cached scans are skipped) and nothing is returned
+    private List<MzMLthreadUnit> ParseScans(ArrayList<Integer> IncludedScans, boolean CacheOnly) {
+        List<MzMLthreadUnit> ScanList = new ArrayList<>();
+        if (IncludedScans.isEmpty()) {
+            return ScanList;
+        }
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
+        ScanIndexFile PeakCacheWriter = null;
+        if ((parameter.CacheScanPeaks || CacheOnly) && IndexFile != null && IndexFile.CanCachePeaks()) {
+            try {
+                IndexFile.InitializePeakCache(parameter.Resolution, parameter.MinMZ);
+                PeakCacheWriter = IndexFile;
+            } catch (IOException ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            }
+        }
+        if (CacheOnly && PeakCacheWriter == null) {
+            return ScanList;
+        }
+        //Read in file order
+        ArrayList<Integer> SortedScans = new ArrayList<>(IncludedScans);
+        Collections.sort(SortedScans);
+
+        try (RandomAccessFile fileHandler = new RandomAccessFile(filename, "r")) {
+            for (int currentScanNo : SortedScans) {
+                Long startposition = ScanIndex.get(currentScanNo);
+                if (startposition == null) {
+                    continue;
+                }
+                if (IndexFile != null && IndexFile.HasPeaks(currentScanNo, parameter.Resolution, parameter.MinMZ)) {
+                    if (CacheOnly) {
+                        continue;
+                    }
+                    MzMLthreadUnit unit = new MzMLthreadUnit(IndexFile, currentScanNo, parameter);
+                    ScanList.add(unit);
+                    taskGroup.Execute(unit);
+                    continue;
+                }
+                long nexposition = NextSpectrumOffset(startposition);
+                byte[] buffer = new byte[(int) (nexposition - startposition)];
+                fileHandler.seek(startposition);
+                fileHandler.readFully(buffer, 0, (int) (nexposition - startposition));
+                MzMLthreadUnit unit = new MzMLthreadUnit(buffer, ParamGroups, parameter);
+                unit.PeakCacheWriter = PeakCacheWriter;
+                unit.CacheOnly = CacheOnly;
+                if (!CacheOnly) {
+                    ScanList.add(unit);
+                }
+                taskGroup.Execute(unit);
+                buffer = null;
+            }
+        } catch (Exception ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+        }
+
+        taskGroup.Await();
+        return ScanList;
+    }
 }
@@ -0,0 +1,425 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.SpectrumParser;
+
+import MSUmpire.BaseDataStructure.ScanData;
+import MSUmpire.BaseDataStructure.SortedXYCollectionClass;
+import MSUmpire.SpectrumParser.mzXMLReadUnit.DecodeBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Streaming (StAX) decoder for one mzML spectrum element.
+ * The input is the byte range of a spectrum located by the mzML index, cvParams
+ * referenced by referenceableParamGroupRef are expanded from the groups in the file header.
+ * Only the first scan, precursor and selected ion are read, the same as the jmzML converter did.
+ * In header mode, reading stops at binaryDataArrayList.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class mzMLReadUnit {
+
+    byte[] XMLbytes;
+    private final HashMap<String, ArrayList<String[]>> ParamGroups;
+    private final boolean HeaderOnly;
+
+    //Parsing state of the spectrum
+    private final ScanData scan = new ScanData();
+    private int ScanCount = 0;
+    private int PrecursorCount = 0;
+    private int SelectedIonCount = 0;
+    private boolean HasSelectedIonList = false;
+    private float isolationWindowTargetMz = 0f;
+    private float isolationWindowLoffset = 0f;
+    private float isolationWindowRoffset = 0f;
+    private float precursorMz = -1f;
+    private int precursorCharge = 0;
+    private float precursorIntensity = 0f;
+    private String activationMethod = null;
+
+    //Parsing state of the current binaryDataArray
+    private boolean EmptyArray;
+    private boolean MzArray;
+    private boolean IntensityArray;
+    private int ArrayPrecision;
+    private boolean IntegerArray;
+    private boolean Zlib;
+    private String UnsupportedCompression;
+    private float[] MzValues;
+    private float[] IntensityValues;
+
+    public mzMLReadUnit(byte[] XMLbytes, HashMap<String, ArrayList<String[]>> ParamGroups, boolean HeaderOnly) {
+        this.XMLbytes = XMLbytes;
+        this.ParamGroups = ParamGroups;
+        this.HeaderOnly = HeaderOnly;
+    }
+
+    public ScanData Parse() throws XMLStreamException, IOException, DataFormatException {
+        DecodeBuffer buffer = mzXMLReadUnit.Buffer.get();
+        XMLStreamReader reader = buffer.factory.createXMLStreamReader(new ByteArrayInputStream(XMLbytes));
+        try {
+            ParseSpectrum(reader, buffer);
+        } catch (XMLStreamException ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            Logger.getRootLogger().error(new String(XMLbytes));
+            throw ex;
+        } finally {
+            reader.close();
+        }
+        XMLbytes = null;
+        if (MzValues != null && IntensityValues != null) {
+            if (MzValues.length != IntensityValues.length) {
+                throw new DataFormatException("Different sizes for m/z and intensity value arrays for spectrum " + scan.MGFTitle);
+            }
+            scan.Data = new SortedXYCollectionClass(MzValues.length);
+            for (int i = 0; i < MzValues.length; i++) {
+                scan.AddPoint(MzValues[i], IntensityValues[i]);
+            }
+        }
+        scan.Data.Finalize();
+        return scan;
+    }
+
+    //Read events until the end of the spectrum element, anything after it (next spectrum, </spectrumList>) is not part of this spectrum
+    private void ParseSpectrum(XMLStreamReader reader, DecodeBuffer buffer) throws XMLStreamException, IOException, DataFormatException {
+        ArrayList<String> Path = new ArrayList<>();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                EndElement(Path.remove(Path.size() - 1));
+                if (Path.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String name = reader.getLocalName();
+            String parent = Path.isEmpty() ? null : Path.get(Path.size() - 1);
+            switch (name) {
+                case ("spectrum"): {
+                    if (parent == null) {
+                        ParseSpectrumAttributes(reader);
+                    }
+                    break;
+                }
+                case ("cvParam"):
+                    CvParam(parent, reader.getAttributeValue(null, "accession"), reader.getAttributeValue(null, "value"), reader.getAttributeValue(null, "unitName"));
+                    break;
+                case ("referenceableParamGroupRef"): {
+                    ArrayList<String[]> group = ParamGroups == null ? null : ParamGroups.get(reader.getAttributeValue(null, "ref"));
+                    if (group != null) {
+                        for (String[] param : group) {
+                            CvParam(parent, param[0], param[1], param[2]);
+                        }
+                    }
+                    break;
+                }
+                case ("scan"):
+                    ScanCount++;
+                    break;
+                case ("precursor"):
+                    PrecursorCount++;
+                    break;
+                case ("selectedIonList"):
+                    if (PrecursorCount == 1) {
+                        HasSelectedIonList = true;
+                    }
+                    break;
+                case ("selectedIon"):
+                    if (PrecursorCount == 1) {
+                        SelectedIonCount++;
+                    }
+                    break;
+                case ("binaryDataArrayList"): {
+                    if (HeaderOnly) {
+                        return;
+                    }
+                    break;
+                }
+                case ("binaryDataArray"): {
+                    String encodedLength = reader.getAttributeValue(null, "encodedLength");
+                    EmptyArray = "0".equals(encodedLength);
+                    MzArray = false;
+                    IntensityArray = false;
+                    ArrayPrecision = 32;
+                    IntegerArray = false;
+                    Zlib = false;
+                    UnsupportedCompression = null;
+                    break;
+                }
+                case ("binary"): {
+                    ParseBinary(reader, buffer);
+                    //The end element has been consumed
+                    continue;
+                }
+            }
+            Path.add(name);
+        }
+    }
+
+    private void ParseSpectrumAttributes(XMLStreamReader reader) {
+        String id = reader.getAttributeValue(null, "id");
+        String index = reader.getAttributeValue(null, "index");
+        scan.MGFTitle = id;
+        if (index != null) {
+            scan.ScanNum = Integer.parseInt(index);
+        }
+        if (id != null) {
+            String[] idToken = id.split("\\s+");
+            if (idToken.length > 0 && idToken[idToken.length - 1].matches("scan=\\d+")) {
+                scan.ScanNum = Integer.parseInt(idToken[idToken.length - 1].substring(5));
+            }
+        }
+        scan.RetentionTime = -1f;
+    }
+
+    private void CvParam(String parent, String accession, String value, String unitName) {
+        if (parent == null || accession == null) {
+            return;
+        }
+        switch (parent) {
+            case ("spectrum"): {
+                switch (accession) {
+                    case ("MS:1000511"): //MS level
+                        scan.MsLevel = Integer.parseInt(value);
+                        break;
+                    case ("MS:1000127"): //centroid spectrum
+                        scan.centroided = true;
+                        break;
+                    case ("MS:1000128"): //profile spectrum
+                        scan.centroided = false;
+                        break;
+                }
+                break;
+            }
+            case ("scan"): {
+                if (ScanCount == 1 && "MS:1000016".equals(accession)) { //retention time
+                    scan.RetentionTime = Float.parseFloat(value);
+                    if ("second".equals(unitName)) {
+                        scan.RetentionTime /= 60f;
+                    }
+                }
+                break;
+            }
+            case ("isolationWindow"): {
+                if (PrecursorCount != 1) {
+                    break;
+                }
+                switch (accession) {
+                    case ("MS:1000827"): //isolation window target m/z
+                        isolationWindowTargetMz = Float.parseFloat(value);
+                        break;
+                    case ("MS:1000828"): //lower offset
+                        isolationWindowLoffset = Float.parseFloat(value);
+                        break;
+                    case ("MS:1000829"): //upper offset
+                        isolationWindowRoffset = Float.parseFloat(value);
+                        break;
+                }
+                break;
+            }
+            case ("selectedIon"): {
+                if (PrecursorCount != 1 || SelectedIonCount != 1) {
+                    break;
+                }
+                switch (accession) {
+                    case ("MS:1000744"): { //selected ion m/z
+                        if (precursorMz < 0) {
+                            precursorMz = Float.parseFloat(value);
+                        }
+                        break;
+                    }
+                    case ("MS:1000041"): //charge state
+                        precursorCharge = Integer.parseInt(value);
+                        break;
+                    case ("MS:1000042"): //peak intensity
+                        precursorIntensity = Float.parseFloat(value);
+                        break;
+                }
+                break;
+            }
+            case ("activation"): {
+                if (PrecursorCount == 1) {
+                    activationMethod = value;
+                }
+                break;
+            }
+            case ("binaryDataArray"): {
+                switch (accession) {
+                    case ("MS:1000514"): //m/z array
+                        MzArray = true;
+                        break;
+                    case ("MS:1000515"): //intensity array
+                        IntensityArray = true;
+                        break;
+                    case ("MS:1000521"): //32-bit float
+                        ArrayPrecision = 32;
+                        IntegerArray = false;
+                        break;
+                    case ("MS:1000523"): //64-bit float
+                        ArrayPrecision = 64;
+                        IntegerArray = false;
+                        break;
+                    case ("MS:1000519"): //32-bit integer
+                        ArrayPrecision = 32;
+                        IntegerArray = true;
+                        break;
+                    case ("MS:1000522"): //64-bit integer
+                        ArrayPrecision = 64;
+                        IntegerArray = true;
+                        break;
+                    case ("MS:1000574"): //zlib compression
+                        Zlib = true;
+                        break;
+                    case ("MS:1000576"): //no compression
+                        Zlib = false;
+                        break;
+                    case ("MS:1002312"): //MS-Numpress linear prediction
+                    case ("MS:1002313"): //MS-Numpress positive integer
+                    case ("MS:1002314"): //MS-Numpress short logged float
+                        UnsupportedCompression = accession;
+                        break;
+                }
+                break;
+            }
+        }
+    }
+
+    private void EndElement(String name) {
+        //Precursor values are only taken from the first precursor with a selected ion list
+        if ("precursor".equals(name) && PrecursorCount == 1 && HasSelectedIonList) {
+            scan.isolationWindowTargetMz = isolationWindowTargetMz;
+            scan.isolationWindowLoffset = isolationWindowLoffset;
+            scan.isolationWindowRoffset = isolationWindowRoffset;
+            scan.PrecursorMz = precursorMz;
+            scan.PrecursorIntensity = precursorIntensity;
+            scan.PrecursorCharge = precursorCharge;
+            if (scan.isolationWindowTargetMz == 0f) {
+                scan.isolationWindowTargetMz = precursorMz;
+            }
+            scan.ActivationMethod = activationMethod;
+        }
+    }
+
+    //Decode the first non-empty m/z and intensity arrays, other arrays are skipped without decoding
+    private void ParseBinary(XMLStreamReader reader, DecodeBuffer buffer) throws XMLStreamException, IOException, DataFormatException {
+        boolean decode = !EmptyArray && ((MzArray && MzValues == null) || (IntensityArray && IntensityValues == null));
+        if (decode && UnsupportedCompression != null) {
+            Logger.getRootLogger().error("Spectrum " + scan.MGFTitle + ": compression " + UnsupportedCompression + " is not supported, please convert the file without MS-Numpress");
+            decode = false;
+        }
+        buffer.ResetBase64();
+        while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+            if (decode && reader.isCharacters()) {
+                buffer.AppendBase64(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+        }
+        if (!decode) {
+            return;
+        }
+        byte[] decoded = buffer.decoded;
+        int length = buffer.decodedLength;
+        if (Zlib) {
+            length = buffer.Inflate(buffer.decodedLength * 4);
+            decoded = buffer.inflated;
+        }
+        int size = ArrayPrecision / 8;
+        float[] values = new float[length / size];
+        int offset = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (ArrayPrecision == 64) {
+                long bits = ReadLong(decoded, offset);
+                values[i] = IntegerArray ? (float) bits : (float) Double.longBitsToDouble(bits);
+            } else {
+                int bits = ReadInt(decoded, offset);
+                values[i] = IntegerArray ? (float) bits : Float.intBitsToFloat(bits);
+            }
+            offset += size;
+        }
+        if (MzArray) {
+            MzValues = values;
+        } else {
+            IntensityValues = values;
+        }
+    }
+
+    //mzML binary arrays are little-endian
+    private static int ReadInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8) | ((bytes[offset + 2] & 0xFF) << 16) | ((bytes[offset + 3] & 0xFF) << 24);
+    }
+
+    private static long ReadLong(byte[] bytes, int offset) {
+        return (ReadInt(bytes, offset) & 0xFFFFFFFFL) | ((long) ReadInt(bytes, offset + 4) << 32);
+    }
+
+    //Collect the cvParams of each referenceableParamGroup in the file header, reading stops at the run element
+    public static HashMap<String, ArrayList<String[]>> ParseParamGroups(byte[] HeaderBytes) {
+        HashMap<String, ArrayList<String[]>> groups = new HashMap<>();
+        DecodeBuffer buffer = mzXMLReadUnit.Buffer.get();
+        XMLStreamReader reader = null;
+        try {
+            reader = buffer.factory.createXMLStreamReader(new ByteArrayInputStream(HeaderBytes));
+            ArrayList<String[]> group = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT && "referenceableParamGroup".equals(reader.getLocalName())) {
+                    group = null;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                    case ("referenceableParamGroup"): {
+                        group = new ArrayList<>();
+                        groups.put(reader.getAttributeValue(null, "id"), group);
+                        break;
+                    }
+                    case ("cvParam"): {
+                        if (group != null) {
+                            group.add(new String[]{reader.getAttributeValue(null, "accession"), reader.getAttributeValue(null, "value"), reader.getAttributeValue(null, "unitName")});
+                        }
+                        break;
+                    }
+                    case ("run"):
+                        return groups;
+                }
+            }
+        } catch (XMLStreamException ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ex) {
+                }
+            }
+        }
+        return groups;
+    }
+}
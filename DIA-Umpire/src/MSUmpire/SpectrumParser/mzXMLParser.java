@@ -23,18 +23,17 @@ import MSUmpire.BaseDataStructure.InstrumentParameter;
 import MSUmpire.BaseDataStructure.ScanCollection;
 import MSUmpire.BaseDataStructure.SpectralDataType;
 import MSUmpire.BaseDataStructure.XYData;
+import MSUmpire.Utility.SharedExecutor;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.concurrent.*;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
-import org.nustaq.serialization.FSTObjectInput;
-import org.nustaq.serialization.FSTObjectOutput;
 
 /* * 
  * mzXML parser
@@ -53,57 +52,14 @@ public final class mzXMLParser  extends SpectrumParserBase{
 
     //Parser elution time index and scan index and save them as binary files
     private void ReadElutionAndScanIndex() throws Exception {
-        if (!FSScanPosRead()) {
+        ScanIndex = new TreeMap<>();
+        if (!IndexFileRead(ScanIndex)) {
             ParseIndex();
-            WriteIndexSerialization();
-        }
-        if (!FSElutionIndexRead()) {
             ParseElutionIndex();
-            FSElutionIndexWrite();
+            IndexFileWrite(ScanIndex);
         }
     }
 
-     //Wirte seralization file for scan index
-    private void WriteIndexSerialization() {
-        FSScanPosWrite();
-    }
-    
-     //Wirte seralization file for scan index
-    private void FSScanPosWrite() {
-        try {
-            Logger.getRootLogger().debug("Writing ScanPos to file:" + FilenameUtils.removeExtension(filename) + ".ScanPosFS..");
-            FileOutputStream fout = new FileOutputStream(FilenameUtils.removeExtension(filename) + ".ScanPosFS", false);
-            FSTObjectOutput oos = new FSTObjectOutput(fout);
-            oos.writeObject(ScanIndex);
-            oos.close();
-            fout.close();
-        } catch (Exception ex) {
-            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-        }
-    }
-    
-    //Read seralization file for scan index
-    private boolean FSScanPosRead() {
-        if (!new File(FilenameUtils.removeExtension(filename) + ".ScanPosFS").exists()) {
-            return false;
-        }
-        try {
-            Logger.getRootLogger().debug("Reading ScanPos:" + FilenameUtils.removeExtension(filename) + ".ScanPosFS...");
-            FileInputStream fileIn = new FileInputStream(FilenameUtils.removeExtension(filename) + ".ScanPosFS");
-            FSTObjectInput in = new FSTObjectInput(fileIn);
-            ScanIndex = (TreeMap<Integer, Long>) in.readObject();
-            TotalScan = ScanIndex.size();
-            in.close();
-            fileIn.close();
-
-        } catch (Exception ex) {
-            Logger.getRootLogger().debug("ScanIndex serialization file failed");
-            //Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-            return false;
-        }
-        return true;
-    }
-    
      //Parse scan index at the bottom of mzXML file
     private void ParseIndex() throws FileNotFoundException, IOException {
         TotalScan = 0;
@@ -363,6 +319,17 @@ public final class mzXMLParser  extends SpectrumParserBase{
         }
     }
      
+    //The base64 peak list takes most of the scan's byte range in the file, 
+    //the decoded peaks together with the traced peak curves take about four times that
+    @Override
+    public long EstimateScanHeapSize(int ScanNo) {
+        Entry<Integer, Long> next = ScanIndex.higherEntry(ScanNo);
+        if (next == null || !ScanIndex.containsKey(ScanNo)) {
+            return super.EstimateScanHeapSize(ScanNo);
+        }
+        return 4 * (next.getValue() - ScanIndex.get(ScanNo));
+    }
+
      //Get all the DIA MS2 scans according to a isolation window range
     @Override
     public ScanCollection GetScanDIAMS2(XYData DIAWindow, boolean IncludePeak, float startTime, float endTime) {
@@ -429,59 +396,84 @@ public final class mzXMLParser  extends SpectrumParserBase{
         return MS1WindowScanCollection;
     }
        
+    //One sequential pass over the file for the MS2 scans of all DIA windows, see SpectrumParserBase.CacheDIAMS2Scans
+    @Override
+    public boolean CacheDIAMS2Scans() {
+        if (dIA_Setting == null || IndexFile == null || !IndexFile.CanCachePeaks()) {
+            return false;
+        }
+        ParseScans(GetAllDIAMS2Scans(), true);
+        return true;
+    }
+
+    private List<MzXMLthreadUnit> ParseScans(ArrayList<Integer> IncludedScans) {
+        return ParseScans(IncludedScans, false);
+    }
+
     //Parse scans given a list of scan numbers
-    private List<MzXMLthreadUnit>  ParseScans(ArrayList<Integer> IncludedScans){
+    //The byte range of each scan is read as is and handed to the streaming decoder,
+    //unless the centroided peaks of the scan are available in the scan index file.
+    //Scans are decoded while the file is being read, the task group holds the reader back when the decoders fall behind
+    //CacheOnly: the decoded peaks are only stored in the scan index file (already cached scans are skipped) and nothing is returned
+    private List<MzXMLthreadUnit>  ParseScans(ArrayList<Integer> IncludedScans, boolean CacheOnly){
          List<MzXMLthreadUnit> ScanList=new ArrayList<>();
-        ExecutorService executorPool = null;
-        executorPool = Executors.newFixedThreadPool(NoCPUs);
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
+        HashSet<Integer> IncludedScanSet = new HashSet<>(IncludedScans);
+        ScanIndexFile PeakCacheWriter = null;
+        if ((parameter.CacheScanPeaks || CacheOnly) && IndexFile != null && IndexFile.CanCachePeaks()) {
+            try {
+                IndexFile.InitializePeakCache(parameter.Resolution, parameter.MinMZ);
+                PeakCacheWriter = IndexFile;
+            } catch (IOException ex) {
+                Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            }
+        }
+        if (CacheOnly && PeakCacheWriter == null) {
+            return ScanList;
+        }
         Iterator<Entry<Integer, Long>> iter = ScanIndex.entrySet().iterator();        
         Entry<Integer, Long> ent = iter.next();
         Long currentIdx = ent.getValue();
         int nextScanNo = ent.getKey();
 
-        while (iter.hasNext()) {
-            ent = iter.next();
-            long startposition = currentIdx;
-            long nexposition = ent.getValue();
-            int currentScanNo = nextScanNo;
-            nextScanNo = ent.getKey();
-            currentIdx = nexposition;
+        try (RandomAccessFile fileHandler = new RandomAccessFile(filename, "r")) {
+            while (iter.hasNext()) {
+                ent = iter.next();
+                long startposition = currentIdx;
+                long nexposition = ent.getValue();
+                int currentScanNo = nextScanNo;
+                nextScanNo = ent.getKey();
+                currentIdx = nexposition;
 
-            if (IncludedScans.contains(currentScanNo)) {
-                try {
+                if (IncludedScanSet.contains(currentScanNo)) {
+                    if (IndexFile != null && IndexFile.HasPeaks(currentScanNo, parameter.Resolution, parameter.MinMZ)) {
+                        if (CacheOnly) {
+                            continue;
+                        }
+                        MzXMLthreadUnit unit = new MzXMLthreadUnit(IndexFile, currentScanNo, parameter, datatype);
+                        ScanList.add(unit);
+                        taskGroup.Execute(unit);
+                        continue;
+                    }
                     byte[] buffer = new byte[(int) (nexposition - startposition)];
-                    RandomAccessFile fileHandler = new RandomAccessFile(filename, "r");
                     fileHandler.seek(startposition);
-                    fileHandler.read(buffer, 0, (int) (nexposition - startposition));
-                    fileHandler.close();
-                    String xmltext = new String(buffer);
-                    if (ent.getKey() == Integer.MAX_VALUE) {
-                        xmltext = xmltext.replaceAll("</msRun>", "");
-                        buffer = null;
-                    }
+                    fileHandler.readFully(buffer, 0, (int) (nexposition - startposition));
                     boolean ReadPeak = true;
-                    MzXMLthreadUnit unit = new MzXMLthreadUnit(xmltext, parameter, datatype, ReadPeak);
-                    ScanList.add(unit);
+                    MzXMLthreadUnit unit = new MzXMLthreadUnit(buffer, parameter, datatype, ReadPeak);
+                    unit.PeakCacheWriter = PeakCacheWriter;
+                    unit.CacheOnly = CacheOnly;
+                    if (!CacheOnly) {
+                        ScanList.add(unit);
+                    }
+                    taskGroup.Execute(unit);
                     buffer = null;
-                    xmltext = null;
-                    fileHandler = null;
-                } catch (Exception ex) {
-                    Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
                 }
             }
+        } catch (Exception ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
         }
 
-        for (MzXMLthreadUnit unit : ScanList) {
-            executorPool.execute(unit);
-        }
-        executorPool.shutdown();
-
-        try {
-            executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Logger.getRootLogger().info("interrupted..");
-        }
-        executorPool = null;
+        taskGroup.Await();
         ent = null;
         iter = null;
         return ScanList;
@@ -20,63 +20,148 @@
 package MSUmpire.SpectrumParser;
 
 import MSUmpire.BaseDataStructure.ScanData;
-import java.io.ByteArrayOutputStream;
+import MSUmpire.BaseDataStructure.SortedXYCollectionClass;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.StringReader;
-import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.apache.commons.codec.binary.Base64;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
-//import uk.ac.ebi.pride.jaxb.utils.BinaryDataUtils;
-//import uk.ac.ebi.pride.jaxb.utils.CvTermReference;
 /**
- *
+ * Streaming (StAX) decoder for one mzXML scan element.
+ * The input is the byte range of a scan located by the mzXML index, only the
+ * scan attributes, precursorMz and peaks elements of the first scan are read.
+ * Base64/zlib payload is decoded into per-thread reused buffers.
  * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
  */
 public class mzXMLReadUnit {
 
-    String XMLtext;
+    byte[] XMLbytes;
+
+    static final ThreadLocal<DecodeBuffer> Buffer = new ThreadLocal<DecodeBuffer>() {
+        @Override
+        protected DecodeBuffer initialValue() {
+            return new DecodeBuffer();
+        }
+    };
+
+    public mzXMLReadUnit(byte[] XMLbytes) {
+        this.XMLbytes = XMLbytes;
+    }
 
     public mzXMLReadUnit(String XMLtext) {
-        this.XMLtext = XMLtext;
+        this(XMLtext.getBytes());
     }
 
-    public ScanData Parse() throws ParserConfigurationException, SAXException, IOException, DataFormatException {
-        if (XMLtext.replaceFirst("</scan>", "").contains("</scan>")) {
-            XMLtext = XMLtext.replaceFirst("</scan>", "");
-        }
-        if (!XMLtext.contains("</scan>")) {
-            XMLtext += "</scan>";
-        }
+    public ScanData Parse() throws XMLStreamException, IOException, DataFormatException {
         ScanData scan = new ScanData();
-        DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-        InputSource input = new InputSource(new StringReader(XMLtext));
-        Document doc = null;
+        DecodeBuffer buffer = Buffer.get();
+        XMLStreamReader reader = buffer.factory.createXMLStreamReader(new ByteArrayInputStream(XMLbytes));
         try {
-            doc = docBuilder.parse(input);
-        } catch (Exception ex) {
+            ParseScan(reader, scan, buffer);
+        } catch (XMLStreamException ex) {
             Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
-            Logger.getRootLogger().error(XMLtext);
+            Logger.getRootLogger().error(new String(XMLbytes));
+            throw ex;
+        } finally {
+            reader.close();
         }
-        Node root = doc.getFirstChild();
-        for (int i = 0; i < root.getAttributes().getLength(); i++) {
-            switch (root.getAttributes().item(i).getNodeName()) {
+        if ("calibration".equals(scan.scanType)) {
+            scan.MsLevel = -1;
+        }
+        XMLbytes = null;
+        scan.Data.Finalize();
+        return scan;
+    }
+
+    //Read events until the first </peaks> or the end of the scan element, anything after it (nested scans, </msRun>) is not part of this scan
+    private void ParseScan(XMLStreamReader reader, ScanData scan, DecodeBuffer buffer) throws XMLStreamException, IOException, DataFormatException {
+        int depth = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                if (--depth == 0) {
+                    return;
+                }
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            if (depth++ == 0) {
+                ParseScanAttributes(reader, scan);
+                continue;
+            }
+            switch (reader.getLocalName()) {
+                case ("precursorMz"): {
+                    for (int j = 0; j < reader.getAttributeCount(); j++) {
+                        String value = reader.getAttributeValue(j);
+                        switch (reader.getAttributeLocalName(j)) {
+                            case ("precursorScanNum"):
+                                scan.precursorScanNum = Integer.parseInt(value);
+                                break;
+                            case ("precursorIntensity"):
+                                scan.PrecursorIntensity = Float.parseFloat(value);
+                                break;
+                            case ("precursorCharge"):
+                                scan.PrecursorCharge = Integer.parseInt(value);
+                                break;
+                            case ("activationMethod"):
+                                scan.ActivationMethod = value;
+                                break;
+                            case ("windowWideness"):
+                                scan.windowWideness = Float.parseFloat(value);
+                                break;
+                        }
+                    }
+                    scan.PrecursorMz = Float.parseFloat(reader.getElementText());
+                    depth--;
+                    break;
+                }
+                case ("peaks"): {
+                    for (int j = 0; j < reader.getAttributeCount(); j++) {
+                        switch (reader.getAttributeLocalName(j)) {
+                            case ("compressionType"):
+                                scan.compressionType = reader.getAttributeValue(j);
+                                break;
+                            case ("precision"):
+                                scan.precision = Integer.parseInt(reader.getAttributeValue(j));
+                                break;
+                        }
+                    }
+                    buffer.ResetBase64();
+                    while (reader.next() != XMLStreamConstants.END_ELEMENT) {
+                        if (reader.isCharacters()) {
+                            buffer.AppendBase64(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                    }
+                    ParsePeaks(scan, buffer);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void ParseScanAttributes(XMLStreamReader reader, ScanData scan) {
+        //startMz/highMz take precedence over lowMz/endMz when both are present
+        String lowMz = null;
+        String highMz = null;
+        String startMz = null;
+        String endMz = null;
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String value = reader.getAttributeValue(i);
+            switch (reader.getAttributeLocalName(i)) {
                 case ("num"):
-                    scan.ScanNum = Integer.parseInt(root.getAttributes().item(i).getNodeValue());
+                    scan.ScanNum = Integer.parseInt(value);
                     break;
                 case ("centroided"): {
-                    if ("1".equals(root.getAttributes().item(i).getNodeValue())) {
+                    if ("1".equals(value)) {
                         scan.centroided = true;
                     } else {
                         scan.centroided = false;
@@ -84,46 +169,30 @@ public class mzXMLReadUnit {
                     break;
                 }
                 case ("msLevel"):
-                    scan.MsLevel = Integer.parseInt(root.getAttributes().item(i).getNodeValue());
+                    scan.MsLevel = Integer.parseInt(value);
                     break;
                 case ("scanType"):
-                    scan.scanType = root.getAttributes().item(i).getNodeValue();
+                    scan.scanType = value;
                     break;
                 case ("peaksCount"):
-                    scan.PeaksCountString = Integer.parseInt(root.getAttributes().item(i).getNodeValue());
+                    scan.PeaksCountString = Integer.parseInt(value);
                     break;
                 case ("retentionTime"):
-                    scan.RetentionTime = Float.parseFloat(root.getAttributes().item(i).getNodeValue().substring(2, root.getAttributes().item(i).getNodeValue().indexOf("S"))) / 60f;
+                    scan.RetentionTime = Float.parseFloat(value.substring(2, value.indexOf("S"))) / 60f;
                     break;
-                case ("lowMz"): {
-                    String value = root.getAttributes().item(i).getNodeValue();
-                    if ("inf".equals(value)) {
-                        value = String.valueOf(Float.MIN_VALUE);
-                    }
-                    scan.StartMz = Float.parseFloat(value);
+                case ("lowMz"):
+                    lowMz = value;
                     break;
-                }
-                case ("highMz"): {
-                    String value = root.getAttributes().item(i).getNodeValue();
-                    if ("inf".equals(value)) {
-                        value = String.valueOf(Float.MAX_VALUE);
-                    }
-                    scan.EndMz = Float.parseFloat(value);
+                case ("highMz"):
+                    highMz = value;
                     break;
-                }
                 case ("startMz"):
-                    scan.StartMz = Float.parseFloat(root.getAttributes().item(i).getNodeValue());
+                    startMz = value;
                     break;
-                case ("endMz"): {
-                    String value = root.getAttributes().item(i).getNodeValue();
-                    if ("inf".equals(value)) {
-                        value = String.valueOf(Float.MAX_VALUE);
-                    }
-                    scan.EndMz = Float.parseFloat(value);
+                case ("endMz"):
+                    endMz = value;
                     break;
-                }
                 case ("basePeakMz"): {
-                    String value = root.getAttributes().item(i).getNodeValue();
                     if ("inf".equals(value)) {
                         value = String.valueOf(Float.MAX_VALUE);
                     }
@@ -131,155 +200,162 @@ public class mzXMLReadUnit {
                     break;
                 }
                 case ("basePeakIntensity"):
-                    scan.BasePeakIntensity = Float.parseFloat(root.getAttributes().item(i).getNodeValue());
+                    scan.BasePeakIntensity = Float.parseFloat(value);
                     break;
                 case ("totIonCurrent"):
-                    scan.SetTotIonCurrent(Float.parseFloat(root.getAttributes().item(i).getNodeValue()));
+                    scan.SetTotIonCurrent(Float.parseFloat(value));
                     break;
             }
         }
-        for (int i = 0; i < root.getChildNodes().getLength(); i++) {
-            Node childNode = root.getChildNodes().item(i);
-            switch (childNode.getNodeName()) {
-                case ("precursorMz"): {
-                    scan.PrecursorMz = Float.parseFloat(childNode.getTextContent());
-                    for (int j = 0; j < childNode.getAttributes().getLength(); j++) {
-                        switch (childNode.getAttributes().item(j).getNodeName()) {
-                            case ("precursorScanNum"):
-                                scan.precursorScanNum = Integer.parseInt(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                            case ("precursorIntensity"):
-                                scan.PrecursorIntensity = Float.parseFloat(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                            case ("precursorCharge"):
-                                scan.PrecursorCharge = Integer.parseInt(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                            case ("activationMethod"):
-                                scan.ActivationMethod = childNode.getAttributes().item(j).getNodeValue();
-                                break;
-                            case ("windowWideness"):
-                                scan.windowWideness = Float.parseFloat(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                        }
-                    }
-                    break;
-                }
-                case ("peaks"): {
-                    for (int j = 0; j < childNode.getAttributes().getLength(); j++) {
-                        switch (childNode.getAttributes().item(j).getNodeName()) {
-                            case ("compressionType"):
-                                scan.compressionType = childNode.getAttributes().item(j).getNodeValue();
-                                break;
-                            case ("precision"):
-                                scan.precision = Integer.parseInt(childNode.getAttributes().item(j).getNodeValue());
-                                break;
-                        }
-                    }
-                    ParsePeakString(scan, childNode.getTextContent());
-                    break;
-                }
+        if (startMz != null) {
+            scan.StartMz = Float.parseFloat(startMz);
+        } else if (lowMz != null) {
+            if ("inf".equals(lowMz)) {
+                lowMz = String.valueOf(Float.MIN_VALUE);
             }
-            childNode = null;
-        }
-        if ("calibration".equals(scan.scanType)) {
-            scan.MsLevel = -1;
+            scan.StartMz = Float.parseFloat(lowMz);
         }
-        docBuilder = null;
-        docBuilderFactory = null;
-        input = null;
-        doc = null;
-        root = null;
-        XMLtext = null;
-        scan.Data.Finalize();
-        return scan;
-    }
-
-    public byte[] ZlibUncompressBuffer(byte[] compressed) throws IOException, DataFormatException {
-
-        Inflater decompressor = new Inflater();
-        decompressor.setInput(compressed);
-
-        ByteArrayOutputStream bos = null;
-        try {
-
-            bos = new ByteArrayOutputStream(compressed.length);
-
-            // Decompress the data
-            byte[] buf = new byte[decompressor.getRemaining() * 2];
-            while (decompressor.getRemaining() > 0) {
-                int count = decompressor.inflate(buf);
-                bos.write(buf, 0, count);
+        if (highMz != null) {
+            if ("inf".equals(highMz)) {
+                highMz = String.valueOf(Float.MAX_VALUE);
             }
-
-        } finally {
-            try {
-                bos.close();
-            } catch (Exception nope) { /* This exception doesn't matter */ }
+            scan.EndMz = Float.parseFloat(highMz);
+        } else if (endMz != null) {
+            if ("inf".equals(endMz)) {
+                endMz = String.valueOf(Float.MAX_VALUE);
+            }
+            scan.EndMz = Float.parseFloat(endMz);
         }
-        decompressor.end();
-        compressed = null;
-        decompressor = null;
-        byte[] result = bos.toByteArray();
-        bos = null;
-        return result;
     }
 
-    private void ParsePeakString(ScanData scan, String peakString) throws IOException, DataFormatException {
-        int offset;
-
-        peakString = peakString.replaceAll("\n", "");
-        byte[] decoded = Base64.decodeBase64(peakString.getBytes());
-
+    private void ParsePeaks(ScanData scan, DecodeBuffer buffer) throws IOException, DataFormatException {
+        byte[] decoded = buffer.decoded;
+        int length = buffer.decodedLength;
         if ("zlib".equals(scan.compressionType)) {
-            decoded = ZlibUncompressBuffer(decoded);
+            length = buffer.Inflate(scan.PeaksCountString * scan.precision / 4);
+            decoded = buffer.inflated;
         }
+        scan.Data = new SortedXYCollectionClass(scan.PeaksCountString);
         switch (scan.precision) {
             case (32): {
-                offset = 0;
+                if (length < scan.PeaksCountString * 8) {
+                    throw new DataFormatException("Scan " + scan.ScanNum + ": peaks array is shorter than peaksCount");
+                }
+                int offset = 0;
                 for (int i = 0; i < scan.PeaksCountString; i++) {
-                    byte[] mz = new byte[]{decoded[offset], decoded[offset + 1], decoded[offset + 2], decoded[offset + 3]};
-                    byte[] intensity = new byte[]{decoded[offset + 4], decoded[offset + 5], decoded[offset + 6], decoded[offset + 7]};
-                    ByteBuffer mzBuffer = ByteBuffer.wrap(mz);
-                    ByteBuffer intBuffer = ByteBuffer.wrap(intensity);
-                    float intensityfloat = intBuffer.getFloat();
-                    float mzfloat = mzBuffer.getFloat();
+                    float mzfloat = Float.intBitsToFloat(ReadInt(decoded, offset));
+                    float intensityfloat = Float.intBitsToFloat(ReadInt(decoded, offset + 4));
                     if (intensityfloat > 0f) {
                         scan.AddPoint(mzfloat, intensityfloat);
                     }
-                    mz = null;
-                    intensity = null;
-                    mzBuffer.clear();
-                    intBuffer.clear();
-                    mzBuffer = null;
-                    intBuffer = null;
                     offset += 8;
                 }
                 break;
             }
             case (64): {
-                offset = 0;
+                if (length < scan.PeaksCountString * 16) {
+                    throw new DataFormatException("Scan " + scan.ScanNum + ": peaks array is shorter than peaksCount");
+                }
+                int offset = 0;
                 for (int i = 0; i < scan.PeaksCountString; i++) {
-                    byte[] mz = new byte[]{decoded[offset], decoded[offset + 1], decoded[offset + 2], decoded[offset + 3], decoded[offset + 4], decoded[offset + 5], decoded[offset + 6], decoded[offset + 7]};
-                    byte[] intensity = new byte[]{decoded[offset + 8], decoded[offset + 9], decoded[offset + 10], decoded[offset + 11], decoded[offset + 12], decoded[offset + 13], decoded[offset + 14], decoded[offset + 15]};
-                    ByteBuffer mzBuffer = ByteBuffer.wrap(mz);
-                    ByteBuffer intBuffer = ByteBuffer.wrap(intensity);
-                    float intensityfloat = (float) intBuffer.getDouble();
-                    float mzfloat = (float) mzBuffer.getDouble();
+                    float mzfloat = (float) Double.longBitsToDouble(ReadLong(decoded, offset));
+                    float intensityfloat = (float) Double.longBitsToDouble(ReadLong(decoded, offset + 8));
                     if (intensityfloat > 0f) {
                         scan.AddPoint(mzfloat, intensityfloat);
                     }
-                    mz = null;
-                    intensity = null;
-                    mzBuffer.clear();
-                    intBuffer.clear();
-                    mzBuffer = null;
-                    intBuffer = null;
                     offset += 16;
                 }
                 break;
             }
         }
-        peakString = null;
-        decoded = null;
+    }
+
+    //mzXML peaks are network (big-endian) byte order
+    private static int ReadInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    private static long ReadLong(byte[] bytes, int offset) {
+        return ((long) ReadInt(bytes, offset) << 32) | (ReadInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Per-thread scratch space: StAX factory, Base64 output, inflater and its output,
+     * shared with mzMLReadUnit
+     */
+    static class DecodeBuffer {
+
+        private static final byte[] Base64Table = new byte[128];
+
+        static {
+            Arrays.fill(Base64Table, (byte) -1);
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            for (int i = 0; i < alphabet.length(); i++) {
+                Base64Table[alphabet.charAt(i)] = (byte) i;
+            }
+        }
+
+        XMLInputFactory factory;
+        Inflater inflater = new Inflater();
+        byte[] decoded = new byte[1 << 16];
+        int decodedLength;
+        byte[] inflated = new byte[1 << 16];
+        private int bits;
+        private int bitCount;
+
+        DecodeBuffer() {
+            factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        }
+
+        void ResetBase64() {
+            decodedLength = 0;
+            bits = 0;
+            bitCount = 0;
+        }
+
+        //Whitespace, line breaks and padding are skipped
+        void AppendBase64(char[] text, int start, int length) {
+            int end = start + length;
+            if (decoded.length < decodedLength + length) {
+                decoded = Arrays.copyOf(decoded, Math.max(decoded.length * 2, decodedLength + length));
+            }
+            for (int i = start; i < end; i++) {
+                char c = text[i];
+                int value = c < 128 ? Base64Table[c] : -1;
+                if (value < 0) {
+                    continue;
+                }
+                bits = (bits << 6) | value;
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    decoded[decodedLength++] = (byte) (bits >> bitCount);
+                    bits &= (1 << bitCount) - 1;
+                }
+            }
+        }
+
+        int Inflate(int expectedLength) throws DataFormatException {
+            if (inflated.length < expectedLength) {
+                inflated = new byte[expectedLength];
+            }
+            inflater.reset();
+            inflater.setInput(decoded, 0, decodedLength);
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == inflated.length) {
+                    inflated = Arrays.copyOf(inflated, inflated.length * 2);
+                }
+                int count = inflater.inflate(inflated, length, inflated.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+            return length;
+        }
     }
 }
@@ -0,0 +1,220 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.Utility;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Manifest of the processing phases of a spectral file whose outputs can be reused (_Peak/[basename].checkpoint).
+ * A phase is recorded with the digest of its inputs (content of the spectral file, the parameter values 
+ * it depends on and the keys of the phases it depends on) and the size and digest of each output file.
+ * A phase is reused only if its input digest is the same and all its output files are unchanged.
+ * 
+ * Format (tab-delimited):
+ * raw  size  last modified  digest of the spectral file
+ * phase  name  input digest  output file|size|digest;...
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class CheckpointManifest {
+
+    private final String Filename;
+    private final String ManifestPath;
+    private String RawDigest;
+    private long RawSize = -1;
+    private long RawModified = -1;
+    //Phase name -> {input digest, outputs}
+    private final LinkedHashMap<String, String[]> Phases = new LinkedHashMap<>();
+
+    public CheckpointManifest(String Filename) {
+        this.Filename = Filename;
+        this.ManifestPath = FilenameUtils.getFullPath(Filename) + FilenameUtils.getBaseName(Filename) + "_Peak/" + FilenameUtils.getBaseName(Filename) + ".checkpoint";
+        Read();
+    }
+
+    //Digest of the content of the spectral file, the digest in the manifest is used if the size and modification time of the file are unchanged
+    public synchronized String GetRawDigest() throws IOException {
+        File file = new File(Filename);
+        if (RawDigest == null || RawSize != file.length() || RawModified != file.lastModified()) {
+            Logger.getRootLogger().info("Calculating checksum of " + FilenameUtils.getName(Filename) + "....");
+            RawSize = file.length();
+            RawModified = file.lastModified();
+            RawDigest = FileDigest(file);
+            Write();
+        }
+        return RawDigest;
+    }
+
+    //Digest of the inputs of a phase: the spectral file, the parameter values and the keys of the phases it depends on
+    public String GetInputKey(String... Inputs) throws IOException {
+        StringBuilder key = new StringBuilder(GetRawDigest());
+        for (String input : Inputs) {
+            key.append("\n").append(input);
+        }
+        return StringDigest(key.toString());
+    }
+
+    //Whether the phase was recorded with the same input key and its output files are unchanged
+    public boolean IsValid(String Phase, String InputKey) {
+        String[] entry;
+        synchronized (this) {
+            entry = Phases.get(Phase);
+        }
+        if (entry == null || !entry[0].equals(InputKey)) {
+            return false;
+        }
+        try {
+            for (String output : entry[1].split(";")) {
+                if ("".equals(output)) {
+                    continue;
+                }
+                String[] info = output.split("\\|");
+                File file = new File(FilenameUtils.getFullPath(ManifestPath) + info[0]);
+                if (!file.exists() || file.length() != Long.parseLong(info[1]) || !FileDigest(file).equals(info[2])) {
+                    Logger.getRootLogger().info("Output of " + Phase + " has been changed: " + info[0]);
+                    return false;
+                }
+            }
+        } catch (Exception ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            return false;
+        }
+        Logger.getRootLogger().info("Reusing checkpoint of " + Phase);
+        return true;
+    }
+
+    //Record a finished phase, output files are given by path and have to be in the _Peak folder
+    public void Record(String Phase, String InputKey, String... Outputs) {
+        StringBuilder outputs = new StringBuilder();
+        try {
+            for (String output : Outputs) {
+                File file = new File(output);
+                if (file.exists()) {
+                    outputs.append(file.getName()).append("|").append(file.length()).append("|").append(FileDigest(file)).append(";");
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            return;
+        }
+        synchronized (this) {
+            Phases.put(Phase, new String[]{InputKey, outputs.toString()});
+            Write();
+        }
+    }
+
+    //Remove a phase before its outputs are written again
+    public synchronized void Invalidate(String Phase) {
+        if (Phases.remove(Phase) != null) {
+            Write();
+        }
+    }
+
+    private void Read() {
+        File file = new File(ManifestPath);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] info = line.split("\t", -1);
+                if (info[0].equals("raw") && info.length == 4) {
+                    RawSize = Long.parseLong(info[1]);
+                    RawModified = Long.parseLong(info[2]);
+                    RawDigest = info[3];
+                } else if (info[0].equals("phase") && info.length == 4) {
+                    Phases.put(info[1], new String[]{info[2], info[3]});
+                }
+            }
+        } catch (Exception ex) {
+            Logger.getRootLogger().error("Reading checkpoint manifest " + ManifestPath + " failed, all phases will be processed.");
+            RawDigest = null;
+            Phases.clear();
+        }
+    }
+
+    //Written to a temporary file first so that an interrupted write doesn't leave a partial manifest
+    private void Write() {
+        File file = new File(ManifestPath);
+        File temp = new File(ManifestPath + ".temp");
+        file.getParentFile().mkdirs();
+        try (FileWriter writer = new FileWriter(temp)) {
+            if (RawDigest != null) {
+                writer.write("raw\t" + RawSize + "\t" + RawModified + "\t" + RawDigest + "\n");
+            }
+            for (Map.Entry<String, String[]> entry : Phases.entrySet()) {
+                writer.write("phase\t" + entry.getKey() + "\t" + entry.getValue()[0] + "\t" + entry.getValue()[1] + "\n");
+            }
+        } catch (IOException ex) {
+            Logger.getRootLogger().error(ExceptionUtils.getStackTrace(ex));
+            return;
+        }
+        file.delete();
+        if (!temp.renameTo(file)) {
+            Logger.getRootLogger().error("Writing checkpoint manifest " + ManifestPath + " failed.");
+        }
+    }
+
+    private static MessageDigest NewDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String FileDigest(File file) throws IOException {
+        MessageDigest digest = NewDigest();
+        byte[] buffer = new byte[1 << 20];
+        try (InputStream in = new FileInputStream(file)) {
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        return Hex(digest.digest());
+    }
+
+    private static String StringDigest(String value) {
+        return Hex(NewDigest().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String Hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+}
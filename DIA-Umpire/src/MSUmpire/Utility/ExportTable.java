@@ -21,9 +21,14 @@ package MSUmpire.Utility;
 
 import MSUmpire.PSMDataStructure.FragmentPeak;
 import MSUmpire.PSMDataStructure.FragmentSelection;
+import MSUmpire.PSMDataStructure.IDKeyPool;
 import MSUmpire.PSMDataStructure.LCMSID;
+import MSUmpire.PSMDataStructure.PepFragMatrix;
 import MSUmpire.PSMDataStructure.PepIonID;
 import MSUmpire.PSMDataStructure.ProtID;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
 
 import java.io.FileWriter;
 import java.io.IOException;
@@ -67,37 +72,18 @@ public class ExportTable {
         Logger.getRootLogger().info("=================================================================================================");
     }
 
+    //Rows are streamed from the peptide ion x fragment x file matrix of fragselection,
+    //which has to be built from the same FileList
     private void ProteinLevelExport(int TopNPep, int TopNFrag, float Freq) throws IOException {
         FileWriter proWriter = new FileWriter(WorkFolder + "ProtSummary_" + DateTimeTag.GetTag() + ".xls");
         FileWriter pepWriter = new FileWriter(WorkFolder + "PeptideSummary_" + DateTimeTag.GetTag() + ".xls");
         FileWriter NOWriter = new FileWriter(WorkFolder + "IDNoSummary_" + DateTimeTag.GetTag() + ".xls");
         FileWriter fragWriter = new FileWriter(WorkFolder + "FragSummary_" + DateTimeTag.GetTag() + ".xls");
-        //Fragment Summary//////////////////////////////////////////
-        for (LCMSID IDsummary : FileList) {
-            HashMap<String, FragmentPeak> FragMap = IDSummaryFragments.get(FilenameUtils.getBaseName(IDsummary.mzXMLFileName));
-            if(FragMap==null){
-                Logger.getRootLogger().error("Cannot find fragment map for "+FilenameUtils.getBaseName(IDsummary.mzXMLFileName));
-                 Logger.getRootLogger().debug("Printing all fragment maps");
-                for(String key : FragMap.keySet()){
-                    Logger.getRootLogger().debug(key);
-                }
-            }
-            for (String key : CombineProtID.ProteinList.keySet()) {
-                if (IDsummary.ProteinList.containsKey(key)) {
-                    ProtID protein = IDsummary.ProteinList.get(key);
-                    for (PepIonID pep : protein.PeptideID.values()) {
-                        for (FragmentPeak frag : pep.FragmentPeaks) {
-                            if (!ProteinFragMap.containsKey(key + ";" + pep.GetKey() + ";" + frag.IonType)) {
-                                ProteinFragMap.put(key + ";" + pep.GetKey() + ";" + frag.IonType, frag.FragMZ);
-                            }
-                            frag.Prob1 = pep.MaxProbability;
-                            frag.Prob2 = pep.TargetedProbability();
-                            frag.RT = pep.PeakRT;
-                            FragMap.put(key + ";" + pep.GetKey() + ";" + frag.IonType, frag);
-                        }
-                    }
-                }
-            }
+        PepFragMatrix matrix = fragselection.GetMatrix();
+        int NoFiles = FileList.size();
+        ArrayList<TIntObjectHashMap<ProtID>> ProteinIndex = new ArrayList<>(NoFiles);
+        for (LCMSID IDSummary : FileList) {
+            ProteinIndex.add(IDSummary.GetProteinKeyIndex());
         }
 
         NOWriter.write("File\tNo. Proteins\tNo. peptide ions (Spec-centric)\tNo. peptide ions (Pep-centric)\tNo. proein assoc. ions\n");
@@ -112,59 +98,118 @@ public class ExportTable {
         proWriter.write("\n");
 
         NOWriter.close();
-        if (CombineProtID != null) {
-            for (String key : CombineProtID.ProteinList.keySet()) {
-                proWriter.write(key + "\t");
-                for (LCMSID IDsummary : FileList) {
-                    if (IDsummary.ProteinList.containsKey(key)) {
-                        ProtID protein = IDsummary.ProteinList.get(key);
-                        proWriter.write(protein.Probability + "\t" + protein.PeptideID.size() + "\t" + protein.GetSpectralCount() + "\t" + protein.GetAbundanceByMS1_IBAQ() + "\t" + protein.GetAbundanceByTopCorrFragAcrossSample(fragselection.TopPeps.get(protein.getAccNo()), fragselection.TopFrags) + "\t");
-                    } else {
-                        proWriter.write("\t\t\t\t\t");
-                    }
+        for (String key : CombineProtID.ProteinList.keySet()) {
+            proWriter.write(key + "\t");
+            int protkeyid = IDKeyPool.Protein.GetID(key);
+            for (int f = 0; f < NoFiles; f++) {
+                ProtID protein = ProteinIndex.get(f).get(protkeyid);
+                if (protein != null) {
+                    proWriter.write(protein.Probability + "\t" + protein.PeptideID.size() + "\t" + protein.GetSpectralCount() + "\t" + protein.GetAbundanceByMS1_IBAQ() + "\t" + fragselection.GetProtAbundance(protein, f) + "\t");
+                } else {
+                    proWriter.write("\t\t\t\t\t");
                 }
-                proWriter.write("\n");
             }
-            proWriter.close();
+            proWriter.write("\n");
         }
+        proWriter.close();
 
+        //Fragment Summary//////////////////////////////////////////
         fragWriter.write("Fragment Key\tProtein\tPeptide\tFragment\tFragMz\t");
         for (LCMSID IDSummary : FileList) {
             String file = FilenameUtils.getBaseName(IDSummary.mzXMLFileName);
             fragWriter.write(file + "_RT\t" + file + "_Spec_Centric_Prob\t" + file + "_Pep_Centric_Prob\t" + file + "_Intensity\t" + file + "_Corr\t" + file + "_PPM\t");
         }
         fragWriter.write("\n");
-        for (String key : ProteinFragMap.keySet()) {
-            fragWriter.write(key + "\t" + key.split(";")[0] + "\t" + key.split(";")[1] + "\t" + key.split(";")[2] + "\t" + ProteinFragMap.get(key) + "\t");
-            for (LCMSID IDSummary : FileList) {
-                if (IDSummaryFragments.get(FilenameUtils.getBaseName(IDSummary.mzXMLFileName)).containsKey(key)) {
-                    FragmentPeak fragmentPeak = IDSummaryFragments.get(FilenameUtils.getBaseName(IDSummary.mzXMLFileName)).get(key);
-                    fragWriter.write(fragmentPeak.RT + "\t" + fragmentPeak.Prob1 + "\t" + fragmentPeak.Prob2 + "\t" + fragmentPeak.intensity + "\t" + fragmentPeak.corr + "\t" + fragmentPeak.ppm + "\t");
-                } else {
-                    fragWriter.write("\t\t\t\t\t\t");
-                }
-            }
-            fragWriter.write("\n");
-        }
-        fragWriter.close();
 
-        ////PepSummary///////////////////////////////////
-        for (LCMSID IDsummary : FileList) {
-            HashMap<String, FragmentPeak> FragMap = new HashMap<>();
-            IDSummaryFragments.put(FilenameUtils.getBaseName(IDsummary.mzXMLFileName), FragMap);
-
-            for (String key : IDsummary.GetPepIonList().keySet()) {
-                if (!IdentifiedPepMap.contains(key)) {
-                    IdentifiedPepMap.add(key);
+        ProtID[] proteins = new ProtID[NoFiles];
+        PepIonID[] peps = new PepIonID[NoFiles];
+        int[] cellcol = new int[NoFiles];
+        FragmentPeak[] cellfrag = new FragmentPeak[NoFiles];
+        TIntArrayList pepkeyids = new TIntArrayList();
+        TIntHashSet pepkeyset = new TIntHashSet();
+        for (String key : CombineProtID.ProteinList.keySet()) {
+            pepkeyids.resetQuick();
+            pepkeyset.clear();
+            int protkeyid = IDKeyPool.Protein.GetID(key);
+            for (int f = 0; f < NoFiles; f++) {
+                proteins[f] = ProteinIndex.get(f).get(protkeyid);
+                if (proteins[f] != null) {
+                    for (PepIonID pep : proteins[f].PeptideID.values()) {
+                        if (pepkeyset.add(pep.GetKeyID())) {
+                            pepkeyids.add(pep.GetKeyID());
+                        }
+                    }
                 }
             }
-            for (String key : IDsummary.GetMappedPepIonList().keySet()) {
-                if (!IdentifiedPepMap.contains(key)) {
-                    IdentifiedPepMap.add(key);
+            for (int i = 0; i < pepkeyids.size(); i++) {
+                int row = matrix.GetRow(pepkeyids.getQuick(i));
+                if (row == -1) {
+                    continue;
+                }
+                String PepKey = matrix.GetRowKey(row);
+                for (int f = 0; f < NoFiles; f++) {
+                    peps[f] = proteins[f] == null ? null : proteins[f].PeptideID.get(PepKey);
+                }
+                //One row per ion type, fragments of different charges are merged
+                for (int col = matrix.GetFragStart(row); col < matrix.GetFragEnd(row); col++) {
+                    String IonType = matrix.GetIonType(col);
+                    if (IonTypeListed(matrix, row, col)) {
+                        continue;
+                    }
+                    float FragMZ = Float.NaN;
+                    for (int f = 0; f < NoFiles; f++) {
+                        cellcol[f] = -1;
+                        cellfrag[f] = null;
+                        if (peps[f] == null) {
+                            continue;
+                        }
+                        if (peps[f] == matrix.GetPep(row, f)) {
+                            //Last fragment of the ion type in the run, as the first one gives the FragMz
+                            int firstcol = -1;
+                            for (int c = col; c < matrix.GetFragEnd(row); c++) {
+                                if (matrix.HasFrag(c, f) && IonType.equals(matrix.GetIonType(c))) {
+                                    if (firstcol == -1) {
+                                        firstcol = c;
+                                    }
+                                    if (cellcol[f] == -1 || matrix.GetLastPos(c, f) > matrix.GetLastPos(cellcol[f], f)) {
+                                        cellcol[f] = c;
+                                    }
+                                }
+                            }
+                            if (firstcol != -1 && Float.isNaN(FragMZ)) {
+                                FragMZ = matrix.GetFragMZ(firstcol);
+                            }
+                        } else if (peps[f].FragmentPeaks != null) {
+                            for (FragmentPeak frag : peps[f].FragmentPeaks) {
+                                if (IonType.equals(frag.IonType)) {
+                                    if (Float.isNaN(FragMZ)) {
+                                        FragMZ = frag.FragMZ;
+                                    }
+                                    cellfrag[f] = frag;
+                                }
+                            }
+                        }
+                    }
+                    if (Float.isNaN(FragMZ)) {
+                        continue;
+                    }
+                    fragWriter.write(key + ";" + PepKey + ";" + IonType + "\t" + key + "\t" + PepKey + "\t" + IonType + "\t" + FragMZ + "\t");
+                    for (int f = 0; f < NoFiles; f++) {
+                        if (cellcol[f] != -1) {
+                            fragWriter.write(peps[f].PeakRT + "\t" + peps[f].MaxProbability + "\t" + peps[f].TargetedProbability() + "\t" + matrix.GetIntensity(cellcol[f], f) + "\t" + matrix.GetCorr(cellcol[f], f) + "\t" + matrix.GetPPM(cellcol[f], f) + "\t");
+                        } else if (cellfrag[f] != null) {
+                            fragWriter.write(peps[f].PeakRT + "\t" + peps[f].MaxProbability + "\t" + peps[f].TargetedProbability() + "\t" + cellfrag[f].intensity + "\t" + cellfrag[f].corr + "\t" + cellfrag[f].ppm + "\t");
+                        } else {
+                            fragWriter.write("\t\t\t\t\t\t");
+                        }
+                    }
+                    fragWriter.write("\n");
                 }
             }
         }
+        fragWriter.close();
 
+        ////PepSummary///////////////////////////////////
         pepWriter.write("Peptide Key\tSequence\tModSeq\tProteins\tmz\tCharge\tMaxProb\t");
 
         for (LCMSID IDSummary : FileList) {
@@ -173,13 +218,13 @@ public class ExportTable {
         }
         pepWriter.write("\n");
 
-        for (String key : IdentifiedPepMap) {
-            pepWriter.write(key + "\t");
+        for (int row = 0; row < matrix.GetRowCount(); row++) {
+            pepWriter.write(matrix.GetRowKey(row) + "\t");
             float maxprob = 0f;
             boolean output = false;
-            for (LCMSID IDSummary : FileList) {
-                if (IDSummary.GetPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetPepIonList().get(key);                    
+            for (int f = 0; f < NoFiles; f++) {
+                PepIonID peptide = matrix.GetIdentifiedPep(row, f);
+                if (peptide != null) {
                     if (!output) {
                         pepWriter.write(peptide.Sequence + "\t" + peptide.ModSequence + "\t" + peptide.ParentProteins() + "\t" + peptide.ObservedMz+ "\t" + peptide.Charge + "\t");
                         output = true;
@@ -188,8 +233,8 @@ public class ExportTable {
                         maxprob = peptide.MaxProbability;
                     }
                 }
-                if (IDSummary.GetMappedPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetMappedPepIonList().get(key);
+                peptide = matrix.GetMappedPep(row, f);
+                if (peptide != null) {
                     if (!output) {
                         pepWriter.write(peptide.Sequence + "\t" + peptide.ModSequence + "\t" + peptide.ParentProteins() + "\t" + peptide.ObservedMz + "\t" + peptide.Charge + "\t");
                         output = true;
@@ -200,13 +245,13 @@ public class ExportTable {
                 }
             }
             pepWriter.write(maxprob + "\t");
-            for (LCMSID IDSummary : FileList) {
-                if (IDSummary.GetPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetPepIonList().get(key);
-                    pepWriter.write(peptide.MaxProbability + "\t-1\t" + peptide.GetSpectralCount() + "\t" + peptide.PeakRT + "\t" + peptide.PeakHeight[0] + "\t" + peptide.GetPepAbundanceByTopCorrFragAcrossSample(fragselection.TopFrags.get(peptide.GetKey())) + "\t");
-                } else if (IDSummary.GetMappedPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetMappedPepIonList().get(key);
-                    pepWriter.write("-1\t" + peptide.TargetedProbability() + "\t" + peptide.GetSpectralCount() + "\t" + peptide.PeakRT + "\t" + peptide.PeakHeight[0] + "\t" + peptide.GetPepAbundanceByTopCorrFragAcrossSample(fragselection.TopFrags.get(peptide.GetKey())) + "\t");
+            for (int f = 0; f < NoFiles; f++) {
+                if (matrix.GetIdentifiedPep(row, f) != null) {
+                    PepIonID peptide = matrix.GetIdentifiedPep(row, f);
+                    pepWriter.write(peptide.MaxProbability + "\t-1\t" + peptide.GetSpectralCount() + "\t" + peptide.PeakRT + "\t" + peptide.PeakHeight[0] + "\t" + fragselection.GetPepAbundance(peptide, f) + "\t");
+                } else if (matrix.GetMappedPep(row, f) != null) {
+                    PepIonID peptide = matrix.GetMappedPep(row, f);
+                    pepWriter.write("-1\t" + peptide.TargetedProbability() + "\t" + peptide.GetSpectralCount() + "\t" + peptide.PeakRT + "\t" + peptide.PeakHeight[0] + "\t" + fragselection.GetPepAbundance(peptide, f) + "\t");
                 } else {
                     pepWriter.write("\t\t\t\t\t\t");
                 }
@@ -216,6 +261,16 @@ public class ExportTable {
         pepWriter.close();
     }
 
+    //Whether the ion type of the column was already written with an earlier column of the row
+    private boolean IonTypeListed(PepFragMatrix matrix, int row, int col) {
+        for (int c = matrix.GetFragStart(row); c < col; c++) {
+            if (matrix.GetIonType(col).equals(matrix.GetIonType(c))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void PeptideLevelExport(int TopNPep, int TopNFrag, float Freq) throws IOException {
         FileWriter pepWriter = new FileWriter(WorkFolder + "PeptideSummary_" + DateTimeTag.GetTag() + ".xls");
         FileWriter NOWriter = new FileWriter(WorkFolder + "IDNoSummary_" + DateTimeTag.GetTag() + ".xls");
@@ -288,13 +343,21 @@ public class ExportTable {
         }
         pepWriter.write("\n");
 
+        ArrayList<TIntObjectHashMap<PepIonID>> PepIonIndex = new ArrayList<>(FileList.size());
+        ArrayList<TIntObjectHashMap<PepIonID>> MappedPepIonIndex = new ArrayList<>(FileList.size());
+        for (LCMSID IDSummary : FileList) {
+            PepIonIndex.add(IDSummary.GetPepIonKeyIndex());
+            MappedPepIonIndex.add(IDSummary.GetMappedPepIonKeyIndex());
+        }
+
         for (String key : IdentifiedPepMap) {
             pepWriter.write(key + "\t");
+            int pepkeyid = IDKeyPool.PepIon.GetID(key);
             float maxprob = 0f;
             boolean output = false;
-            for (LCMSID IDSummary : FileList) {
-                if (IDSummary.GetPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetPepIonList().get(key);
+            for (int f = 0; f < FileList.size(); f++) {
+                PepIonID peptide = PepIonIndex.get(f).get(pepkeyid);
+                if (peptide != null) {
                     if (!output) {
                         pepWriter.write(peptide.Sequence + "\t" + peptide.ModSequence + "\t" + peptide.ObservedMz + "\t" + peptide.Charge + "\t");
                         output = true;
@@ -303,8 +366,8 @@ public class ExportTable {
                         maxprob = peptide.MaxProbability;
                     }
                 }
-                if (IDSummary.GetMappedPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetMappedPepIonList().get(key);
+                peptide = MappedPepIonIndex.get(f).get(pepkeyid);
+                if (peptide != null) {
                     if (!output) {
                         pepWriter.write(peptide.Sequence + "\t" + peptide.ModSequence + "\t" + peptide.ParentProteins() + "\t" + peptide.ObservedMz + "\t" + peptide.Charge + "\t");
                         output = true;
@@ -315,21 +378,21 @@ public class ExportTable {
                 }
             }
             pepWriter.write(maxprob + "\t");
-            for (LCMSID IDSummary : FileList) {
-                if (IDSummary.GetPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetPepIonList().get(key);
+            for (int f = 0; f < FileList.size(); f++) {
+                PepIonID peptide = PepIonIndex.get(f).get(pepkeyid);
+                PepIonID mappedpeptide = MappedPepIonIndex.get(f).get(pepkeyid);
+                if (peptide != null) {
                     float pepabun=0f;
                     if (fragselection != null) {
                         pepabun=peptide.GetPepAbundanceByTopCorrFragAcrossSample(fragselection.TopFrags.get(peptide.GetKey()));
                     }
                     pepWriter.write(peptide.MaxProbability + "\t-1\t" + peptide.GetSpectralCount() + "\t" + peptide.PeakRT + "\t" + peptide.PeakHeight[0] + "\t" + pepabun + "\t");
-                } else if (IDSummary.GetMappedPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetMappedPepIonList().get(key);
+                } else if (mappedpeptide != null) {
                     float pepabun=0f;
                     if (fragselection != null) {
-                        pepabun=peptide.GetPepAbundanceByTopCorrFragAcrossSample(fragselection.TopFrags.get(peptide.GetKey()));
+                        pepabun=mappedpeptide.GetPepAbundanceByTopCorrFragAcrossSample(fragselection.TopFrags.get(mappedpeptide.GetKey()));
                     }
-                    pepWriter.write("-1\t" + peptide.TargetedProbability() + "\t" + peptide.GetSpectralCount() + "\t" + peptide.PeakRT + "\t" + peptide.PeakHeight[0] + "\t" + pepabun+ "\t");
+                    pepWriter.write("-1\t" + mappedpeptide.TargetedProbability() + "\t" + mappedpeptide.GetSpectralCount() + "\t" + mappedpeptide.PeakRT + "\t" + mappedpeptide.PeakHeight[0] + "\t" + pepabun+ "\t");
                 } else {
                     pepWriter.write("\t\t\t\t\t\t");
                 }
@@ -380,13 +443,19 @@ public class ExportTable {
         }
         pepWriter.write("\n");
 
+        ArrayList<TIntObjectHashMap<PepIonID>> PepIonIndex = new ArrayList<>(FileList.size());
+        for (LCMSID IDSummary : FileList) {
+            PepIonIndex.add(IDSummary.GetPepIonKeyIndex());
+        }
+
         for (String key : IdentifiedPepMap) {
             pepWriter.write(key + "\t");
+            int pepkeyid = IDKeyPool.PepIon.GetID(key);
             float maxprob = 0f;
             boolean output = false;
-            for (LCMSID IDSummary : FileList) {
-                if (IDSummary.GetPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetPepIonList().get(key);
+            for (TIntObjectHashMap<PepIonID> index : PepIonIndex) {
+                PepIonID peptide = index.get(pepkeyid);
+                if (peptide != null) {
                     if (!output) {
                         pepWriter.write(peptide.Sequence + "\t" + peptide.ModSequence + "\t" + peptide.ParentProteins() + "\t" + peptide.ObservedMz + "\t" + peptide.Charge + "\t");
                         output = true;
@@ -397,9 +466,9 @@ public class ExportTable {
                 }
             }
             pepWriter.write(maxprob + "\t");
-            for (LCMSID IDSummary : FileList) {
-                if (IDSummary.GetPepIonList().containsKey(key)) {
-                    PepIonID peptide = IDSummary.GetPepIonList().get(key);
+            for (TIntObjectHashMap<PepIonID> index : PepIonIndex) {
+                PepIonID peptide = index.get(pepkeyid);
+                if (peptide != null) {
                     pepWriter.write(peptide.PeakRT + "\t" + peptide.GetTotalPeakHeight() + "\t");
                 } else {
                     pepWriter.write("\t\t");
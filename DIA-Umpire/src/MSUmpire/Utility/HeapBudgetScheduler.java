@@ -0,0 +1,82 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.Utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a list of items on the shared worker pool, as many at the same time as
+ * their estimated heap sizes fit in a budget. An item larger than the budget is
+ * only started when nothing else is running. Finished items are handed back in
+ * list order, so results which have to be written in order can be written by
+ * the calling thread while later items are still running.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ * @param <T> item to process
+ * @param <R> task submitted for an item
+ */
+public abstract class HeapBudgetScheduler<T, R extends Runnable> {
+
+    //Estimated heap size (bytes) which processing the item takes
+    protected abstract long EstimateHeapSize(T item) throws Exception;
+
+    //Create the task of the item, HeapInUse is the estimated heap size of the running items
+    protected abstract R Start(T item, long HeapSize, long HeapInUse) throws Exception;
+
+    //Called by the scheduling thread for each finished task, in list order
+    protected abstract void Finish(T item, R task) throws Exception;
+
+    public void Run(List<T> Items, int NoThreads, long HeapBudget) throws Exception {
+        NoThreads = Math.max(1, Math.min(NoThreads, Items.size()));
+        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoThreads);
+        ArrayList<R> Running = new ArrayList<>();
+        ArrayList<Future<?>> RunningFutures = new ArrayList<>();
+        ArrayList<Long> RunningHeapSizes = new ArrayList<>();
+        long HeapInUse = 0;
+        int next = 0;
+        try {
+            while (next < Items.size() || !Running.isEmpty()) {
+                //Start the next item if it fits in the budget
+                if (next < Items.size() && Running.size() < NoThreads) {
+                    T item = Items.get(next);
+                    long HeapSize = EstimateHeapSize(item);
+                    if (Running.isEmpty() || HeapInUse + HeapSize <= HeapBudget) {
+                        R task = Start(item, HeapSize, HeapInUse);
+                        Running.add(task);
+                        RunningFutures.add(taskGroup.Submit(task));
+                        RunningHeapSizes.add(HeapSize);
+                        HeapInUse += HeapSize;
+                        next++;
+                        continue;
+                    }
+                }
+                //Otherwise wait for the earliest item
+                taskGroup.Await(RunningFutures.remove(0));
+                T item = Items.get(next - Running.size());
+                R task = Running.remove(0);
+                HeapInUse -= RunningHeapSizes.remove(0);
+                Finish(item, task);
+            }
+        } finally {
+            taskGroup.Cancel();
+        }
+    }
+}
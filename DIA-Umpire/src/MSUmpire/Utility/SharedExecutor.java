@@ -0,0 +1,164 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.Utility;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Application-wide worker pool shared by all processing phases.
+ * A phase submits its tasks through a TaskGroup and waits for them with Await() 
+ * instead of creating and draining its own thread pool.
+ * The threads of a group waiting for its tasks (in Await() or because too many 
+ * tasks are pending) run the tasks which haven't been started yet, so a producer 
+ * can't get far ahead of the workers and a task can wait for a nested group 
+ * without tying up the pool.
+ * A failed task cancels the rest of its group and its exception is rethrown 
+ * to the thread waiting for the group, unless the group was created with 
+ * NewBestEffortTaskGroup, which only logs the failed tasks.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class SharedExecutor {
+
+    //Pending tasks per thread of a group before the producer has to help
+    private static final int PENDING_PER_THREAD = 16;
+    private static final int QUEUE_SIZE = 4096;
+    private static ThreadPoolExecutor Pool;
+
+    //The pool grows to the largest number of threads requested so far
+    private static synchronized ThreadPoolExecutor GetPool(int NoThreads) {
+        NoThreads = Math.max(1, NoThreads);
+        if (Pool == null) {
+            final AtomicInteger count = new AtomicInteger();
+            Pool = new ThreadPoolExecutor(NoThreads, NoThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "DIA-Umpire-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+            Pool.allowCoreThreadTimeOut(true);
+        } else if (NoThreads > Pool.getMaximumPoolSize()) {
+            Pool.setMaximumPoolSize(NoThreads);
+            Pool.setCorePoolSize(NoThreads);
+        }
+        return Pool;
+    }
+
+    public static TaskGroup NewTaskGroup(int NoThreads) {
+        return new TaskGroup(GetPool(NoThreads), NoThreads, false);
+    }
+
+    //Tasks of the group are independent, a failed task is logged and the others still run
+    public static TaskGroup NewBestEffortTaskGroup(int NoThreads) {
+        return new TaskGroup(GetPool(NoThreads), NoThreads, true);
+    }
+
+    /**
+     * Tasks of a processing phase, not thread-safe: tasks are added and awaited 
+     * by the thread running the phase
+     */
+    public static class TaskGroup {
+
+        private final ThreadPoolExecutor pool;
+        private final int MaxPending;
+        private final boolean BestEffort;
+        private final ArrayDeque<FutureTask<?>> Tasks = new ArrayDeque<>();
+
+        private TaskGroup(ThreadPoolExecutor pool, int NoThreads, boolean BestEffort) {
+            this.pool = pool;
+            this.MaxPending = Math.max(1, NoThreads) * PENDING_PER_THREAD;
+            this.BestEffort = BestEffort;
+        }
+
+        public void Execute(Runnable task) {
+            Submit(task);
+        }
+
+        public Future<?> Submit(Runnable task) {
+            while (Tasks.size() >= MaxPending) {
+                Complete(Tasks.pollFirst());
+            }
+            FutureTask<Object> future = new FutureTask<>(task, null);
+            Tasks.addLast(future);
+            pool.execute(future);
+            return future;
+        }
+
+        //Wait for all tasks of the group, running the ones that haven't been started
+        public void Await() {
+            while (!Tasks.isEmpty()) {
+                Complete(Tasks.pollFirst());
+            }
+        }
+
+        //Wait for one task of the group, running it if it hasn't been started
+        public void Await(Future<?> task) {
+            if (Tasks.remove(task)) {
+                Complete((FutureTask<?>) task);
+            }
+        }
+
+        //Cancel the tasks which haven't been started and interrupt the running ones
+        public void Cancel() {
+            for (FutureTask<?> future : Tasks) {
+                future.cancel(true);
+            }
+            Tasks.clear();
+        }
+
+        private void Complete(FutureTask<?> future) {
+            //No-op if the task has been started by another thread
+            future.run();
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                Logger.getRootLogger().info("interrupted..");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (BestEffort) {
+                    Logger.getRootLogger().error(ExceptionUtils.getStackTrace(cause));
+                    return;
+                }
+                Cancel();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            } catch (CancellationException ex) {
+            }
+        }
+    }
+}
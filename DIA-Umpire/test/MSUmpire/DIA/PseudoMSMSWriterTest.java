@@ -0,0 +1,114 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.DIA;
+
+import MSUmpire.BaseDataStructure.XYPointCollection;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * MGF text of the pseudo MS/MS writer, its float formatting has to give the 
+ * same text as Float.toString
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class PseudoMSMSWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //MGF text of a spectrum as it was written with a StringBuilder and Float.toString
+    private static void AppendExpected(StringBuilder sb, String QName, int ScanNo, float PepMass, int Charge, float RT, XYPointCollection Scan) {
+        sb.append("BEGIN IONS\nPEPMASS=").append(PepMass).append("\nCHARGE=").append(Charge).append("+\nRTINSECONDS=").append(RT).append("\n");
+        sb.append("TITLE=").append(QName).append(".").append(ScanNo).append(".").append(ScanNo).append(".").append(Charge).append("\n");
+        for (int i = 0; i < Scan.PointCount(); i++) {
+            sb.append(Scan.Data.GetX(i)).append(" ").append(Scan.Data.GetY(i)).append("\n");
+        }
+        sb.append("END IONS\n\n");
+    }
+
+    private String Read(String path) throws IOException {
+        return new String(Files.readAllBytes(new File(path).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private void AssertSameText(float[] values) throws IOException {
+        String Filename = new File(folder.getRoot(), "test.mzXML").getAbsolutePath();
+        PseudoMSMSWriter writer = new PseudoMSMSWriter(Filename);
+        StringBuilder expected = new StringBuilder();
+        StringBuilder mapping = new StringBuilder();
+        int ScanNo = 0;
+        for (int start = 0; start < values.length; start += 500) {
+            XYPointCollection Scan = new XYPointCollection();
+            for (int i = start; i < Math.min(start + 500, values.length); i++) {
+                //m/z has to be positive to keep the point order, the value is also written as intensity
+                Scan.AddPoint(100f + i, values[i]);
+            }
+            ScanNo++;
+            float PepMass = values[start];
+            float RT = Math.abs(values[values.length - 1 - start]);
+            writer.Write(1, ScanNo, PepMass, 2, RT, Scan, ScanNo + "_" + start);
+            AppendExpected(expected, "test_Q1", ScanNo, PepMass, 2, RT, Scan);
+            mapping.append(ScanNo).append("_").append(start).append("\n");
+        }
+        writer.Close();
+        assertEquals(expected.toString(), Read(new File(folder.getRoot(), "test_Q1.mgf.temp").getAbsolutePath()));
+        assertEquals(mapping.toString(), Read(new File(folder.getRoot(), "test.ScanClusterMapping_Q1").getAbsolutePath()));
+        assertEquals("", Read(new File(folder.getRoot(), "test_Q2.mgf.temp").getAbsolutePath()));
+    }
+
+    @Test
+    public void BoundaryValues() throws IOException {
+        AssertSameText(new float[]{0f, -0f, 1f, -1.5f, 0.1f, 0.001f, 0.0011f, 9.999999E-4f, 1e-4f, 1.4E-45f,
+            9999999f, 9999998.5f, 1e7f, 1.2345678E8f, Float.MAX_VALUE, 123.456f, 0.3f, 2f / 3f,
+            500.27356f, 1234567.9f, 16777216f, 8388608.5f, 0.0999999f, 99.99999f, 100f,
+            Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY});
+    }
+
+    @Test
+    public void RandomValuesInMGFRange() throws IOException {
+        Random random = new Random(17);
+        float[] values = new float[100000];
+        for (int i = 0; i < values.length; i++) {
+            //uniform over the bit patterns of [1e-3, 1e7), so every exponent is covered
+            float value;
+            do {
+                value = Float.intBitsToFloat(random.nextInt(Float.floatToIntBits(1e7f)));
+            } while (value < 1e-3f);
+            values[i] = value;
+        }
+        AssertSameText(values);
+    }
+
+    @Test
+    public void RandomMzAndIntensity() throws IOException {
+        Random random = new Random(3);
+        float[] values = new float[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 2 == 0 ? 100f + random.nextFloat() * 1900f : (float) Math.exp(random.nextDouble() * 14d);
+        }
+        AssertSameText(values);
+    }
+}
@@ -0,0 +1,170 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PeakDataStructure;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Round trip of the memory-mapped precursor-fragment edge store
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class FragmentEdgeStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PrecursorFragmentPairEdge NewEdge(int a, int b) {
+        PrecursorFragmentPairEdge edge = new PrecursorFragmentPairEdge();
+        edge.PeakCurveIndexA = a;
+        edge.PeakCurveIndexB = b;
+        edge.FragmentMS1Rank = b % 5;
+        edge.Correlation = 0.5f + b * 0.001f;
+        edge.FragmentMz = 200f + b * 1.5f;
+        edge.Intensity = 1000f * b;
+        edge.ApexDelta = 0.01f * b;
+        edge.RTOverlapP = 0.8f;
+        edge.FragmentMS1RankScore = 1f / (b + 1);
+        edge.AdjustedFragInt = 500f + b;
+        edge.MatchedFragMz = 199.75f + b;
+        edge.ComplementaryFragment = b % 2 == 1;
+        return edge;
+    }
+
+    private static HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> NewMap() {
+        HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> map = new HashMap<>();
+        for (int key : new int[]{42, 7, 1000, 3}) {
+            ArrayList<PrecursorFragmentPairEdge> edges = new ArrayList<>();
+            for (int i = 0; i < key % 6; i++) {
+                edges.add(NewEdge(key, key * 10 + i));
+            }
+            map.put(key, edges);
+        }
+        return map;
+    }
+
+    private static void AssertEdgeEquals(PrecursorFragmentPairEdge expected, PrecursorFragmentPairEdge actual) {
+        assertEquals(expected.PeakCurveIndexA, actual.PeakCurveIndexA);
+        assertEquals(expected.PeakCurveIndexB, actual.PeakCurveIndexB);
+        assertEquals(expected.FragmentMS1Rank, actual.FragmentMS1Rank);
+        assertEquals(expected.Correlation, actual.Correlation, 0f);
+        assertEquals(expected.FragmentMz, actual.FragmentMz, 0f);
+        assertEquals(expected.Intensity, actual.Intensity, 0f);
+        assertEquals(expected.ApexDelta, actual.ApexDelta, 0f);
+        assertEquals(expected.RTOverlapP, actual.RTOverlapP, 0f);
+        assertEquals(expected.FragmentMS1RankScore, actual.FragmentMS1RankScore, 0f);
+        assertEquals(expected.AdjustedFragInt, actual.AdjustedFragInt, 0f);
+        assertEquals(expected.MatchedFragMz, actual.MatchedFragMz, 0f);
+        assertEquals(expected.ComplementaryFragment, actual.ComplementaryFragment);
+    }
+
+    private static void AssertMapEquals(Map<Integer, ArrayList<PrecursorFragmentPairEdge>> expected, Map<Integer, ArrayList<PrecursorFragmentPairEdge>> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<Integer, ArrayList<PrecursorFragmentPairEdge>> entry : expected.entrySet()) {
+            ArrayList<PrecursorFragmentPairEdge> edges = actual.get(entry.getKey());
+            assertEquals(entry.getValue().size(), edges.size());
+            for (int i = 0; i < edges.size(); i++) {
+                AssertEdgeEquals(entry.getValue().get(i), edges.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void RoundTrip() throws IOException {
+        HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> map = NewMap();
+        String path = new File(folder.getRoot(), "test_Clus2Cur.serFS").getAbsolutePath();
+        FragmentEdgeStore.Write(map, path);
+        assertTrue(FragmentEdgeStore.IsEdgeStoreFile(path));
+        FragmentEdgeStore store = FragmentEdgeStore.Open(path);
+        AssertMapEquals(map, store);
+        assertTrue(store.containsKey(42));
+        assertFalse(store.containsKey(43));
+        assertNull(store.get(43));
+        //a decoded row is returned again
+        assertSame(store.get(7), store.get(7));
+        //rows are iterated in key order
+        int last = Integer.MIN_VALUE;
+        for (int key : store.keySet()) {
+            assertTrue(key > last);
+            last = key;
+        }
+        store.Close();
+    }
+
+    @Test
+    public void NullAndEmptyMaps() throws IOException {
+        String nullpath = new File(folder.getRoot(), "null.serFS").getAbsolutePath();
+        FragmentEdgeStore.Write(null, nullpath);
+        assertNull(FragmentEdgeStore.Open(nullpath));
+
+        String emptypath = new File(folder.getRoot(), "empty.serFS").getAbsolutePath();
+        FragmentEdgeStore.Write(new HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>>(), emptypath);
+        FragmentEdgeStore store = FragmentEdgeStore.Open(emptypath);
+        assertTrue(store.isEmpty());
+        store.Close();
+    }
+
+    @Test
+    public void RewriteAfterClose() throws IOException {
+        String path = new File(folder.getRoot(), "rewrite.serFS").getAbsolutePath();
+        FragmentEdgeStore.Write(NewMap(), path);
+        FragmentEdgeStore store = FragmentEdgeStore.Open(path);
+        store.get(42);
+        store.Close();
+        try {
+            store.get(42);
+            fail("A closed store must not be read");
+        } catch (IllegalStateException ex) {
+        }
+
+        HashMap<Integer, ArrayList<PrecursorFragmentPairEdge>> map = new HashMap<>();
+        ArrayList<PrecursorFragmentPairEdge> edges = new ArrayList<>();
+        edges.add(NewEdge(5, 6));
+        map.put(5, edges);
+        FragmentEdgeStore.Write(map, path);
+        assertFalse(new File(path + ".tmp").exists());
+        store = FragmentEdgeStore.Open(path);
+        AssertMapEquals(map, store);
+        store.Close();
+    }
+
+    @Test
+    public void NonStoreFileIsDetected() throws IOException {
+        File file = folder.newFile("legacy.serFS");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[128]);
+        }
+        assertFalse(FragmentEdgeStore.IsEdgeStoreFile(file.getAbsolutePath()));
+        try {
+            FragmentEdgeStore.Open(file.getAbsolutePath());
+            fail("A file without the edge store header must not be opened");
+        } catch (IOException ex) {
+        }
+    }
+}
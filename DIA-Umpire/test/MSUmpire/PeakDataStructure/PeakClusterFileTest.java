@@ -0,0 +1,202 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.PeakDataStructure;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.XYZData;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Round trip of the columnar PeakCluster file
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class PeakClusterFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final InstrumentParameter parameter = new InstrumentParameter(InstrumentParameter.InstrumentType.TOF5600);
+
+    private PeakCurve NewCurve(int Index, float mz, float rt, boolean finalized) {
+        PeakCurve curve = new PeakCurve(parameter);
+        curve.Index = Index;
+        curve.StartScan = Index * 10;
+        curve.EndScan = Index * 10 + 5;
+        curve.TargetMz = mz;
+        curve.ApexRT = rt;
+        curve.ApexInt = 1000f + Index;
+        curve.MzVar = 0.5f;
+        curve._snr = 3.5f;
+        curve.Grouped = Index % 2 == 0;
+        for (int i = 0; i < 5; i++) {
+            curve.PeakList.add(new XYZData(rt + i * 0.01f, mz + i * 0.0001f, 100f * (i + 1)));
+            curve.SmoothData.AddPoint(rt + i * 0.01f, 90f * (i + 1));
+        }
+        curve.SmoothData.MaxY = 450f;
+        if (finalized) {
+            curve.SmoothData.Data.Finalize();
+        }
+        return curve;
+    }
+
+    private PeakCluster NewCluster(int Index, int Charge, PeakCurve mono) {
+        PeakCluster cluster = new PeakCluster(3, Charge);
+        cluster.Index = Index;
+        cluster.MonoIsotopePeak = mono;
+        cluster.NoRidges = 2;
+        cluster.Identified = Index == 1;
+        cluster.startRT = 10.5f;
+        cluster.endRT = 11.25f;
+        cluster.MS1Score = 0.75f;
+        cluster.RTVar = 0.01f;
+        cluster.mz = new float[]{mono.TargetMz, mono.TargetMz + 1.00335f / Charge, mono.TargetMz + 2.0067f / Charge};
+        cluster.PeakHeight = new float[]{1000f, 600f, 200f};
+        cluster.PeakDis = null;
+        cluster.IsoPeakIndex = new int[]{mono.Index, 7, 8};
+        cluster.AssignedPepIon = Index == 1 ? "PEPTIDE_2" : null;
+        return cluster;
+    }
+
+    private static void AssertCurveEquals(PeakCurve expected, PeakCurve actual) {
+        assertEquals(expected.Index, actual.Index);
+        assertEquals(expected.StartScan, actual.StartScan);
+        assertEquals(expected.EndScan, actual.EndScan);
+        assertEquals(expected.Grouped, actual.Grouped);
+        assertEquals(expected.TargetMz, actual.TargetMz, 0f);
+        assertEquals(expected.ApexRT, actual.ApexRT, 0f);
+        assertEquals(expected.ApexInt, actual.ApexInt, 0f);
+        assertEquals(expected.MzVar, actual.MzVar, 0f);
+        assertEquals(expected._snr, actual._snr, 0f);
+        assertEquals(expected.SmoothData.MaxY, actual.SmoothData.MaxY, 0f);
+        assertEquals(expected.SmoothData.Data.IsFinalized(), actual.SmoothData.Data.IsFinalized());
+        assertEquals(expected.SmoothData.PointCount(), actual.SmoothData.PointCount());
+        for (int i = 0; i < expected.SmoothData.PointCount(); i++) {
+            assertEquals(expected.SmoothData.Data.GetX(i), actual.SmoothData.Data.GetX(i), 0f);
+            assertEquals(expected.SmoothData.Data.GetY(i), actual.SmoothData.Data.GetY(i), 0f);
+        }
+        assertEquals(expected.PeakList.size(), actual.PeakList.size());
+        for (int i = 0; i < expected.PeakList.size(); i++) {
+            assertEquals(expected.PeakList.get(i).getX(), actual.PeakList.get(i).getX(), 0f);
+            assertEquals(expected.PeakList.get(i).getY(), actual.PeakList.get(i).getY(), 0f);
+            assertEquals(expected.PeakList.get(i).getZ(), actual.PeakList.get(i).getZ(), 0f);
+        }
+    }
+
+    @Test
+    public void ClusterRoundTrip() throws IOException {
+        PeakCurve shared = NewCurve(2, 500.25f, 10.75f, true);
+        PeakCurve other = NewCurve(3, 650.5f, 20.5f, false);
+        ArrayList<PeakCluster> clusters = new ArrayList<>();
+        clusters.add(NewCluster(1, 2, shared));
+        clusters.add(NewCluster(2, 3, shared));
+        clusters.add(NewCluster(3, 2, other));
+        PrecursorFragmentPairEdge fragment = new PrecursorFragmentPairEdge();
+        fragment.PeakCurveIndexA = 1;
+        fragment.PeakCurveIndexB = 42;
+        fragment.Correlation = 0.9f;
+        fragment.FragmentMz = 300.125f;
+        fragment.Intensity = 55f;
+        fragment.FragmentMS1Rank = 2;
+        fragment.ComplementaryFragment = true;
+        clusters.get(0).GroupedFragmentPeaks.add(fragment);
+        clusters.get(2).GroupedFragmentPeaks = null;
+
+        String path = new File(folder.getRoot(), "test_PeakCluster.serFS").getAbsolutePath();
+        PeakClusterFile.Write(clusters, path);
+        assertTrue(PeakClusterFile.IsColumnarFile(path));
+        ArrayList<PeakCluster> read = PeakClusterFile.Read(path, parameter);
+
+        assertEquals(clusters.size(), read.size());
+        for (int i = 0; i < clusters.size(); i++) {
+            PeakCluster expected = clusters.get(i);
+            PeakCluster actual = read.get(i);
+            assertEquals(expected.Index, actual.Index);
+            assertEquals(expected.Charge, actual.Charge);
+            assertEquals(expected.NoRidges, actual.NoRidges);
+            assertEquals(expected.Identified, actual.Identified);
+            assertEquals(expected.startRT, actual.startRT, 0f);
+            assertEquals(expected.endRT, actual.endRT, 0f);
+            assertEquals(expected.MS1Score, actual.MS1Score, 0f);
+            assertEquals(expected.RTVar, actual.RTVar, 0f);
+            assertArrayEquals(expected.mz, actual.mz, 0f);
+            assertArrayEquals(expected.PeakHeight, actual.PeakHeight, 0f);
+            assertArrayEquals(expected.SNR, actual.SNR, 0f);
+            assertArrayEquals(expected.IsoPeakIndex, actual.IsoPeakIndex);
+            assertNull(actual.PeakDis);
+            assertEquals(expected.AssignedPepIon, actual.AssignedPepIon);
+            AssertCurveEquals(expected.MonoIsotopePeak, actual.MonoIsotopePeak);
+        }
+        //A curve shared by several clusters is read back as one object
+        assertSame(read.get(0).MonoIsotopePeak, read.get(1).MonoIsotopePeak);
+        assertNotSame(read.get(0).MonoIsotopePeak, read.get(2).MonoIsotopePeak);
+
+        assertEquals(1, read.get(0).GroupedFragmentPeaks.size());
+        assertTrue(read.get(1).GroupedFragmentPeaks.isEmpty());
+        assertNull(read.get(2).GroupedFragmentPeaks);
+        PrecursorFragmentPairEdge readfragment = read.get(0).GroupedFragmentPeaks.get(0);
+        assertEquals(fragment.PeakCurveIndexA, readfragment.PeakCurveIndexA);
+        assertEquals(fragment.PeakCurveIndexB, readfragment.PeakCurveIndexB);
+        assertEquals(fragment.Correlation, readfragment.Correlation, 0f);
+        assertEquals(fragment.FragmentMz, readfragment.FragmentMz, 0f);
+        assertEquals(fragment.Intensity, readfragment.Intensity, 0f);
+        assertEquals(fragment.FragmentMS1Rank, readfragment.FragmentMS1Rank);
+        assertTrue(readfragment.ComplementaryFragment);
+    }
+
+    @Test
+    public void CurveListRoundTrip() throws IOException {
+        PeakCurve listed = NewCurve(5, 400.5f, 5.5f, true);
+        PeakCurve mono = NewCurve(6, 700.75f, 30.25f, true);
+        ArrayList<PeakCurve> curves = new ArrayList<>();
+        curves.add(listed);
+        curves.add(mono);
+        ArrayList<PeakCluster> clusters = new ArrayList<>();
+        clusters.add(NewCluster(1, 2, mono));
+
+        String path = new File(folder.getRoot(), "test_curves.serFS").getAbsolutePath();
+        PeakClusterFile.Write(clusters, curves, path);
+        ArrayList<PeakCurve> readcurves = new ArrayList<>();
+        ArrayList<PeakCluster> read = PeakClusterFile.Read(path, parameter, readcurves);
+
+        assertEquals(2, readcurves.size());
+        AssertCurveEquals(listed, readcurves.get(0));
+        AssertCurveEquals(mono, readcurves.get(1));
+        assertSame(readcurves.get(1), read.get(0).MonoIsotopePeak);
+    }
+
+    @Test
+    public void EmptyListRoundTrip() throws IOException {
+        String path = new File(folder.getRoot(), "empty.serFS").getAbsolutePath();
+        PeakClusterFile.Write(new ArrayList<PeakCluster>(), path);
+        assertTrue(PeakClusterFile.Read(path, parameter).isEmpty());
+    }
+
+    @Test
+    public void NonColumnarFileIsDetected() throws IOException {
+        File file = folder.newFile("legacy.serFS");
+        assertFalse(PeakClusterFile.IsColumnarFile(file.getAbsolutePath()));
+    }
+}
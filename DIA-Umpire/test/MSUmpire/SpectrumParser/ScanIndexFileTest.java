@@ -0,0 +1,213 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.SpectrumParser;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScanCollection;
+import MSUmpire.BaseDataStructure.ScanData;
+import MSUmpire.BaseDataStructure.SpectralDataType;
+import MSUmpire.BaseDataStructure.XYData;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Round trip of the scan index sidecar: index, DIA windows and cached peak blocks
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class ScanIndexFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //Parser without a spectral file behind it, only its maps are written and read
+    private static class IndexOnlyParser extends SpectrumParserBase {
+
+        IndexOnlyParser(String filename, SpectralDataType.DataType datatype, DIA_Setting dIA_Setting) {
+            super(filename, new InstrumentParameter(InstrumentParameter.InstrumentType.TOF5600), datatype, dIA_Setting, 1);
+        }
+
+        void AddScan(int ScanNo, int MsLevel, float RT) {
+            MsLevelList.put(ScanNo, MsLevel);
+            ScanToElutionTime.put(ScanNo, RT);
+            ElutionTimeToScanNoMap.put(RT, ScanNo);
+        }
+
+        @Override
+        public ScanCollection GetScanDIAMS2(XYData DIAWindow, boolean IncludePeak, float startRT, float endRT) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScanCollection GetAllScanCollectionByMSLabel(boolean MS1Included, boolean MS2Included, boolean MS1Peak, boolean MS2Peak, float startTime, float endTime) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ScanCollection GetScanCollectionMS1Window(XYData MS1Window, boolean IncludePeak, float startTime, float endTime) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private String NewSpectralFile() throws IOException {
+        File file = folder.newFile("test.mzXML");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[1000]);
+        }
+        return file.getAbsolutePath();
+    }
+
+    private IndexOnlyParser NewDIAParser(String filename) {
+        IndexOnlyParser parser = new IndexOnlyParser(filename, SpectralDataType.DataType.DIA_F_Window, new DIA_Setting());
+        parser.AddScan(1, 1, 0.01f);
+        parser.AddScan(2, 2, 0.02f);
+        parser.AddScan(3, 2, 0.03f);
+        parser.AddScan(5, 1, 0.05f);
+        parser.dIA_Setting.DIAWindows.put(new XYData(400f, 425f), new ArrayList<>(Arrays.asList(2)));
+        parser.dIA_Setting.DIAWindows.put(new XYData(425f, 450f), new ArrayList<>(Arrays.asList(3)));
+        return parser;
+    }
+
+    @Test
+    public void IndexRoundTrip() throws IOException {
+        String filename = NewSpectralFile();
+        IndexOnlyParser parser = NewDIAParser(filename);
+        TreeMap<Integer, Long> ScanPos = new TreeMap<>();
+        ScanPos.put(1, 100L);
+        ScanPos.put(2, 200L);
+        ScanPos.put(3, 300L);
+        ScanPos.put(5, 500L);
+        ScanPos.put(Integer.MAX_VALUE, 900L);
+        ScanIndexFile.Write(parser, ScanPos).Close();
+
+        IndexOnlyParser read = new IndexOnlyParser(filename, SpectralDataType.DataType.DIA_F_Window, new DIA_Setting());
+        TreeMap<Integer, Long> ReadPos = new TreeMap<>();
+        assertTrue(read.IndexFileRead(ReadPos));
+        read.Close();
+        assertEquals(parser.MsLevelList, read.MsLevelList);
+        assertEquals(parser.ScanToElutionTime, read.ScanToElutionTime);
+        assertEquals(parser.ElutionTimeToScanNoMap, read.ElutionTimeToScanNoMap);
+        assertEquals(ScanPos, ReadPos);
+        assertEquals(2, read.NoMS1Scans);
+        assertEquals(parser.dIA_Setting.DIAWindows.size(), read.dIA_Setting.DIAWindows.size());
+        for (Map.Entry<XYData, ArrayList<Integer>> window : parser.dIA_Setting.DIAWindows.entrySet()) {
+            ArrayList<Integer> scans = null;
+            for (Map.Entry<XYData, ArrayList<Integer>> readwindow : read.dIA_Setting.DIAWindows.entrySet()) {
+                if (readwindow.getKey().getX() == window.getKey().getX() && readwindow.getKey().getY() == window.getKey().getY()) {
+                    scans = readwindow.getValue();
+                }
+            }
+            assertEquals(window.getValue(), scans);
+        }
+    }
+
+    @Test
+    public void OutdatedIndexIsNotOpened() throws IOException {
+        String filename = NewSpectralFile();
+        ScanIndexFile.Write(NewDIAParser(filename), null).Close();
+        assertNotNull(ScanIndexFile.Open(filename));
+        try (FileOutputStream out = new FileOutputStream(filename, true)) {
+            out.write(1);
+        }
+        assertNull(ScanIndexFile.Open(filename));
+    }
+
+    @Test
+    public void PeakBlockRoundTrip() throws IOException {
+        String filename = NewSpectralFile();
+        ScanIndexFile index = ScanIndexFile.Write(NewDIAParser(filename), null);
+        index.InitializePeakCache(20000, 200f);
+
+        ScanData scan = new ScanData();
+        scan.ScanNum = 3;
+        scan.MsLevel = 2;
+        scan.PrecursorMz = 437.5f;
+        scan.PrecursorCharge = 2;
+        scan.PrecursorIntensity = 1234f;
+        scan.precursorScanNum = 1;
+        scan.windowWideness = 25f;
+        scan.StartMz = 100f;
+        scan.EndMz = 1500f;
+        scan.BasePeakMz = 300.5f;
+        scan.BasePeakIntensity = 50f;
+        scan.SetTotIonCurrent(90f);
+        scan.isolationWindowTargetMz = 437.5f;
+        scan.isolationWindowLoffset = 12.5f;
+        scan.isolationWindowRoffset = 12.5f;
+        scan.centroided = true;
+        scan.precision = 32;
+        scan.PeaksCountString = 3;
+        scan.ActivationMethod = "HCD";
+        scan.scanType = "Full";
+        scan.compressionType = null;
+        scan.MGFTitle = "scan µ3";
+        scan.AddPoint(200.1f, 10f);
+        scan.AddPoint(300.5f, 50f);
+        scan.AddPoint(400.25f, 30f);
+        index.WriteScan(scan);
+        index.Close();
+
+        index = ScanIndexFile.Open(filename);
+        assertNotNull(index);
+        assertTrue(index.HasPeaks(3, 20000, 200f));
+        assertFalse(index.HasPeaks(2, 20000, 200f));
+        assertFalse(index.HasPeaks(3, 30000, 200f));
+        ScanData read = index.ReadScan(3);
+        index.Close();
+
+        assertEquals(3, read.ScanNum);
+        assertEquals(2, read.MsLevel);
+        assertEquals(0.03f, read.RetentionTime, 0f);
+        assertEquals(scan.PrecursorMz, read.PrecursorMz, 0f);
+        assertEquals(scan.PrecursorCharge, read.PrecursorCharge);
+        assertEquals(scan.PrecursorIntensity, read.PrecursorIntensity, 0f);
+        assertEquals(scan.precursorScanNum, read.precursorScanNum);
+        assertEquals(scan.windowWideness, read.windowWideness, 0f);
+        assertEquals(scan.StartMz, read.StartMz, 0f);
+        assertEquals(scan.EndMz, read.EndMz, 0f);
+        assertEquals(scan.BasePeakMz, read.BasePeakMz, 0f);
+        assertEquals(scan.BasePeakIntensity, read.BasePeakIntensity, 0f);
+        assertEquals(scan.GetTotIonCurrentValue(), read.GetTotIonCurrentValue(), 0f);
+        assertEquals(scan.MaxY, read.MaxY, 0f);
+        assertEquals(scan.isolationWindowTargetMz, read.isolationWindowTargetMz, 0f);
+        assertEquals(scan.isolationWindowLoffset, read.isolationWindowLoffset, 0f);
+        assertEquals(scan.isolationWindowRoffset, read.isolationWindowRoffset, 0f);
+        assertTrue(read.centroided);
+        assertEquals(scan.precision, read.precision);
+        assertEquals(scan.PeaksCountString, read.PeaksCountString);
+        assertEquals("HCD", read.ActivationMethod);
+        assertEquals("Full", read.scanType);
+        assertNull(read.compressionType);
+        assertEquals(scan.MGFTitle, read.MGFTitle);
+        assertEquals(scan.PointCount(), read.PointCount());
+        for (int i = 0; i < scan.PointCount(); i++) {
+            assertEquals(scan.Data.GetX(i), read.Data.GetX(i), 0f);
+            assertEquals(scan.Data.GetY(i), read.Data.GetY(i), 0f);
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.SpectrumParser;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScanData;
+import MSUmpire.BaseDataStructure.SpectralDataType;
+import MSUmpire.BaseDataStructure.XYData;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
+import uk.ac.ebi.jmzml.model.mzml.CVParam;
+import uk.ac.ebi.jmzml.model.mzml.ParamGroup;
+import uk.ac.ebi.jmzml.model.mzml.Precursor;
+import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
+import uk.ac.ebi.jmzml.model.mzml.ScanList;
+import uk.ac.ebi.jmzml.model.mzml.Spectrum;
+import uk.ac.ebi.jmzml.xml.io.MzMLObjectIterator;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
+import static org.junit.Assert.*;
+
+/**
+ * Parity of the indexed StAX mzML reader with the jmzML unmarshaller it replaced:
+ * a small DIA file is decoded by both and the scan maps, DIA windows and scans are compared
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class mzMLParserTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int NoCycles = 6;
+    private static final float[][] Windows = {{412.5f, 12.5f, 12.5f}, {437.5f, 12.5f, 12.5f}};
+    //Precursor of the MS2 scans without isolation window, DIA_F_Window assigns them a default window
+    private static final float UnlistedPrecursorMz = 462.5f;
+
+    @Test
+    public void IndexedFileMatchesJmzML() throws Exception {
+        AssertParity(WriteFixture("indexed.mzML", true));
+    }
+
+    @Test
+    public void UnindexedFileMatchesJmzML() throws Exception {
+        AssertParity(WriteFixture("unindexed.mzML", false));
+    }
+
+    private void AssertParity(String filename) throws Exception {
+        InstrumentParameter parameter = new InstrumentParameter(InstrumentParameter.InstrumentType.TOF5600);
+
+        //Reference: jmzML spectra converted and indexed the way the jmzML mzMLParser did
+        TreeMap<Integer, ScanData> expected = new TreeMap<>();
+        TreeMap<Integer, Integer> expectedMsLevel = new TreeMap<>();
+        HashMap<Integer, Float> expectedRT = new HashMap<>();
+        TreeMap<Float, Integer> expectedRTToScan = new TreeMap<>();
+        DIA_Setting expectedSetting = new DIA_Setting();
+        expectedSetting.DIAWindows = new TreeMap<>();
+        int expectedMS1 = 0;
+        MzMLObjectIterator<Spectrum> itr = new MzMLUnmarshaller(new File(filename)).unmarshalCollectionFromXpath("/run/spectrumList/spectrum", Spectrum.class);
+        while (itr.hasNext()) {
+            ScanData spec = ConvertJmzMLSpectrum(itr.next());
+            spec.Preprocessing(parameter);
+            expected.put(spec.ScanNum, spec);
+            expectedMsLevel.put(spec.ScanNum, spec.MsLevel);
+            expectedRT.put(spec.ScanNum, spec.RetentionTime);
+            expectedRTToScan.put(spec.RetentionTime, spec.ScanNum);
+            if (spec.MsLevel == 1) {
+                expectedMS1++;
+            } else {
+                float Loffset = spec.isolationWindowLoffset;
+                float Roffset = spec.isolationWindowRoffset;
+                if (Loffset <= 0f || Roffset <= 0f) {
+                    Loffset = (expectedSetting.F_DIA_WindowSize + 1) * 0.2f;
+                    Roffset = (expectedSetting.F_DIA_WindowSize + 1) * 0.8f;
+                }
+                XYData window = new XYData(spec.isolationWindowTargetMz - Loffset, spec.isolationWindowTargetMz + Roffset);
+                if (!expectedSetting.DIAWindows.containsKey(window)) {
+                    expectedSetting.DIAWindows.put(window, new ArrayList<Integer>());
+                }
+                expectedSetting.DIAWindows.get(window).add(spec.ScanNum);
+            }
+        }
+        assertEquals(NoCycles * (2 + Windows.length), expected.size());
+        assertEquals(Windows.length + 1, expectedSetting.DIAWindows.size());
+
+        //The second parser reads the maps back from the scan index sidecar written by the first one
+        for (int pass = 0; pass < 2; pass++) {
+            DIA_Setting setting = new DIA_Setting();
+            mzMLParser parser = new mzMLParser(filename, parameter, SpectralDataType.DataType.DIA_F_Window, setting, 2);
+            try {
+                assertEquals(expectedMsLevel, parser.MsLevelList);
+                assertEquals(expectedRT, parser.ScanToElutionTime);
+                assertEquals(expectedRTToScan, parser.ElutionTimeToScanNoMap);
+                assertEquals(expectedMS1, parser.NoMS1Scans);
+                AssertWindowsEqual(expectedSetting.DIAWindows, setting.DIAWindows);
+
+                TreeMap<Integer, ScanData> actual = parser.GetAllScanCollectionByMSLabel(true, true, true, true).ScanHashMap;
+                assertEquals(expected.keySet(), actual.keySet());
+                for (ScanData scan : expected.values()) {
+                    AssertScanEqual(scan, actual.get(scan.ScanNum));
+                }
+                for (XYData window : setting.DIAWindows.keySet()) {
+                    TreeMap<Integer, ScanData> windowScans = parser.GetScanCollectionDIAMS2(window, true, 0f, 999999f).ScanHashMap;
+                    assertEquals(new ArrayList<>(setting.DIAWindows.get(window)), new ArrayList<>(windowScans.keySet()));
+                    for (ScanData scan : windowScans.values()) {
+                        AssertScanEqual(expected.get(scan.ScanNum), scan);
+                    }
+                }
+            } finally {
+                parser.Close();
+            }
+        }
+    }
+
+    private static void AssertWindowsEqual(TreeMap<XYData, ArrayList<Integer>> expected, TreeMap<XYData, ArrayList<Integer>> actual) {
+        assertEquals(expected.size(), actual.size());
+        Map.Entry<XYData, ArrayList<Integer>> actualEntry = actual.firstEntry();
+        for (Map.Entry<XYData, ArrayList<Integer>> entry : expected.entrySet()) {
+            assertEquals(entry.getKey().getX(), actualEntry.getKey().getX(), 0f);
+            assertEquals(entry.getKey().getY(), actualEntry.getKey().getY(), 0f);
+            assertEquals(entry.getValue(), actualEntry.getValue());
+            actualEntry = actual.higherEntry(actualEntry.getKey());
+        }
+    }
+
+    private static void AssertScanEqual(ScanData expected, ScanData actual) {
+        String scan = "scan " + expected.ScanNum;
+        assertNotNull(scan, actual);
+        assertEquals(scan, expected.ScanNum, actual.ScanNum);
+        assertEquals(scan, expected.MGFTitle, actual.MGFTitle);
+        assertEquals(scan, expected.MsLevel, actual.MsLevel);
+        assertEquals(scan, expected.RetentionTime, actual.RetentionTime, 0f);
+        assertEquals(scan, expected.centroided, actual.centroided);
+        assertEquals(scan, expected.PrecursorMz, actual.PrecursorMz, 0f);
+        assertEquals(scan, expected.PrecursorCharge, actual.PrecursorCharge);
+        assertEquals(scan, expected.PrecursorIntensity, actual.PrecursorIntensity, 0f);
+        assertEquals(scan, expected.isolationWindowTargetMz, actual.isolationWindowTargetMz, 0f);
+        assertEquals(scan, expected.isolationWindowLoffset, actual.isolationWindowLoffset, 0f);
+        assertEquals(scan, expected.isolationWindowRoffset, actual.isolationWindowRoffset, 0f);
+        assertEquals(scan, expected.ActivationMethod, actual.ActivationMethod);
+        assertEquals(scan, expected.background, actual.background, 0f);
+        assertEquals(scan, expected.PointCount(), actual.PointCount());
+        for (int i = 0; i < expected.PointCount(); i++) {
+            assertEquals(scan, expected.Data.GetX(i), actual.Data.GetX(i), 0f);
+            assertEquals(scan, expected.Data.GetY(i), actual.Data.GetY(i), 0f);
+        }
+    }
+
+    //Spectrum to ScanData conversion of the jmzML mzMLParser
+    private static ScanData ConvertJmzMLSpectrum(Spectrum jmzMLSpec) {
+        ScanData spec = new ScanData();
+        String id = jmzMLSpec.getId();
+        spec.MGFTitle = id;
+        spec.ScanNum = jmzMLSpec.getIndex();
+        String[] idToken = id.split("\\s+");
+        if (idToken.length > 0 && idToken[idToken.length - 1].matches("scan=\\d+")) {
+            spec.ScanNum = Integer.parseInt(idToken[idToken.length - 1].substring(5));
+        }
+
+        CVParam msLevelParam = null;
+        boolean isCentroided = false;
+        for (CVParam cvParam : jmzMLSpec.getCvParam()) {
+            if (cvParam.getAccession().equals("MS:1000511")) {
+                msLevelParam = cvParam;
+            } else if (cvParam.getAccession().equals("MS:1000127")) {
+                isCentroided = true;
+            } else if (cvParam.getAccession().equals("MS:1000128")) {
+                isCentroided = false;
+            }
+        }
+        spec.centroided = isCentroided;
+
+        float RT = -1f;
+        ScanList scanList = jmzMLSpec.getScanList();
+        if (scanList != null && scanList.getScan().size() > 0) {
+            for (CVParam param : scanList.getScan().get(0).getCvParam()) {
+                if (param.getAccession().equals("MS:1000016")) {
+                    RT = Float.parseFloat(param.getValue());
+                    if (param.getUnitName().equals("second")) {
+                        RT = RT / 60f;
+                    }
+                }
+            }
+        }
+        spec.MsLevel = msLevelParam != null ? Integer.parseInt(msLevelParam.getValue()) : 0;
+        spec.RetentionTime = RT;
+
+        float precursorMz = -1f;
+        PrecursorList precursorList = jmzMLSpec.getPrecursorList();
+        if (precursorList != null && precursorList.getCount().intValue() > 0 && precursorList.getPrecursor().get(0).getSelectedIonList() != null) {
+            Precursor precursor = precursorList.getPrecursor().get(0);
+            ParamGroup isolationWindowParams = precursor.getIsolationWindow();
+            if (isolationWindowParams != null && isolationWindowParams.getCvParam() != null) {
+                for (CVParam param : isolationWindowParams.getCvParam()) {
+                    if (param.getAccession().equals("MS:1000827")) {
+                        spec.isolationWindowTargetMz = Float.parseFloat(param.getValue());
+                    }
+                    if (param.getAccession().equals("MS:1000828")) {
+                        spec.isolationWindowLoffset = Float.parseFloat(param.getValue());
+                    }
+                    if (param.getAccession().equals("MS:1000829")) {
+                        spec.isolationWindowRoffset = Float.parseFloat(param.getValue());
+                    }
+                }
+            }
+            ParamGroup paramGroup = precursor.getSelectedIonList().getSelectedIon().get(0);
+            for (CVParam param : paramGroup.getCvParam()) {
+                if (precursorMz < 0 && param.getAccession().equals("MS:1000744")) {
+                    precursorMz = Float.parseFloat(param.getValue());
+                } else if (param.getAccession().equals("MS:1000041")) {
+                    spec.PrecursorCharge = Integer.parseInt(param.getValue());
+                } else if (param.getAccession().equals("MS:1000042")) {
+                    spec.PrecursorIntensity = Float.parseFloat(param.getValue());
+                }
+            }
+            spec.PrecursorMz = precursorMz;
+            if (spec.isolationWindowTargetMz == 0f) {
+                spec.isolationWindowTargetMz = precursorMz;
+            }
+            for (CVParam param : precursor.getActivation().getCvParam()) {
+                spec.ActivationMethod = param.getValue();
+            }
+        }
+
+        BinaryDataArray mzArray = null, intenArray = null;
+        for (BinaryDataArray array : jmzMLSpec.getBinaryDataArrayList().getBinaryDataArray()) {
+            if (array.getEncodedLength() == 0) {
+                continue;
+            }
+            for (CVParam param : array.getCvParam()) {
+                if (param.getAccession().equals("MS:1000514")) {
+                    mzArray = array;
+                } else if (param.getAccession().equals("MS:1000515")) {
+                    intenArray = array;
+                }
+            }
+        }
+        if (mzArray != null && intenArray != null) {
+            Number mzNumbers[] = mzArray.getBinaryDataAsNumberArray();
+            Number intenNumbers[] = intenArray.getBinaryDataAsNumberArray();
+            assertEquals(mzNumbers.length, intenNumbers.length);
+            for (int i = 0; i < mzNumbers.length; i++) {
+                spec.AddPoint(mzNumbers[i].floatValue(), intenNumbers[i].floatValue());
+            }
+        }
+        return spec;
+    }
+
+    //DIA cycles of one profile MS1 scan and centroided MS2 scans, RT in minutes and in seconds, 
+    //32/64-bit arrays with and without zlib compression
+    private String WriteFixture(String name, boolean indexed) throws IOException {
+        Random random = new Random(19);
+        StringBuilder xml = new StringBuilder();
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        if (indexed) {
+            xml.append("<indexedmzML xmlns=\"http://psi.hupo.org/ms/mzml\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://psi.hupo.org/ms/mzml http://psidev.info/files/ms/mzML/xsd/mzML1.1.2_idx.xsd\">\n");
+        }
+        xml.append("<mzML xmlns=\"http://psi.hupo.org/ms/mzml\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://psi.hupo.org/ms/mzml http://psidev.info/files/ms/mzML/xsd/mzML1.1.0.xsd\" id=\"test\" version=\"1.1.0\">\n");
+        xml.append("  <cvList count=\"2\">\n");
+        xml.append("    <cv id=\"MS\" fullName=\"Proteomics Standards Initiative Mass Spectrometry Ontology\" version=\"3.60.0\" URI=\"http://psidev.cvs.sourceforge.net/*checkout*/psidev/psi/psi-ms/mzML/controlledVocabulary/psi-ms.obo\"/>\n");
+        xml.append("    <cv id=\"UO\" fullName=\"Unit Ontology\" version=\"12:10:2011\" URI=\"http://obo.cvs.sourceforge.net/*checkout*/obo/obo/ontology/phenotype/unit.obo\"/>\n");
+        xml.append("  </cvList>\n");
+        xml.append("  <fileDescription>\n    <fileContent>\n");
+        xml.append("      <cvParam cvRef=\"MS\" accession=\"MS:1000579\" name=\"MS1 spectrum\" value=\"\"/>\n");
+        xml.append("    </fileContent>\n  </fileDescription>\n");
+        xml.append("  <run id=\"test\" defaultInstrumentConfigurationRef=\"IC1\">\n");
+        xml.append("    <spectrumList count=\"").append(NoCycles * (2 + Windows.length)).append("\" defaultDataProcessingRef=\"DP1\">\n");
+        ArrayList<String> ids = new ArrayList<>();
+        ArrayList<Integer> offsets = new ArrayList<>();
+        int index = 0;
+        for (int cycle = 0; cycle < NoCycles; cycle++) {
+            boolean seconds = cycle % 2 == 1;
+            boolean zlib = cycle % 3 != 2;
+            for (int i = 0; i < 2 + Windows.length; i++) {
+                int ScanNo = 1 + 2 * index;
+                String id = "controllerType=0 controllerNumber=1 scan=" + ScanNo;
+                float RT = 0.5f + cycle * 0.04f + i * 0.009f;
+                ids.add(id);
+                offsets.add(xml.length() + 6);
+                int MsLevel = i == 0 ? 1 : 2;
+                float[] mz;
+                float[] intensity;
+                if (MsLevel == 1) {
+                    //Gaussian profile peaks to be centroided
+                    mz = new float[8 * 41];
+                    intensity = new float[mz.length];
+                    for (int p = 0; p < 8; p++) {
+                        float center = 400f + p * 37.3f + random.nextFloat();
+                        float height = 1000f + random.nextFloat() * 100000f;
+                        for (int k = 0; k < 41; k++) {
+                            mz[p * 41 + k] = center + (k - 20) * 0.002f;
+                            intensity[p * 41 + k] = height * (float) Math.exp(-(k - 20) * (k - 20) / 50d);
+                        }
+                    }
+                } else {
+                    mz = new float[20 + random.nextInt(40)];
+                    intensity = new float[mz.length];
+                    float current = 150f;
+                    for (int p = 0; p < mz.length; p++) {
+                        current += 0.5f + random.nextFloat() * 30f;
+                        mz[p] = current;
+                        intensity[p] = random.nextFloat() * 5000f;
+                    }
+                }
+                xml.append("      <spectrum index=\"").append(index).append("\" id=\"").append(id).append("\" defaultArrayLength=\"").append(mz.length).append("\">\n");
+                AppendCvParam(xml, "        ", "MS:1000511", "ms level", Integer.toString(MsLevel), null);
+                AppendCvParam(xml, "        ", MsLevel == 1 ? "MS:1000128" : "MS:1000127", MsLevel == 1 ? "profile spectrum" : "centroid spectrum", "", null);
+                xml.append("        <scanList count=\"1\">\n          <scan>\n");
+                AppendCvParam(xml, "            ", "MS:1000016", "scan start time", Float.toString(seconds ? RT * 60f : RT), seconds ? "second" : "minute");
+                xml.append("          </scan>\n        </scanList>\n");
+                if (MsLevel == 2) {
+                    boolean listed = i - 1 < Windows.length;
+                    float precursorMz = listed ? Windows[i - 1][0] : UnlistedPrecursorMz;
+                    xml.append("        <precursorList count=\"1\">\n          <precursor>\n");
+                    if (listed) {
+                        xml.append("            <isolationWindow>\n");
+                        AppendCvParam(xml, "              ", "MS:1000827", "isolation window target m/z", Float.toString(Windows[i - 1][0]), "m/z");
+                        AppendCvParam(xml, "              ", "MS:1000828", "isolation window lower offset", Float.toString(Windows[i - 1][1]), "m/z");
+                        AppendCvParam(xml, "              ", "MS:1000829", "isolation window upper offset", Float.toString(Windows[i - 1][2]), "m/z");
+                        xml.append("            </isolationWindow>\n");
+                    }
+                    xml.append("            <selectedIonList count=\"1\">\n              <selectedIon>\n");
+                    AppendCvParam(xml, "                ", "MS:1000744", "selected ion m/z", Float.toString(precursorMz), "m/z");
+                    if (cycle % 2 == 0) {
+                        AppendCvParam(xml, "                ", "MS:1000041", "charge state", Integer.toString(2 + i % 2), null);
+                        AppendCvParam(xml, "                ", "MS:1000042", "peak intensity", Float.toString(random.nextFloat() * 1e6f), "number of counts");
+                    }
+                    xml.append("              </selectedIon>\n            </selectedIonList>\n");
+                    xml.append("            <activation>\n");
+                    AppendCvParam(xml, "              ", "MS:1000133", "collision-induced dissociation", "", null);
+                    if (cycle % 3 == 0) {
+                        AppendCvParam(xml, "              ", "MS:1000045", "collision energy", "35.0", "electronvolt");
+                    }
+                    xml.append("            </activation>\n");
+                    xml.append("          </precursor>\n        </precursorList>\n");
+                }
+                xml.append("        <binaryDataArrayList count=\"2\">\n");
+                AppendBinaryDataArray(xml, mz, "MS:1000514", "m/z array", MsLevel == 1, zlib);
+                AppendBinaryDataArray(xml, intensity, "MS:1000515", "intensity array", cycle % 2 == 0, zlib);
+                xml.append("        </binaryDataArrayList>\n");
+                xml.append("      </spectrum>\n");
+                index++;
+            }
+        }
+        xml.append("    </spectrumList>\n  </run>\n</mzML>\n");
+        if (indexed) {
+            int indexListOffset = xml.length() + 2;
+            xml.append("  <indexList count=\"1\">\n    <index name=\"spectrum\">\n");
+            for (int i = 0; i < ids.size(); i++) {
+                xml.append("      <offset idRef=\"").append(ids.get(i)).append("\">").append(offsets.get(i)).append("</offset>\n");
+            }
+            xml.append("    </index>\n  </indexList>\n");
+            xml.append("  <indexListOffset>").append(indexListOffset).append("</indexListOffset>\n");
+            xml.append("</indexedmzML>\n");
+        }
+        File file = folder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(xml.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        return file.getAbsolutePath();
+    }
+
+    private static void AppendCvParam(StringBuilder xml, String indent, String accession, String name, String value, String unitName) {
+        xml.append(indent).append("<cvParam cvRef=\"MS\" accession=\"").append(accession).append("\" name=\"").append(name).append("\" value=\"").append(value).append("\"");
+        if (unitName != null) {
+            xml.append(" unitCvRef=\"").append(unitName.equals("m/z") || unitName.equals("number of counts") || unitName.equals("electronvolt") ? "MS" : "UO").append("\" unitName=\"").append(unitName).append("\"");
+        }
+        xml.append("/>\n");
+    }
+
+    private static void AppendBinaryDataArray(StringBuilder xml, float[] values, String accession, String name, boolean doublePrecision, boolean zlib) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * (doublePrecision ? 8 : 4)).order(ByteOrder.LITTLE_ENDIAN);
+        for (float value : values) {
+            if (doublePrecision) {
+                buffer.putDouble(value);
+            } else {
+                buffer.putFloat(value);
+            }
+        }
+        byte[] bytes = buffer.array();
+        if (zlib) {
+            Deflater deflater = new Deflater();
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            deflater.end();
+            bytes = out.toByteArray();
+        }
+        String encoded = new String(Base64.encodeBase64(bytes), StandardCharsets.US_ASCII);
+        xml.append("          <binaryDataArray encodedLength=\"").append(encoded.length()).append("\">\n");
+        AppendCvParam(xml, "            ", doublePrecision ? "MS:1000523" : "MS:1000521", doublePrecision ? "64-bit float" : "32-bit float", "", null);
+        AppendCvParam(xml, "            ", zlib ? "MS:1000574" : "MS:1000576", zlib ? "zlib compression" : "no compression", "", null);
+        AppendCvParam(xml, "            ", accession, name, "", name.equals("m/z array") ? "m/z" : "number of counts");
+        xml.append("            <binary>").append(encoded).append("</binary>\n");
+        xml.append("          </binaryDataArray>\n");
+    }
+}
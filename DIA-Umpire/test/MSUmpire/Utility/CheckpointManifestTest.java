@@ -0,0 +1,151 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.Utility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Invalidation of the checkpoint manifest: a phase is reused only while its inputs and outputs are unchanged
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class CheckpointManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String RawFile;
+    private File PeakFolder;
+
+    @Before
+    public void Setup() throws IOException {
+        RawFile = folder.newFile("test.mzXML").getAbsolutePath();
+        WriteFile(new File(RawFile), "spectra");
+        PeakFolder = folder.newFolder("test_Peak");
+    }
+
+    private static void WriteFile(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    //Record a phase with one output file in the _Peak folder and return its input key
+    private String RecordPhase(CheckpointManifest manifest, String Phase, String Output, String... Inputs) throws IOException {
+        File output = new File(PeakFolder, Output);
+        WriteFile(output, Phase + " output");
+        String key = manifest.GetInputKey(Inputs);
+        manifest.Record(Phase, key, output.getAbsolutePath());
+        return key;
+    }
+
+    @Test
+    public void RecordedPhaseIsReused() throws IOException {
+        String key = RecordPhase(new CheckpointManifest(RawFile), "MS1", "test.PeakCluster", "MS1PPM=30");
+
+        CheckpointManifest manifest = new CheckpointManifest(RawFile);
+        assertEquals(key, manifest.GetInputKey("MS1PPM=30"));
+        assertTrue(manifest.IsValid("MS1", key));
+        assertFalse(manifest.IsValid("MS2", key));
+    }
+
+    @Test
+    public void ChangedParameterInvalidatesPhase() throws IOException {
+        String key = RecordPhase(new CheckpointManifest(RawFile), "MS1", "test.PeakCluster", "MS1PPM=30");
+
+        CheckpointManifest manifest = new CheckpointManifest(RawFile);
+        String newKey = manifest.GetInputKey("MS1PPM=20");
+        assertFalse(key.equals(newKey));
+        assertFalse(manifest.IsValid("MS1", newKey));
+    }
+
+    @Test
+    public void ChangedSpectralFileInvalidatesPhase() throws IOException {
+        String key = RecordPhase(new CheckpointManifest(RawFile), "MS1", "test.PeakCluster", "MS1PPM=30");
+
+        File raw = new File(RawFile);
+        long modified = raw.lastModified();
+        WriteFile(raw, "spectrb");
+        raw.setLastModified(modified + 2000);
+        CheckpointManifest manifest = new CheckpointManifest(RawFile);
+        String newKey = manifest.GetInputKey("MS1PPM=30");
+        assertFalse(key.equals(newKey));
+        assertFalse(manifest.IsValid("MS1", newKey));
+    }
+
+    @Test
+    public void ChangedOrMissingOutputInvalidatesPhase() throws IOException {
+        CheckpointManifest manifest = new CheckpointManifest(RawFile);
+        String key1 = RecordPhase(manifest, "MS1", "test.PeakCluster", "MS1PPM=30");
+        String key2 = RecordPhase(manifest, "MS2", "test.MS2PeakCluster", "MS2PPM=40");
+
+        //Same size, different content
+        WriteFile(new File(PeakFolder, "test.PeakCluster"), "MS1 outpuT");
+        assertTrue(new File(PeakFolder, "test.MS2PeakCluster").delete());
+        manifest = new CheckpointManifest(RawFile);
+        assertFalse(manifest.IsValid("MS1", key1));
+        assertFalse(manifest.IsValid("MS2", key2));
+    }
+
+    @Test
+    public void DependentPhaseFollowsItsInputPhase() throws IOException {
+        CheckpointManifest manifest = new CheckpointManifest(RawFile);
+        String ms1Key = RecordPhase(manifest, "MS1", "test.PeakCluster", "MS1PPM=30");
+        String ms2Key = RecordPhase(manifest, "MS2", "test.MS2PeakCluster", "MS2PPM=40", ms1Key);
+
+        manifest = new CheckpointManifest(RawFile);
+        String newMs1Key = manifest.GetInputKey("MS1PPM=20");
+        assertTrue(manifest.IsValid("MS2", manifest.GetInputKey("MS2PPM=40", ms1Key)));
+        assertEquals(ms2Key, manifest.GetInputKey("MS2PPM=40", ms1Key));
+        assertFalse(manifest.IsValid("MS2", manifest.GetInputKey("MS2PPM=40", newMs1Key)));
+    }
+
+    @Test
+    public void InvalidatedPhaseIsNotReused() throws IOException {
+        CheckpointManifest manifest = new CheckpointManifest(RawFile);
+        String key1 = RecordPhase(manifest, "MS1", "test.PeakCluster", "MS1PPM=30");
+        String key2 = RecordPhase(manifest, "MS2", "test.MS2PeakCluster", "MS2PPM=40");
+        manifest.Invalidate("MS1");
+        assertFalse(manifest.IsValid("MS1", key1));
+
+        manifest = new CheckpointManifest(RawFile);
+        assertFalse(manifest.IsValid("MS1", key1));
+        assertTrue(manifest.IsValid("MS2", key2));
+    }
+
+    @Test
+    public void CorruptManifestIsIgnored() throws IOException {
+        String key = RecordPhase(new CheckpointManifest(RawFile), "MS1", "test.PeakCluster", "MS1PPM=30");
+        WriteFile(new File(PeakFolder, "test.checkpoint"), "raw\tnot a size\t0\t0\nphase\tMS1\t" + key + "\n");
+
+        CheckpointManifest manifest = new CheckpointManifest(RawFile);
+        assertFalse(manifest.IsValid("MS1", key));
+        //Recording again rewrites the manifest
+        key = RecordPhase(manifest, "MS1", "test.PeakCluster", "MS1PPM=30");
+        assertTrue(new CheckpointManifest(RawFile).IsValid("MS1", key));
+    }
+}
@@ -0,0 +1,379 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package MSUmpire.Utility;
+
+import MSUmpire.PSMDataStructure.FragmentPeak;
+import MSUmpire.PSMDataStructure.FragmentSelection;
+import MSUmpire.PSMDataStructure.IDKeyPool;
+import MSUmpire.PSMDataStructure.LCMSID;
+import MSUmpire.PSMDataStructure.PepIonID;
+import MSUmpire.PSMDataStructure.ProtID;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * Protein-level export from the peptide ion x fragment x file matrix: the report rows are the same
+ * as the ones built from the "protein;peptide;ion" maps before, and come out in protein/peptide order
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class ExportTableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int NoFiles = 3;
+    private static final int NoPeps = 40;
+    private static final int NoProteins = 10;
+    private ArrayList<LCMSID> FileList;
+    private LCMSID CombineProtID;
+    private FragmentSelection fragselection;
+    private String WorkFolder;
+
+    @Before
+    public void Setup() throws IOException {
+        IDKeyPool.NewSession();
+        WorkFolder = folder.newFolder("export").getAbsolutePath() + "/";
+        Random random = new Random(25);
+        String[] ions = new String[16];
+        for (int i = 0; i < 8; i++) {
+            ions[i] = "b" + (i + 2);
+            ions[8 + i] = "y" + (i + 2);
+        }
+        int[][] protpeps = new int[NoProteins][];
+        CombineProtID = new LCMSID("combined", "DECOY", "");
+        for (int p = 0; p < NoProteins; p++) {
+            protpeps[p] = new int[1 + random.nextInt(6)];
+            for (int j = 0; j < protpeps[p].length; j++) {
+                protpeps[p][j] = random.nextInt(NoPeps);
+            }
+            ProtID protein = new ProtID();
+            protein.setAccNo("PROT" + p);
+            CombineProtID.ProteinList.put("PROT" + p, protein);
+        }
+
+        FileList = new ArrayList<>();
+        for (int f = 0; f < NoFiles; f++) {
+            LCMSID IDSummary = new LCMSID("/data/file" + f + ".mzXML", "DECOY", "");
+            IDSummary.mzXMLFileName = "/data/file" + f + ".mzXML";
+            PepIonID[] filepeps = new PepIonID[NoPeps];
+            for (int i = 0; i < NoPeps; i++) {
+                double u = random.nextDouble();
+                boolean identified = u < 0.5;
+                boolean mapped = (u >= 0.5 && u < 0.8) || u < 0.05;
+                for (int k = 0; k < 2; k++) {
+                    if ((k == 0 && !identified) || (k == 1 && !mapped)) {
+                        continue;
+                    }
+                    PepIonID pep = NewPeptide(random, i, ions);
+                    if (k == 0) {
+                        IDSummary.AddPeptideID(pep);
+                        filepeps[i] = pep;
+                    } else {
+                        IDSummary.GetMappedPepIonList().put(pep.GetKey(), pep);
+                        if (filepeps[i] == null) {
+                            filepeps[i] = pep;
+                        }
+                    }
+                }
+            }
+            for (int p = 0; p < NoProteins; p++) {
+                ProtID protein = null;
+                for (int j : protpeps[p]) {
+                    if (filepeps[j] != null) {
+                        if (protein == null) {
+                            protein = new ProtID();
+                            protein.setAccNo("PROT" + p);
+                            protein.TheoPeptides = new ArrayList<>(Arrays.asList("A", "B", "C"));
+                            protein.Probability = random.nextFloat();
+                        }
+                        protein.AddPeptideID(filepeps[j]);
+                        filepeps[j].ParentProtID_ProtXML.add(protein);
+                    }
+                }
+                if (protein != null) {
+                    IDSummary.ProteinList.put("PROT" + p, protein);
+                }
+            }
+            FileList.add(IDSummary);
+        }
+
+        fragselection = new FragmentSelection(FileList);
+        fragselection.freqPercent = 0.5f;
+        fragselection.GeneratePepFragScoreMap();
+        fragselection.FillMissingFragScoreMap();
+        fragselection.GenerateTopFragMap(6);
+        fragselection.GenerateProtPepScoreMap(0.3f);
+        fragselection.GenerateTopPepMap(3);
+    }
+
+    //Fragments of both charges for some ion types and a few duplicated fragments
+    private static PepIonID NewPeptide(Random random, int i, String[] ions) {
+        PepIonID pep = new PepIonID();
+        pep.ModSequence = "PEPTIDE" + (char) ('A' + i % 26) + i;
+        pep.Sequence = pep.ModSequence;
+        pep.Charge = 2 + i % 2;
+        pep.MaxProbability = random.nextFloat();
+        pep.UScoreProbability_MS1 = random.nextFloat();
+        pep.PeakRT = random.nextFloat() * 100;
+        pep.ObservedMz = 500 + i;
+        pep.PeakHeight = new float[]{random.nextFloat() * 1000};
+        for (int t = 0; t < ions.length; t++) {
+            for (int c = 1; c <= 2; c++) {
+                if (random.nextDouble() < 0.4) {
+                    FragmentPeak frag = NewFragment(random, ions[t], c, (250 + t * 37 + i) / (float) c);
+                    pep.FragmentPeaks.add(frag);
+                    if (random.nextDouble() < 0.1) {
+                        pep.FragmentPeaks.add(NewFragment(random, ions[t], c, frag.FragMZ));
+                    }
+                }
+            }
+        }
+        return pep;
+    }
+
+    private static FragmentPeak NewFragment(Random random, String IonType, int Charge, float FragMZ) {
+        FragmentPeak frag = new FragmentPeak();
+        frag.IonType = IonType;
+        frag.Charge = Charge;
+        frag.FragMZ = FragMZ;
+        frag.intensity = random.nextFloat() * 1e4f;
+        frag.corr = random.nextFloat();
+        frag.ppm = random.nextFloat() * 10;
+        return frag;
+    }
+
+    private ArrayList<String> ReadReport(String prefix) throws IOException {
+        File[] files = new File(WorkFolder).listFiles();
+        for (File file : files) {
+            if (file.getName().startsWith(prefix)) {
+                ArrayList<String> rows = new ArrayList<>();
+                try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        rows.add(line);
+                    }
+                }
+                return rows;
+            }
+        }
+        fail("No " + prefix + " report");
+        return null;
+    }
+
+    private static void AssertSameRows(ArrayList<String> expected, ArrayList<String> actual) {
+        assertEquals(new HashSet<>(expected).size(), expected.size());
+        expected = new ArrayList<>(expected);
+        actual = new ArrayList<>(actual);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void FragmentRowsMatchKeyMapExport() throws IOException {
+        new ExportTable(WorkFolder, FileList, null, CombineProtID, fragselection).Export(3, 6, 0.5f);
+        ArrayList<String> rows = ReadReport("FragSummary_");
+        rows.remove(0);
+        AssertSameRows(ExpectedFragmentRows(), rows);
+    }
+
+    @Test
+    public void FragmentRowsAreInProteinPeptideOrder() throws IOException {
+        new ExportTable(WorkFolder, FileList, null, CombineProtID, fragselection).Export(3, 6, 0.5f);
+        ArrayList<String> rows = ReadReport("FragSummary_");
+        rows.remove(0);
+        assertFalse(rows.isEmpty());
+        ArrayList<String> proteins = new ArrayList<>(CombineProtID.ProteinList.keySet());
+        int lastprotein = -1;
+        String lastpep = null;
+        HashSet<String> finishedpeps = new HashSet<>();
+        for (String row : rows) {
+            String[] info = row.split("\t");
+            int protein = proteins.indexOf(info[1]);
+            assertTrue(row, protein >= lastprotein);
+            if (protein != lastprotein) {
+                finishedpeps.clear();
+                lastpep = null;
+            }
+            //The fragments of a peptide ion are written together
+            if (!info[2].equals(lastpep)) {
+                assertTrue(row, finishedpeps.add(info[2]));
+            }
+            lastprotein = protein;
+            lastpep = info[2];
+        }
+    }
+
+    @Test
+    public void PeptideRowsMatchKeyMapExport() throws IOException {
+        new ExportTable(WorkFolder, FileList, null, CombineProtID, fragselection).Export(3, 6, 0.5f);
+        ArrayList<String> rows = ReadReport("PeptideSummary_");
+        rows.remove(0);
+        AssertSameRows(ExpectedPeptideRows(), rows);
+    }
+
+    @Test
+    public void PeptideRowsAreInMatrixOrder() throws IOException {
+        new ExportTable(WorkFolder, FileList, null, CombineProtID, fragselection).Export(3, 6, 0.5f);
+        ArrayList<String> rows = ReadReport("PeptideSummary_");
+        rows.remove(0);
+        //Peptide ions in the order they first appear in the runs, identified ones of a run before mapped ones
+        LinkedHashSet<String> expected = new LinkedHashSet<>();
+        for (LCMSID IDSummary : FileList) {
+            for (PepIonID pep : IDSummary.GetPepIonList().values()) {
+                expected.add(pep.GetKey());
+            }
+            for (PepIonID pep : IDSummary.GetMappedPepIonList().values()) {
+                expected.add(pep.GetKey());
+            }
+        }
+        ArrayList<String> keys = new ArrayList<>();
+        for (String row : rows) {
+            keys.add(row.split("\t")[0]);
+        }
+        assertEquals(new ArrayList<>(expected), keys);
+    }
+
+    @Test
+    public void ProteinRowsMatchKeyMapExport() throws IOException {
+        new ExportTable(WorkFolder, FileList, null, CombineProtID, fragselection).Export(3, 6, 0.5f);
+        ArrayList<String> rows = ReadReport("ProtSummary_");
+        rows.remove(0);
+        ArrayList<String> expected = new ArrayList<>();
+        for (String key : CombineProtID.ProteinList.keySet()) {
+            StringBuilder row = new StringBuilder(key + "\t");
+            for (LCMSID IDSummary : FileList) {
+                ProtID protein = IDSummary.ProteinList.get(key);
+                if (protein != null) {
+                    row.append(protein.Probability).append("\t").append(protein.PeptideID.size()).append("\t").append(protein.GetSpectralCount()).append("\t").append(protein.GetAbundanceByMS1_IBAQ()).append("\t").append(protein.GetAbundanceByTopCorrFragAcrossSample(fragselection.TopPeps.get(protein.getAccNo()), fragselection.TopFrags)).append("\t");
+                } else {
+                    row.append("\t\t\t\t\t");
+                }
+            }
+            expected.add(row.toString());
+        }
+        assertEquals(expected, rows);
+    }
+
+    //Fragment rows of the export by "protein;peptide;ion" keys: the last fragment of the ion type in each run, 
+    //FragMz of the first one found
+    private ArrayList<String> ExpectedFragmentRows() {
+        LinkedHashMap<String, Float> ProteinFragMap = new LinkedHashMap<>();
+        ArrayList<HashMap<String, FragmentPeak>> FragMaps = new ArrayList<>();
+        ArrayList<HashMap<String, PepIonID>> PepMaps = new ArrayList<>();
+        for (LCMSID IDSummary : FileList) {
+            HashMap<String, FragmentPeak> FragMap = new HashMap<>();
+            HashMap<String, PepIonID> PepMap = new HashMap<>();
+            for (String key : CombineProtID.ProteinList.keySet()) {
+                ProtID protein = IDSummary.ProteinList.get(key);
+                if (protein == null) {
+                    continue;
+                }
+                for (PepIonID pep : protein.PeptideID.values()) {
+                    for (FragmentPeak frag : pep.FragmentPeaks) {
+                        String fragkey = key + ";" + pep.GetKey() + ";" + frag.IonType;
+                        if (!ProteinFragMap.containsKey(fragkey)) {
+                            ProteinFragMap.put(fragkey, frag.FragMZ);
+                        }
+                        FragMap.put(fragkey, frag);
+                        PepMap.put(fragkey, pep);
+                    }
+                }
+            }
+            FragMaps.add(FragMap);
+            PepMaps.add(PepMap);
+        }
+        ArrayList<String> rows = new ArrayList<>();
+        for (String key : ProteinFragMap.keySet()) {
+            String[] info = key.split(";");
+            StringBuilder row = new StringBuilder(key + "\t" + info[0] + "\t" + info[1] + "\t" + info[2] + "\t" + ProteinFragMap.get(key) + "\t");
+            for (int f = 0; f < FileList.size(); f++) {
+                FragmentPeak frag = FragMaps.get(f).get(key);
+                if (frag != null) {
+                    PepIonID pep = PepMaps.get(f).get(key);
+                    row.append(pep.PeakRT).append("\t").append(pep.MaxProbability).append("\t").append(pep.TargetedProbability()).append("\t").append(frag.intensity).append("\t").append(frag.corr).append("\t").append(frag.ppm).append("\t");
+                } else {
+                    row.append("\t\t\t\t\t\t");
+                }
+            }
+            rows.add(row.toString());
+        }
+        return rows;
+    }
+
+    //Peptide rows of the export by peptide ion keys
+    private ArrayList<String> ExpectedPeptideRows() {
+        HashSet<String> PepKeys = new HashSet<>();
+        for (LCMSID IDSummary : FileList) {
+            PepKeys.addAll(IDSummary.GetPepIonList().keySet());
+            PepKeys.addAll(IDSummary.GetMappedPepIonList().keySet());
+        }
+        ArrayList<String> rows = new ArrayList<>();
+        for (String key : PepKeys) {
+            StringBuilder row = new StringBuilder(key + "\t");
+            float maxprob = 0f;
+            boolean output = false;
+            for (LCMSID IDSummary : FileList) {
+                for (PepIonID peptide : new PepIonID[]{IDSummary.GetPepIonList().get(key), IDSummary.GetMappedPepIonList().get(key)}) {
+                    if (peptide == null) {
+                        continue;
+                    }
+                    if (!output) {
+                        row.append(peptide.Sequence).append("\t").append(peptide.ModSequence).append("\t").append(peptide.ParentProteins()).append("\t").append(peptide.ObservedMz).append("\t").append(peptide.Charge).append("\t");
+                        output = true;
+                    }
+                    float prob = peptide == IDSummary.GetPepIonList().get(key) ? peptide.MaxProbability : peptide.TargetedProbability();
+                    if (prob > maxprob) {
+                        maxprob = prob;
+                    }
+                }
+            }
+            row.append(maxprob).append("\t");
+            for (LCMSID IDSummary : FileList) {
+                PepIonID peptide = IDSummary.GetPepIonList().get(key);
+                PepIonID mapped = IDSummary.GetMappedPepIonList().get(key);
+                if (peptide != null) {
+                    row.append(peptide.MaxProbability).append("\t-1\t").append(peptide.GetSpectralCount()).append("\t").append(peptide.PeakRT).append("\t").append(peptide.PeakHeight[0]).append("\t").append(peptide.GetPepAbundanceByTopCorrFragAcrossSample(fragselection.TopFrags.get(peptide.GetKey()))).append("\t");
+                } else if (mapped != null) {
+                    row.append("-1\t").append(mapped.TargetedProbability()).append("\t").append(mapped.GetSpectralCount()).append("\t").append(mapped.PeakRT).append("\t").append(mapped.PeakHeight[0]).append("\t").append(mapped.GetPepAbundanceByTopCorrFragAcrossSample(fragselection.TopFrags.get(mapped.GetKey()))).append("\t");
+                } else {
+                    row.append("\t\t\t\t\t\t");
+                }
+            }
+            rows.add(row.toString());
+        }
+        return rows;
+    }
+}
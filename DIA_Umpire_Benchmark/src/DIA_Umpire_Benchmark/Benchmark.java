@@ -0,0 +1,48 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package DIA_Umpire_Benchmark;
+
+/**
+ * A benchmarked operation. Setup and Prepare are not timed, Run is timed and 
+ * its return value is consumed by the runner so that the work can't be optimized away.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public abstract class Benchmark {
+
+    public final String Name;
+
+    protected Benchmark(String Name) {
+        this.Name = Name;
+    }
+
+    //Called once before the first invocation
+    public void Setup() throws Exception {
+    }
+
+    //Called before every invocation, e.g. to restore inputs that Run modifies
+    public void Prepare() throws Exception {
+    }
+
+    public abstract Object Run() throws Exception;
+
+    //Called once after the last invocation
+    public void TearDown() throws Exception {
+    }
+}
@@ -0,0 +1,112 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package DIA_Umpire_Benchmark;
+
+import java.util.ArrayList;
+
+/**
+ * Runs a benchmark for a number of warm-up and measurement iterations, 
+ * each iteration repeats invocations until MinIterationTime is reached.
+ * Only the time spent in Benchmark.Run is counted.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class BenchmarkRunner {
+
+    public int WarmupIterations = 5;
+    public int MeasureIterations = 10;
+    public long MinIterationTime = 1000;//ms
+    private volatile int Sink;
+
+    public static class Result {
+
+        public String Name;
+        public long Invocations;
+        public double MeanNs;
+        public double SDNs;
+        public double MinNs;
+
+        @Override
+        public String toString() {
+            return String.format("%-36s %14.1f %12.1f %14.1f %10d", Name, MeanNs / 1000d, SDNs / 1000d, MinNs / 1000d, Invocations);
+        }
+    }
+
+    public static String Header() {
+        return String.format("%-36s %14s %12s %14s %10s", "Benchmark", "Mean(us/op)", "SD(us/op)", "Min(us/op)", "Ops");
+    }
+
+    public Result Run(Benchmark benchmark) throws Exception {
+        benchmark.Setup();
+        try {
+            for (int i = 0; i < WarmupIterations; i++) {
+                Iteration(benchmark, null);
+            }
+            ArrayList<Double> times = new ArrayList<>();
+            long[] invocations = new long[1];
+            for (int i = 0; i < MeasureIterations; i++) {
+                times.add(Iteration(benchmark, invocations));
+            }
+            Result result = new Result();
+            result.Name = benchmark.Name;
+            result.Invocations = invocations[0];
+            result.MinNs = Double.MAX_VALUE;
+            for (double time : times) {
+                result.MeanNs += time;
+                result.MinNs = Math.min(result.MinNs, time);
+            }
+            result.MeanNs /= times.size();
+            for (double time : times) {
+                result.SDNs += (time - result.MeanNs) * (time - result.MeanNs);
+            }
+            result.SDNs = times.size() > 1 ? Math.sqrt(result.SDNs / (times.size() - 1)) : 0d;
+            return result;
+        } finally {
+            benchmark.TearDown();
+        }
+    }
+
+    //Average time per invocation (ns) of one iteration
+    private double Iteration(Benchmark benchmark, long[] invocations) throws Exception {
+        long elapsed = 0;
+        long count = 0;
+        long end = System.nanoTime() + MinIterationTime * 1000000L;
+        do {
+            benchmark.Prepare();
+            long start = System.nanoTime();
+            Object result = benchmark.Run();
+            elapsed += System.nanoTime() - start;
+            Consume(result);
+            count++;
+        } while (System.nanoTime() < end);
+        if (invocations != null) {
+            invocations[0] += count;
+        }
+        return (double) elapsed / count;
+    }
+
+    //Numbers are consumed by value, other results by reference
+    private void Consume(Object result) {
+        if (result instanceof Number) {
+            Sink += result.hashCode();
+        } else {
+            Sink += System.identityHashCode(result);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package DIA_Umpire_Benchmark;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.UmpireInfo;
+import MSUmpire.Utility.ConsoleLogger;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import org.apache.log4j.Level;
+
+/**
+ * Micro- and macro-benchmarks of the DIA-Umpire core on deterministic synthetic data. 
+ * Results can be saved as csv and compared with a previous run to track performance changes.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class DIA_Umpire_Benchmark {
+
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("=================================================================================================");
+        System.out.println("DIA-Umpire benchmark (version: " + UmpireInfo.GetInstance().Version + ")");
+        if (args.length > 0 && (args[0].equals("-h") || args[0].equals("--help"))) {
+            System.out.println("command : java -jar -Xmx8G DIA_Umpire_Benchmark.jar [Option] [benchmark name filters]\n");
+            System.out.println("\nOptions");
+            System.out.println("\t-t\tNo. of threads, Ex: -t4 (using four threads, default value)");
+            System.out.println("\t-w\tNo. of warm-up iterations, Ex: -w5 (default value)");
+            System.out.println("\t-i\tNo. of measurement iterations, Ex: -i10 (default value)");
+            System.out.println("\t-m\tMinimum time of an iteration in ms, Ex: -m1000 (default value)");
+            System.out.println("\t-o\tWrite the results to a csv file, Ex: -obenchmark.csv");
+            System.out.println("\t-b\tCompare with the results of a previous run, Ex: -bbaseline.csv");
+            return;
+        }
+        ConsoleLogger.SetConsoleLogger(Level.WARN);
+
+        int NoCPUs = 4;
+        String OutputFile = null;
+        String BaselineFile = null;
+        ArrayList<String> Filters = new ArrayList<>();
+        BenchmarkRunner runner = new BenchmarkRunner();
+        for (String arg : args) {
+            if (arg.startsWith("-t")) {
+                NoCPUs = Integer.parseInt(arg.substring(2));
+            } else if (arg.startsWith("-w")) {
+                runner.WarmupIterations = Integer.parseInt(arg.substring(2));
+            } else if (arg.startsWith("-i")) {
+                runner.MeasureIterations = Integer.parseInt(arg.substring(2));
+            } else if (arg.startsWith("-m")) {
+                runner.MinIterationTime = Long.parseLong(arg.substring(2));
+            } else if (arg.startsWith("-o")) {
+                OutputFile = arg.substring(2);
+            } else if (arg.startsWith("-b")) {
+                BaselineFile = arg.substring(2);
+            } else {
+                Filters.add(arg);
+            }
+        }
+        HashMap<String, Double> Baseline = BaselineFile != null ? ReadResults(BaselineFile) : null;
+
+        InstrumentParameter parameter = new InstrumentParameter(InstrumentParameter.InstrumentType.TOF5600);
+        PipelineBenchmarks benchmarks = new PipelineBenchmarks(parameter, NoCPUs);
+        ArrayList<BenchmarkRunner.Result> results = new ArrayList<>();
+        System.out.println(BenchmarkRunner.Header() + (Baseline != null ? String.format(" %10s", "Change") : ""));
+        for (Benchmark benchmark : benchmarks.GetBenchmarks()) {
+            if (!Selected(benchmark.Name, Filters)) {
+                continue;
+            }
+            BenchmarkRunner.Result result = runner.Run(benchmark);
+            results.add(result);
+            String line = result.toString();
+            if (Baseline != null && Baseline.containsKey(result.Name)) {
+                line += String.format(" %+9.1f%%", (result.MeanNs / Baseline.get(result.Name) - 1d) * 100d);
+            }
+            System.out.println(line);
+        }
+        if (OutputFile != null) {
+            WriteResults(OutputFile, results);
+        }
+        System.out.println("=================================================================================================");
+    }
+
+    private static boolean Selected(String name, ArrayList<String> Filters) {
+        if (Filters.isEmpty()) {
+            return true;
+        }
+        for (String filter : Filters) {
+            if (name.toLowerCase().contains(filter.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void WriteResults(String filename, ArrayList<BenchmarkRunner.Result> results) throws IOException {
+        FileWriter writer = new FileWriter(filename);
+        writer.write("Benchmark,MeanNs,SDNs,MinNs,Ops\n");
+        for (BenchmarkRunner.Result result : results) {
+            writer.write(result.Name + "," + result.MeanNs + "," + result.SDNs + "," + result.MinNs + "," + result.Invocations + "\n");
+        }
+        writer.close();
+    }
+
+    //Benchmark name to mean time per invocation
+    private static HashMap<String, Double> ReadResults(String filename) throws IOException {
+        HashMap<String, Double> results = new HashMap<>();
+        if (!new File(filename).exists()) {
+            System.out.println("Baseline file " + filename + " cannot be found.");
+            return results;
+        }
+        BufferedReader reader = new BufferedReader(new FileReader(filename));
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null) {
+            String[] info = line.split(",");
+            results.put(info[0], Double.parseDouble(info[1]));
+        }
+        reader.close();
+        return results;
+    }
+}
@@ -0,0 +1,442 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package DIA_Umpire_Benchmark;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScanCollection;
+import MSUmpire.BaseDataStructure.ScanData;
+import MSUmpire.BaseDataStructure.XYData;
+import MSUmpire.BaseDataStructure.XYPointCollection;
+import MSUmpire.DIA.UmpireSpecLibMatch;
+import MSUmpire.LCMSPeakStructure.LCMSPeakDIAMS2;
+import MSUmpire.LCMSPeakStructure.LCMSPeakMS1;
+import MSUmpire.MathPackage.PearsonCorr;
+import MSUmpire.PSMDataStructure.PepFragmentLib;
+import MSUmpire.PSMDataStructure.PepIonID;
+import MSUmpire.PeakDataStructure.Bspline;
+import MSUmpire.PeakDataStructure.PeakCluster;
+import MSUmpire.PeakDataStructure.PeakCurve;
+import MSUmpire.PeakDataStructure.WaveletMassDetector;
+import MSUmpire.PeptidePeakClusterDetection.PDHandlerMS1;
+import MSUmpire.PeptidePeakClusterDetection.PeakCurveCorrCalc;
+import MSUmpire.SpectrumParser.mzXMLReadUnit;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Benchmarks of the hot paths of signal extraction and targeted re-extraction
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class PipelineBenchmarks {
+
+    private final InstrumentParameter parameter;
+    private final int NoCPUs;
+
+    public PipelineBenchmarks(InstrumentParameter parameter, int NoCPUs) {
+        this.parameter = parameter;
+        this.NoCPUs = NoCPUs;
+    }
+
+    public ArrayList<Benchmark> GetBenchmarks() {
+        ArrayList<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(MzXMLScanDecoding());
+        benchmarks.add(Centroiding());
+        benchmarks.add(Preprocessing());
+        benchmarks.add(MzTracePeakCurves());
+        benchmarks.add(BsplineSmoothing());
+        benchmarks.add(WaveletTransform());
+        benchmarks.add(PeakRegionDetection());
+        benchmarks.add(PeakCurveCorrelation());
+        benchmarks.add(PearsonCorrelation());
+        benchmarks.add(SpectralLibraryMatching());
+        benchmarks.add(PeakClusterWrite());
+        benchmarks.add(PeakClusterRead());
+        return benchmarks;
+    }
+
+    //Decode 100 zlib-compressed mzXML scans of 2000 peaks
+    private Benchmark MzXMLScanDecoding() {
+        return new Benchmark("mzXMLReadUnit.Parse x100") {
+            byte[][] scans;
+
+            @Override
+            public void Setup() {
+                scans = new byte[100][];
+                for (int i = 0; i < scans.length; i++) {
+                    scans[i] = SyntheticData.MzXMLScan(SyntheticData.CentroidScan(i + 1, i * SyntheticData.ScanInterval, 1, 2000, 1000 + i));
+                }
+            }
+
+            @Override
+            public Object Run() throws Exception {
+                int count = 0;
+                for (byte[] scan : scans) {
+                    count += new mzXMLReadUnit(scan).Parse().PointCount();
+                }
+                return count;
+            }
+        };
+    }
+
+    //Profile scan with 1000 peaks
+    private Benchmark Centroiding() {
+        return new Benchmark("ScanData.Centroiding") {
+            ScanData template;
+            ScanData scan;
+
+            @Override
+            public void Setup() {
+                template = SyntheticData.ProfileScan(1, 1f, 1000, parameter.Resolution, 2000);
+            }
+
+            @Override
+            public void Prepare() {
+                scan = CloneScan(template);
+            }
+
+            @Override
+            public Object Run() {
+                scan.Centroiding(parameter.Resolution, parameter.MinMZ);
+                return scan.PointCount();
+            }
+        };
+    }
+
+    private Benchmark Preprocessing() {
+        return new Benchmark("ScanData.Preprocessing") {
+            ScanData template;
+            ScanData scan;
+
+            @Override
+            public void Setup() {
+                template = SyntheticData.ProfileScan(1, 1f, 1000, parameter.Resolution, 2000);
+            }
+
+            @Override
+            public void Prepare() {
+                scan = CloneScan(template);
+            }
+
+            @Override
+            public Object Run() {
+                scan.Preprocessing(parameter);
+                return scan.PointCount();
+            }
+        };
+    }
+
+    //600 MS1 scans with 3000 m/z traces, including peak curve smoothing
+    private Benchmark MzTracePeakCurves() {
+        return new Benchmark("PDHandlerBase.FindAllMzTracePeakCurves") {
+            ScanCollection template;
+            LCMSPeakMS1 lcms;
+            ArrayList<ScanCollection> scanCollections;
+
+            @Override
+            public void Setup() {
+                template = SyntheticData.MS1ScanCollection(parameter, 600, 3000, 200, 3000);
+            }
+
+            @Override
+            public void Prepare() {
+                ScanCollection scanCollection = new ScanCollection(parameter.Resolution);
+                for (ScanData scan : template.ScanHashMap.values()) {
+                    scanCollection.AddScan(CloneScan(scan));
+                }
+                scanCollections = new ArrayList<>();
+                scanCollections.add(scanCollection);
+                lcms = new LCMSPeakMS1("benchmark.mzXML", parameter, NoCPUs);
+            }
+
+            @Override
+            public Object Run() throws Exception {
+                PDHandlerMS1 handler = new PDHandlerMS1(lcms, NoCPUs, parameter.MS1PPM);
+                handler.FindAllMzTracePeakCurvesForScanCollections(scanCollections);
+                return lcms.UnSortedPeakCurves.size();
+            }
+        };
+    }
+
+    //1000 raw XICs
+    private Benchmark BsplineSmoothing() {
+        return new Benchmark("Bspline.Run x1000") {
+            XYPointCollection[] profiles;
+
+            @Override
+            public void Setup() {
+                Random random = new Random(4000);
+                profiles = new XYPointCollection[1000];
+                for (int i = 0; i < profiles.length; i++) {
+                    profiles[i] = SyntheticData.ElutionProfile(10f, 0.05f + random.nextFloat() * 0.1f, 20000f, random);
+                }
+            }
+
+            @Override
+            public Object Run() {
+                Bspline bspline = new Bspline();
+                int count = 0;
+                for (XYPointCollection profile : profiles) {
+                    float width = profile.Data.GetX(profile.PointCount() - 1) - profile.Data.GetX(0);
+                    count += bspline.Run(profile, (int) Math.max(width * parameter.NoPeakPerMin, profile.PointCount()), 2).PointCount();
+                }
+                return count;
+            }
+        };
+    }
+
+    //200 smoothed multi-modal peak curves of 0.5-2 min
+    private PeakCurve[] MultiModalPeakCurves(long seed) {
+        Random random = new Random(seed);
+        PeakCurve[] curves = new PeakCurve[200];
+        for (int i = 0; i < curves.length; i++) {
+            curves[i] = SyntheticData.MultiModalPeakCurve(parameter, 500f, 10f, 0.5f + random.nextFloat() * 1.5f, 1 + random.nextInt(4), random);
+        }
+        return curves;
+    }
+
+    //CWT coefficients and local maxima of all scales
+    private Benchmark WaveletTransform() {
+        return new Benchmark("WaveletMassDetector.Run x200") {
+            float[][] DataX;
+            float[][] DataY;
+            int[] NoPoints;
+
+            @Override
+            public void Setup() {
+                PeakCurve[] curves = MultiModalPeakCurves(4500);
+                DataX = new float[curves.length][];
+                DataY = new float[curves.length][];
+                NoPoints = new int[curves.length];
+                for (int i = 0; i < curves.length; i++) {
+                    XYPointCollection smooth = curves[i].GetSmoothedList();
+                    DataX[i] = new float[smooth.PointCount()];
+                    DataY[i] = new float[smooth.PointCount()];
+                    for (int j = 0; j < smooth.PointCount(); j++) {
+                        DataX[i][j] = smooth.Data.GetX(j);
+                        DataY[i][j] = smooth.Data.GetY(j);
+                    }
+                    NoPoints[i] = (int) (curves[i].RTWidth() * parameter.NoPeakPerMin);
+                }
+            }
+
+            @Override
+            public Object Run() {
+                int count = 0;
+                for (int i = 0; i < DataX.length; i++) {
+                    WaveletMassDetector detector = new WaveletMassDetector(parameter, DataX[i], DataY[i], NoPoints[i]);
+                    detector.Run();
+                    for (ArrayList<XYData> ridge : detector.PeakRidge) {
+                        count += ridge.size();
+                    }
+                }
+                return count;
+            }
+        };
+    }
+
+    //CWT followed by linking the local maxima of the scales into peak ridges and peak regions
+    private Benchmark PeakRegionDetection() {
+        return new Benchmark("PeakCurve.DetectPeakRegion x200") {
+            PeakCurve[] curves;
+
+            @Override
+            public void Setup() {
+                curves = MultiModalPeakCurves(4500);
+            }
+
+            @Override
+            public Object Run() {
+                int count = 0;
+                for (PeakCurve curve : curves) {
+                    curve.DetectPeakRegion();
+                    count += curve.GetPeakRegionList().size();
+                }
+                return count;
+            }
+        };
+    }
+
+    //1000 pairs of co-eluting smoothed peak curves
+    private Benchmark PeakCurveCorrelation() {
+        return new Benchmark("PeakCurveCorrCalc.CalPeakCorr x1000") {
+            PeakCurve[] curves;
+
+            @Override
+            public void Setup() {
+                Random random = new Random(5000);
+                curves = new PeakCurve[2000];
+                for (int i = 0; i < curves.length; i++) {
+                    curves[i] = SyntheticData.SmoothedPeakCurve(parameter, 500f, 10f + random.nextFloat() * 0.05f, 0.05f + random.nextFloat() * 0.1f, random);
+                }
+            }
+
+            @Override
+            public Object Run() throws Exception {
+                float sum = 0f;
+                for (int i = 0; i < curves.length; i += 2) {
+                    sum += PeakCurveCorrCalc.CalPeakCorr(curves[i], curves[i + 1], parameter.NoPeakPerMin);
+                }
+                return sum;
+            }
+        };
+    }
+
+    private Benchmark PearsonCorrelation() {
+        return new Benchmark("PearsonCorr.CalcCorr x1000") {
+            XYPointCollection[] profiles;
+
+            @Override
+            public void Setup() {
+                Random random = new Random(6000);
+                profiles = new XYPointCollection[2000];
+                for (int i = 0; i < profiles.length; i++) {
+                    profiles[i] = SyntheticData.SmoothedPeakCurve(parameter, 500f, 10f + random.nextFloat() * 0.05f, 0.1f, random).GetSmoothedList();
+                }
+            }
+
+            @Override
+            public Object Run() {
+                PearsonCorr corr = new PearsonCorr();
+                float sum = 0f;
+                for (int i = 0; i < profiles.length; i += 2) {
+                    sum += corr.CalcCorr(profiles[i], profiles[i + 1], parameter.NoPeakPerMin);
+                }
+                return sum;
+            }
+        };
+    }
+
+    //100 library spectra with 20 fragments, each scored against 20 of 500 precursor-fragment groups with 300 fragments
+    private Benchmark SpectralLibraryMatching() {
+        return new Benchmark("UmpireSpecLibMatch scoring x100") {
+            LCMSPeakMS1 ms1lcms;
+            LCMSPeakDIAMS2 DIAWindow;
+            PepFragmentLib[] libs;
+            PepIonID[] pepIonIDs;
+
+            @Override
+            public void Setup() {
+                Random random = new Random(7000);
+                libs = new PepFragmentLib[100];
+                for (int i = 0; i < libs.length; i++) {
+                    libs[i] = SyntheticData.FragmentLib(20, 7100 + i);
+                }
+                ms1lcms = new LCMSPeakMS1("benchmark.mzXML", parameter, NoCPUs);
+                ms1lcms.PeakClusters = new ArrayList<>(Arrays.asList(SyntheticData.PeakClusters(parameter, 500, 300, libs[0], 7200)));
+                DIAWindow = new LCMSPeakDIAMS2("benchmark.mzXML", null, parameter, new XYData(400f, 425f), null, null, NoCPUs);
+                pepIonIDs = new PepIonID[libs.length];
+                for (int i = 0; i < libs.length; i++) {
+                    PepIonID pepIonID = new PepIonID();
+                    pepIonID.ModSequence = pepIonID.Sequence = libs[i].Sequence;
+                    pepIonID.Charge = libs[i].Charge;
+                    pepIonID.SetMz(410f);
+                    pepIonID.PredictRT.add(50f);
+                    for (int j = 0; j < 20; j++) {
+                        pepIonID.MS1PeakClusters.add(ms1lcms.PeakClusters.get(random.nextInt(ms1lcms.PeakClusters.size())));
+                    }
+                    pepIonIDs[i] = pepIonID;
+                }
+            }
+
+            @Override
+            public Object Run() {
+                int count = 0;
+                for (int i = 0; i < libs.length; i++) {
+                    UmpireSpecLibMatch match = new UmpireSpecLibMatch(ms1lcms, DIAWindow, pepIonIDs[i], libs[i], null, parameter);
+                    match.IdentifiedPeptideIon = true;
+                    match.run();
+                    count += match.TargetHits.size();
+                }
+                return count;
+            }
+        };
+    }
+
+    //FST serialization of 5000 isotope clusters with monoisotopic peak curves and 100 grouped fragments
+    private Benchmark PeakClusterWrite() {
+        return new Benchmark("LCMSPeakBase.FS_PeakClusterWrite") {
+            File folder;
+            LCMSPeakMS1 lcms;
+
+            @Override
+            public void Setup() throws Exception {
+                folder = Files.createTempDirectory("umpirebench").toFile();
+                lcms = CreatePeakClusterLCMS(folder);
+            }
+
+            @Override
+            public Object Run() {
+                lcms.WritePeakClusterSerialization();
+                return lcms;
+            }
+
+            @Override
+            public void TearDown() throws Exception {
+                FileUtils.deleteDirectory(folder);
+            }
+        };
+    }
+
+    private Benchmark PeakClusterRead() {
+        return new Benchmark("LCMSPeakBase.FS_PeakClusterRead") {
+            File folder;
+            LCMSPeakMS1 lcms;
+
+            @Override
+            public void Setup() throws Exception {
+                folder = Files.createTempDirectory("umpirebench").toFile();
+                lcms = CreatePeakClusterLCMS(folder);
+                lcms.WritePeakClusterSerialization();
+            }
+
+            @Override
+            public Object Run() {
+                if (!lcms.ReadPeakCluster()) {
+                    throw new IllegalStateException("Reading PeakCluster serialization failed");
+                }
+                return lcms.PeakClusters;
+            }
+
+            @Override
+            public void TearDown() throws Exception {
+                FileUtils.deleteDirectory(folder);
+            }
+        };
+    }
+
+    private LCMSPeakMS1 CreatePeakClusterLCMS(File folder) {
+        LCMSPeakMS1 lcms = new LCMSPeakMS1(new File(folder, "benchmark.mzXML").getAbsolutePath(), parameter, NoCPUs);
+        lcms.CreatePeakFolder();
+        lcms.PeakClusters = new ArrayList<>(Arrays.asList(SyntheticData.PeakClusters(parameter, 5000, 100, null, 8000)));
+        return lcms;
+    }
+
+    //ScanData.CloneScanData leaves the data unsorted and doesn't copy the background
+    private static ScanData CloneScan(ScanData scan) {
+        ScanData newscan = scan.CloneScanData();
+        newscan.Data.Finalize();
+        newscan.background = scan.background;
+        return newscan;
+    }
+}
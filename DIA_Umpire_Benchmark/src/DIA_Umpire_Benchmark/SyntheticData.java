@@ -0,0 +1,280 @@
+/* 
+ * Author: Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ *             Nesvizhskii Lab, Department of Computational Medicine and Bioinformatics, 
+ *             University of Michigan, Ann Arbor
+ *
+ * Copyright 2014 University of Michigan, Ann Arbor, MI
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package DIA_Umpire_Benchmark;
+
+import MSUmpire.BaseDataStructure.InstrumentParameter;
+import MSUmpire.BaseDataStructure.ScanCollection;
+import MSUmpire.BaseDataStructure.ScanData;
+import MSUmpire.BaseDataStructure.XYPointCollection;
+import MSUmpire.BaseDataStructure.XYZData;
+import MSUmpire.PSMDataStructure.FragmentPeakGroup;
+import MSUmpire.PSMDataStructure.PepFragmentLib;
+import MSUmpire.PeakDataStructure.PeakCluster;
+import MSUmpire.PeakDataStructure.PeakCurve;
+import MSUmpire.PeakDataStructure.PrecursorFragmentPairEdge;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * Deterministic synthetic spectra, peak curves, isotope clusters and library spectra for benchmarking.
+ * All data are generated from fixed seeds before timing starts, so the same input is used in every run.
+ * @author Chih-Chiang Tsou <chihchiang.tsou@gmail.com>
+ */
+public class SyntheticData {
+
+    public static final float ScanInterval = 0.05f;//min
+    private static final float MinMz = 300f;
+    private static final float MaxMz = 1500f;
+
+    //Sorted random m/z values
+    private static float[] RandomMz(Random random, int NoPeaks) {
+        float[] mz = new float[NoPeaks];
+        for (int i = 0; i < NoPeaks; i++) {
+            mz[i] = MinMz + random.nextFloat() * (MaxMz - MinMz);
+        }
+        Arrays.sort(mz);
+        return mz;
+    }
+
+    //Log-normal intensity
+    private static float RandomIntensity(Random random, float median) {
+        return (float) (median * Math.exp(random.nextGaussian()));
+    }
+
+    //Profile mode scan, Gaussian peak shapes sampled at 1/8 of the FWHM given by the resolution
+    public static ScanData ProfileScan(int ScanNum, float RT, int NoPeaks, int Resolution, long seed) {
+        Random random = new Random(seed);
+        ScanData scan = CreateScan(ScanNum, RT, 1);
+        scan.centroided = false;
+        for (float center : RandomMz(random, NoPeaks)) {
+            float height = RandomIntensity(random, 5000f);
+            float fwhm = center / Resolution;
+            float sigma = fwhm / 2.3548f;
+            float step = fwhm / 8f;
+            for (float mz = center - 3f * sigma; mz <= center + 3f * sigma; mz += step) {
+                float intensity = (float) (height * Math.exp(-(mz - center) * (mz - center) / (2f * sigma * sigma)));
+                scan.AddPoint(mz, intensity);
+            }
+        }
+        scan.Data.Finalize();
+        return scan;
+    }
+
+    public static ScanData CentroidScan(int ScanNum, float RT, int MsLevel, int NoPeaks, long seed) {
+        Random random = new Random(seed);
+        ScanData scan = CreateScan(ScanNum, RT, MsLevel);
+        for (float mz : RandomMz(random, NoPeaks)) {
+            scan.AddPoint(mz, RandomIntensity(random, 2000f));
+        }
+        scan.Data.Finalize();
+        return scan;
+    }
+
+    private static ScanData CreateScan(int ScanNum, float RT, int MsLevel) {
+        ScanData scan = new ScanData();
+        scan.ScanNum = ScanNum;
+        scan.RetentionTime = RT;
+        scan.MsLevel = MsLevel;
+        scan.centroided = true;
+        scan.StartMz = MinMz;
+        scan.EndMz = MaxMz;
+        return scan;
+    }
+
+    /**
+     * Centroided MS1 scans of an LC run with NoTraces Gaussian elution profiles
+     * (SD 0.05-0.15 min) and NoNoisePeaks random noise peaks per scan
+     */
+    public static ScanCollection MS1ScanCollection(InstrumentParameter parameter, int NoScans, int NoTraces, int NoNoisePeaks, long seed) {
+        Random random = new Random(seed);
+        float RunTime = NoScans * ScanInterval;
+        float[] TraceMz = RandomMz(random, NoTraces);
+        float[] ApexRT = new float[NoTraces];
+        float[] Sigma = new float[NoTraces];
+        float[] Height = new float[NoTraces];
+        for (int i = 0; i < NoTraces; i++) {
+            ApexRT[i] = random.nextFloat() * RunTime;
+            Sigma[i] = 0.05f + random.nextFloat() * 0.1f;
+            Height[i] = RandomIntensity(random, 20000f);
+        }
+        ScanCollection scanCollection = new ScanCollection(parameter.Resolution);
+        for (int scanNo = 1; scanNo <= NoScans; scanNo++) {
+            float rt = scanNo * ScanInterval;
+            ScanData scan = CreateScan(scanNo, rt, 1);
+            for (int i = 0; i < NoTraces; i++) {
+                float delta = (rt - ApexRT[i]) / Sigma[i];
+                if (Math.abs(delta) < 4f) {
+                    float intensity = (float) (Height[i] * Math.exp(-delta * delta / 2f) * (1f + 0.05f * random.nextGaussian()));
+                    if (intensity > parameter.MinMSIntensity) {
+                        //m/z error of about 2 ppm
+                        scan.AddPoint(TraceMz[i] * (1f + (float) random.nextGaussian() * 2e-6f), intensity);
+                    }
+                }
+            }
+            for (int i = 0; i < NoNoisePeaks; i++) {
+                scan.AddPoint(MinMz + random.nextFloat() * (MaxMz - MinMz), parameter.MinMSIntensity * (1f + random.nextFloat()));
+            }
+            scan.Data.Finalize();
+            scan.background = parameter.MinMSIntensity;
+            scanCollection.AddScan(scan);
+        }
+        return scanCollection;
+    }
+
+    //Raw XIC (RT, intensity) of a Gaussian elution profile with 5% multiplicative noise, sampled every ScanInterval
+    public static XYPointCollection ElutionProfile(float ApexRT, float Sigma, float Height, Random random) {
+        XYPointCollection profile = new XYPointCollection();
+        float startRT = ApexRT - 3f * Sigma;
+        for (float rt = startRT; rt <= ApexRT + 3f * Sigma; rt += ScanInterval) {
+            float delta = (rt - ApexRT) / Sigma;
+            profile.AddPoint(rt, (float) (Height * Math.exp(-delta * delta / 2f) * (1f + 0.05f * random.nextGaussian())));
+        }
+        profile.Data.Finalize();
+        return profile;
+    }
+
+    //Peak curve with raw peaks and B-spline smoothed XIC
+    public static PeakCurve SmoothedPeakCurve(InstrumentParameter parameter, float mz, float ApexRT, float Sigma, Random random) {
+        PeakCurve curve = new PeakCurve(parameter);
+        XYPointCollection profile = ElutionProfile(ApexRT, Sigma, RandomIntensity(random, 20000f), random);
+        for (int i = 0; i < profile.PointCount(); i++) {
+            curve.AddPeak(new XYZData(profile.Data.GetX(i), mz, profile.Data.GetY(i)));
+        }
+        curve.DoBspline();
+        return curve;
+    }
+
+    //Smoothed peak curve of NoPeaks co-eluting Gaussian profiles (SD 0.03-0.1 min) within Span minutes, sampled every ScanInterval
+    public static PeakCurve MultiModalPeakCurve(InstrumentParameter parameter, float mz, float StartRT, float Span, int NoPeaks, Random random) {
+        float[] ApexRT = new float[NoPeaks];
+        float[] Sigma = new float[NoPeaks];
+        float[] Height = new float[NoPeaks];
+        for (int i = 0; i < NoPeaks; i++) {
+            ApexRT[i] = StartRT + 0.2f * Span + random.nextFloat() * 0.6f * Span;
+            Sigma[i] = 0.03f + random.nextFloat() * 0.07f;
+            Height[i] = RandomIntensity(random, 20000f);
+        }
+        PeakCurve curve = new PeakCurve(parameter);
+        for (float rt = StartRT; rt <= StartRT + Span; rt += ScanInterval) {
+            float intensity = 0f;
+            for (int i = 0; i < NoPeaks; i++) {
+                float delta = (rt - ApexRT[i]) / Sigma[i];
+                intensity += Height[i] * Math.exp(-delta * delta / 2f);
+            }
+            curve.AddPeak(new XYZData(rt, mz, intensity * (1f + 0.05f * (float) random.nextGaussian()) + 1f));
+        }
+        curve.DoBspline();
+        return curve;
+    }
+
+    /**
+     * Isotope clusters with smoothed monoisotopic peak curves and NoFragments grouped fragments each,
+     * ten percent of the fragments are placed within 5 ppm of the library fragments of FragmentLib(seed)
+     */
+    public static PeakCluster[] PeakClusters(InstrumentParameter parameter, int NoClusters, int NoFragments, PepFragmentLib lib, long seed) {
+        Random random = new Random(seed);
+        FragmentPeakGroup[] libfrags = lib == null ? new FragmentPeakGroup[0] : lib.FragmentGroups.values().toArray(new FragmentPeakGroup[0]);
+        PeakCluster[] clusters = new PeakCluster[NoClusters];
+        for (int i = 0; i < NoClusters; i++) {
+            PeakCluster cluster = new PeakCluster(parameter.MaxNoPeakCluster, 2);
+            cluster.Index = i + 1;
+            float mz = MinMz + random.nextFloat() * (MaxMz - MinMz);
+            float rt = 10f + random.nextFloat() * 100f;
+            for (int j = 0; j < cluster.mz.length; j++) {
+                cluster.mz[j] = mz + j * 1.00335f / cluster.Charge;
+                cluster.PeakHeight[j] = RandomIntensity(random, 20000f) / (j + 1);
+                cluster.PeakHeightRT[j] = rt;
+                cluster.PeakArea[j] = cluster.PeakHeight[j] * 0.2f;
+                cluster.IsoPeakIndex[j] = i * cluster.mz.length + j + 1;
+            }
+            for (int j = 0; j < cluster.Corrs.length; j++) {
+                cluster.Corrs[j] = 0.7f + 0.3f * random.nextFloat();
+            }
+            cluster.startRT = rt - 0.3f;
+            cluster.endRT = rt + 0.3f;
+            cluster.MS1Score = random.nextFloat();
+            cluster.IsoMapProb = random.nextFloat();
+            cluster.MonoIsotopePeak = SmoothedPeakCurve(parameter, mz, rt, 0.1f, random);
+            for (int j = 0; j < NoFragments; j++) {
+                PrecursorFragmentPairEdge edge = new PrecursorFragmentPairEdge();
+                if (libfrags.length > 0 && random.nextInt(10) == 0) {
+                    edge.FragmentMz = libfrags[random.nextInt(libfrags.length)].FragMZ * (1f + (random.nextFloat() - 0.5f) * 1e-5f);
+                } else {
+                    edge.FragmentMz = 100f + random.nextFloat() * (MaxMz - 100f);
+                }
+                edge.Intensity = RandomIntensity(random, 2000f);
+                edge.Correlation = 0.2f + 0.8f * random.nextFloat();
+                edge.ApexDelta = random.nextFloat();
+                edge.RTOverlapP = random.nextFloat();
+                cluster.GroupedFragmentPeaks.add(edge);
+            }
+            clusters[i] = cluster;
+        }
+        return clusters;
+    }
+
+    //Library spectrum with NoFragments b/y fragments
+    public static PepFragmentLib FragmentLib(int NoFragments, long seed) {
+        Random random = new Random(seed);
+        PepFragmentLib lib = new PepFragmentLib();
+        lib.ModSequence = lib.Sequence = "PEPTIDESEQUENCEK";
+        lib.Charge = 2;
+        for (int i = 0; i < NoFragments; i++) {
+            FragmentPeakGroup frag = new FragmentPeakGroup();
+            frag.IonType = (i % 2 == 0 ? "b" : "y") + (i / 2 + 1);
+            frag.Charge = 1;
+            frag.FragMZ = 150f + random.nextFloat() * 1200f;
+            for (int j = 0; j < 3; j++) {
+                frag.IntensityGroup.add(random.nextFloat());
+                frag.CorrGroup.add(random.nextFloat());
+            }
+            lib.FragmentGroups.put(frag.IonType + "_" + frag.Charge, frag);
+        }
+        return lib;
+    }
+
+    //mzXML <scan> element of a centroided scan, 32-bit zlib-compressed network order peaks
+    public static byte[] MzXMLScan(ScanData scan) {
+        ByteBuffer buffer = ByteBuffer.allocate(scan.PointCount() * 8);
+        for (int i = 0; i < scan.PointCount(); i++) {
+            buffer.putFloat(scan.Data.GetX(i));
+            buffer.putFloat(scan.Data.GetY(i));
+        }
+        Deflater deflater = new Deflater();
+        deflater.setInput(buffer.array());
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        String peaks = new String(Base64.encodeBase64(compressed.toByteArray()));
+        String xml = "<scan num=\"" + scan.ScanNum + "\" scanType=\"Full\" centroided=\"1\" msLevel=\"" + scan.MsLevel + "\" peaksCount=\"" + scan.PointCount() + "\" polarity=\"+\""
+                + " retentionTime=\"PT" + scan.RetentionTime * 60f + "S\" lowMz=\"" + scan.StartMz + "\" highMz=\"" + scan.EndMz + "\" totIonCurrent=\"" + scan.TotIonCurrent() + "\">\n"
+                + "<peaks compressionType=\"zlib\" compressedLen=\"" + compressed.size() + "\" precision=\"32\" byteOrder=\"network\" contentType=\"m/z-int\">" + peaks + "</peaks>\n"
+                + "</scan>\n";
+        return xml.getBytes();
+    }
+}
@@ -31,6 +31,7 @@ import MSUmpire.FragmentLib.FragmentLibManager;
 import MSUmpire.BaseDataStructure.DBSearchParam;
 import MSUmpire.BaseDataStructure.TandemParam;
 import MSUmpire.PSMDataStructure.LCMSID;
+import MSUmpire.PSMDataStructure.IDKeyPool;
 import MSUmpire.PSMDataStructure.PTMManager;
 import MSUmpire.Utility.ConsoleLogger;
 import java.io.BufferedReader;
@@ -69,6 +70,8 @@ public class DIA_Umpire_IntLibSearch {
 
         Logger.getRootLogger().info("Version: " + UmpireInfo.GetInstance().Version);
         Logger.getRootLogger().info("Parameter file:" + args[0]);
+        //Identification keys of a previous job run in the same JVM are not needed any more
+        IDKeyPool.NewSession();
 
         BufferedReader reader = new BufferedReader(new FileReader(args[0]));
         String line = "";
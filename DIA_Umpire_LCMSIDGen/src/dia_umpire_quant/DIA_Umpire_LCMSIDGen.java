@@ -23,6 +23,7 @@ import MSUmpire.BaseDataStructure.UmpireInfo;
 import MSUmpire.DIA.DIAPack;
 import MSUmpire.BaseDataStructure.DBSearchParam;
 import MSUmpire.BaseDataStructure.TandemParam;
+import MSUmpire.PSMDataStructure.IDKeyPool;
 import MSUmpire.PSMDataStructure.PTMManager;
 import MSUmpire.Utility.ConsoleLogger;
 import java.io.BufferedReader;
@@ -61,6 +62,8 @@ public class DIA_Umpire_LCMSIDGen {
 
         Logger.getRootLogger().info("Version: " + UmpireInfo.GetInstance().Version);
         Logger.getRootLogger().info("Parameter file:" + args[0]);
+        //Identification keys of a previous job run in the same JVM are not needed any more
+        IDKeyPool.NewSession();
 
         BufferedReader reader = new BufferedReader(new FileReader(args[0]));
         String line = "";
@@ -30,6 +30,7 @@ import MSUmpire.BaseDataStructure.DBSearchParam;
 import MSUmpire.BaseDataStructure.TandemParam;
 import MSUmpire.PSMDataStructure.FragmentPeak;
 import MSUmpire.PSMDataStructure.LCMSID;
+import MSUmpire.PSMDataStructure.IDKeyPool;
 import MSUmpire.PSMDataStructure.PTMManager;
 import MSUmpire.PSMDataStructure.ProtID;
 import MSUmpire.PSMDataStructure.FragmentSelection;
@@ -74,6 +75,8 @@ public class DIA_Umpire_ProtQuant {
 
         Logger.getRootLogger().info("Version: "+UmpireInfo.GetInstance().Version);
         Logger.getRootLogger().info("Parameter file:" + args[0]);
+        //Identification keys of a previous job run in the same JVM are not needed any more
+        IDKeyPool.NewSession();
 
         BufferedReader reader = new BufferedReader(new FileReader(args[0]));
         String line = "";
@@ -438,6 +441,7 @@ public class DIA_Umpire_ProtQuant {
     }
 
     private static void SaintOutput(LCMSID protID, LCMSID IDsummary, FragmentSelection fragselection, FileWriter interactionfile, String filename, String samplename, HashMap<String, String> PreyID, int quanttype) throws IOException {
+        int fileindex = fragselection.GetFileIndex(IDsummary);
         for (String key : protID.ProteinList.keySet()) {
             if (IDsummary.ProteinList.containsKey(key)) {
                 ProtID protein = IDsummary.ProteinList.get(key);
@@ -446,7 +450,7 @@ public class DIA_Umpire_ProtQuant {
                 if (quanttype == 1) {
                     abundance = protein.GetAbundanceByMS1_IBAQ();
                 } else if (quanttype == 2) {
-                    abundance = protein.GetAbundanceByTopCorrFragAcrossSample(fragselection.TopPeps.get(protein.getAccNo()), fragselection.TopFrags);
+                    abundance = fragselection.GetProtAbundance(protein, fileindex);
                 }
                 if (abundance > 0) {
                     interactionfile.write(FilenameUtils.getBaseName(filename) + "\t" + samplename + "\t" + protein.getAccNo() + "\t" + abundance + "\n");
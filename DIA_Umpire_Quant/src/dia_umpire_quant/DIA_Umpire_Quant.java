@@ -28,12 +28,15 @@ import FDREstimator.FDR_DataSetLevel;
 import MSUmpire.BaseDataStructure.UmpireInfo;
 import MSUmpire.DIA.DIAPack;
 import MSUmpire.DIA.RTAlignedPepIonMapping;
+import MSUmpire.DIA.RTConsensusAlignment;
 import MSUmpire.DIA.RTMappingExtLib;
 import MSUmpire.FragmentLib.FragmentLibManager;
 import MSUmpire.BaseDataStructure.DBSearchParam;
 import MSUmpire.BaseDataStructure.TandemParam;
 import MSUmpire.PSMDataStructure.FragmentPeak;
 import MSUmpire.PSMDataStructure.LCMSID;
+import MSUmpire.PSMDataStructure.PepIonID;
+import MSUmpire.PSMDataStructure.IDKeyPool;
 import MSUmpire.PSMDataStructure.PTMManager;
 import MSUmpire.PSMDataStructure.ProtID;
 import MSUmpire.PSMDataStructure.FragmentSelection;
@@ -41,6 +44,8 @@ import MSUmpire.Utility.ExportTable;
 import MSUmpire.SearchResultParser.ProtXMLParser;
 import MSUmpire.Utility.ConsoleLogger;
 import MSUmpire.Utility.DateTimeTag;
+import MSUmpire.Utility.HeapBudgetScheduler;
+import MSUmpire.Utility.SharedExecutor;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -81,11 +86,14 @@ public class DIA_Umpire_Quant {
 
             Logger.getRootLogger().info("Version: " + UmpireInfo.GetInstance().Version);
             Logger.getRootLogger().info("Parameter file:" + args[0]);
+            //Identification keys of a previous job run in the same JVM are not needed any more
+            IDKeyPool.NewSession();
 
             BufferedReader reader = new BufferedReader(new FileReader(args[0]));
             String line = "";
             String WorkFolder = "";
             int NoCPUs = 2;
+            int HeapBudgetMB = 0;
 
             String UserMod = "";
             String Combined_Prot = "";
@@ -104,6 +112,7 @@ public class DIA_Umpire_Quant {
             float MinWeight = 0.9f;
             float RTWindow_Int = -1f;
             float RTWindow_Ext = -1f;
+            boolean ConsensusRTAlignment = false;
 
             TandemParam tandemPara = new TandemParam(DBSearchParam.SearchInstrumentType.TOF5600);
             HashMap<String, File> AssignFiles = new HashMap<>();
@@ -172,6 +181,14 @@ public class DIA_Umpire_Quant {
                             NoCPUs = Integer.parseInt(value);
                             break;
                         }
+                        case "HeapBudget": {
+                            HeapBudgetMB = Integer.parseInt(value);
+                            break;
+                        }
+                        case "ConsensusRTAlignment": {
+                            ConsensusRTAlignment = Boolean.parseBoolean(value);
+                            break;
+                        }
                         case "Fasta": {
                             tandemPara.FastaPath = value;
                             break;
@@ -425,30 +442,43 @@ public class DIA_Umpire_Quant {
                 }
             }
 
+            //Files are processed at the same time within the heap budget until the combined LCMSID list is needed
+            final int NoFileCPUs = NoCPUs;
+            final long HeapBudget = HeapBudgetMB > 0 ? (long) HeapBudgetMB * 1048576 : Runtime.getRuntime().maxMemory() / 2;
+            final TandemParam searchPara = tandemPara;
+            final LCMSID refID = combinePepID;
+
             //process each DIA file for quantification based on untargeted identifications
+            ArrayList<FileUnit> QuantUnits = new ArrayList<>();
             for (DIAPack DiaFile : FileList) {
-                long time = System.currentTimeMillis();
-                Logger.getRootLogger().info("Loading identification results " + DiaFile.Filename + "....");
-
-                //If the LCMSID serialization is found
-                if (!DiaFile.ReadSerializedLCMSID()) {
-                    DiaFile.ParsePepXML(tandemPara, combinePepID);
-                    DiaFile.BuildStructure();
-                    if (!DiaFile.MS1FeatureMap.ReadPeakCluster()) {
-                        Logger.getRootLogger().info("Loading peak and structure failed, job is incomplete");
-                        System.exit(1);
+                QuantUnits.add(new FileUnit(DiaFile) {
+                    @Override
+                    void Process(DIAPack DiaFile) throws Exception {
+                        long time = System.currentTimeMillis();
+                        Logger.getRootLogger().info("Loading identification results " + DiaFile.Filename + "....");
+
+                        //If the LCMSID serialization is found
+                        if (!DiaFile.ReadSerializedLCMSID()) {
+                            DiaFile.ParsePepXML(searchPara, refID);
+                            DiaFile.BuildStructure();
+                            if (!DiaFile.MS1FeatureMap.ReadPeakCluster()) {
+                                Logger.getRootLogger().info("Loading peak and structure failed, job is incomplete");
+                                System.exit(1);
+                            }
+                            DiaFile.MS1FeatureMap.ClearMonoisotopicPeakOfCluster();
+                            //Generate mapping between index of precursor feature and pseudo MS/MS scan index 
+                            DiaFile.GenerateClusterScanNomapping();
+                            //Doing quantification
+                            DiaFile.AssignQuant();
+                            DiaFile.ClearStructure();
+                        }
+                        DiaFile.IDsummary.ReduceMemoryUsage();
+                        time = System.currentTimeMillis() - time;
+                        Logger.getRootLogger().info(DiaFile.Filename + " processed time:" + String.format("%d hour, %d min, %d sec", TimeUnit.MILLISECONDS.toHours(time), TimeUnit.MILLISECONDS.toMinutes(time) - TimeUnit.HOURS.toMinutes(TimeUnit.MILLISECONDS.toHours(time)), TimeUnit.MILLISECONDS.toSeconds(time) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(time))));
                     }
-                    DiaFile.MS1FeatureMap.ClearMonoisotopicPeakOfCluster();
-                    //Generate mapping between index of precursor feature and pseudo MS/MS scan index 
-                    DiaFile.GenerateClusterScanNomapping();
-                    //Doing quantification
-                    DiaFile.AssignQuant();
-                    DiaFile.ClearStructure();
-                }
-                DiaFile.IDsummary.ReduceMemoryUsage();
-                time = System.currentTimeMillis() - time;
-                Logger.getRootLogger().info(DiaFile.Filename + " processed time:" + String.format("%d hour, %d min, %d sec", TimeUnit.MILLISECONDS.toHours(time), TimeUnit.MILLISECONDS.toMinutes(time) - TimeUnit.HOURS.toMinutes(TimeUnit.MILLISECONDS.toHours(time)), TimeUnit.MILLISECONDS.toSeconds(time) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(time))));
+                });
             }
+            ProcessFiles(QuantUnits, NoFileCPUs, HeapBudget);
 
             //<editor-fold defaultstate="collapsed" desc="Targete re-extraction using internal library">            
             Logger.getRootLogger().info("=================================================================================================");
@@ -472,39 +502,85 @@ public class DIA_Umpire_Quant {
                 for (int i = 0; i < FileList.size(); i++) {
                     FileList.get(i).IDsummary.ClearMappedPep();
                 }
-                for (int i = 0; i < FileList.size(); i++) {
-                    for (int j = i + 1; j < FileList.size(); j++) {
-                        RTAlignedPepIonMapping alignment = new RTAlignedPepIonMapping(WorkFolder, FileList.get(i).GetParameter(), FileList.get(i).IDsummary, FileList.get(j).IDsummary);
-                        alignment.GenerateModel();
-                        alignment.GenerateMappedPepIon();
+                if (ConsensusRTAlignment) {
+                    //Align each file once against a consensus RT scale
+                    ArrayList<LCMSID> LCMSIDList = new ArrayList<>();
+                    for (DIAPack dia : FileList) {
+                        LCMSIDList.add(dia.IDsummary);
+                    }
+                    RTConsensusAlignment alignment = new RTConsensusAlignment(WorkFolder, FileList.get(0).GetParameter(), LCMSIDList, NoCPUs);
+                    alignment.GenerateMappedPepIon();
+                    for (DIAPack dia : FileList) {
+                        dia.ExportID();
+                        dia.IDsummary = null;
+                    }
+                } else {
+                    //RTs of identified peptide ions are computed lazily, compute them before the models are built at the same time
+                    for (DIAPack dia : FileList) {
+                        for (PepIonID pepion : dia.IDsummary.GetPepIonList().values()) {
+                            pepion.GetRT();
+                        }
+                    }
+                    //Models of a file to the following files are built at the same time, peptide ions are mapped in file order
+                    for (int i = 0; i < FileList.size(); i++) {
+                        ArrayList<RTAlignedPepIonMapping> alignments = new ArrayList<>();
+                        SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(NoCPUs);
+                        for (int j = i + 1; j < FileList.size(); j++) {
+                            final RTAlignedPepIonMapping alignment = new RTAlignedPepIonMapping(WorkFolder, FileList.get(i).GetParameter(), FileList.get(i).IDsummary, FileList.get(j).IDsummary);
+                            alignments.add(alignment);
+                            taskGroup.Execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        alignment.GenerateModel();
+                                    } catch (IOException ex) {
+                                        throw new RuntimeException(ex);
+                                    }
+                                }
+                            });
+                        }
+                        taskGroup.Await();
+                        for (RTAlignedPepIonMapping alignment : alignments) {
+                            alignment.GenerateMappedPepIon();
+                        }
+                        FileList.get(i).ExportID();
+                        FileList.get(i).IDsummary = null;
                     }
-                    FileList.get(i).ExportID();
-                    FileList.get(i).IDsummary = null;
                 }
 
                 Logger.getRootLogger().info("Targeted matching........");
-                for (DIAPack diafile : FileList) {
-                    if (diafile.IDsummary == null) {
-                        diafile.ReadSerializedLCMSID();
-                    }
-                    if (!diafile.IDsummary.GetMappedPepIonList().isEmpty()) {
-                        diafile.UseMappedIon = true;
-                        diafile.FilterMappedIonByProb = false;
-                        diafile.BuildStructure();
-                        diafile.MS1FeatureMap.ReadPeakCluster();
-                        diafile.MS1FeatureMap.ClearMonoisotopicPeakOfCluster();
-                        diafile.GenerateMassCalibrationRTMap();
-                        diafile.TargetedExtractionQuant(false, libManager, 1.1f, RTWindow_Int);
-                        diafile.MS1FeatureMap.ClearAllPeaks();
-                        diafile.IDsummary.ReduceMemoryUsage();
-                        diafile.IDsummary.RemoveLowProbMappedIon(ProbThreshold);
-                        diafile.ExportID();
-                        Logger.getRootLogger().info("Peptide ions: " + diafile.IDsummary.GetPepIonList().size() + " Mapped ions: " + diafile.IDsummary.GetMappedPepIonList().size());
-                        diafile.ClearStructure();
-                    }
-                    diafile.IDsummary = null;
-                    System.gc();
+                final FragmentLibManager IntlibManager = libManager;
+                final float IntRTWindow = RTWindow_Int;
+                final float IntProbThreshold = ProbThreshold;
+                ArrayList<FileUnit> MatchUnits = new ArrayList<>();
+                for (DIAPack DiaFile : FileList) {
+                    MatchUnits.add(new FileUnit(DiaFile) {
+                        @Override
+                        void Process(DIAPack diafile) throws Exception {
+                            if (diafile.IDsummary == null) {
+                                diafile.ReadSerializedLCMSID();
+                            }
+                            if (!diafile.IDsummary.GetMappedPepIonList().isEmpty()) {
+                                diafile.UseMappedIon = true;
+                                diafile.FilterMappedIonByProb = false;
+                                diafile.BuildStructure();
+                                diafile.MS1FeatureMap.ReadPeakCluster();
+                                diafile.MS1FeatureMap.ClearMonoisotopicPeakOfCluster();
+                                diafile.GenerateMassCalibrationRTMap();
+                                diafile.TargetedExtractionQuant(false, IntlibManager, 1.1f, IntRTWindow);
+                                diafile.MS1FeatureMap.ClearAllPeaks();
+                                diafile.IDsummary.ReduceMemoryUsage();
+                                diafile.IDsummary.RemoveLowProbMappedIon(IntProbThreshold);
+                                diafile.ExportID();
+                                Logger.getRootLogger().info("Peptide ions: " + diafile.IDsummary.GetPepIonList().size() + " Mapped ions: " + diafile.IDsummary.GetMappedPepIonList().size());
+                                diafile.ClearStructure();
+                            }
+                            diafile.IDsummary = null;
+                        }
+                    });
                 }
+                ProcessFiles(MatchUnits, NoFileCPUs, HeapBudget);
+                System.gc();
                 Logger.getRootLogger().info("=================================================================================================");
             }
             //</editor-fold>
@@ -527,28 +603,39 @@ public class DIA_Umpire_Quant {
                     ExlibManager.WriteFragmentLibSerialization(WorkFolder);
                 }
                 Logger.getRootLogger().info("No. of peptide ions in external lib:" + ExlibManager.PeptideFragmentLib.size());
-                for (DIAPack diafile : FileList) {
-                    if (diafile.IDsummary == null) {
-                        diafile.ReadSerializedLCMSID();
-                    }
-                    //Generate RT mapping
-                    RTMappingExtLib RTmap = new RTMappingExtLib(diafile.IDsummary, ExlibManager, diafile.GetParameter());
-                    RTmap.GenerateModel();
-                    RTmap.GenerateMappedPepIon();
-
-                    diafile.BuildStructure();
-                    diafile.MS1FeatureMap.ReadPeakCluster();
-                    diafile.GenerateMassCalibrationRTMap();
-                    //Perform targeted re-extraction
-                    diafile.TargetedExtractionQuant(false, ExlibManager, ProbThreshold, RTWindow_Ext);
-                    diafile.MS1FeatureMap.ClearAllPeaks();
-                    diafile.IDsummary.ReduceMemoryUsage();
-                    //Remove target IDs below the defined probability threshold
-                    diafile.IDsummary.RemoveLowProbMappedIon(ExtProbThreshold);
-                    diafile.ExportID();
-                    diafile.ClearStructure();
-                    Logger.getRootLogger().info("Peptide ions: " + diafile.IDsummary.GetPepIonList().size() + " Mapped ions: " + diafile.IDsummary.GetMappedPepIonList().size());
+                final FragmentLibManager ExtlibManager = ExlibManager;
+                final float ExtRTWindow = RTWindow_Ext;
+                final float ExtReSearchProb = ProbThreshold;
+                final float ExtFilterProb = ExtProbThreshold;
+                ArrayList<FileUnit> ExtUnits = new ArrayList<>();
+                for (DIAPack DiaFile : FileList) {
+                    ExtUnits.add(new FileUnit(DiaFile) {
+                        @Override
+                        void Process(DIAPack diafile) throws Exception {
+                            if (diafile.IDsummary == null) {
+                                diafile.ReadSerializedLCMSID();
+                            }
+                            //Generate RT mapping
+                            RTMappingExtLib RTmap = new RTMappingExtLib(diafile.IDsummary, ExtlibManager, diafile.GetParameter());
+                            RTmap.GenerateModel();
+                            RTmap.GenerateMappedPepIon();
+
+                            diafile.BuildStructure();
+                            diafile.MS1FeatureMap.ReadPeakCluster();
+                            diafile.GenerateMassCalibrationRTMap();
+                            //Perform targeted re-extraction
+                            diafile.TargetedExtractionQuant(false, ExtlibManager, ExtReSearchProb, ExtRTWindow);
+                            diafile.MS1FeatureMap.ClearAllPeaks();
+                            diafile.IDsummary.ReduceMemoryUsage();
+                            //Remove target IDs below the defined probability threshold
+                            diafile.IDsummary.RemoveLowProbMappedIon(ExtFilterProb);
+                            diafile.ExportID();
+                            diafile.ClearStructure();
+                            Logger.getRootLogger().info("Peptide ions: " + diafile.IDsummary.GetPepIonList().size() + " Mapped ions: " + diafile.IDsummary.GetMappedPepIonList().size());
+                        }
+                    });
                 }
+                ProcessFiles(ExtUnits, NoFileCPUs, HeapBudget);
             }
             //</editor-fold>
 
@@ -656,7 +743,53 @@ public class DIA_Umpire_Quant {
         }
     }
 
+    //Processing step of one DIA file, run by ProcessFiles
+    private static abstract class FileUnit implements Runnable {
+
+        final DIAPack DiaFile;
+        Exception Error = null;
+
+        FileUnit(DIAPack DiaFile) {
+            this.DiaFile = DiaFile;
+        }
+
+        abstract void Process(DIAPack DiaFile) throws Exception;
+
+        @Override
+        public void run() {
+            try {
+                Process(DiaFile);
+            } catch (Exception ex) {
+                Error = ex;
+            }
+        }
+    }
+
+    //Run a processing step for each DIA file. Files are processed at the same time as long as their estimated heap sizes fit in the budget,
+    //a file larger than the budget is only started when no other file is running.
+    private static void ProcessFiles(ArrayList<FileUnit> Units, int NoCPUs, long HeapBudget) throws Exception {
+        new HeapBudgetScheduler<FileUnit, FileUnit>() {
+            @Override
+            protected long EstimateHeapSize(FileUnit unit) {
+                return unit.DiaFile.EstimateQuantHeapSize();
+            }
+
+            @Override
+            protected FileUnit Start(FileUnit unit, long HeapSize, long HeapInUse) {
+                return unit;
+            }
+
+            @Override
+            protected void Finish(FileUnit unit, FileUnit task) throws Exception {
+                if (unit.Error != null) {
+                    throw unit.Error;
+                }
+            }
+        }.Run(Units, NoCPUs, HeapBudget);
+    }
+
     private static void SaintOutput(LCMSID protID, LCMSID IDsummary, FragmentSelection fragselection, FileWriter interactionfile, String filename, String samplename, HashMap<String, String> PreyID, int quanttype) throws IOException {
+        int fileindex = fragselection.GetFileIndex(IDsummary);
         for (String key : protID.ProteinList.keySet()) {
             if (IDsummary.ProteinList.containsKey(key)) {
                 ProtID protein = IDsummary.ProteinList.get(key);
@@ -665,7 +798,7 @@ public class DIA_Umpire_Quant {
                 if (quanttype == 1) {
                     abundance = protein.GetAbundanceByMS1_IBAQ();
                 } else if (quanttype == 2) {
-                    abundance = protein.GetAbundanceByTopCorrFragAcrossSample(fragselection.TopPeps.get(protein.getAccNo()), fragselection.TopFrags);
+                    abundance = fragselection.GetProtAbundance(protein, fileindex);
                 }
                 if (abundance > 0) {
                     interactionfile.write(FilenameUtils.getBaseName(filename) + "\t" + samplename + "\t" + protein.getAccNo() + "\t" + abundance + "\n");
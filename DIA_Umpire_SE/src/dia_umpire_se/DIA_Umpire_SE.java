@@ -93,6 +93,7 @@ public class DIA_Umpire_SE {
 
         boolean ExportPrecursorPeak = false;
         boolean ExportFragmentPeak = false;
+        boolean Checkpoint = false;
 
         //<editor-fold defaultstate="collapsed" desc="Read parameter file">
         while ((line = reader.readLine()) != null) {
@@ -128,6 +129,10 @@ public class DIA_Umpire_SE {
                         ExportFragmentPeak = Boolean.parseBoolean(value);
                         break;
                     }
+                    case "Checkpoint": {
+                        Checkpoint = Boolean.parseBoolean(value);
+                        break;
+                    }
 
                     //<editor-fold defaultstate="collapsed" desc="instrument parameters">
                     case "RPmax": {
@@ -296,6 +301,18 @@ public class DIA_Umpire_SE {
                         param.MassDefectOffset = Float.valueOf(value);
                         break;
                     }
+                    case "SE.CacheScanPeaks": {
+                        param.CacheScanPeaks = Boolean.parseBoolean(value);
+                        break;
+                    }
+                    case "SE.DemultiplexDIAMS2": {
+                        param.DemultiplexDIAMS2 = Boolean.parseBoolean(value);
+                        break;
+                    }
+                    case "SE.WindowHeapBudget": {
+                        param.WindowHeapBudget = Integer.parseInt(value);
+                        break;
+                    }
                     
 
 //</editor-fold>//</editor-fold>
@@ -341,6 +358,7 @@ public class DIA_Umpire_SE {
                 //Initialize a DIA file data structure                
                 DIAPack DiaFile = new DIAPack(MSFile.getAbsolutePath(), NoCPUs);
                 DiaFile.Resume=Resume;
+                DiaFile.Checkpoint = Checkpoint;
                 DiaFile.SetDataType(dataType);
                 DiaFile.SetParameter(param);
                 
@@ -357,6 +375,7 @@ public class DIA_Umpire_SE {
                 
                 if (Fix) {
                     DiaFile.FixScanidx();
+                    DiaFile.ClearStructure();
                     return;
                 }
                 DiaFile.ExportPrecursorPeak = ExportPrecursorPeak;
@@ -364,6 +383,7 @@ public class DIA_Umpire_SE {
                 Logger.getRootLogger().info("Module A: Signal extraction");
                 //Start DIA signal extraction process to generate pseudo MS/MS files
                 DiaFile.process();
+                DiaFile.ClearStructure();
                 time = System.currentTimeMillis() - time;
                 Logger.getRootLogger().info(MSFilePath + " processed time:" + String.format("%d hour, %d min, %d sec", TimeUnit.MILLISECONDS.toHours(time), TimeUnit.MILLISECONDS.toMinutes(time) - TimeUnit.HOURS.toMinutes(TimeUnit.MILLISECONDS.toHours(time)), TimeUnit.MILLISECONDS.toSeconds(time) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(time))));
             }
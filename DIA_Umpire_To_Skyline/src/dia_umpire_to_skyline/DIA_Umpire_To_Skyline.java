@@ -26,13 +26,11 @@ package DIA_Umpire_To_Skyline;
  */
 import MSUmpire.BaseDataStructure.UmpireInfo;
 import MSUmpire.Utility.ConsoleLogger;
+import MSUmpire.Utility.SharedExecutor;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -115,20 +113,14 @@ public class DIA_Umpire_To_Skyline {
                 Logger.getRootLogger().info(fileEntry.getAbsolutePath());
             }
 
-            ExecutorService executorPool = null;
-            executorPool = Executors.newFixedThreadPool(3);
+            SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewTaskGroup(3);
 
             for (File fileEntry : AssignFiles.values()) {
                 String mzXMLFile = fileEntry.getAbsolutePath();
                 FileThread thread = new FileThread(mzXMLFile, NoCPUs,msconvertpath);
-                executorPool.execute(thread);
-            }
-            executorPool.shutdown();
-            try {
-                executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-            } catch (InterruptedException e) {
-                Logger.getRootLogger().info("interrupted..");
+                taskGroup.Execute(thread);
             }
+            taskGroup.Await();
         } catch (Exception e) {
             Logger.getRootLogger().error(e.getMessage());
             throw e;
@@ -11,14 +11,14 @@ import MSUmpire.LCMSPeakStructure.LCMSPeakMS1;
 import MSUmpire.BaseDataStructure.DBSearchParam;
 import MSUmpire.BaseDataStructure.TandemParam;
 import MSUmpire.PSMDataStructure.LCMSID;
+import MSUmpire.PSMDataStructure.IDKeyPool;
 import MSUmpire.PSMDataStructure.PTMManager;
 import MSUmpire.SearchResultParser.PepXMLParser;
 import MSUmpire.Utility.ConsoleLogger;
+import MSUmpire.Utility.SharedExecutor;
 import java.io.*;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -60,6 +60,8 @@ public class MS1Quant {
             Logger logger = Logger.getRootLogger();
             logger.debug("Command: " + Arrays.toString(args));
             logger.info("MS1Quant version: " + UmpireInfo.GetInstance().Version);
+            //Identification keys of a previous job run in the same JVM are not needed any more
+            IDKeyPool.NewSession();
 
             String parameterfile = args[0];
             logger.info("Parameter file: " + parameterfile);
@@ -352,7 +354,7 @@ public class MS1Quant {
                 time = System.currentTimeMillis() - time;
                 logger.info(LCMS1.ParentmzXMLName + " processed time:" + String.format("%d hour, %d min, %d sec", TimeUnit.MILLISECONDS.toHours(time), TimeUnit.MILLISECONDS.toMinutes(time) - TimeUnit.HOURS.toMinutes(TimeUnit.MILLISECONDS.toHours(time)), TimeUnit.MILLISECONDS.toSeconds(time) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(time))));
                 LCMS1.BaseClearAllPeaks();
-                LCMS1.SetSpectrumParser(null);
+                LCMS1.CloseSpectrumParser();
                 LCMS1.IDsummary = null;
                 LCMS1 = null;
                 System.gc();
@@ -367,8 +369,7 @@ public class MS1Quant {
                 }
                 HashMap<String, LCMSID> LCMSIDMap = IDsummary.GetLCMSIDFileMap();
 
-                ExecutorService executorPool = null;
-                executorPool = Executors.newFixedThreadPool(NoFile);
+                SharedExecutor.TaskGroup taskGroup = SharedExecutor.NewBestEffortTaskGroup(NoFile);
 
                 logger.info("Processing all mzXML files in " + mzXMLPath + "....");
                 for (File file : mzXMLfolder.listFiles()) {
@@ -380,19 +381,14 @@ public class MS1Quant {
                         }
                         if (!id.PSMList.isEmpty()) {
                             MS1TargetQuantThread thread = new MS1TargetQuantThread(file, id, NoCPUs, outputfolder, param);
-                            executorPool.execute(thread);
+                            taskGroup.Execute(thread);
                         }
                     }
                 }
                 LCMSIDMap.clear();
                 LCMSIDMap = null;
                 IDsummary = null;
-                executorPool.shutdown();
-                try {
-                    executorPool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-                } catch (InterruptedException e) {
-                    logger.info("interrupted..");
-                }
+                taskGroup.Await();
 
                 if (outputfolder == null | outputfolder.equals("")) {
                     outputfolder = mzXMLPath;